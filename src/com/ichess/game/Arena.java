@@ -0,0 +1,402 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A self play arena - plays a match of games between two computer players (see {@link Player}), and
+ * reports the match result (see {@link ArenaResult}). <br>
+ * The games cycle over the given game kinds and time controls, and the players switch colors every
+ * game. Games are timed by the game clocks. With a time scale above 1 the clocks are simulated - the
+ * players search for their clock time divided by the time scale, and are charged with their search time
+ * multiplied by the time scale, so a match runs faster than real time. <br>
+ * Several games are played concurrently, each thread with its own pair of players. The match stops
+ * early when the SPRT (if set) accepts one of its hypotheses. Finished games are written as PGN.
+ * Example :
+ * <pre>
+ * Arena arena = new Arena();
+ * arena.addGameKind(Common.GAME_KIND_CRAZY_HOUSE);
+ * arena.addTimeControl(1, 0);
+ * arena.setTimeScale(10);
+ * arena.setThreads(4);
+ * ArenaResult result = arena.play("engine", engineFactory, "mcts", mctsFactory, 100);
+ * </pre>
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class Arena {
+
+    private final static Logger LOGGER = Logger.getLogger(Arena.class.getName());
+
+    public static final int MAX_THREADS = 256;
+    public static final int DEFAULT_MAX_PLIES = 400;
+
+    private static final String EVENT_NAME = "jchess arena";
+
+    /**
+     * Creates the players of the arena threads
+     */
+    public interface PlayerFactory {
+        Player createPlayer();
+    }
+
+    private final List<Integer> _gameKinds = new ArrayList<Integer>();
+    // time controls - game minutes and increment seconds
+    private final List<int[]> _timeControls = new ArrayList<int[]>();
+    private int _threads = 1;
+    private double _timeScale = 1;
+    private int _maxPlies = DEFAULT_MAX_PLIES;
+    private Writer _pgnWriter = null;
+    private double[] _sprt = null;
+
+    /**
+     * Add a game kind to the match. With no game kinds, regular games are played
+     *
+     * @param gkind - a game kind
+     */
+    public void addGameKind(int gkind) {
+        _gameKinds.add(gkind);
+    }
+
+    /**
+     * Add a time control to the match. With no time controls, the games are not timed, and the players
+     * search with their own limits.
+     *
+     * @param timeInMinutes      - time limit for the entire game, in minutes
+     * @param incrementInSeconds - time increment per move, in seconds
+     * @return true on success
+     */
+    public boolean addTimeControl(int timeInMinutes, int incrementInSeconds) {
+        if ((timeInMinutes < 0) || (incrementInSeconds < 0) || (timeInMinutes + incrementInSeconds == 0)) {
+            LOGGER.warning("illegal time control " + timeInMinutes + "+" + incrementInSeconds);
+            return false;
+        }
+        _timeControls.add(new int[]{timeInMinutes, incrementInSeconds});
+        return true;
+    }
+
+    /**
+     * Set the number of concurrent games
+     *
+     * @param threads - number of threads, 1..MAX_THREADS
+     * @return true on success
+     */
+    public boolean setThreads(int threads) {
+        if ((threads < 1) || (threads > MAX_THREADS)) {
+            LOGGER.warning("illegal number of threads " + threads);
+            return false;
+        }
+        _threads = threads;
+        return true;
+    }
+
+    public int getThreads() {
+        return _threads;
+    }
+
+    /**
+     * Set how much faster than real time the game clocks run.
+     *
+     * @param timeScale - 1 for real time clocks. above 1 for simulated clocks
+     * @return true on success
+     */
+    public boolean setTimeScale(double timeScale) {
+        if (!(timeScale >= 1)) {
+            LOGGER.warning("illegal time scale " + timeScale);
+            return false;
+        }
+        _timeScale = timeScale;
+        return true;
+    }
+
+    public double getTimeScale() {
+        return _timeScale;
+    }
+
+    /**
+     * Set the max number of plies of a game. Longer games are adjudicated as draws
+     */
+    public void setMaxPlies(int maxPlies) {
+        _maxPlies = Math.max(1, maxPlies);
+    }
+
+    public int getMaxPlies() {
+        return _maxPlies;
+    }
+
+    /**
+     * Write the finished games as PGN to the given writer
+     *
+     * @param pgnWriter - a writer, or null to not write the games
+     */
+    public void setPgnWriter(Writer pgnWriter) {
+        _pgnWriter = pgnWriter;
+    }
+
+    /**
+     * Stop the match early by a sequential probability ratio test, of the Elo difference of the first
+     * player being elo0 (H0) or elo1 (H1).
+     *
+     * @param elo0  - Elo difference of H0
+     * @param elo1  - Elo difference of H1, greater than elo0
+     * @param alpha - false positive rate (accepting H1 when H0 is true)
+     * @param beta  - false negative rate (accepting H0 when H1 is true)
+     * @return true on success
+     */
+    public boolean setSprt(double elo0, double elo1, double alpha, double beta) {
+        if (!(elo1 > elo0) || !(alpha > 0) || !(alpha < 1) || !(beta > 0) || !(beta < 1)) {
+            LOGGER.warning("illegal sprt parameters " + elo0 + " " + elo1 + " " + alpha + " " + beta);
+            return false;
+        }
+        _sprt = new double[]{elo0, elo1, alpha, beta};
+        return true;
+    }
+
+    /**
+     * Play a match between two players.
+     *
+     * @param firstName     - name of the first player
+     * @param firstFactory  - creates the first player (once per thread)
+     * @param secondName    - name of the second player
+     * @param secondFactory - creates the second player (once per thread)
+     * @param games         - max number of games
+     * @return The match result, from the first player point of view
+     */
+    public ArenaResult play(String firstName, final PlayerFactory firstFactory, String secondName,
+                            final PlayerFactory secondFactory, final int games) {
+        Utils.AssertNotNull(firstFactory);
+        Utils.AssertNotNull(secondFactory);
+        final ArenaResult result = new ArenaResult(firstName, secondName);
+        if (_sprt != null) {
+            result.setSprt(_sprt[0], _sprt[1], _sprt[2], _sprt[3]);
+        }
+        final String[] names = {firstName, secondName};
+        final AtomicInteger next = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        Thread[] workers = new Thread[Math.min(_threads, Math.max(1, games))];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Player[] players = {firstFactory.createPlayer(), secondFactory.createPlayer()};
+                    int index;
+                    while ((index = next.getAndIncrement()) < games) {
+                        synchronized (result) {
+                            if ((result.getSprtResult() == ArenaResult.SPRT_H0) ||
+                                    (result.getSprtResult() == ArenaResult.SPRT_H1)) {
+                                return;
+                            }
+                        }
+                        // the first player is white in even games
+                        int first = index % 2;
+                        Game game = playGame(index, players[first], names[first], players[1 - first], names[1 - first]);
+                        double score = (game.getWinner() == Common.COLOR_ILLEGAL) ? 0.5 :
+                                ((game.getWinner() == Common.COLOR_WHITE) == (first == 0) ? 1 : 0);
+                        synchronized (result) {
+                            result.addResult(score);
+                            writePGN(game);
+                        }
+                    }
+                }
+            }, "jchess-arena-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                LOGGER.warning("interrupted while waiting for arena thread " + worker.getName());
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        synchronized (result) {
+            result.setTimeMs(System.currentTimeMillis() - start);
+            LOGGER.info(result.toString());
+        }
+        return result;
+    }
+
+    /*
+     * play the given game of the match to its end
+     */
+    private Game playGame(int index, Player white, String whiteName, Player black, String blackName) {
+        int gkind = _gameKinds.isEmpty() ? Common.GAME_KIND_REGULAR : _gameKinds.get((index / 2) % _gameKinds.size());
+        Game game = new Game(whiteName, blackName, gkind);
+        game.setWhiteName(whiteName);
+        game.setBlackName(blackName);
+        game.setAttribute(PGN.STR_EVENT, EVENT_NAME);
+        game.setAttribute(PGN.STR_ROUND, String.valueOf(index + 1));
+        String variant = getVariant(gkind);
+        if (variant != null) {
+            game.setAttribute(PGN.STR_VARIANT, variant);
+        }
+        game.setAutoDrawOn50MovesRule(true);
+        game.setAutoDrawOn3rdRepetition(true);
+        game.setAutoDrawOnNoMaterial(true);
+        boolean timed = !_timeControls.isEmpty();
+        if (timed) {
+            int kinds = Math.max(1, _gameKinds.size());
+            int[] timeControl = _timeControls.get((index / 2 / kinds) % _timeControls.size());
+            game.setTimeLimitForGame(timeControl[0]);
+            game.setTimeIncrementPerMove(timeControl[1]);
+            if (timeControl[0] == 0) {
+                // increment only games start with a single increment
+                game.setTimeLeftMilliseconds(Common.COLOR_WHITE, timeControl[1] * TimeUtils.MS_IN_SECOND);
+                game.setTimeLeftMilliseconds(Common.COLOR_BLACK, timeControl[1] * TimeUtils.MS_IN_SECOND);
+            }
+        }
+        boolean simulated = timed && (_timeScale > 1);
+        if (timed && !simulated) {
+            game.resumeClock();
+        }
+        while (!game.isEnded()) {
+            if (game.getCurrentMove() >= _maxPlies) {
+                game.drawMutual();
+                break;
+            }
+            int color = game.getCurrentColor();
+            Player player = (color == Common.COLOR_WHITE) ? white : black;
+            if (simulated) {
+                // the simulated clock runs only by the charged search time
+                game.resetClock(color);
+            }
+            if (timed) {
+                player.setTimeLimitMs(Math.max(1, (long) (Engine.getClockTimeLimitMs(game) / _timeScale)));
+            }
+            long searchStart = System.nanoTime();
+            Move move = player.findBestMove(game);
+            if (move == null) {
+                LOGGER.warning("game " + index + " : no move found. adjudicated as a draw");
+                game.drawMutual();
+                break;
+            }
+            if (simulated) {
+                long charged = (long) ((System.nanoTime() - searchStart) / 1000000.0 * _timeScale);
+                long timeLeft = game.getTimeLeftMs(color) - charged;
+                if (timeLeft <= 0) {
+                    game.timeOut(color);
+                    break;
+                }
+                game.setTimeLeftMilliseconds(color, timeLeft);
+            } else if (timed && game.isOutOfTime(color)) {
+                game.timeOut(color);
+                break;
+            }
+            if (!game.playMove(move)) {
+                LOGGER.warning("game " + index + " : failed to play " + move + ". adjudicated as a draw");
+                game.drawMutual();
+                break;
+            }
+        }
+        LOGGER.fine("game " + index + " ended " + game.getAttribute(PGN.STR_RESULT) + " after " + game.getCurrentMove() + " plies");
+        return game;
+    }
+
+    private static String getVariant(int gkind) {
+        switch (gkind) {
+            case Common.GAME_KIND_FISCHER:
+                return PGN.PGN_VARIANT_FISCHER;
+            case Common.GAME_KIND_SUICIDE:
+                return PGN.PGN_VARIANT_SUICIDE;
+            case Common.GAME_KIND_GRASSHOPER:
+                return PGN.PGN_VARIANT_GRASSHOPER;
+            case Common.GAME_KIND_MINICAPA:
+                return PGN.PGN_VARIANT_MINICAPA;
+            case Common.GAME_KIND_FREEPLAY:
+                return PGN.PGN_VARIANT_FREEPLAY;
+            case Common.GAME_KIND_CRAZY_HOUSE:
+                return PGN.PGN_VARIANT_CRAZY_HOUSE;
+            case Common.GAME_KIND_BUG_HOUSE:
+                return PGN.PGN_VARIANT_BUG_HOUSE;
+            default:
+                return null;
+        }
+    }
+
+    private void writePGN(Game game) {
+        if (_pgnWriter == null) {
+            return;
+        }
+        try {
+            _pgnWriter.write(PGN.getPGNString(game));
+            _pgnWriter.write("\n");
+            _pgnWriter.flush();
+        } catch (IOException e) {
+            LOGGER.warning("can't write game PGN : " + e.getMessage());
+        }
+    }
+
+    private static PlayerFactory createFactory(final String name) {
+        if ("mcts".equals(name)) {
+            return new PlayerFactory() {
+                @Override
+                public Player createPlayer() {
+                    return new MonteCarloEngine();
+                }
+            };
+        }
+        if (!"engine".equals(name)) {
+            return null;
+        }
+        return new PlayerFactory() {
+            @Override
+            public Player createPlayer() {
+                return new Engine();
+            }
+        };
+    }
+
+    /**
+     * Play a match between the engines (engine or mcts). <br>
+     * usage : Arena first second games threads gkind minutes increment timeScale [pgnFile]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 8) {
+            System.out.println("usage : Arena first second games threads gkind minutes increment timeScale [pgnFile]");
+            System.out.println("        first, second - engine or mcts");
+            return;
+        }
+        PlayerFactory first = createFactory(args[0]);
+        PlayerFactory second = createFactory(args[1]);
+        if ((first == null) || (second == null)) {
+            System.out.println("unknown player. use engine or mcts");
+            return;
+        }
+        Arena arena = new Arena();
+        arena.setThreads(Integer.parseInt(args[3]));
+        arena.addGameKind(Integer.parseInt(args[4]));
+        arena.addTimeControl(Integer.parseInt(args[5]), Integer.parseInt(args[6]));
+        arena.setTimeScale(Double.parseDouble(args[7]));
+        Writer writer = null;
+        if (args.length > 8) {
+            writer = new OutputStreamWriter(new FileOutputStream(args[8]), "UTF-8");
+            arena.setPgnWriter(writer);
+        }
+        try {
+            ArenaResult result = arena.play(args[0] + "-1", first, args[1] + "-2", second, Integer.parseInt(args[2]));
+            System.out.println(result);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.Locale;
+
+/**
+ * The result of an {@link Arena} match between two players - the score of the first player, its Elo
+ * difference with a 95% confidence interval, and the SPRT state of the match.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class ArenaResult {
+
+    // sequential probability ratio test state
+    public static final int SPRT_NONE = 0;
+    public static final int SPRT_CONTINUE = 1;
+    // the elo difference of the first player is elo0 (H0 accepted)
+    public static final int SPRT_H0 = 2;
+    // the elo difference of the first player is elo1 (H1 accepted)
+    public static final int SPRT_H1 = 3;
+
+    // normal distribution quantile of a 95% confidence interval
+    private static final double CONFIDENCE_95 = 1.959964;
+    // max elo difference reported for a perfect or zero score
+    private static final double MAX_ELO = 1200;
+    // prior number of wins and losses of the score variance, so a match with no variance (i.e. all the
+    // games won) is not taken as certain
+    private static final double VARIANCE_PRIOR_GAMES = 0.5;
+
+    private final String _firstName;
+    private final String _secondName;
+    private int _wins = 0;
+    private int _draws = 0;
+    private int _losses = 0;
+    private long _timeMs = 0;
+
+    private boolean _sprt = false;
+    private double _elo0 = 0;
+    private double _elo1 = 0;
+    private double _lowerBound = 0;
+    private double _upperBound = 0;
+
+    ArenaResult(String firstName, String secondName) {
+        _firstName = firstName;
+        _secondName = secondName;
+    }
+
+    void setSprt(double elo0, double elo1, double alpha, double beta) {
+        _sprt = true;
+        _elo0 = elo0;
+        _elo1 = elo1;
+        _lowerBound = Math.log(beta / (1 - alpha));
+        _upperBound = Math.log((1 - beta) / alpha);
+    }
+
+    /*
+     * add a game result - 1 (first player won), 0.5 or 0
+     */
+    void addResult(double score) {
+        if (score > 0.75) {
+            _wins++;
+        } else if (score > 0.25) {
+            _draws++;
+        } else {
+            _losses++;
+        }
+    }
+
+    void setTimeMs(long timeMs) {
+        _timeMs = timeMs;
+    }
+
+    public String getFirstName() {
+        return _firstName;
+    }
+
+    public String getSecondName() {
+        return _secondName;
+    }
+
+    public int getGames() {
+        return _wins + _draws + _losses;
+    }
+
+    /**
+     * Returns the number of games won by the first player
+     */
+    public int getWins() {
+        return _wins;
+    }
+
+    public int getDraws() {
+        return _draws;
+    }
+
+    /**
+     * Returns the number of games lost by the first player
+     */
+    public int getLosses() {
+        return _losses;
+    }
+
+    /**
+     * Returns the score (0..1) of the first player
+     */
+    public double getScore() {
+        int games = getGames();
+        return (games == 0) ? 0.5 : (_wins + _draws / 2.0) / games;
+    }
+
+    /**
+     * Returns the Elo difference of the first player over the second player
+     */
+    public double getElo() {
+        return toElo(getScore());
+    }
+
+    /**
+     * Returns the 95% confidence interval of the Elo difference (+/- this value)
+     */
+    public double getEloError() {
+        int games = getGames();
+        if (games == 0) {
+            return MAX_ELO;
+        }
+        double score = getScore();
+        double deviation = Math.sqrt(getVariance() / games);
+        double high = toElo(Math.min(1, score + CONFIDENCE_95 * deviation));
+        double low = toElo(Math.max(0, score - CONFIDENCE_95 * deviation));
+        return (high - low) / 2;
+    }
+
+    /**
+     * Returns the log likelihood ratio of the SPRT hypotheses (elo1 vs elo0), by the normal approximation of the game results
+     */
+    public double getLLR() {
+        int games = getGames();
+        if (!_sprt || (games == 0)) {
+            return 0;
+        }
+        double variance = getVariance();
+        double score0 = toScore(_elo0);
+        double score1 = toScore(_elo1);
+        return (score1 - score0) * (2 * getScore() - score0 - score1) * games / (2 * variance);
+    }
+
+    /**
+     * Returns {@link #SPRT_NONE} if the match has no SPRT, or the SPRT state - {@link #SPRT_CONTINUE}, {@link #SPRT_H0}
+     * or {@link #SPRT_H1}
+     */
+    public int getSprtResult() {
+        if (!_sprt) {
+            return SPRT_NONE;
+        }
+        double llr = getLLR();
+        if (llr <= _lowerBound) {
+            return SPRT_H0;
+        }
+        if (llr >= _upperBound) {
+            return SPRT_H1;
+        }
+        return SPRT_CONTINUE;
+    }
+
+    public long getTimeMs() {
+        return _timeMs;
+    }
+
+    public double getGamesPerSecond() {
+        return (_timeMs == 0) ? 0 : getGames() * 1000.0 / _timeMs;
+    }
+
+    /*
+     * variance of a single game score
+     */
+    private double getVariance() {
+        double wins = _wins + VARIANCE_PRIOR_GAMES;
+        double losses = _losses + VARIANCE_PRIOR_GAMES;
+        double games = wins + _draws + losses;
+        double score = (wins + _draws / 2.0) / games;
+        return (wins * (1 - score) * (1 - score) + _draws * (0.5 - score) * (0.5 - score) +
+                losses * score * score) / games;
+    }
+
+    private static double toElo(double score) {
+        if (score <= 0) {
+            return -MAX_ELO;
+        }
+        if (score >= 1) {
+            return MAX_ELO;
+        }
+        return Math.max(-MAX_ELO, Math.min(MAX_ELO, -400 * Math.log10(1 / score - 1)));
+    }
+
+    private static double toScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(_firstName).append(" vs ").append(_secondName).append(" : +").append(_wins).append(" =")
+                .append(_draws).append(" -").append(_losses);
+        builder.append(String.format(Locale.US, " score %.3f elo %.1f +/- %.1f", getScore(), getElo(), getEloError()));
+        if (_sprt) {
+            builder.append(String.format(Locale.US, " llr %.2f (%.2f, %.2f)", getLLR(), _lowerBound, _upperBound));
+            switch (getSprtResult()) {
+                case SPRT_H0:
+                    builder.append(" H0 accepted");
+                    break;
+                case SPRT_H1:
+                    builder.append(" H1 accepted");
+                    break;
+                default:
+                    break;
+            }
+        }
+        builder.append(String.format(Locale.US, " %.2f games/sec", getGamesPerSecond()));
+        return builder.toString();
+    }
+}
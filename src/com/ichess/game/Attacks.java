@@ -0,0 +1,352 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Attack queries and static exchange evaluation of a game position (see {@link Game#getAttackers(int, int, int)}
+ * and {@link Game#getStaticExchangeValue(Move)}). <br>
+ * A piece attacks a square if it could capture an enemy piece on it, ignoring pins and checks (pawns attack
+ * diagonally only, en passant is not considered). The queries scan outwards from the attacked square - the lines,
+ * the knight jumps and the grasshopper hurdles - so they don't depend on the reachability of the pieces. <br>
+ * The same scans find the pieces whose reachability is affected by the squares changed by a move, for the
+ * incremental reachability of the game analysis.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+final class Attacks {
+
+    private final static Logger LOGGER = Logger.getLogger(Attacks.class.getName());
+
+    // the 8 line directions. the first 4 are rook directions, the last 4 are bishop directions
+    private static final int[] LINE_DX = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] LINE_DY = {0, 0, 1, -1, 1, -1, 1, -1};
+    private static final int[] KNIGHT_DX = {1, 2, 2, 1, -1, -2, -2, -1};
+    private static final int[] KNIGHT_DY = {2, 1, -1, -2, -2, -1, 1, 2};
+
+    // the longest possible exchange on a square
+    private static final int MAX_EXCHANGE = 40;
+    // a king is never captured by an exchange. it is just the last attacker to be used
+    private static final int KING_VALUE = 10000;
+
+    private Attacks() {
+    }
+
+    /*
+     * collect the pieces of the given color that attack the given square. pieces on removed squares are
+     * ignored (and don't block lines). returns the least valuable attacker found
+     */
+    static Piece collectAttackers(Game game, int x, int y, int color, boolean[] removed, List<Piece> attackers) {
+        Piece least = null;
+        for (int dir = 0; dir < 8; dir++) {
+            boolean rookLine = dir < 4;
+            int dx = LINE_DX[dir];
+            int dy = LINE_DY[dir];
+            int posX = x + dx;
+            int posY = y + dy;
+            int distance = 1;
+            Piece hurdle = null;
+            while (onBoard(posX, posY)) {
+                Piece piece = pieceAt(game, posX, posY, removed);
+                if (piece != null) {
+                    if (hurdle != null) {
+                        // a grasshopper lands right after its hurdle
+                        if (piece.isGrasshoper() && (piece.getColor() == color)) {
+                            least = add(attackers, least, piece);
+                        }
+                        break;
+                    }
+                    if ((piece.getColor() == color) && attacksAlongLine(piece, rookLine, distance, dx)) {
+                        least = add(attackers, least, piece);
+                    }
+                    if (distance != 1) {
+                        break;
+                    }
+                    hurdle = piece;
+                }
+                posX += dx;
+                posY += dy;
+                distance++;
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            int posX = x + KNIGHT_DX[i];
+            int posY = y + KNIGHT_DY[i];
+            if (!onBoard(posX, posY)) {
+                continue;
+            }
+            Piece piece = pieceAt(game, posX, posY, removed);
+            if ((piece != null) && (piece.getColor() == color) &&
+                    (piece.isKnight() || piece.isArchbisop() || piece.isChancellor())) {
+                least = add(attackers, least, piece);
+            }
+        }
+        return least;
+    }
+
+    /*
+     * true if the given piece attacks a square at the given distance along a rook or bishop line. dx is the row
+     * direction from the attacked square to the piece
+     */
+    private static boolean attacksAlongLine(Piece piece, boolean rookLine, int distance, int dx) {
+        switch (piece.getType()) {
+            case Common.PIECE_TYPE_QUEEN:
+                return true;
+            case Common.PIECE_TYPE_ROOK:
+            case Common.PIECE_TYPE_CHANCELLOR:
+                return rookLine;
+            case Common.PIECE_TYPE_BISHOP:
+            case Common.PIECE_TYPE_ARCHBISHOP:
+                return !rookLine;
+            case Common.PIECE_TYPE_KING:
+                return distance == 1;
+            case Common.PIECE_TYPE_PAWN:
+                // a white pawn attacks upwards, so it stands one row below the attacked square
+                return (distance == 1) && !rookLine && (dx == (piece.isWhite() ? -1 : 1));
+            default:
+                return false;
+        }
+    }
+
+    /*
+     * collect the pieces of the given color that attack the given square through exactly one other piece
+     */
+    static List<Piece> getXRayAttackers(Game game, int x, int y, int color) {
+        List<Piece> attackers = new ArrayList<Piece>();
+        for (int dir = 0; dir < 8; dir++) {
+            boolean rookLine = dir < 4;
+            int posX = x + LINE_DX[dir];
+            int posY = y + LINE_DY[dir];
+            int blockers = 0;
+            while (onBoard(posX, posY)) {
+                Piece piece = game.getPieceAt(posX, posY);
+                if (piece != null) {
+                    if (blockers == 1) {
+                        if ((piece.getColor() == color) && isSlider(piece, rookLine)) {
+                            attackers.add(piece);
+                        }
+                        break;
+                    }
+                    blockers++;
+                }
+                posX += LINE_DX[dir];
+                posY += LINE_DY[dir];
+            }
+        }
+        return attackers;
+    }
+
+    private static boolean isSlider(Piece piece, boolean rookLine) {
+        return piece.isQueen() || (rookLine ? (piece.isRook() || piece.isChancellor()) :
+                (piece.isBishop() || piece.isArchbisop()));
+    }
+
+    /*
+     * static exchange evaluation of the given move : the material won by the moving side when both sides keep
+     * capturing on the target square with their least valuable attacker, and each side may stop when the
+     * exchange no longer pays
+     */
+    static int staticExchange(Game game, Move move) {
+        int toX = move.getToX();
+        int toY = move.getToY();
+        Piece moving = move.isDropMove() ? null : game.getPieceAt(move.getFromX(), move.getFromY());
+        int movingType = move.isDropMove() ? move.getAdditionalPieceTypeInfo() :
+                (moving != null) ? moving.getType() : Common.PIECE_TYPE_ILLEGAL;
+        if (movingType == Common.PIECE_TYPE_ILLEGAL) {
+            LOGGER.warning("no piece to move at " + move.getFromX() + "," + move.getFromY());
+            return 0;
+        }
+        int color = move.isDropMove() ? game.getCurrentColor() : moving.getColor();
+        boolean[] removed = new boolean[64];
+
+        int captured = 0;
+        Piece target = game.getPieceAt(toX, toY);
+        if (target != null) {
+            if (target.getColor() == color) {
+                // castling
+                return 0;
+            }
+            captured = value(target.getType());
+        } else if ((moving != null) && moving.isPawn() && (move.getFromY() != toY)) {
+            // en passant. the captured pawn is next to the moving pawn
+            captured = value(Common.PIECE_TYPE_PAWN);
+            removed[Zobrist.square(move.getFromX(), toY)] = true;
+        }
+        int onSquare = value(movingType);
+        if ((moving != null) && moving.isPawn() && (move.getAdditionalPieceTypeInfo() != Common.PIECE_TYPE_ILLEGAL)) {
+            captured += value(move.getAdditionalPieceTypeInfo()) - value(Common.PIECE_TYPE_PAWN);
+            onSquare = value(move.getAdditionalPieceTypeInfo());
+        }
+        if (moving != null) {
+            removed[Zobrist.square(move.getFromX(), move.getFromY())] = true;
+        }
+
+        int[] gain = new int[MAX_EXCHANGE];
+        gain[0] = captured;
+        int depth = 0;
+        int side = Common.OtherColor(color);
+        while (depth < MAX_EXCHANGE - 1) {
+            Piece attacker = collectAttackers(game, toX, toY, side, removed, null);
+            if (attacker == null) {
+                break;
+            }
+            int attackerSquare = Zobrist.square(attacker.getX(), attacker.getY());
+            if (attacker.isKing()) {
+                // the king captures only if the square is not defended
+                removed[attackerSquare] = true;
+                boolean defended = collectAttackers(game, toX, toY, Common.OtherColor(side), removed, null) != null;
+                removed[attackerSquare] = false;
+                if (defended) {
+                    break;
+                }
+            }
+            depth++;
+            gain[depth] = onSquare - gain[depth - 1];
+            onSquare = attacker.isKing() ? KING_VALUE : value(attacker.getType());
+            removed[attackerSquare] = true;
+            side = Common.OtherColor(side);
+        }
+        while (depth > 0) {
+            depth--;
+            gain[depth] = -Math.max(-gain[depth], gain[depth + 1]);
+        }
+        return gain[0];
+    }
+
+    /*
+     * the pieces of the given color that the other color can win material by capturing
+     */
+    static List<Piece> getHangingPieces(Game game, int color) {
+        List<Piece> hanging = new ArrayList<Piece>();
+        int otherColor = Common.OtherColor(color);
+        List<Piece> attackers = new ArrayList<Piece>();
+        for (int x = 1; x <= 8; x++) {
+            for (int y = 1; y <= 8; y++) {
+                Piece piece = game.getPieceAt(x, y);
+                if ((piece == null) || (piece.getColor() != color) || piece.isKing()) {
+                    continue;
+                }
+                attackers.clear();
+                if (collectAttackers(game, x, y, otherColor, null, attackers) == null) {
+                    continue;
+                }
+                for (Piece attacker : attackers) {
+                    Move capture = new Move(game, attacker.getX(), attacker.getY(), x, y,
+                            Common.PIECE_TYPE_ILLEGAL);
+                    if (staticExchange(game, capture) > 0) {
+                        hanging.add(piece);
+                        break;
+                    }
+                }
+            }
+        }
+        return hanging;
+    }
+
+    /*
+     * the squares of the pieces whose reachability may be changed by the given changed squares (a bit per
+     * square) - the pieces on the changed squares, and the pieces that see a changed square along a line, a
+     * knight jump or a pawn step. grasshoppers and en passant are not included
+     */
+    static long getReachabilityChanges(Game game, long changedSquares) {
+        long affected = changedSquares;
+        long changed = changedSquares;
+        while (changed != 0) {
+            int square = Long.numberOfTrailingZeros(changed);
+            changed &= changed - 1;
+            int x = (square >> 3) + 1;
+            int y = (square & 7) + 1;
+            for (int dir = 0; dir < 8; dir++) {
+                boolean rookLine = dir < 4;
+                int dx = LINE_DX[dir];
+                int dy = LINE_DY[dir];
+                int posX = x + dx;
+                int posY = y + dy;
+                int distance = 1;
+                while (onBoard(posX, posY)) {
+                    Piece piece = game.getPieceAt(posX, posY);
+                    if (piece != null) {
+                        if (reachesAlongLine(piece, rookLine, distance, dx)) {
+                            affected |= 1L << Zobrist.square(posX, posY);
+                        }
+                        break;
+                    }
+                    posX += dx;
+                    posY += dy;
+                    distance++;
+                }
+            }
+            for (int i = 0; i < 8; i++) {
+                int posX = x + KNIGHT_DX[i];
+                int posY = y + KNIGHT_DY[i];
+                if (!onBoard(posX, posY)) {
+                    continue;
+                }
+                Piece piece = game.getPieceAt(posX, posY);
+                if ((piece != null) && (piece.isKnight() || piece.isArchbisop() || piece.isChancellor())) {
+                    affected |= 1L << Zobrist.square(posX, posY);
+                }
+            }
+        }
+        return affected;
+    }
+
+    /*
+     * true if the given piece may reach (move to or capture on) a square at the given distance along a rook or
+     * bishop line. dx is the row direction from the square to the piece
+     */
+    private static boolean reachesAlongLine(Piece piece, boolean rookLine, int distance, int dx) {
+        if (piece.isPawn()) {
+            // a pawn steps forward (one or two squares), and captures one square diagonally forward
+            int forward = piece.isWhite() ? 1 : -1;
+            if (dx != -forward) {
+                return false;
+            }
+            return rookLine ? (distance <= 2) : (distance == 1);
+        }
+        return attacksAlongLine(piece, rookLine, distance, dx);
+    }
+
+    private static Piece add(List<Piece> attackers, Piece least, Piece piece) {
+        if (attackers != null) {
+            attackers.add(piece);
+        }
+        if ((least == null) || (order(piece) < order(least))) {
+            return piece;
+        }
+        return least;
+    }
+
+    /*
+     * the order in which attackers join an exchange. the king is last
+     */
+    private static int order(Piece piece) {
+        return piece.isKing() ? KING_VALUE : value(piece.getType());
+    }
+
+    private static int value(int pieceType) {
+        return Evaluation.PIECE_VALUES[pieceType];
+    }
+
+    private static Piece pieceAt(Game game, int x, int y, boolean[] removed) {
+        if ((removed != null) && removed[Zobrist.square(x, y)]) {
+            return null;
+        }
+        return game.getPieceAt(x, y);
+    }
+
+    private static boolean onBoard(int x, int y) {
+        return (x >= 1) && (x <= 8) && (y >= 1) && (y <= 8);
+    }
+}
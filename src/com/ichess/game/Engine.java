@@ -0,0 +1,384 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A chess engine for all the supported game kinds. <br>
+ * The engine runs an iterative deepening alpha-beta search with a transposition table on a private
+ * copy of the given game, and returns the best move found as a valid next move of the given game,
+ * which can be played using {@link Game#playMove(Move)}. <br>
+ * The search is limited by depth, time and number of nodes - whichever comes first. The time limit
+ * can also be taken from the game clock (see {@link #setUseGameClock setUseGameClock}). <br>
+ * With more than one thread, all the threads search the same position over a shared transposition
+ * table (lazy SMP), and the main thread's move is returned. <br>
+ * Example :
+ * <pre>
+ * Engine engine = new Engine();
+ * engine.setTimeLimitMs(500);
+ * Move move = engine.findBestMove(game);
+ * game.playMove(move);
+ * </pre>
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class Engine implements Player {
+
+    private final static Logger LOGGER = Logger.getLogger(Engine.class.getName());
+
+    public static final int DEFAULT_HASH_SIZE_MB = 16;
+    public static final int DEFAULT_TIME_LIMIT_MS = 1000;
+    public static final int MAX_DEPTH = Searcher.MAX_PLY / 2;
+    public static final int MAX_THREADS = 256;
+
+    // when playing by the game clock, assume that many moves are left to play
+    private static final int CLOCK_MOVES_TO_GO = 30;
+    // when playing by the game clock, never search less than this
+    private static final long CLOCK_MIN_TIME_LIMIT_MS = 10;
+
+    private final TranspositionTable _transpositionTable;
+
+    private int _maxDepth = MAX_DEPTH;
+    private long _timeLimitMs = DEFAULT_TIME_LIMIT_MS;
+    private long _nodeLimit = 0;
+    private int _threads = 1;
+    private boolean _useGameClock = false;
+    private NeuralNetwork _neuralNetwork = null;
+    private Tablebases _tablebases = null;
+
+    private volatile Searcher[] _searchers = null;
+
+    private int _score = 0;
+    private int _depth = 0;
+    private long _nodes = 0;
+    private String _principalVariation = "";
+
+    /**
+     * Create an engine with the default transposition table size
+     */
+    public Engine() {
+        this(DEFAULT_HASH_SIZE_MB);
+    }
+
+    /**
+     * Create an engine with the given transposition table size
+     *
+     * @param hashSizeMB - transposition table size in megabytes
+     */
+    public Engine(int hashSizeMB) {
+        _transpositionTable = new TranspositionTable(hashSizeMB);
+    }
+
+    /**
+     * Set the max search depth, in half moves
+     *
+     * @param maxDepth - max search depth, 1..MAX_DEPTH
+     * @return true on success
+     */
+    public boolean setMaxDepth(int maxDepth) {
+        if ((maxDepth < 1) || (maxDepth > MAX_DEPTH)) {
+            LOGGER.warning("illegal max depth " + maxDepth);
+            return false;
+        }
+        _maxDepth = maxDepth;
+        return true;
+    }
+
+    public int getMaxDepth() {
+        return _maxDepth;
+    }
+
+    /**
+     * Set the search time limit. The search always completes depth 1, even if the time limit is exceeded.
+     *
+     * @param timeLimitMs - time limit in milliseconds. 0 means no time limit
+     * @return true on success
+     */
+    public boolean setTimeLimitMs(long timeLimitMs) {
+        if (timeLimitMs < 0) {
+            LOGGER.warning("illegal time limit " + timeLimitMs);
+            return false;
+        }
+        _timeLimitMs = timeLimitMs;
+        return true;
+    }
+
+    public long getTimeLimitMs() {
+        return _timeLimitMs;
+    }
+
+    /**
+     * Set the max number of searched positions (nodes).
+     *
+     * @param nodeLimit - max number of nodes. 0 means no limit
+     * @return true on success
+     */
+    public boolean setNodeLimit(long nodeLimit) {
+        if (nodeLimit < 0) {
+            LOGGER.warning("illegal node limit " + nodeLimit);
+            return false;
+        }
+        _nodeLimit = nodeLimit;
+        return true;
+    }
+
+    public long getNodeLimit() {
+        return _nodeLimit;
+    }
+
+    /**
+     * Set the number of search threads
+     *
+     * @param threads - number of search threads, 1..MAX_THREADS
+     * @return true on success
+     */
+    public boolean setThreads(int threads) {
+        if ((threads < 1) || (threads > MAX_THREADS)) {
+            LOGGER.warning("illegal number of threads " + threads);
+            return false;
+        }
+        _threads = threads;
+        return true;
+    }
+
+    public int getThreads() {
+        return _threads;
+    }
+
+    /**
+     * Evaluate positions with the given neural network instead of the handcrafted evaluation
+     *
+     * @param neuralNetwork - a neural network. null to use the handcrafted evaluation
+     */
+    public void setNeuralNetwork(NeuralNetwork neuralNetwork) {
+        _neuralNetwork = neuralNetwork;
+    }
+
+    public NeuralNetwork getNeuralNetwork() {
+        return _neuralNetwork;
+    }
+
+    /**
+     * Score positions covered by the given endgame tablebases by their distance to mate, instead of searching them
+     *
+     * @param tablebases - a set of tablebases. null for no tablebases
+     */
+    public void setTablebases(Tablebases tablebases) {
+        _tablebases = tablebases;
+    }
+
+    public Tablebases getTablebases() {
+        return _tablebases;
+    }
+
+    /**
+     * Take the search time limit from the game clock of the moving side, instead of the fixed time limit.
+     * For a game without time limit, the fixed time limit is used.
+     *
+     * @param useGameClock - true to use the game clock
+     */
+    public void setUseGameClock(boolean useGameClock) {
+        _useGameClock = useGameClock;
+    }
+
+    public boolean isUseGameClock() {
+        return _useGameClock;
+    }
+
+    /**
+     * Returns the time limit for searching the given game current position, in milliseconds. <br>
+     * By the game clock, the moving side spends its time left divided by the expected number of moves
+     * left, plus most of its increment, and never more than half of its time left (or its time limit for
+     * the move, if the game has one).
+     *
+     * @param game - a given game
+     * @return The time limit for searching the given game current position. 0 means no limit.
+     */
+    public long getTimeLimitMs(Game game) {
+        if (!_useGameClock || !game.isTimed()) {
+            return _timeLimitMs;
+        }
+        return getClockTimeLimitMs(game);
+    }
+
+    /*
+     * the time limit of the moving side by the game clock (see getTimeLimitMs)
+     */
+    static long getClockTimeLimitMs(Game game) {
+        int color = game.getCurrentColor();
+        long timeLeft = game.getTimeLeftMs(color);
+        long increment = game.getTimeIncrementForMove(color) * TimeUtils.MS_IN_SECOND;
+        long timeLimit;
+        if (game.getTimeLimitForMove(color) > 0) {
+            long moveTimeLimit = game.getTimeLimitForMove(color) * TimeUtils.MS_IN_SECOND;
+            timeLimit = moveTimeLimit * 3 / 4;
+            if (game.getTimeLimitForGame(color) > 0) {
+                timeLimit = Math.min(timeLimit, timeLeft / 2);
+            }
+        } else {
+            timeLimit = Math.min(timeLeft / CLOCK_MOVES_TO_GO + increment * 3 / 4, timeLeft / 2);
+        }
+        return Math.max(timeLimit, CLOCK_MIN_TIME_LIMIT_MS);
+    }
+
+    /**
+     * Search the given game current position, and return the best move found.
+     * The given game is not modified.
+     *
+     * @param game - a given game
+     * @return The best move found, as a valid next move of the given game. null if the game ended
+     * or has no valid moves.
+     */
+    public synchronized Move findBestMove(Game game) {
+        Utils.AssertNotNull(game);
+        if (game.isEnded()) {
+            LOGGER.warning("can't search. game ended");
+            return null;
+        }
+        if (!game.hasAnyLegalMove()) {
+            LOGGER.warning("can't search. no valid moves");
+            return null;
+        }
+
+        final long timeLimitMs = getTimeLimitMs(game);
+        AtomicLong sharedNodes = new AtomicLong();
+        final Searcher[] searchers = new Searcher[_threads];
+        for (int i = 0; i < _threads; i++) {
+            searchers[i] = new Searcher(_transpositionTable, game, i, sharedNodes, _neuralNetwork, _tablebases);
+        }
+        _transpositionTable.newSearch();
+        _searchers = searchers;
+
+        Thread[] helpers = new Thread[_threads - 1];
+        for (int i = 1; i < _threads; i++) {
+            final Searcher helper = searchers[i];
+            helpers[i - 1] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    helper.iterate(_maxDepth, timeLimitMs, _nodeLimit);
+                }
+            }, "jchess-search-" + i);
+            helpers[i - 1].setDaemon(true);
+            helpers[i - 1].start();
+        }
+
+        Searcher searcher = searchers[0];
+        int code;
+        try {
+            code = searcher.iterate(_maxDepth, timeLimitMs, _nodeLimit);
+        } finally {
+            for (Searcher helper : searchers) {
+                helper.stop();
+            }
+            joinAll(helpers);
+            _searchers = null;
+        }
+        _score = searcher.getScore();
+        _depth = searcher.getCompletedDepth();
+        _nodes = 0;
+        for (Searcher helper : searchers) {
+            _nodes += helper.getNodes();
+        }
+        _principalVariation = searcher.getPrincipalVariation();
+
+        Move move = PackedMove.toMove(game, code);
+        if (move == null) {
+            LOGGER.warning("search found no valid move");
+        }
+        return move;
+    }
+
+    /**
+     * Stop the running search (if any) as soon as possible. The running {@link #findBestMove findBestMove}
+     * returns the best move found so far. May be called from any thread.
+     */
+    public void stop() {
+        Searcher[] searchers = _searchers;
+        if (searchers != null) {
+            for (Searcher searcher : searchers) {
+                searcher.stop();
+            }
+        }
+    }
+
+    private static void joinAll(Thread[] threads) {
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                LOGGER.warning("interrupted while waiting for search thread " + thread.getName());
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove all positions from the transposition table
+     */
+    public synchronized void clearHash() {
+        _transpositionTable.clear();
+    }
+
+    /**
+     * Returns the score of the last search, in centipawns, from the point of view of the side to move.
+     *
+     * @return The score of the last search
+     */
+    public int getScore() {
+        return _score;
+    }
+
+    /**
+     * Returns the number of moves to mate found by the last search - positive if the side to move mates,
+     * negative if it is mated, 0 if no mate was found.
+     *
+     * @return The number of moves to mate found by the last search
+     */
+    public int getMateIn() {
+        if (_score >= Searcher.MATE_BOUND) {
+            return (Searcher.MATE - _score + 1) / 2;
+        }
+        if (_score <= -Searcher.MATE_BOUND) {
+            return -(Searcher.MATE + _score) / 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the depth completed by the last search, in half moves
+     *
+     * @return The depth completed by the last search
+     */
+    public int getDepth() {
+        return _depth;
+    }
+
+    /**
+     * Returns the number of positions searched by the last search, by all the threads
+     *
+     * @return The number of positions searched by the last search
+     */
+    public long getNodes() {
+        return _nodes;
+    }
+
+    /**
+     * Returns the principal variation of the last search, in algebric notation, separated by spaces
+     *
+     * @return The principal variation of the last search
+     */
+    public String getPrincipalVariation() {
+        return _principalVariation;
+    }
+}
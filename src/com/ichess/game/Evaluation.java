@@ -0,0 +1,373 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.List;
+
+/**
+ * Static evaluation of a game position, used by the {@link Engine}. <br>
+ * Scores are in centipawns, from the point of view of the moving side. <br>
+ * The material and piece-square terms are kept by the game itself, and are updated incrementally
+ * whenever a piece is placed or removed from the board, so evaluating a position does not scan the board.
+ * The pawn structure term is cached by the pawns positions. <br>
+ * An evaluation instance holds a pawn structure cache, and must not be shared between threads.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class Evaluation implements Evaluator {
+
+    // piece values, indexed by piece type
+    static final int[] PIECE_VALUES = {
+            0,      // start
+            100,    // pawn
+            320,    // knight
+            330,    // bishop
+            500,    // rook
+            900,    // queen
+            0,      // king
+            0,      // illegal
+            200,    // grasshopper
+            850,    // archbishop
+            900,    // chancellor
+            0       // drop any
+    };
+
+    // values of droppable pieces in crazy house and bug house. a piece in hand is worth more than a
+    // pawn on the board, and less than other pieces on the board, since it can't be developed yet
+    static final int[] POCKET_VALUES = {
+            0,      // start
+            140,    // pawn
+            300,    // knight
+            310,    // bishop
+            450,    // rook
+            850,    // queen
+            0,      // king
+            0,      // illegal
+            200,    // grasshopper
+            800,    // archbishop
+            850,    // chancellor
+            0       // drop any
+    };
+
+    // game phase weights, indexed by piece type. all the pieces of a regular game sum to MAX_PHASE
+    static final int[] PHASE_WEIGHTS = {0, 0, 1, 1, 2, 4, 0, 0, 1, 3, 3, 0};
+    static final int MAX_PHASE = 24;
+
+    // in suicide all pieces are a burden. the king is just another piece
+    static final int SUICIDE_PIECE_VALUE = 100;
+
+    // bonus for the moving side
+    static final int TEMPO = 10;
+
+    // pawn structure terms
+    static final int DOUBLED_PAWN_PENALTY = 10;
+    static final int ISOLATED_PAWN_PENALTY = 15;
+    // passed pawn bonus, indexed by rank (relative to the pawn color)
+    static final int[] PASSED_PAWN_BONUS = {0, 0, 5, 10, 20, 35, 60, 100, 0};
+
+    static final int DEFAULT_PAWN_CACHE_SIZE = 1 << 14;
+
+    /*
+     * piece-square tables, from white point of view, as seen on the board - rank 8 first
+     */
+    private static final int[] PAWN_TABLE = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            10, 10, 20, 30, 30, 20, 10, 10,
+            5, 5, 10, 25, 25, 10, 5, 5,
+            0, 0, 0, 20, 20, 0, 0, 0,
+            5, -5, -10, 0, 0, -10, -5, 5,
+            5, 10, 10, -20, -20, 10, 10, 5,
+            0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static final int[] PAWN_END_GAME_TABLE = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            80, 80, 80, 80, 80, 80, 80, 80,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            30, 30, 30, 30, 30, 30, 30, 30,
+            15, 15, 15, 15, 15, 15, 15, 15,
+            5, 5, 5, 5, 5, 5, 5, 5,
+            0, 0, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private static final int[] KNIGHT_TABLE = {
+            -50, -40, -30, -30, -30, -30, -40, -50,
+            -40, -20, 0, 0, 0, 0, -20, -40,
+            -30, 0, 10, 15, 15, 10, 0, -30,
+            -30, 5, 15, 20, 20, 15, 5, -30,
+            -30, 0, 15, 20, 20, 15, 0, -30,
+            -30, 5, 10, 15, 15, 10, 5, -30,
+            -40, -20, 0, 5, 5, 0, -20, -40,
+            -50, -40, -30, -30, -30, -30, -40, -50
+    };
+
+    private static final int[] BISHOP_TABLE = {
+            -20, -10, -10, -10, -10, -10, -10, -20,
+            -10, 0, 0, 0, 0, 0, 0, -10,
+            -10, 0, 5, 10, 10, 5, 0, -10,
+            -10, 5, 5, 10, 10, 5, 5, -10,
+            -10, 0, 10, 10, 10, 10, 0, -10,
+            -10, 10, 10, 10, 10, 10, 10, -10,
+            -10, 5, 0, 0, 0, 0, 5, -10,
+            -20, -10, -10, -10, -10, -10, -10, -20
+    };
+
+    private static final int[] ROOK_TABLE = {
+            0, 0, 0, 0, 0, 0, 0, 0,
+            5, 10, 10, 10, 10, 10, 10, 5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            0, 0, 0, 5, 5, 0, 0, 0
+    };
+
+    private static final int[] QUEEN_TABLE = {
+            -20, -10, -10, -5, -5, -10, -10, -20,
+            -10, 0, 0, 0, 0, 0, 0, -10,
+            -10, 0, 5, 5, 5, 5, 0, -10,
+            -5, 0, 5, 5, 5, 5, 0, -5,
+            0, 0, 5, 5, 5, 5, 0, -5,
+            -10, 5, 5, 5, 5, 5, 0, -10,
+            -10, 0, 5, 0, 0, 0, 0, -10,
+            -20, -10, -10, -5, -5, -10, -10, -20
+    };
+
+    private static final int[] KING_TABLE = {
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -30, -40, -40, -50, -50, -40, -40, -30,
+            -20, -30, -30, -40, -40, -30, -30, -20,
+            -10, -20, -20, -20, -20, -20, -20, -10,
+            20, 20, 0, 0, 0, 0, 20, 20,
+            20, 30, 10, 0, 0, 10, 30, 20
+    };
+
+    private static final int[] KING_END_GAME_TABLE = {
+            -50, -40, -30, -20, -20, -30, -40, -50,
+            -30, -20, -10, 0, 0, -10, -20, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 30, 40, 40, 30, -10, -30,
+            -30, -10, 20, 30, 30, 20, -10, -30,
+            -30, -30, 0, 0, 0, 0, -30, -30,
+            -50, -30, -30, -30, -30, -30, -30, -50
+    };
+
+    // a grasshopper needs hurdles to jump over - it is best in the crowded center
+    private static final int[] GRASSHOPPER_TABLE = {
+            -10, -5, -5, -5, -5, -5, -5, -10,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -5, 0, 10, 10, 10, 10, 0, -5,
+            -5, 0, 10, 20, 20, 10, 0, -5,
+            -5, 0, 10, 20, 20, 10, 0, -5,
+            -5, 0, 10, 10, 10, 10, 0, -5,
+            -5, 0, 0, 0, 0, 0, 0, -5,
+            -10, -5, -5, -5, -5, -5, -5, -10
+    };
+
+    // archbishop (bishop + knight) and chancellor (rook + knight) tables are built from their components
+    private static final int[] ARCHBISHOP_TABLE = new int[64];
+    private static final int[] CHANCELLOR_TABLE = new int[64];
+
+    // piece-square values, indexed by [end game][color][piece type][square] (see Zobrist.square)
+    private static final int[][][][] PIECE_SQUARE_VALUES = new int[2][Common.COLOR_NUM][Common.PIECE_TYPE_NUM][64];
+
+    // pawn structure masks, indexed by square (see Zobrist.square)
+    private static final long[] FILE_MASKS = new long[9];
+    private static final long[] ADJACENT_FILES_MASKS = new long[9];
+    private static final long[][] PASSED_PAWN_MASKS = new long[Common.COLOR_NUM][64];
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            ARCHBISHOP_TABLE[square] = (KNIGHT_TABLE[square] + BISHOP_TABLE[square]) / 2;
+            CHANCELLOR_TABLE[square] = (KNIGHT_TABLE[square] + ROOK_TABLE[square]) / 2;
+        }
+        int[][] middleGameTables = new int[Common.PIECE_TYPE_NUM][];
+        middleGameTables[Common.PIECE_TYPE_PAWN] = PAWN_TABLE;
+        middleGameTables[Common.PIECE_TYPE_KNIGHT] = KNIGHT_TABLE;
+        middleGameTables[Common.PIECE_TYPE_BISHOP] = BISHOP_TABLE;
+        middleGameTables[Common.PIECE_TYPE_ROOK] = ROOK_TABLE;
+        middleGameTables[Common.PIECE_TYPE_QUEEN] = QUEEN_TABLE;
+        middleGameTables[Common.PIECE_TYPE_KING] = KING_TABLE;
+        middleGameTables[Common.PIECE_TYPE_GRASSHOPER] = GRASSHOPPER_TABLE;
+        middleGameTables[Common.PIECE_TYPE_ARCHBISHOP] = ARCHBISHOP_TABLE;
+        middleGameTables[Common.PIECE_TYPE_CHANCELLOR] = CHANCELLOR_TABLE;
+        int[][] endGameTables = middleGameTables.clone();
+        endGameTables[Common.PIECE_TYPE_PAWN] = PAWN_END_GAME_TABLE;
+        endGameTables[Common.PIECE_TYPE_KING] = KING_END_GAME_TABLE;
+
+        for (int type = Common.PIECE_TYPE_PAWN; type < Common.PIECE_TYPE_NUM; type++) {
+            for (int x = 1; x <= 8; x++) {
+                for (int y = 1; y <= 8; y++) {
+                    int square = Zobrist.square(x, y);
+                    int whiteIndex = (8 - x) * 8 + (y - 1);
+                    int blackIndex = (x - 1) * 8 + (y - 1);
+                    if (middleGameTables[type] != null) {
+                        PIECE_SQUARE_VALUES[0][Common.COLOR_WHITE][type][square] = middleGameTables[type][whiteIndex];
+                        PIECE_SQUARE_VALUES[0][Common.COLOR_BLACK][type][square] = middleGameTables[type][blackIndex];
+                        PIECE_SQUARE_VALUES[1][Common.COLOR_WHITE][type][square] = endGameTables[type][whiteIndex];
+                        PIECE_SQUARE_VALUES[1][Common.COLOR_BLACK][type][square] = endGameTables[type][blackIndex];
+                    }
+                }
+            }
+        }
+
+        for (int y = 1; y <= 8; y++) {
+            for (int x = 1; x <= 8; x++) {
+                FILE_MASKS[y] |= 1L << Zobrist.square(x, y);
+            }
+        }
+        for (int y = 1; y <= 8; y++) {
+            ADJACENT_FILES_MASKS[y] = ((y > 1) ? FILE_MASKS[y - 1] : 0) | ((y < 8) ? FILE_MASKS[y + 1] : 0);
+        }
+        for (int x = 1; x <= 8; x++) {
+            for (int y = 1; y <= 8; y++) {
+                long span = FILE_MASKS[y] | ADJACENT_FILES_MASKS[y];
+                long whiteFront = 0;
+                long blackFront = 0;
+                for (int row = 1; row <= 8; row++) {
+                    long rowMask = 0xFFL << ((row - 1) * 8);
+                    if (row > x) {
+                        whiteFront |= rowMask;
+                    } else if (row < x) {
+                        blackFront |= rowMask;
+                    }
+                }
+                PASSED_PAWN_MASKS[Common.COLOR_WHITE][Zobrist.square(x, y)] = span & whiteFront;
+                PASSED_PAWN_MASKS[Common.COLOR_BLACK][Zobrist.square(x, y)] = span & blackFront;
+            }
+        }
+    }
+
+    // pawn structure cache - both pawn bitmasks are kept, so a cache hit is always exact
+    private final long[] _pawnCacheWhite;
+    private final long[] _pawnCacheBlack;
+    private final int[] _pawnCacheScores;
+    private final int _pawnCacheMask;
+
+    /**
+     * Create an evaluation with the default pawn structure cache size
+     */
+    public Evaluation() {
+        this(DEFAULT_PAWN_CACHE_SIZE);
+    }
+
+    /**
+     * Create an evaluation with the given pawn structure cache size
+     *
+     * @param pawnCacheSize - number of cached pawn structures. rounded down to a power of 2
+     */
+    public Evaluation(int pawnCacheSize) {
+        int size = Integer.highestOneBit(Math.max(pawnCacheSize, 1));
+        _pawnCacheWhite = new long[size];
+        _pawnCacheBlack = new long[size];
+        _pawnCacheScores = new int[size];
+        _pawnCacheMask = size - 1;
+    }
+
+    @Override
+    public int evaluate(Game game) {
+        int white = Common.COLOR_WHITE;
+        int black = Common.COLOR_BLACK;
+        int score;
+        if (game.isSuicide()) {
+            // the side with less pieces is better
+            score = (game.getPieceCount(black) - game.getPieceCount(white)) * SUICIDE_PIECE_VALUE;
+        } else {
+            int phase = Math.min(game.getPhase(), MAX_PHASE);
+            int middleGame = game.getPieceSquareValue(white, false) - game.getPieceSquareValue(black, false);
+            int endGame = game.getPieceSquareValue(white, true) - game.getPieceSquareValue(black, true);
+            score = game.getMaterial(white) - game.getMaterial(black) +
+                    (middleGame * phase + endGame * (MAX_PHASE - phase)) / MAX_PHASE +
+                    getPawnStructureScore(game.getPawns(white), game.getPawns(black));
+            if (game.isCrazyOrBugHouse()) {
+                score += getPocketValue(game.getDroppablePieces(white)) - getPocketValue(game.getDroppablePieces(black));
+            }
+        }
+        if (game.getCurrentColor() == black) {
+            score = -score;
+        }
+        return score + TEMPO;
+    }
+
+    /**
+     * Returns the piece-square value of the given piece type and color at the given square
+     *
+     * @param type    - piece type
+     * @param color   - piece color
+     * @param x       - row number 1..8
+     * @param y       - column number 1..8
+     * @param endGame - true for the end game value, false for the middle game value
+     * @return The piece-square value
+     */
+    static int getPieceSquareValue(int type, int color, int x, int y, boolean endGame) {
+        return PIECE_SQUARE_VALUES[endGame ? 1 : 0][color][type][Zobrist.square(x, y)];
+    }
+
+    /*
+     * pawn structure score, from white point of view
+     */
+    int getPawnStructureScore(long whitePawns, long blackPawns) {
+        if ((whitePawns | blackPawns) == 0) {
+            return 0;
+        }
+        int index = (int) (((whitePawns * 0x9E3779B97F4A7C15L) ^ (blackPawns * 0xC2B2AE3D27D4EB4FL)) >>> 40) & _pawnCacheMask;
+        if ((_pawnCacheWhite[index] == whitePawns) && (_pawnCacheBlack[index] == blackPawns)) {
+            return _pawnCacheScores[index];
+        }
+        int score = getPawnStructureScore(Common.COLOR_WHITE, whitePawns, blackPawns) -
+                getPawnStructureScore(Common.COLOR_BLACK, blackPawns, whitePawns);
+        _pawnCacheWhite[index] = whitePawns;
+        _pawnCacheBlack[index] = blackPawns;
+        _pawnCacheScores[index] = score;
+        return score;
+    }
+
+    private static int getPawnStructureScore(int color, long pawns, long otherPawns) {
+        int score = 0;
+        for (int y = 1; y <= 8; y++) {
+            int count = Long.bitCount(pawns & FILE_MASKS[y]);
+            if (count == 0) {
+                continue;
+            }
+            if (count > 1) {
+                score -= (count - 1) * DOUBLED_PAWN_PENALTY;
+            }
+            if ((pawns & ADJACENT_FILES_MASKS[y]) == 0) {
+                score -= count * ISOLATED_PAWN_PENALTY;
+            }
+        }
+        long remaining = pawns;
+        while (remaining != 0) {
+            int square = Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            if ((otherPawns & PASSED_PAWN_MASKS[color][square]) == 0) {
+                int row = (square >>> 3) + 1;
+                int rank = (color == Common.COLOR_WHITE) ? row : 9 - row;
+                score += PASSED_PAWN_BONUS[rank];
+            }
+        }
+        return score;
+    }
+
+    static int getPocketValue(List<Piece> pieces) {
+        int value = 0;
+        for (Piece piece : pieces) {
+            value += POCKET_VALUES[piece.getTypeWhenDropping()];
+        }
+        return value;
+    }
+}
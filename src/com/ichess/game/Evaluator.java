@@ -0,0 +1,28 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+/**
+ * A static evaluation of game positions, used by the {@link Engine}.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public interface Evaluator {
+
+    /**
+     * Returns the static evaluation of the given game current position, in centipawns, from the point
+     * of view of the moving side.
+     *
+     * @param game - a given game
+     * @return The static evaluation of the given game current position
+     */
+    int evaluate(Game game);
+}
@@ -12,8 +12,8 @@ package com.ichess.game;
 
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -47,6 +47,27 @@ public class FEN {
     // by default encode in Droppable pieces in [] like winboard format for crazyhouse / bughouse
     public static boolean ENCODE_CAPTURED_AS_XFEN = false;
 
+    // number of Fischer 960 init positions
+    public static final int FISCHER_POSITIONS = 960;
+    // free squares of the 2 knights of a Fischer 960 init position (by the Scharnagl numbering)
+    private static final int[][] KNIGHTS_960 = {{0, 1}, {0, 2}, {0, 3}, {0, 4}, {1, 2}, {1, 3}, {1, 4}, {2, 3}, {2, 4}, {3, 4}};
+
+    // FEN character (white) of each piece type
+    private static final char[] PIECE_CHARACTERS = new char[Common.PIECE_TYPE_NUM];
+    // piece type of each (upper case) FEN character
+    private static final int[] PIECE_TYPES = new int[128];
+
+    static {
+        for (int type = 0; type < Common.PIECE_TYPE_NUM; type++) {
+            String pieceCharacter = Notation.getPieceCharacter(type);
+            PIECE_CHARACTERS[type] = (pieceCharacter == null) ? '?' : pieceCharacter.charAt(0);
+        }
+        for (char pieceCh = 0; pieceCh < PIECE_TYPES.length; pieceCh++) {
+            PIECE_TYPES[pieceCh] = Character.isUpperCase(pieceCh) ?
+                    Notation.getPieceType(String.valueOf(pieceCh)) : Common.PIECE_TYPE_ILLEGAL;
+        }
+    }
+
     /**
      * Returns the FEN position of the given Game. The FEN position is the first
      * token of the FEN string, containing only the pieces position.
@@ -59,9 +80,21 @@ public class FEN {
             LOGGER.warning("game == null");
             return null;
         }
+        return appendFENPosition(game, new StringBuilder(80)).toString();
+    }
 
-        StringBuilder result = new StringBuilder();
-
+    /**
+     * Appends the FEN position of the given Game to the given buffer (see {@link #getFENPosition(Game)}).
+     * A buffer that is reused by the caller saves the string building allocations.
+     *
+     * @param game   the game whose position is appended
+     * @param buffer a given buffer
+     * @return The given buffer
+     */
+    public static StringBuilder appendFENPosition(Game game, StringBuilder buffer) {
+        Utils.AssertNotNull(game);
+        Utils.AssertNotNull(buffer);
+        boolean crazyOrBugHouse = game.isCrazyOrBugHouse();
         for (int row = 8; row > 0; row--) {
             int emptyCount = 0;
             for (int col = 1; col < 9; col++) {
@@ -71,67 +104,60 @@ public class FEN {
                     continue;
                 }
                 if (emptyCount > 0) {
-                    result.append(emptyCount);
+                    buffer.append((char) ('0' + emptyCount));
                     emptyCount = 0;
                 }
-                String pieceStr = Notation.getPieceCharacter(piece.getType());
-                if (piece.isBlack()) {
-                    pieceStr = pieceStr.toLowerCase();
-                }
-                result.append(pieceStr);
-                if ((game.isCrazyOrBugHouse()) && (piece.isPromoted()))
-                {
-                    result.append('~');
+                appendPieceCharacter(buffer, piece.getType(), piece.isBlack());
+                if (crazyOrBugHouse && (piece.isPromoted())) {
+                    buffer.append('~');
                 }
             }
             if (emptyCount > 0) {
-                result.append(emptyCount);
+                buffer.append((char) ('0' + emptyCount));
             }
             if (row != 1) {
-                result.append('/');
+                buffer.append('/');
             }
         }
-        if (game.isCrazyOrBugHouse())
-        {
-            if (ENCODE_CAPTURED_AS_XFEN)
-            {
+        if (crazyOrBugHouse) {
+            if (ENCODE_CAPTURED_AS_XFEN) {
                 // add crazyhouse captured pieces
-                if (game.isCrazyHouse())
-                {
-                    if (game.hasCapturedPieces()) {
-                        result.append('/');
-                        for (Piece piece : game.getCapturedPieces(Common.COLOR_WHITE)) {
-                            String pieceChar = Notation.getPieceCharacter(piece.getType());
-                            result.append(pieceChar.toUpperCase());
-                        }
-                        for (Piece piece : game.getCapturedPieces(Common.COLOR_BLACK)) {
-                            String pieceChar = Notation.getPieceCharacter(piece.getType());
-                            result.append(pieceChar.toLowerCase());
-                        }
+                if (game.isCrazyHouse() && game.hasCapturedPieces()) {
+                    buffer.append('/');
+                    List<Piece> captured = game.getCapturedPieces(Common.COLOR_WHITE);
+                    for (int i = 0; i < captured.size(); i++) {
+                        appendPieceCharacter(buffer, captured.get(i).getType(), false);
+                    }
+                    captured = game.getCapturedPieces(Common.COLOR_BLACK);
+                    for (int i = 0; i < captured.size(); i++) {
+                        appendPieceCharacter(buffer, captured.get(i).getType(), true);
                     }
                 }
-            }
-            else {
+            } else {
                 // add crazyhouse / bughouse holding
-                result.append('[');
-                boolean hasDroppablePieces = false;
-                for (Piece piece : game.getDroppablePieces(Common.COLOR_WHITE)) {
-                    String pieceChar = Notation.getPieceCharacter(piece.getTypeWhenDropping());
-                    result.append(pieceChar);
-                    hasDroppablePieces = true;
+                buffer.append('[');
+                List<Piece> droppable = game.getDroppablePieces(Common.COLOR_WHITE);
+                boolean hasDroppablePieces = !droppable.isEmpty();
+                for (int i = 0; i < droppable.size(); i++) {
+                    appendPieceCharacter(buffer, droppable.get(i).getTypeWhenDropping(), false);
                 }
-                for (Piece piece : game.getDroppablePieces(Common.COLOR_BLACK)) {
-                    String pieceChar = Notation.getPieceCharacter(piece.getTypeWhenDropping());
-                    result.append(pieceChar.toLowerCase());
-                    hasDroppablePieces = true;
+                droppable = game.getDroppablePieces(Common.COLOR_BLACK);
+                hasDroppablePieces |= !droppable.isEmpty();
+                for (int i = 0; i < droppable.size(); i++) {
+                    appendPieceCharacter(buffer, droppable.get(i).getTypeWhenDropping(), true);
                 }
                 if (!hasDroppablePieces) {
-                    result.append("-");
+                    buffer.append('-');
                 }
-                result.append("]");
+                buffer.append(']');
             }
         }
-        return result.toString();
+        return buffer;
+    }
+
+    private static void appendPieceCharacter(StringBuilder buffer, int pieceType, boolean black) {
+        char pieceCh = PIECE_CHARACTERS[pieceType];
+        buffer.append(black ? Character.toLowerCase(pieceCh) : pieceCh);
     }
 
     /**
@@ -145,20 +171,28 @@ public class FEN {
             LOGGER.warning("game == null");
             return null;
         }
+        StringBuilder fen = appendFENString(game, new StringBuilder(96));
+        return (fen == null) ? null : fen.toString();
+    }
 
-        String _position = getFENPosition(game);
-
-        StringBuilder fen = new StringBuilder();
-
-        fen.append(_position);
-        fen.append(" ");
+    /**
+     * Appends the FEN representation of the given Game to the given buffer (see {@link #getFENString(Game)}).
+     * A buffer that is reused by the caller saves the string building allocations.
+     *
+     * @param game   the game whose FEN representation is appended
+     * @param buffer a given buffer
+     * @return The given buffer. null on error.
+     */
+    public static StringBuilder appendFENString(Game game, StringBuilder buffer) {
+        appendFENPosition(game, buffer);
+        buffer.append(' ');
 
         switch (game.getCurrentColor()) {
             case Common.COLOR_WHITE:
-                fen.append(FEN_COLOR_WHITE);
+                buffer.append(FEN_COLOR_WHITE);
                 break;
             case Common.COLOR_BLACK:
-                fen.append(FEN_COLOR_BLACK);
+                buffer.append(FEN_COLOR_BLACK);
                 break;
             default:
                 LOGGER.warning("illegal game color");
@@ -166,109 +200,96 @@ public class FEN {
         }
 
         // append castling availability
-        fen.append(" ");
-
-        boolean[][] _castling = new boolean[Common.COLOR_NUM][Common.CASTLE_NUM];
+        buffer.append(' ');
 
-        for (int color = Common.COLOR_START; color < Common.COLOR_NUM; color++) {
-            for (int cstl = Common.CASTLE_START; cstl < Common.CASTLE_NUM; cstl++) {
-                if (Common.isBlackOrWhite(color)) {
-                    _castling[color][cstl] = game.getCastlingAvailability(color, cstl);
-                }
-            }
-        }
-
-        boolean canCastle = false;
         char right = 'k';
         char left = 'q';
         if (game.isFischer()) {
             right = (char) ((int) 'a' + (Integer) game.getAttribute(Game.RIGHT_ROOK_LOCATION) - 1);
             left = (char) ((int) 'a' + (Integer) game.getAttribute(Game.LEFT_ROOK_LOCATION) - 1);
         }
-        if (_castling[Common.COLOR_WHITE][Common.CASTLE_KING]) {
-            fen.append(Character.toUpperCase(right));
-            canCastle = true;
+        int length = buffer.length();
+        if (game.getCastlingAvailability(Common.COLOR_WHITE, Common.CASTLE_KING)) {
+            buffer.append(Character.toUpperCase(right));
         }
-        if (_castling[Common.COLOR_WHITE][Common.CASTLE_QUEEN]) {
-            fen.append(Character.toUpperCase(left));
-            canCastle = true;
+        if (game.getCastlingAvailability(Common.COLOR_WHITE, Common.CASTLE_QUEEN)) {
+            buffer.append(Character.toUpperCase(left));
         }
-        if (_castling[Common.COLOR_BLACK][Common.CASTLE_KING]) {
-            fen.append(right);
-            canCastle = true;
+        if (game.getCastlingAvailability(Common.COLOR_BLACK, Common.CASTLE_KING)) {
+            buffer.append(right);
         }
-        if (_castling[Common.COLOR_BLACK][Common.CASTLE_QUEEN]) {
-            fen.append(left);
-            canCastle = true;
+        if (game.getCastlingAvailability(Common.COLOR_BLACK, Common.CASTLE_QUEEN)) {
+            buffer.append(left);
         }
-        if (!canCastle) {
-            fen.append("-");
+        if (buffer.length() == length) {
+            buffer.append('-');
         }
 
         // append ep move
 
-        fen.append(" ");
+        buffer.append(' ');
 
         Pawn epPawn = game.getEpPawn();
-        if (epPawn != null) {
-            boolean ep_capture_pawn_found = false;
-            // also check if opponent pawn can make an en passent capture
-            int epY = epPawn.getY();
-            int epX = epPawn.getX();
-            if (epY > 1) {
-                Piece capturePawn = game.getPieceAt(epX, epY - 1);
-                if (capturePawn != null) {
-                    if (capturePawn.isPawn()) {
-                        if (capturePawn.isColor(game.getCurrentColor())) {
-                            // found
-                            ep_capture_pawn_found = true;
-                        }
-                    }
-                }
-            }
-            if (epY < 8) {
-                Piece capturePawn = game.getPieceAt(epX, epY + 1);
-                if (capturePawn != null) {
-                    if (capturePawn.isPawn()) {
-                        if (capturePawn.isColor(game.getCurrentColor())) {
-                            // found
-                            ep_capture_pawn_found = true;
-                        }
-                    }
-                }
-            }
-            if (ep_capture_pawn_found) {
-                if (epPawn.isWhite()) {
-                    fen.append(Notation.getSquareEng(epPawn.getX() - 1, epPawn.getY()));
-                } else {
-                    fen.append(Notation.getSquareEng(epPawn.getX() + 1, epPawn.getY()));
-                }
-            } else {
-                fen.append("-");
-            }
+        if ((epPawn != null) && hasEpCapturingPawn(game, epPawn)) {
+            buffer.append((char) ('a' + epPawn.getY() - 1));
+            buffer.append((char) ('0' + (epPawn.isWhite() ? epPawn.getX() - 1 : epPawn.getX() + 1)));
         } else {
-            fen.append("-");
+            buffer.append('-');
         }
 
         // append half moves
 
-        fen.append(" ");
+        buffer.append(' ');
 
         // half moves
         MoveInfo currentInfo = game.getCurrentMoveInfo();
         if (currentInfo != null) {
-            fen.append(currentInfo.getDraw50MovesCount());
+            buffer.append(currentInfo.getDraw50MovesCount());
         } else {
-            fen.append("0");
+            buffer.append('0');
         }
 
         // append full moves
 
-        fen.append(" ");
+        buffer.append(' ');
 
-        fen.append(game.getMoveNumber());
+        buffer.append(game.getMoveNumber());
 
-        return fen.toString();
+        return buffer;
+    }
+
+    /*
+     * check if a pawn of the side to move can make an en passant capture of the given pawn
+     */
+    private static boolean hasEpCapturingPawn(Game game, Pawn epPawn) {
+        int epY = epPawn.getY();
+        int epX = epPawn.getX();
+        for (int y = epY - 1; y <= epY + 1; y += 2) {
+            if ((y < 1) || (y > 8)) {
+                continue;
+            }
+            Piece capturePawn = game.getPieceAt(epX, y);
+            if ((capturePawn != null) && capturePawn.isPawn() && capturePawn.isColor(game.getCurrentColor())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Loads the given FEN string into a new game instance. If startGame is
+     * false, then the FEN may be an invalid game position.
+     *
+     * @param fen       - The FEN string to load.
+     * @param startGame - If true, FEN position is validated as a valid chess
+     *                  position.
+     * @param gkind     - a game kind. 0 to guess the game kind from the FEN
+     * @return a new game instance. null if fails.
+     */
+    public static Game loadGame(String fen, boolean startGame, int gkind) {
+        Utils.AssertNotNull(fen);
+        Game game = new Game(gkind);
+        return loadGame(game, fen, startGame, gkind) ? game : null;
     }
 
     /**
@@ -276,14 +297,16 @@ public class FEN {
      * taken back. If startGame is false, then the FEN may be an invalid game
      * position.
      *
+     * @param game      - The game to load the FEN into.
      * @param fen       - The FEN string to load.
      * @param startGame - If true, FEN position is validated as a valid chess
      *                  position.
+     * @param gkind     - a game kind. 0 to guess the game kind from the FEN
      * @return true on success. otherwise false.
      */
-    public static Game loadGame(String fen, boolean startGame, int gkind) {
+    static boolean loadGame(Game game, String fen, boolean startGame, int gkind) {
+        Utils.AssertNotNull(game);
         Utils.AssertNotNull(fen);
-        Game game = new Game(gkind);
 
         // try to guess game kind and game rules if needed
         int grules = 0;
@@ -311,55 +334,57 @@ public class FEN {
             }
         }
 
-        LOGGER.fine("loading fen '" + fen + "' start " + startGame + " gkind " + Common.GAME_KIND_TEXT[gkind] + " grules " +
-                Common.GAME_RULES_TEXT[grules]);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("loading fen '" + fen + "' start " + startGame + " gkind " + Common.GAME_KIND_TEXT[gkind] + " grules " +
+                    Common.GAME_RULES_TEXT[grules]);
+        }
 
         game.takebackAllMoves();
         game.clearBoard();
 
         fen = fen.trim();
-        String[] tokens = fen.split("\\s+");
-        ArrayList<String> toks = new ArrayList<String>();
-        for (String tok : tokens) {
-            if (!Utils.isEmptyString(tok)) {
-                toks.add(tok);
-            }
+        // split the FEN tokens : position, color, castling, ep square, half moves and move number
+        int[] tokens = new int[12];
+        int tokenCount = 0;
+        for (int index = skipSpaces(fen, 0); (index < fen.length()) && (tokenCount < 6); index = skipSpaces(fen, index)) {
+            tokens[2 * tokenCount] = index;
+            index = tokenEnd(fen, index);
+            tokens[2 * tokenCount + 1] = index;
+            tokenCount++;
         }
-        if (toks.size() < 1) {
+        if (tokenCount < 1) {
             LOGGER.warning("illegal FEN '" + fen + "'");
-            return null;
+            return false;
         }
 
-        String position = toks.get(0);
-
         String currentColor = FEN.FEN_COLOR_WHITE;
-        if (toks.size() > 1) {
-            currentColor = toks.get(1);
+        if (tokenCount > 1) {
+            currentColor = fen.substring(tokens[2], tokens[3]);
         }
 
         String castling = "KQkq";
-        if (toks.size() > 2) {
-            castling = toks.get(2);
+        if (tokenCount > 2) {
+            castling = fen.substring(tokens[4], tokens[5]);
         }
 
         String epMoveStr = "-";
-        if (toks.size() > 3) {
-            epMoveStr = toks.get(3);
+        if (tokenCount > 3) {
+            epMoveStr = fen.substring(tokens[6], tokens[7]);
         }
 
         int draw50MovesRuleCount = 0;
-        if (toks.size() > 4) {
-            draw50MovesRuleCount = Utils.parseInt(toks.get(4));
+        if (tokenCount > 4) {
+            draw50MovesRuleCount = parseInt(fen, tokens[8], tokens[9]);
         }
 
-        String moveNumberStr = "1";
-        if (toks.size() > 5) {
-            moveNumberStr = toks.get(5);
+        int _moveNumber = 1;
+        if (tokenCount > 5) {
+            _moveNumber = parseInt(fen, tokens[10], tokens[11]);
         }
 
-        if (!loadPositionToGame(game, position)) {
+        if (!loadPositionToGame(game, fen)) {
             LOGGER.warning("Failed to load positiong from fen '" + fen + "'");
-            return null;
+            return false;
         }
 
         // reload gkind, grules (maybe deducted from position)
@@ -394,7 +419,7 @@ public class FEN {
                 }
                 if ((gkind != Common.GAME_RULES_FREEPLAY) && (gkind != Common.GAME_RULES_SUICIDE)) {
                     LOGGER.warning("game kind mismatch fen '" + fen + "' gkind " + Common.GAME_KIND_TEXT[gkind]);
-                    return null;
+                    return false;
                 }
             }
         }
@@ -409,7 +434,7 @@ public class FEN {
             game.setStartingColor(Common.COLOR_BLACK);
         } else {
             LOGGER.warning("illegal FEN '" + fen + "' bad color " + currentColor);
-            return null;
+            return false;
         }
 
         boolean canCastle[][] = new boolean[Common.COLOR_NUM][Common.CASTLE_NUM];
@@ -418,14 +443,14 @@ public class FEN {
         int kingLoc = 5;
         int LeftRook = 1;
         int RightRook = 8;
-        if (!(castling.equals("-") || castling.contains("k") || castling.contains("K") || castling.contains("Q") || castling.contains("q"))) {
+        if (!(castling.equals("-") || hasRegularCastling(castling))) {
             if (blackKing != null) {
                 kingLoc = blackKing.getY();
             }
             LeftRook = 0; // if not defined in castling
             RightRook = 0;
-            for (byte pieceB : castling.getBytes()) {
-                char pieceCh = (char) pieceB;
+            for (int index = 0; index < castling.length(); index++) {
+                char pieceCh = castling.charAt(index);
                 int p = pieceCh - 'a' + 1;
                 if (p < 0) { // white can castle
                     p = pieceCh - 'A' + 1;
@@ -438,7 +463,6 @@ public class FEN {
                 }
             }
         }
-        LOGGER.fine(LeftRook + "," + RightRook);
         if (LeftRook == 0) {
             LeftRook = kingLoc;
         }
@@ -454,7 +478,9 @@ public class FEN {
         game.setAttribute(Game.KING_LOCATION, kingLoc);
         game.setAttribute(Game.LEFT_ROOK_LOCATION, LeftRook);
         game.setAttribute(Game.RIGHT_ROOK_LOCATION, RightRook);
-        LOGGER.fine("Game rooks location right " + RightRook + " king " + kingLoc + " left " + LeftRook);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Game rooks location right " + RightRook + " king " + kingLoc + " left " + LeftRook);
+        }
 
         Piece maybeWhiteKing = game.getPieceAt(1, kingLoc);
         if (maybeWhiteKing != null) {
@@ -496,14 +522,15 @@ public class FEN {
         game.setCastlingAvailability(Common.COLOR_WHITE, Common.CASTLE_QUEEN, false);
         game.setCastlingAvailability(Common.COLOR_BLACK, Common.CASTLE_KING, false);
         game.setCastlingAvailability(Common.COLOR_BLACK, Common.CASTLE_QUEEN, false);
-        LOGGER.fine("castling bytes " + castling + " can castle "
-                + canCastle[Common.COLOR_WHITE][Common.CASTLE_KING]
-                + canCastle[Common.COLOR_WHITE][Common.CASTLE_QUEEN]
-                + canCastle[Common.COLOR_BLACK][Common.CASTLE_KING]
-                + canCastle[Common.COLOR_BLACK][Common.CASTLE_QUEEN]);
-        for (byte castleB : castling.getBytes()) {
-
-            char castleCh = (char) castleB;
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("castling bytes " + castling + " can castle "
+                    + canCastle[Common.COLOR_WHITE][Common.CASTLE_KING]
+                    + canCastle[Common.COLOR_WHITE][Common.CASTLE_QUEEN]
+                    + canCastle[Common.COLOR_BLACK][Common.CASTLE_KING]
+                    + canCastle[Common.COLOR_BLACK][Common.CASTLE_QUEEN]);
+        }
+        for (int index = 0; index < castling.length(); index++) {
+            char castleCh = castling.charAt(index);
             switch (castleCh) {
                 case 'K':
                     if (canCastle[Common.COLOR_WHITE][Common.CASTLE_KING]) {
@@ -535,7 +562,6 @@ public class FEN {
                 case 'f':
                 case 'g':
                 case 'h':
-                    LOGGER.fine("fischer castling detected. grules " + Common.GAME_RULES_TEXT[grules]);
                     if ((grules == 0) || (grules == Common.GAME_RULES_REGULAR)) {
                         gkind = Common.GAME_KIND_FISCHER;
                         grules = Common.GAME_RULES_FISCHER;
@@ -543,7 +569,7 @@ public class FEN {
                     }
                     if (grules != Common.GAME_RULES_FISCHER) {
                         LOGGER.warning("game kind mismatch fen '" + fen + "' gkind " + Common.GAME_KIND_TEXT[gkind]);
-                        return null;
+                        return false;
                     }
                     if (((int) castleCh) - 'a' + 1 > kingLoc) {
                         if (canCastle[Common.COLOR_BLACK][Common.CASTLE_KING]) {
@@ -570,7 +596,7 @@ public class FEN {
                     }
                     if (grules != Common.GAME_RULES_FISCHER) {
                         LOGGER.warning("game kind mismatch fen '" + fen + "' gkind " + Common.GAME_KIND_TEXT[gkind]);
-                        return null;
+                        return false;
                     }
                     if (((int) castleCh) - 'A' + 1 > kingLoc) {
                         if (canCastle[Common.COLOR_WHITE][Common.CASTLE_KING]) {
@@ -584,7 +610,7 @@ public class FEN {
                     break;
                 default:
                     LOGGER.warning("illegal FEN '" + fen + "' bad castling string " + castling);
-                    return null;
+                    return false;
             }
         }
 
@@ -609,7 +635,9 @@ public class FEN {
             }
         }
 
-        LOGGER.fine("loaded fen '" + fen + "' gkind " + Common.GAME_KIND_TEXT[gkind] + " grules " + Common.GAME_RULES_TEXT[grules]);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("loaded fen '" + fen + "' gkind " + Common.GAME_KIND_TEXT[gkind] + " grules " + Common.GAME_RULES_TEXT[grules]);
+        }
         game.setGameKind(gkind);
         game.setGameRules(grules);
 
@@ -682,8 +710,6 @@ public class FEN {
             } while (false);
         }
 
-        int _moveNumber = Utils.parseInt(moveNumberStr);
-
         if (_moveNumber < 1) {
             _moveNumber = 1;
         }
@@ -696,11 +722,11 @@ public class FEN {
             moveInfo = game.getCurrentMoveInfo();
             if (null == moveInfo) {
                 LOGGER.warning("illegal FEN '" + fen + "' gkind " + Common.GAME_KIND_TEXT[gkind] + " game failed first analyse");
-                return null;
+                return false;
             }
             moveInfo.setDraw50MovesCount(draw50MovesRuleCount);
         }
-        return game;
+        return true;
     }
 
     /**
@@ -739,107 +765,41 @@ public class FEN {
 
     /**
      * Load only the position of a given FEN string (or even only the position part of it)
-     * into a game
+     * into a game. The position is parsed in a single pass over the given characters.
      *
      * @param game        - a given game
      * @param position - a given FEN position
      * @return - true iff the position is valid and was loaded to the game
      */
-    public static boolean loadPositionToGame(Game game, String position) {
+    public static boolean loadPositionToGame(Game game, CharSequence position) {
         Utils.AssertNotNull(game);
-        String[] tokens = position.split("\\s+");
-        position = tokens[0];
+        // can be both position or a FEN. so we load only the first token
+        int end = tokenEnd(position, 0);
 
-        // can be both position or a FEN. so we just spilit
-        LOGGER.fine("loading position '" + position + "'");
-        // set the pieces
-        int gkind = game.getGameKind();
-        int grules = game.getGameRules();
-        String rows[] = position.split("[/\\[\\]]");
-        if (rows.length < 8) {
-            LOGGER.info("illegal FEN " + position);
-            return false;
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("loading position '" + position.subSequence(0, end) + "'");
         }
         int currentRow = 8;
-        for (String row : rows) {
-            if (currentRow == 0) {
-            {
-                if ((gkind == Common.GAME_KIND_CRAZY_HOUSE) || (gkind == Common.GAME_KIND_BUG_HOUSE) || (gkind == 0))
-                {
-                    if (gkind == 0)
-                    {
-                        gkind = Common.GAME_KIND_CRAZY_HOUSE;
-                        grules = Common.GAME_RULES_CRAZY_HOUSE;
-                        game.setGameKind(gkind);
-                        game.setGameRules(grules);
-                    }
-                    // this is a list of droppable pieces for crazy house or bug house
-                    // XFEN mode is encoding captured pieces as "line 9"
-                    boolean xfen = (position.indexOf('[') == -1);
-                    List<Piece> capturedOrDroppableWhite = new ArrayList<Piece>();
-                    List<Piece> capturedOrDroppableBlack = new ArrayList<Piece>();
-                    Piece newPiece;
-                    for (byte pieceB : row.getBytes()) {
-                        char pieceCh = (char) pieceB;
-                        if (pieceCh == '-')
-                        {
-                            break;
-                        }
-                        int color = Common.COLOR_WHITE;
-                        if (Character.isLowerCase(pieceCh)) {
-                            color = Common.COLOR_BLACK;
-                        }
-                        if (game.isCrazyHouse() && (!xfen))
-                        {
-                            color = Common.OtherColor(color);
-                        }
-                        pieceCh = Character.toUpperCase(pieceCh);
-                        Integer type = Notation.getPieceType(String.valueOf(pieceCh));
-                        if ((type == null) || (type == Common.PIECE_TYPE_ILLEGAL)) {
-                            LOGGER.warning("illegal FEN '" + position + "' bad piece '" + pieceCh + "'");
-                            return false;
-                        }
-                        newPiece = Piece.create(type, color);
-                        if (newPiece.isWhite())
-                        {
-                            capturedOrDroppableWhite.add(newPiece);
-                        }
-                        else
-                        {
-                            capturedOrDroppableBlack.add(newPiece);
-                        }
-                    }
-                    if (xfen)
-                    {
-                        game.setCapturedPieces(Common.COLOR_WHITE, capturedOrDroppableWhite);
-                        game.setCapturedPieces(Common.COLOR_BLACK, capturedOrDroppableBlack);
-                    }
-                    else {
-                        if (game.isCrazyHouse())
-                        {
-                            game.setDroppablePieces(Common.COLOR_BLACK, capturedOrDroppableWhite);
-                            game.setDroppablePieces(Common.COLOR_WHITE, capturedOrDroppableBlack);
-                        }
-                        else
-                        {
-                            game.setDroppablePieces(Common.COLOR_WHITE, capturedOrDroppableWhite);
-                            game.setDroppablePieces(Common.COLOR_BLACK, capturedOrDroppableBlack);
-                        }
-                    }
-                    LOGGER.fine("FEN set captured piece white " + capturedOrDroppableWhite + " black " + capturedOrDroppableBlack);
-                    break;
-                }
-                LOGGER.warning("bad extra row in FEN gkind " + Common.GAME_KIND_TEXT[gkind]);
+        int start = 0;
+        while (currentRow > 0) {
+            if (start >= end) {
+                LOGGER.info("illegal FEN " + position);
                 return false;
             }
-            }
             int column = 1;
             Piece newPiece = null;
-            for (byte pieceB : row.getBytes()) {
-                char pieceCh = (char) pieceB;
+            int index = start;
+            for (; index < end; index++) {
+                char pieceCh = position.charAt(index);
+                if (isRowSeparator(pieceCh)) {
+                    break;
+                }
 
-                if (pieceCh == '~')
-                {
+                if (pieceCh == '~') {
+                    if (newPiece == null) {
+                        LOGGER.warning("illegal FEN '" + position + "' promoted mark without a piece");
+                        return false;
+                    }
                     // last piece is a promoted pawn
                     newPiece.setPromoted();
                     continue;
@@ -851,67 +811,214 @@ public class FEN {
                 }
 
                 if (column > 8) {
-                    LOGGER.warning("illegal FEN '" + position + "' bad row '" + row + "'");
+                    LOGGER.warning("illegal FEN '" + position + "' bad row '" + position.subSequence(start, rowEnd(position, start, end)) + "'");
                     return false;
                 }
 
-                int color = Common.COLOR_WHITE;
-                if (Character.isLowerCase(pieceCh)) {
-                    color = Common.COLOR_BLACK;
-                }
-                pieceCh = Character.toUpperCase(pieceCh);
-
-                int type = Notation.getPieceType(String.valueOf(pieceCh));
+                int type = getPieceType(pieceCh);
                 if (type == Common.PIECE_TYPE_ILLEGAL) {
                     LOGGER.warning("illegal FEN '" + position + "' bad piece '" + pieceCh + "'");
                     return false;
                 }
-                newPiece = Piece.create(type, color);
+                newPiece = Piece.create(type, Character.isLowerCase(pieceCh) ? Common.COLOR_BLACK : Common.COLOR_WHITE);
                 game.setPieceAt(currentRow, column, newPiece);
                 column++;
             }
             if (column != 9) {
-                LOGGER.warning("illegal FEN '" + position + "' bad row '" + row + "'");
+                LOGGER.warning("illegal FEN '" + position + "' bad row '" + position.subSequence(start, index) + "'");
                 return false;
             }
             currentRow--;
+            start = index + 1;
         }
-        if (currentRow != 0) {
-            LOGGER.warning("illegal FEN '" + position + "' bad number of rows");
+
+        // a 9th row (not empty) is a list of captured or droppable pieces
+        if ((start < end) && (rowEnd(position, start, end) > start)) {
+            boolean xfen = (position.charAt(start - 1) != '[');
+            return loadHoldingsToGame(game, position, start, rowEnd(position, start, end), xfen);
+        }
+        return true;
+    }
+
+    /*
+     * load the captured (xfen) or droppable pieces of a crazy house or bug house game
+     */
+    private static boolean loadHoldingsToGame(Game game, CharSequence position, int start, int end, boolean xfen) {
+        int gkind = game.getGameKind();
+        if ((gkind != Common.GAME_KIND_CRAZY_HOUSE) && (gkind != Common.GAME_KIND_BUG_HOUSE) && (gkind != 0)) {
+            LOGGER.warning("bad extra row in FEN gkind " + Common.GAME_KIND_TEXT[gkind]);
             return false;
         }
+        if (gkind == 0) {
+            game.setGameKind(Common.GAME_KIND_CRAZY_HOUSE);
+            game.setGameRules(Common.GAME_RULES_CRAZY_HOUSE);
+        }
+        // this is a list of droppable pieces for crazy house or bug house
+        // XFEN mode is encoding captured pieces as "line 9"
+        List<Piece> capturedOrDroppableWhite = new ArrayList<Piece>();
+        List<Piece> capturedOrDroppableBlack = new ArrayList<Piece>();
+        for (int index = start; index < end; index++) {
+            char pieceCh = position.charAt(index);
+            if (pieceCh == '-') {
+                break;
+            }
+            int color = Character.isLowerCase(pieceCh) ? Common.COLOR_BLACK : Common.COLOR_WHITE;
+            if (game.isCrazyHouse() && (!xfen)) {
+                color = Common.OtherColor(color);
+            }
+            int type = getPieceType(pieceCh);
+            if (type == Common.PIECE_TYPE_ILLEGAL) {
+                LOGGER.warning("illegal FEN '" + position + "' bad piece '" + pieceCh + "'");
+                return false;
+            }
+            Piece newPiece = Piece.create(type, color);
+            if (newPiece.isWhite()) {
+                capturedOrDroppableWhite.add(newPiece);
+            } else {
+                capturedOrDroppableBlack.add(newPiece);
+            }
+        }
+        if (xfen) {
+            game.setCapturedPieces(Common.COLOR_WHITE, capturedOrDroppableWhite);
+            game.setCapturedPieces(Common.COLOR_BLACK, capturedOrDroppableBlack);
+        } else if (game.isCrazyHouse()) {
+            game.setDroppablePieces(Common.COLOR_BLACK, capturedOrDroppableWhite);
+            game.setDroppablePieces(Common.COLOR_WHITE, capturedOrDroppableBlack);
+        } else {
+            game.setDroppablePieces(Common.COLOR_WHITE, capturedOrDroppableWhite);
+            game.setDroppablePieces(Common.COLOR_BLACK, capturedOrDroppableBlack);
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("FEN set captured piece white " + capturedOrDroppableWhite + " black " + capturedOrDroppableBlack);
+        }
         return true;
     }
 
+    /*
+     * check if the castling string has regular (not Fischer 960 style) castling letters
+     */
+    private static boolean hasRegularCastling(String castling) {
+        for (int index = 0; index < castling.length(); index++) {
+            switch (castling.charAt(index)) {
+                case 'K':
+                case 'Q':
+                case 'k':
+                case 'q':
+                    return true;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * piece type of a FEN piece character (either color)
+     */
+    private static int getPieceType(char pieceCh) {
+        char upperCh = Character.toUpperCase(pieceCh);
+        return (upperCh < PIECE_TYPES.length) ? PIECE_TYPES[upperCh] : Common.PIECE_TYPE_ILLEGAL;
+    }
+
+    private static boolean isRowSeparator(char ch) {
+        return (ch == '/') || (ch == '[') || (ch == ']');
+    }
+
+    private static int rowEnd(CharSequence position, int start, int end) {
+        int index = start;
+        while ((index < end) && (!isRowSeparator(position.charAt(index)))) {
+            index++;
+        }
+        return index;
+    }
+
+    static int skipSpaces(CharSequence fen, int index) {
+        while ((index < fen.length()) && Character.isWhitespace(fen.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    static int tokenEnd(CharSequence fen, int index) {
+        while ((index < fen.length()) && (!Character.isWhitespace(fen.charAt(index)))) {
+            index++;
+        }
+        return index;
+    }
+
+    /*
+     * parse a non negative decimal number. returns 0 if it is not a number
+     */
+    static int parseInt(CharSequence fen, int start, int end) {
+        if ((start >= end) || (end - start > 9)) {
+            LOGGER.warning("illegal FEN number '" + fen.subSequence(start, end) + "'");
+            return 0;
+        }
+        int value = 0;
+        for (int index = start; index < end; index++) {
+            char digit = fen.charAt(index);
+            if ((digit < '0') || (digit > '9')) {
+                LOGGER.warning("illegal FEN number '" + fen.subSequence(start, end) + "'");
+                return 0;
+            }
+            value = value * 10 + (digit - '0');
+        }
+        return value;
+    }
+
     /**
      * Create a random Fischer 960 init position
      *
      * @return a random Fischer 960 init position
      */
     public static String create960FEN() {
-        List<String> pos = new ArrayList<String>();
-        pos.addAll(Arrays.asList("R", "K", "R"));
-        int i = Utils.randomInt(4);
-        LOGGER.fine(pos + " I:" + i);
-        pos.add(i, "Q");
-        i = Utils.randomInt(5);
-        pos.add(i, "N");
-        i = Utils.randomInt(6);
-        pos.add(i, "N");
-        i = Utils.randomInt(7);
-        pos.add(i, "B"); // the right bishop
-        int l = 0;
-        if (((i + 1) / 2) > 0) {
-            l = Utils.randomInt((i + 1) / 2);
-        }
-        pos.add(2 * l + (i % 2), "B"); // left bishop
-        String POS = "";
-        for (i = 0; i < 8; i++) {
-            POS += pos.get(i);
-        }
-        List<String> letters = Arrays.asList(new String[]{"A", "B", "C", "D", "E", "F", "G", "H"});
-        String castle = letters.get(pos.indexOf("R")) + letters.get(pos.lastIndexOf("R"));
-        castle += castle.toLowerCase();
-        return POS.toLowerCase() + "/pppppppp/8/8/8/8/PPPPPPPP/" + POS + " w " + castle + " - 0 1";
+        return create960FEN(Utils.randomInt(FISCHER_POSITIONS));
+    }
+
+    /**
+     * Create the Fischer 960 init position of the given Scharnagl number (518 is the regular chess init position)
+     *
+     * @param index a Scharnagl number, 0..959
+     * @return the Fischer 960 init position of the given number. null if the number is out of range
+     */
+    public static String create960FEN(int index) {
+        if ((index < 0) || (index >= FISCHER_POSITIONS)) {
+            LOGGER.warning("bad Fischer 960 position number " + index);
+            return null;
+        }
+        char[] pos = new char[8];
+        // light and dark squared bishops
+        pos[2 * (index % 4) + 1] = 'B';
+        index /= 4;
+        pos[2 * (index % 4)] = 'B';
+        index /= 4;
+        // queen on one of the 6 free squares
+        placeOnFreeSquare(pos, index % 6, 'Q');
+        index /= 6;
+        // knights on 2 of the 5 free squares (the second knight index is counted before the first knight is placed)
+        placeOnFreeSquare(pos, KNIGHTS_960[index][1], 'N');
+        placeOnFreeSquare(pos, KNIGHTS_960[index][0], 'N');
+        // rook, king and rook on the last 3 free squares
+        placeOnFreeSquare(pos, 0, 'R');
+        placeOnFreeSquare(pos, 0, 'K');
+        placeOnFreeSquare(pos, 0, 'R');
+
+        String position = new String(pos);
+        char leftRook = (char) ('A' + position.indexOf('R'));
+        char rightRook = (char) ('A' + position.lastIndexOf('R'));
+        return position.toLowerCase() + "/pppppppp/8/8/8/8/PPPPPPPP/" + position + " w " + leftRook + rightRook +
+                Character.toLowerCase(leftRook) + Character.toLowerCase(rightRook) + " - 0 1";
+    }
+
+    private static void placeOnFreeSquare(char[] pos, int freeIndex, char piece) {
+        for (int i = 0; i < pos.length; i++) {
+            if (pos[i] == 0) {
+                if (freeIndex == 0) {
+                    pos[i] = piece;
+                    return;
+                }
+                freeIndex--;
+            }
+        }
     }
 }
@@ -10,6 +10,7 @@
 package com.ichess.game;
 
 import java.util.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -38,6 +39,15 @@ public class Game {
     static final String KING_LOCATION = "king-location";
     static final String RIGHT_ROOK_LOCATION = "right-rook-location";
     static final String LEFT_ROOK_LOCATION = "left-rook-location";
+    // position status (see status())
+    public static final int STATUS_ILLEGAL = -1;
+    public static final int STATUS_PLAYING = 0;
+    public static final int STATUS_CHECK = 1;
+    public static final int STATUS_CHECKMATE = 2;
+    public static final int STATUS_STALEMATE = 3;
+    public static final int STATUS_ENDED = 4;
+    // maximal number of queued premoves of a color
+    public static final int MAX_PREMOVES = 16;
     // from FEN/PGN)
     // and increases after black move
     private Piece[][] _board = new Piece[8][8];
@@ -55,6 +65,8 @@ public class Game {
     private boolean _isPaused = false;
     private King _king[] = new King[Common.COLOR_NUM];
     private ArrayList<MoveInfo> _moveInfos = new ArrayList<MoveInfo>(40);
+    // the current position move info, if the generation of its valid moves was deferred by analyse
+    private MoveInfo _pendingMoveInfo = null;
     private List<Piece> _whiteCaptured = new ArrayList<Piece>();
     private List<Piece> _blackCaptured = new ArrayList<Piece>();
     private Game _otherGame; // other game for bug house
@@ -69,6 +81,13 @@ public class Game {
     private boolean _reqPause[] = new boolean[Common.COLOR_NUM];
     // takeback support
     private boolean _reqTakeback[] = new boolean[Common.COLOR_NUM];
+    // premove support. the queued packed moves of each color, each with the other color move it waits for
+    private int[][] _premoves = new int[Common.COLOR_NUM][MAX_PREMOVES];
+    private int[][] _premoveConditions = new int[Common.COLOR_NUM][MAX_PREMOVES];
+    private int[] _premoveCount = new int[Common.COLOR_NUM];
+    private int _premoveTimeMs = 0;
+    private boolean _playingPremoves = false;
+    private boolean _chargePremoveTime = false;
     private int _startingColor = Common.COLOR_WHITE;
     private int[] _timeLimitForGame = new int[Common.COLOR_NUM];
     private int[] _timeIncrementForMove = new int[Common.COLOR_NUM];
@@ -81,6 +100,31 @@ public class Game {
     private int _winner = 0;
     private int _grules = Common.GAME_RULES_REGULAR;
     private int _gkind = Common.GAME_KIND_REGULAR;
+    // zobrist hash of the pieces on the board. updated on every setPieceAt
+    private long _boardHash = 0;
+    // evaluation terms of the pieces on the board (see Evaluation). updated on every setPieceAt
+    private int[] _material = new int[Common.COLOR_NUM];
+    private int[] _pieceCount = new int[Common.COLOR_NUM];
+    private int[] _pieceSquareMiddleGame = new int[Common.COLOR_NUM];
+    private int[] _pieceSquareEndGame = new int[Common.COLOR_NUM];
+    private long[] _pawns = new long[Common.COLOR_NUM];
+    private int _phase = 0;
+    // neural evaluation following the pieces on the board, if any
+    private NeuralEvaluation _neuralEvaluation = null;
+    // ep pawns saved by null moves (used by the search engine)
+    private ArrayList<Pawn> _nullMoveEpPawns = new ArrayList<Pawn>();
+    // state change listeners. replaced (not modified) when a listener is added or removed
+    private static final GameListener[] NO_LISTENERS = new GameListener[0];
+    private GameListener[] _listeners = NO_LISTENERS;
+    // keep only the played move, hash and counters of past positions (see setCompactHistory)
+    private boolean _compactHistory = false;
+    // the squares changed since the reachability of the pieces was calculated, a bit per square. the reachability
+    // is recalculated only for the pieces affected by these squares (see analyse)
+    private long _changedSquares = 0;
+    private boolean _reachabilityValid = false;
+    private int _reachabilityEpSquare = -1;
+    // cross check the incremental reachability against a full recalculation (for debugging)
+    private static volatile boolean _checkReachability = false;
 
     /**
      * Create a standard game of chess.
@@ -119,6 +163,52 @@ public class Game {
      * @param gkind     - game kind
      */
     public Game(String whiteName, String blackName, int gkind) {
+        setDefaults(whiteName, blackName, gkind);
+        initialPosition();
+    }
+
+    /*
+     * create a game in the given init position (parsed and analysed)
+     */
+    private Game(int gkind, String initPosition) {
+        setDefaults(null, null, gkind);
+        setStartPosition(initPosition);
+    }
+
+    /**
+     * Reinitialise this game in place, as a new game of the given game kind in its initial position.
+     * All the moves, attributes, clocks and players of the game are cleared, and the game objects are reused,
+     * so a game can be reused for many positions without allocating a new game (see {@link GamePool}).
+     *
+     * @param gkind - game kind
+     */
+    public void reset(int gkind) {
+        clearState();
+        setDefaults(null, null, gkind);
+        initialPosition();
+    }
+
+    /**
+     * Reinitialise this game in place, as a new game loaded from the given FEN (see {@link #reset(int)}).
+     *
+     * @param gkind - game kind. 0 to guess the game kind from the FEN
+     * @param fen   - a FEN string. null for the initial position of the game kind
+     * @return true on success. otherwise false (the game is left in an undefined position)
+     */
+    public boolean reset(int gkind, String fen) {
+        if (fen == null) {
+            reset(gkind);
+            return true;
+        }
+        clearState();
+        setDefaults(null, null, gkind);
+        return FEN.loadGame(this, fen, true, gkind);
+    }
+
+    /*
+     * set the state of a new game (before the initial position is set)
+     */
+    private void setDefaults(String whiteName, String blackName, int gkind) {
         _gkind = gkind;
         // set default game rules base on game kind
         switch (_gkind) {
@@ -156,14 +246,57 @@ public class Game {
         _reqDraw[Common.COLOR_BLACK] = false;
         _reqPause[Common.COLOR_WHITE] = false;
         _reqPause[Common.COLOR_BLACK] = false;
+        Arrays.fill(_premoveCount, 0);
         _ended = false;
         _winner = 0; // means in progress
 
         setAttribute(CHECK_50_MOVES_DRAW, false);
         setAttribute(CHECK_REPEATITION_DRAW, false);
         setAttribute(CHECK_NO_MATERIAL_DRAW, false);
+    }
 
-        initialPosition();
+    /*
+     * clear all the state of a used game, without taking back its moves one by one
+     */
+    private void clearState() {
+        for (Piece[] row : _board) {
+            Arrays.fill(row, null);
+        }
+        _boardHash = 0;
+        Arrays.fill(_material, 0);
+        Arrays.fill(_pieceCount, 0);
+        Arrays.fill(_pieceSquareMiddleGame, 0);
+        Arrays.fill(_pieceSquareEndGame, 0);
+        Arrays.fill(_pawns, 0);
+        _phase = 0;
+        _neuralEvaluation = null;
+        Arrays.fill(_king, null);
+        _epPawn = null;
+        _nullMoveEpPawns.clear();
+
+        discardPendingMoves();
+        _moveInfos.clear();
+        _movelist.clear();
+        _currentMove = 0;
+        _moveNumber = 1;
+        _startingColor = Common.COLOR_WHITE;
+        _currentColor = Common.COLOR_WHITE;
+        _whiteCaptured.clear();
+        _blackCaptured.clear();
+        _otherGame = null;
+        _listeners = NO_LISTENERS;
+        _compactHistory = false;
+        _reachabilityValid = false;
+
+        _properties.clear();
+        _endString = null;
+        _isPaused = false;
+        _rated = false;
+        Arrays.fill(_timeLimitForGame, 0);
+        Arrays.fill(_timeIncrementForMove, 0);
+        Arrays.fill(_timeLimitForMove, 0);
+        _premoveTimeMs = 0;
+        _chargePremoveTime = false;
     }
 
     public int getGameRules() {
@@ -199,6 +332,83 @@ public class Game {
         _otherGame = otherGame;
     }
 
+    /**
+     * Enable/disable compact history. A game with compact history keeps, for each past position, only the played
+     * move, the position hash and the counters, and drops its valid next moves list and FEN - which are most of
+     * the memory of a long game. The valid moves of a past position are regenerated on demand (see
+     * {@link #getValidNextMovesFromMove(int)}), and repetitions are detected by position hash. <br>
+     * Not supported for bug house games (their pockets depend on the other game). Reset with the game.
+     *
+     * @param enabled - compact history enabled. when enabled, the existing past positions are compacted
+     * @return true on success
+     */
+    public boolean setCompactHistory(boolean enabled) {
+        if (enabled && isBugHouse()) {
+            LOGGER.warning("compact history is not supported for bug house games");
+            return false;
+        }
+        _compactHistory = enabled;
+        if (enabled) {
+            for (int i = 0; i < _currentMove; i++) {
+                _moveInfos.get(i).compact();
+            }
+        }
+        return true;
+    }
+
+    public boolean isCompactHistory() {
+        return _compactHistory;
+    }
+
+    /**
+     * Enable/disable the cross check of the incremental piece reachability. The reachability of a piece is
+     * recalculated after a move only if the move changed a square it sees. When enabled, the other pieces are
+     * recalculated too, and a difference is reported (an assertion error when assertions are enabled). For
+     * debugging only - it makes the analysis of every move as slow as a full recalculation.
+     *
+     * @param enabled - check enabled, for all the games
+     */
+    public static void setReachabilityCheck(boolean enabled) {
+        _checkReachability = enabled;
+    }
+
+    /**
+     * Add a listener of the state changes of this game. Listeners are removed when the game is reset
+     *
+     * @param listener - a given listener
+     */
+    public void addListener(GameListener listener) {
+        Utils.AssertNotNull(listener);
+        GameListener[] listeners = Arrays.copyOf(_listeners, _listeners.length + 1);
+        listeners[_listeners.length] = listener;
+        _listeners = listeners;
+    }
+
+    /**
+     * Remove a listener added with {@link #addListener(GameListener)}
+     *
+     * @param listener - a given listener
+     * @return true if the listener was removed
+     */
+    public boolean removeListener(GameListener listener) {
+        for (int i = 0; i < _listeners.length; i++) {
+            if (_listeners[i] == listener) {
+                GameListener[] listeners = new GameListener[_listeners.length - 1];
+                System.arraycopy(_listeners, 0, listeners, 0, i);
+                System.arraycopy(_listeners, i + 1, listeners, i, listeners.length - i);
+                _listeners = listeners;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void fireEvent(int event, int color, long value, Move move) {
+        for (GameListener listener : _listeners) {
+            listener.gameChanged(this, event, color, value, move);
+        }
+    }
+
     public boolean hasCapturedPieces()
     {
         return ( _whiteCaptured.size() != 0 ) || ( _blackCaptured.size() != 0 );
@@ -392,6 +602,7 @@ public class Game {
             _endString = PGN.STR_BLACK_ABORT;
         }
         endGame(Common.COLOR_ILLEGAL);
+        fireEvent(GameListener.EVENT_ABORT, color, 0, null);
     }
 
     @SuppressWarnings({"unchecked"})
@@ -405,8 +616,20 @@ public class Game {
         int otherColor = Common.OtherColor(_currentColor);
 
         // check exactly 1 king for each size
-        List<Piece> currentColorKings = findPieces(Common.PIECE_TYPE_KING, _currentColor);
-        List<Piece> otherColorKings = findPieces(Common.PIECE_TYPE_KING, otherColor);
+        List<Piece> currentColorKings = new ArrayList<Piece>(1);
+        List<Piece> otherColorKings = new ArrayList<Piece>(1);
+        for (int x = 8; x != 0; x--) {
+            for (int y = 8; y != 0; y--) {
+                Piece piece = _board[x - 1][y - 1];
+                if ((piece != null) && piece.isKing()) {
+                    if (piece.getColor() == _currentColor) {
+                        currentColorKings.add(piece);
+                    } else if (piece.getColor() == otherColor) {
+                        otherColorKings.add(piece);
+                    }
+                }
+            }
+        }
 
         if (!isSuicideOrFreePlay()) {
             if (currentColorKings.size() == 0) {
@@ -435,22 +658,22 @@ public class Game {
         }
 
         // check that there are no pawns on lines 1 or 8
-        List<Piece> currentColorPawns = findPieces(Common.PIECE_TYPE_PAWN, _currentColor);
-        List<Piece> otherColorPawns = findPieces(Common.PIECE_TYPE_PAWN, otherColor);
-
-        for (Piece pawn : currentColorPawns) {
-            if ((pawn.getX() == 1) || (pawn.getX() == 8)) {
-                LOGGER.fine( "moving pawn on row 1 or 8 - analyze failed");
-
-                return false;
-            }
-        }
+        for (int x = 1; x <= 8; x += 7) {
+            for (int y = 1; y <= 8; y++) {
+                Piece pawn = _board[x - 1][y - 1];
+                if ((pawn == null) || (!pawn.isPawn())) {
+                    continue;
+                }
+                if (pawn.getColor() == _currentColor) {
+                    LOGGER.fine( "moving pawn on row 1 or 8 - analyze failed");
 
-        for (Piece pawn : otherColorPawns) {
-            if ((pawn.getX() == 1) || (pawn.getX() == 8)) {
-                LOGGER.fine( "other pawn on row 1 or 8 - analyze failed");
+                    return false;
+                }
+                if (pawn.getColor() == otherColor) {
+                    LOGGER.fine( "other pawn on row 1 or 8 - analyze failed");
 
-                return false;
+                    return false;
+                }
             }
         }
 
@@ -478,7 +701,12 @@ public class Game {
 
         Vector<Piece> otherPieces = pieces[otherColor];
         Vector<Piece> movingPieces = pieces[_currentColor];
-        // calculate readability for all pieces
+        // calculate reachability for the pieces affected by the squares changed since the last analyse.
+        // pawns are affected by a change of the ep pawn, and grasshoppers (over a changed hurdle) are always
+        // recalculated
+        long affected = _reachabilityValid ? Attacks.getReachabilityChanges(this, _changedSquares) : -1L;
+        int epSquare = (_epPawn == null) ? -1 : Zobrist.square(_epPawn.getX(), _epPawn.getY());
+        boolean epChanged = epSquare != _reachabilityEpSquare;
         for (int x = 8; x != 0; x--) {
             for (int y = 8; y != 0; y--) {
                 Piece piece = getPieceAt(x, y);
@@ -486,11 +714,20 @@ public class Game {
                     continue;
                 }
                 piece.setPinned(false);
-                piece.clearReachability();
-                piece.doCalcReachability(this);
+                if (((affected & (1L << Zobrist.square(x, y))) != 0) || piece.isGrasshoper() ||
+                        (epChanged && piece.isPawn())) {
+                    piece.clearReachability();
+                    piece.doCalcReachability(this);
+                } else if (_checkReachability && piece.recalcReachability(this)) {
+                    Utils.Assert(false, "Game " + getName() + " : incremental reachability of " + piece + " at " +
+                            x + "," + y + " differs from a full calculation");
+                }
                 pieces[piece.getColor()].add(piece);
             }
         }
+        _changedSquares = 0;
+        _reachabilityValid = true;
+        _reachabilityEpSquare = epSquare;
         if (!isSuicideOrFreePlay()) {
             if (_currentMove == 0) {
 
@@ -499,8 +736,10 @@ public class Game {
                 // if it is - fail the analyse
                 for (Piece movingPiece : movingPieces) {
                     movingPiece.setCheckPin(true);
-                    LOGGER.fine(_grules + " piece " + movingPiece.getType() + ":" + movingPiece.getColor() + "," + movingPiece.getPinningPiece()
-                            + " " + movingPiece.getX() + "," + movingPiece.getY());
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.fine(_grules + " piece " + movingPiece.getType() + ":" + movingPiece.getColor() + "," + movingPiece.getPinningPiece()
+                                + " " + movingPiece.getX() + "," + movingPiece.getY());
+                    }
                     if (movingPiece.canMoveTo(otherKing.getX(), otherKing.getY(), this)) {
                         LOGGER.fine( "other side in check - analyse failed");
 
@@ -542,6 +781,7 @@ public class Game {
             }
         }
 
+        boolean pendingMoves = false;
         if (newMoveInfo.isCheck()) {
 
             newMoveInfo.setCheckMate(true);
@@ -695,13 +935,17 @@ public class Game {
                             continue;
                         }
                         if (movingPiece.isReachable(x, y) && (!movingPiece.isPinned())) {
-                            LOGGER.fine("in the way." + x + "," + y + ":" + kingX + "," + kingY + "~" + dirX + "," + dirY);
+                            if (LOGGER.isLoggable(Level.FINE)) {
+                                LOGGER.fine("in the way." + x + "," + y + ":" + kingX + "," + kingY + "~" + dirX + "," + dirY);
+                            }
                             if (checkingPiece.isGrasshoper()) {
                                 if ((x == kingX - dirX) && (y == kingY - dirY)) {
                                     continue; // capture piece in front of the king doesn't help
                                 }
                             }
-                            LOGGER.fine("adding blocking move by " + movingPiece.getType() + " to " + x + "," + y);
+                            if (LOGGER.isLoggable(Level.FINE)) {
+                                LOGGER.fine("adding blocking move by " + movingPiece.getType() + " to " + x + "," + y);
+                            }
                             newMoveInfo.addValidMove(movingPiece, x, y);
                             newMoveInfo.setCheckMate(false);
                         } // maybe the checking piece is a grasshopper - then some piece might "go away" from the king
@@ -734,7 +978,9 @@ public class Game {
                         if (addDropAnyMove)
                         {
                             Piece droppedPiece = Piece.create(Common.PIECE_TYPE_DROP_ANY, _currentColor);
-                            LOGGER.fine("adding drop move by " + droppedPiece.getType() + " color " + Common.getColor(droppedPiece.getColor()) + " to " + x + "," + y);
+                            if (LOGGER.isLoggable(Level.FINE)) {
+                                LOGGER.fine("adding drop move by " + droppedPiece.getType() + " color " + Common.getColor(droppedPiece.getColor()) + " to " + x + "," + y);
+                            }
                             newMoveInfo.addValidMove(droppedPiece, x, y, true);
                             newMoveInfo.setCheckMate(false);
                         }
@@ -749,7 +995,9 @@ public class Game {
                         for (int a = 1; a < 9; a++) { // if he can move anywhere - it won't be check
                             for (int b = 1; b < 9; b++) {
                                 if (saver.isReachable(a, b)) {
-                                    LOGGER.fine("adding saver " + checkingX + "," + checkingY);
+                                    if (LOGGER.isLoggable(Level.FINE)) {
+                                        LOGGER.fine("adding saver " + checkingX + "," + checkingY);
+                                    }
                                     newMoveInfo.addValidMove(saver, a, b);
                                     newMoveInfo.setCheckMate(false);
                                 }
@@ -758,297 +1006,13 @@ public class Game {
                     }
                 }
             }
+        } else if (hasLegalMove(movingPieces, otherPieces)) {
+            // not in check, and a legal move was found. the valid moves are generated when they are needed
+            // (see generatePendingMoves)
+            newMoveInfo.setStaleMate(false);
+            pendingMoves = true;
         } else {
-            // not in check. verify that not in stalemate, by finding other
-            // pieces that are not tied and can move
-            newMoveInfo.setStaleMate(true);
-
-            for (Piece movingPiece : movingPieces) {
-                if (movingPiece.isKing()) {
-                    // check standard king moves
-
-                    // in suicide there can be multiple kings
-                    kingX = movingPiece.getX();
-                    kingY = movingPiece.getY();
-
-                    for (int x = (kingX - 1); x <= (kingX + 1); x++) {
-                        for (int y = (kingY - 1); y <= (kingY + 1); y++) {
-                            if ((x < 1) || (x > 8) || (y < 1) || (y > 8)) {
-                                continue;
-                            }
-                            // verify that the king is not moving into check by
-                            // moving the king
-                            Piece destPiece = getPieceAt(x, y);
-                            if (destPiece != null) {
-                                if (_currentColor == destPiece.getColor()) {
-                                    // 	king can't move there
-                                    continue;
-                                }
-                            }
-
-                            boolean kingCanMove = true;
-
-                            if (!isSuicideOrFreePlay()) {
-                                // move the king and see if other piece can now
-                                // attack it
-                                _board[x - 1][y - 1] = movingPiece;
-                                _board[kingX - 1][kingY - 1] = null;
-
-                                for (Piece otherPiece : otherPieces) {
-                                    if (otherPiece.canMoveTo(x, y, this)) {
-                                        kingCanMove = false;
-                                        break;
-                                    }
-                                }
-                                _board[x - 1][y - 1] = destPiece;
-                                _board[kingX - 1][kingY - 1] = movingKing;
-                            }
-
-                            if (kingCanMove) {
-                                newMoveInfo.setStaleMate(false);
-                                newMoveInfo.addValidMove(movingPiece, x, y);
-                            }
-                        }
-                    }
-
-                    // check special king move - castling
-                    if (!isSuicideOrFreePlay()) {
-                        if (!movingPiece.isMoved()) { // king didn't move
-
-                            // check long castle
-                            int RookInit = (Integer) getAttribute(LEFT_ROOK_LOCATION);
-                            int KingInit = (Integer) getAttribute(KING_LOCATION);
-                            int KingDest = 3; // preparation for Capablanca chess
-                            int RookDest = 4;
-                            do {
-                                Piece rook = getPieceAt(kingX, RookInit);
-                                if (rook == null) {
-                                    break;
-                                }
-                                if (!rook.isRook()) {
-                                    break;
-                                }
-                                if (!rook.isColor(_currentColor)) {
-                                    break;
-                                }
-                                if (rook.isMoved()) {
-                                    break;
-                                }
-                                boolean canCastle = true;
-                                // rook didnt move
-                                /* need to check 2 more things:
-                                * 1. No square between the king's initial and final squares (including the initial and final
-								* squares) may be under attack by an enemy piece.
-								* 2. All the squares between the king's initial and final squares (including the final square), 
-								* and all of the squares between the rook's initial and final squares (including the final square), 
-								* must be vacant except for the king and castling rook. (An equivalent way of stating this is: 
-								* the smallest back rank interval containing the king, the castling rook, and their destination 
-								* squares, contains no pieces other than the king and castling rook.)
-								*/
-                                int leftSquare = Math.min(KingDest, RookInit);
-                                int rightSquare = Math.max(RookDest, KingInit);
-                                for (int col = leftSquare; col <= rightSquare; col++) {
-                                    Piece pieceBetween = getPieceAt(kingX, col);
-                                    if (pieceBetween != null) { // condition 2
-                                        if (!(col == RookInit || col == KingInit)) { // not the initial rook or king
-                                            canCastle = false;
-                                            break;
-                                        }
-                                    }
-                                    if ((col >= KingDest && col <= KingInit) && (!isSuicideOrFreePlay())) { // condition 1
-                                        for (Piece otherPiece : otherPieces) {
-                                            if (otherPiece.canMoveTo(kingX, col, this)) {
-                                                canCastle = false;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-                                if (canCastle) {
-                                    if (KingDest != KingInit && KingDest != RookInit) {
-                                        newMoveInfo.addValidMove(movingPiece, kingX, KingDest);
-                                    }
-                                    if (isFischer()) {
-                                        newMoveInfo.addValidMove(movingPiece, kingX, RookInit); // allow castling by king + rook press
-                                    }
-                                    LOGGER.fine("gkind " + Common.GAME_KIND_TEXT[getGameKind()] + " allowing O-O-O of " + Common.getColor(this._currentColor) +
-                                            " king from " + kingX + "," + kingY + " to " + KingDest + " or " + RookInit);
-                                }
-                            } while (false);
-                            // check short castle
-                            do {
-                                RookInit = (Integer) getAttribute(RIGHT_ROOK_LOCATION);
-                                Piece rook = getPieceAt(kingX, RookInit);
-                                if (rook == null) {
-                                    break;
-                                }
-                                if (!rook.isRook()) {
-                                    break;
-                                }
-                                if (!rook.isColor(_currentColor)) {
-                                    break;
-                                }
-                                if (rook.isMoved()) {
-                                    break;
-                                }
-                                boolean canCastle = true;
-
-                                KingDest = 7;
-                                RookDest = 6;
-                                int leftSquare = Math.min(RookDest, KingInit);
-                                int rightSquare = Math.max(KingDest, RookInit);
-                                for (int col = leftSquare; col <= rightSquare; col++) {
-                                    Piece pieceBetween = getPieceAt(kingX, col);
-                                    if (pieceBetween != null) { // condition 2
-                                        if (!(col == RookInit || col == KingInit)) { // not the initial rook or king
-                                            canCastle = false;
-                                            break;
-                                        }
-                                    }
-                                    if ((col <= KingDest && col >= KingInit) && (!isSuicideOrFreePlay())) { // condition 1
-                                        for (Piece otherPiece : otherPieces) {
-                                            if (otherPiece.canMoveTo(kingX, col, this)) {
-                                                canCastle = false;
-                                                break;
-                                            }
-                                        }
-                                    }
-                                }
-                                if (canCastle) {
-                                    if (KingDest != KingInit && KingDest != RookInit) {
-                                        newMoveInfo.addValidMove(movingPiece, kingX, KingDest);
-                                    }
-                                    if (isFischer()) {
-                                        newMoveInfo.addValidMove(movingPiece, kingX, RookInit); // allow castling by king + rook press
-                                    }
-                                    LOGGER.fine("grules " + Common.GAME_RULES_TEXT[getGameRules()] + " allowing O-O of " + Common.getColor(this._currentColor) +
-                                            " king from " + kingX + "," + kingY + " to " + KingDest + " or " + RookInit);
-                                }
-                            } while (false);
-                        }
-                    }
-                } else {
-                    // piece is not a king. see if it can move somewhere
-                    LOGGER.fine("PIECE:" + movingPiece.getX() + ", " + movingPiece.getY() + " @ " + movingPiece.getColor() + ":" + movingPiece.getType());
-                    for (int x = 8; x != 0; x--) {
-                        for (int y = 8; y != 0; y--) {
-                            boolean badMoveGrassHopperIntoCheck = false;
-
-                            // need to check that you don't move into check !@!
-                            if ((hasTypePiece(otherPieces, Common.PIECE_TYPE_GRASSHOPER)) &&
-                                    (!isSuicideOrFreePlay())) {
-                                int mx = movingPiece.getX();
-                                int my = movingPiece.getY();
-                                Piece temp = _board[x - 1][y - 1];
-                                _board[x - 1][y - 1] = movingPiece;
-                                _board[mx - 1][my - 1] = null;
-
-                                King king = ((King) Utils.getFirstInList(currentColorKings));
-                                kingX = ((King) Utils.getFirstInList(currentColorKings)).getX();
-                                kingY = ((King) Utils.getFirstInList(currentColorKings)).getY();
-
-                                for (Piece otherPiece : otherPieces) {
-                                    if (otherPiece.canMoveTo(kingX, kingY, this)) {
-                                        if (otherPiece.getX() != x || otherPiece.getY() != y) { // not captured
-                                            badMoveGrassHopperIntoCheck = true;
-                                            break; // can't move there
-                                        }
-                                    }
-                                }
-                                _board[x - 1][y - 1] = temp;
-                                _board[mx - 1][my - 1] = movingPiece;
-                                if (badMoveGrassHopperIntoCheck) {
-                                    continue;
-                                }
-                            }
-
-                            if (movingPiece.isPinned()) {
-                                // the piece can only move within the pinning
-                                Piece PinningPiece = movingPiece.getPinningPiece();
-                                Utils.AssertNotNull(PinningPiece);
-                                if (movingPiece.isReachable(x, y)) {
-                                    // the moving point should fall exactly
-                                    // inside the path from
-                                    // the pinning piece to the king
-                                    if (Utils.isInPath(x, y, PinningPiece.getX(), PinningPiece.getY(), kingX, kingY)) {
-
-                                        // valid move within the pin
-                                        newMoveInfo.setStaleMate(false);
-                                        newMoveInfo.addValidMove(movingPiece, x, y);
-                                    }
-                                }
-                            } else {
-                                if (movingPiece.isReachable(x, y)) {
-                                    newMoveInfo.setStaleMate(false);
-                                    newMoveInfo.addValidMove(movingPiece, x, y);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-
-            // in crazy house and bug house, any piece can be dropped in the middle
-            // in crazy house, check if we have droppable piece.
-            // in bug house, don't check
-            // in both cases, add drop any move
-            if (isCrazyOrBugHouse())
-            {
-                boolean addDropAnyMove = true;
-                if (isCrazyHouse())
-                {
-                    List<Piece> droppable = getDroppablePieces(_currentColor);
-                    addDropAnyMove = ! droppable.isEmpty();
-                }
-                if (addDropAnyMove)
-                {
-                    // there is a piece to drop. its not a stale mate
-                    newMoveInfo.setStaleMate(false);
-                    Piece droppedPiece = Piece.create(Common.PIECE_TYPE_DROP_ANY, _currentColor);
-                    LOGGER.fine("move " + _currentMove + " color " + _currentColor + " adding drop moves in all squares");
-                    // piece can be dropped anywhere
-                    for ( int x = 8 ;x != 0 ; x-- )
-                    {
-                        for ( int y = 8 ;y != 0 ; y-- )
-                        {
-                            if (getPieceAt(x,y) == null)
-                            {
-                                newMoveInfo.addValidMove(droppedPiece, x, y, true);
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        // in suicide if there is a valid capture move then remove all non capture moves
-        if (isSuicide()) {
-            boolean hasCaptureMove = false;
-            for (Move nextMove : newMoveInfo.getValidNextMoves()) {
-                if (nextMove.getCapturedPiece() != null) {
-                    hasCaptureMove = true;
-                    break;
-                }
-            }
-
-            if (hasCaptureMove) {
-                List<Move> newValidNextMoves = new ArrayList<Move>();
-
-                for (Move nextMove : newMoveInfo.getValidNextMoves()) {
-                    LOGGER.fine("checking move " + nextMove.getFromX() + "," + nextMove.getFromY() + " - " +
-                            nextMove.getToX() + "," + nextMove.getToY());
-
-                    Piece capturedPiece = nextMove.getCapturedPiece();
-                    if (capturedPiece != null) {
-                        LOGGER.fine("move " + nextMove.getFromX() + "," + nextMove.getFromY() + " - " +
-                                nextMove.getToX() + "," + nextMove.getToY() + " has captured piece");
-
-                        newValidNextMoves.add(nextMove);
-                    }
-                }
-                newMoveInfo.getValidNextMoves().clear();
-                newMoveInfo.getValidNextMoves().addAll(newValidNextMoves);
-            }
+            generateValidMoves(newMoveInfo, movingPieces, otherPieces);
         }
 
         if (newMoveInfo.isCheckMate()) {
@@ -1190,6 +1154,7 @@ public class Game {
         }
 
         newMoveInfo.setFenPos(FEN.getFENPosition(this));
+        newMoveInfo.setPositionHash(getPositionHash());
         if ((Boolean) getAttribute(CHECK_REPEATITION_DRAW)) {
             // calculate repeatition, by counting how many past position matches
             // this one.
@@ -1200,7 +1165,11 @@ public class Game {
                 if (lastMoveInfo == null) {
                     continue;
                 }
-                if (newMoveInfo.getFenPosition().equals(lastMoveInfo.getFenPosition())) {
+                if (lastMoveInfo.isCompacted()) {
+                    if (newMoveInfo.getPositionHash() == lastMoveInfo.getPositionHash()) {
+                        matches++;
+                    }
+                } else if (newMoveInfo.getFenPosition().equals(lastMoveInfo.getFenPosition())) {
                     matches++;
                 }
             }
@@ -1210,10 +1179,11 @@ public class Game {
             }
         }
 
+        // the valid moves are named when needed (see MoveInfo.getNamedValidNextMoves)
         _moveInfos.add(newMoveInfo);
-
-        for (Move move : newMoveInfo.getValidNextMoves()) {
-            Notation.getNames(move);
+        if (pendingMoves) {
+            newMoveInfo.setMovesPending(true);
+            _pendingMoveInfo = newMoveInfo;
         }
 
         // System.err.println("analyse took " +
@@ -1223,17 +1193,464 @@ public class Game {
         return true;
     }
 
+    /*
+     * returns true if the moving side (not in check) has a legal move, stopping at the first legal move found :
+     * king moves first, then drops, captures and any other move. returns false if no legal move was found by
+     * these quick checks (i.e. only castling is possible), or if the other side has a grasshopper, so the full
+     * generation decides
+     */
+    private boolean hasLegalMove(Vector<Piece> movingPieces, Vector<Piece> otherPieces) {
+        boolean suicideOrFreePlay = isSuicideOrFreePlay();
+        if (!suicideOrFreePlay && hasTypePiece(otherPieces, Common.PIECE_TYPE_GRASSHOPER)) {
+            // a move may uncover a grasshopper check - the pins don't tell
+            return false;
+        }
+        Piece movingKing = suicideOrFreePlay ? null : _king[_currentColor];
+        if (suicideOrFreePlay) {
+            // no check in suicide and free play. a king can move to any square not held by its own color
+            for (Piece movingPiece : movingPieces) {
+                if (movingPiece.isKing() && hasKingMove(movingPiece, null)) {
+                    return true;
+                }
+            }
+        } else if (hasKingMove(movingKing, otherPieces)) {
+            return true;
+        }
+
+        if (isCrazyOrBugHouse() && (isBugHouse() || !getDroppablePieces(_currentColor).isEmpty())) {
+            // a drop is always possible - there are always empty squares
+            return true;
+        }
+
+        // captures first. in suicide a capture is forced, and there is a capture move if there is any move
+        for (Piece movingPiece : movingPieces) {
+            if (movingPiece.isKing()) {
+                continue;
+            }
+            for (Piece otherPiece : otherPieces) {
+                if (isLegalPieceMove(movingPiece, otherPiece.getX(), otherPiece.getY(), movingKing)) {
+                    return true;
+                }
+            }
+        }
+        for (Piece movingPiece : movingPieces) {
+            if (movingPiece.isKing()) {
+                continue;
+            }
+            for (int x = 8; x != 0; x--) {
+                for (int y = 8; y != 0; y--) {
+                    if (isLegalPieceMove(movingPiece, x, y, movingKing)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /*
+     * returns true if the given king can move to an adjacent square. if other pieces are given, the square must
+     * not be attacked by them after the move
+     */
+    private boolean hasKingMove(Piece king, List<Piece> otherPieces) {
+        int kingX = king.getX();
+        int kingY = king.getY();
+        for (int x = Math.max(kingX - 1, 1); x <= Math.min(kingX + 1, 8); x++) {
+            for (int y = Math.max(kingY - 1, 1); y <= Math.min(kingY + 1, 8); y++) {
+                Piece destPiece = getPieceAt(x, y);
+                if ((destPiece != null) && (destPiece.getColor() == _currentColor)) {
+                    continue;
+                }
+                if (otherPieces == null) {
+                    return true;
+                }
+                boolean attacked = false;
+                _board[x - 1][y - 1] = king;
+                _board[kingX - 1][kingY - 1] = null;
+                for (Piece otherPiece : otherPieces) {
+                    if ((otherPiece != destPiece) && otherPiece.canMoveTo(x, y, this)) {
+                        attacked = true;
+                        break;
+                    }
+                }
+                _board[x - 1][y - 1] = destPiece;
+                _board[kingX - 1][kingY - 1] = king;
+                if (!attacked) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /*
+     * returns true if the given (non king) piece can move to the given square, within its pin
+     */
+    private boolean isLegalPieceMove(Piece piece, int x, int y, Piece king) {
+        if (!piece.isReachable(x, y)) {
+            return false;
+        }
+        if (!piece.isPinned()) {
+            return true;
+        }
+        Piece pinningPiece = piece.getPinningPiece();
+        return Utils.isInPath(x, y, pinningPiece.getX(), pinningPiece.getY(), king.getX(), king.getY());
+    }
+
+    /*
+     * generate the valid moves of the current position, when their generation was deferred by analyse
+     */
+    void generatePendingMoves() {
+        MoveInfo moveInfo = _pendingMoveInfo;
+        if (moveInfo == null) {
+            return;
+        }
+        _pendingMoveInfo = null;
+        moveInfo.setMovesPending(false);
+        Utils.Assert(moveInfo == getCurrentMoveInfo(), "Game " + getName() + " : pending moves of a past position");
+        int otherColor = Common.OtherColor(_currentColor);
+        Vector<Piece> movingPieces = new Vector<Piece>();
+        Vector<Piece> otherPieces = new Vector<Piece>();
+        for (int x = 8; x != 0; x--) {
+            for (int y = 8; y != 0; y--) {
+                Piece piece = _board[x - 1][y - 1];
+                if (piece == null) {
+                    continue;
+                }
+                if (piece.getColor() == _currentColor) {
+                    movingPieces.add(piece);
+                } else if (piece.getColor() == otherColor) {
+                    otherPieces.add(piece);
+                }
+            }
+        }
+        generateValidMoves(moveInfo, movingPieces, otherPieces);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Game " + getName() + " : generated " + moveInfo.getValidMoveCount() + " pending valid moves");
+        }
+    }
+
+    /*
+     * drop the deferred generation of the valid moves of the current position, as it is taken back
+     */
+    private void discardPendingMoves() {
+        if (_pendingMoveInfo != null) {
+            _pendingMoveInfo.setMovesPending(false);
+            _pendingMoveInfo = null;
+        }
+    }
+
+    /*
+     * generate the valid moves of the current position, when the moving side is not in check. the moving side is
+     * in stalemate if there are no valid moves. the pieces reachability and pins must be the ones calculated by
+     * the analyse of the current position
+     */
+    private void generateValidMoves(MoveInfo newMoveInfo, Vector<Piece> movingPieces, Vector<Piece> otherPieces) {
+        Piece movingKing = isSuicideOrFreePlay() ? null : _king[_currentColor];
+        int kingX = (movingKing == null) ? 0 : movingKing.getX();
+        int kingY = (movingKing == null) ? 0 : movingKing.getY();
+
+        // not in check. verify that not in stalemate, by finding other
+        // pieces that are not tied and can move
+        newMoveInfo.setStaleMate(true);
+        boolean checkGrassHopperMoves = hasTypePiece(otherPieces, Common.PIECE_TYPE_GRASSHOPER) &&
+                !isSuicideOrFreePlay();
+
+        for (Piece movingPiece : movingPieces) {
+            if (movingPiece.isKing()) {
+                // check standard king moves
+
+                // in suicide there can be multiple kings
+                kingX = movingPiece.getX();
+                kingY = movingPiece.getY();
+
+                for (int x = (kingX - 1); x <= (kingX + 1); x++) {
+                    for (int y = (kingY - 1); y <= (kingY + 1); y++) {
+                        if ((x < 1) || (x > 8) || (y < 1) || (y > 8)) {
+                            continue;
+                        }
+                        // verify that the king is not moving into check by
+                        // moving the king
+                        Piece destPiece = getPieceAt(x, y);
+                        if (destPiece != null) {
+                            if (_currentColor == destPiece.getColor()) {
+                                // 	king can't move there
+                                continue;
+                            }
+                        }
+
+                        boolean kingCanMove = true;
+
+                        if (!isSuicideOrFreePlay()) {
+                            // move the king and see if other piece can now
+                            // attack it
+                            _board[x - 1][y - 1] = movingPiece;
+                            _board[kingX - 1][kingY - 1] = null;
+
+                            for (Piece otherPiece : otherPieces) {
+                                if (otherPiece.canMoveTo(x, y, this)) {
+                                    kingCanMove = false;
+                                    break;
+                                }
+                            }
+                            _board[x - 1][y - 1] = destPiece;
+                            _board[kingX - 1][kingY - 1] = movingKing;
+                        }
+
+                        if (kingCanMove) {
+                            newMoveInfo.setStaleMate(false);
+                            newMoveInfo.addValidMove(movingPiece, x, y);
+                        }
+                    }
+                }
+
+                // check special king move - castling
+                if (!isSuicideOrFreePlay()) {
+                    if (!movingPiece.isMoved()) { // king didn't move
+
+                        // check long castle
+                        int RookInit = (Integer) getAttribute(LEFT_ROOK_LOCATION);
+                        int KingInit = (Integer) getAttribute(KING_LOCATION);
+                        int KingDest = 3; // preparation for Capablanca chess
+                        int RookDest = 4;
+                        do {
+                            Piece rook = getPieceAt(kingX, RookInit);
+                            if (rook == null) {
+                                break;
+                            }
+                            if (!rook.isRook()) {
+                                break;
+                            }
+                            if (!rook.isColor(_currentColor)) {
+                                break;
+                            }
+                            if (rook.isMoved()) {
+                                break;
+                            }
+                            boolean canCastle = true;
+                            // rook didnt move
+                            /* need to check 2 more things:
+                            * 1. No square between the king's initial and final squares (including the initial and final
+								* squares) may be under attack by an enemy piece.
+								* 2. All the squares between the king's initial and final squares (including the final square), 
+								* and all of the squares between the rook's initial and final squares (including the final square), 
+								* must be vacant except for the king and castling rook. (An equivalent way of stating this is: 
+								* the smallest back rank interval containing the king, the castling rook, and their destination 
+								* squares, contains no pieces other than the king and castling rook.)
+								*/
+                            int leftSquare = Math.min(KingDest, RookInit);
+                            int rightSquare = Math.max(RookDest, KingInit);
+                            for (int col = leftSquare; col <= rightSquare; col++) {
+                                Piece pieceBetween = getPieceAt(kingX, col);
+                                if (pieceBetween != null) { // condition 2
+                                    if (!(col == RookInit || col == KingInit)) { // not the initial rook or king
+                                        canCastle = false;
+                                        break;
+                                    }
+                                }
+                                if ((col >= KingDest && col <= KingInit) && (!isSuicideOrFreePlay())) { // condition 1
+                                    for (Piece otherPiece : otherPieces) {
+                                        if (otherPiece.canMoveTo(kingX, col, this)) {
+                                            canCastle = false;
+                                            break;
+                                        }
+                                    }
+                                }
+                            }
+                            if (canCastle) {
+                                if (KingDest != KingInit && KingDest != RookInit) {
+                                    newMoveInfo.addValidMove(movingPiece, kingX, KingDest);
+                                }
+                                if (isFischer()) {
+                                    newMoveInfo.addValidMove(movingPiece, kingX, RookInit); // allow castling by king + rook press
+                                }
+                                if (LOGGER.isLoggable(Level.FINE)) {
+                                    LOGGER.fine("gkind " + Common.GAME_KIND_TEXT[getGameKind()] + " allowing O-O-O of " + Common.getColor(this._currentColor) +
+                                            " king from " + kingX + "," + kingY + " to " + KingDest + " or " + RookInit);
+                                }
+                            }
+                        } while (false);
+                        // check short castle
+                        do {
+                            RookInit = (Integer) getAttribute(RIGHT_ROOK_LOCATION);
+                            Piece rook = getPieceAt(kingX, RookInit);
+                            if (rook == null) {
+                                break;
+                            }
+                            if (!rook.isRook()) {
+                                break;
+                            }
+                            if (!rook.isColor(_currentColor)) {
+                                break;
+                            }
+                            if (rook.isMoved()) {
+                                break;
+                            }
+                            boolean canCastle = true;
+
+                            KingDest = 7;
+                            RookDest = 6;
+                            int leftSquare = Math.min(RookDest, KingInit);
+                            int rightSquare = Math.max(KingDest, RookInit);
+                            for (int col = leftSquare; col <= rightSquare; col++) {
+                                Piece pieceBetween = getPieceAt(kingX, col);
+                                if (pieceBetween != null) { // condition 2
+                                    if (!(col == RookInit || col == KingInit)) { // not the initial rook or king
+                                        canCastle = false;
+                                        break;
+                                    }
+                                }
+                                if ((col <= KingDest && col >= KingInit) && (!isSuicideOrFreePlay())) { // condition 1
+                                    for (Piece otherPiece : otherPieces) {
+                                        if (otherPiece.canMoveTo(kingX, col, this)) {
+                                            canCastle = false;
+                                            break;
+                                        }
+                                    }
+                                }
+                            }
+                            if (canCastle) {
+                                if (KingDest != KingInit && KingDest != RookInit) {
+                                    newMoveInfo.addValidMove(movingPiece, kingX, KingDest);
+                                }
+                                if (isFischer()) {
+                                    newMoveInfo.addValidMove(movingPiece, kingX, RookInit); // allow castling by king + rook press
+                                }
+                                if (LOGGER.isLoggable(Level.FINE)) {
+                                    LOGGER.fine("grules " + Common.GAME_RULES_TEXT[getGameRules()] + " allowing O-O of " + Common.getColor(this._currentColor) +
+                                            " king from " + kingX + "," + kingY + " to " + KingDest + " or " + RookInit);
+                                }
+                            }
+                        } while (false);
+                    }
+                }
+            } else {
+                // piece is not a king. see if it can move somewhere
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("PIECE:" + movingPiece.getX() + ", " + movingPiece.getY() + " @ " + movingPiece.getColor() + ":" + movingPiece.getType());
+                }
+                for (int x = 8; x != 0; x--) {
+                    for (int y = 8; y != 0; y--) {
+                        boolean badMoveGrassHopperIntoCheck = false;
+
+                        // need to check that you don't move into check !@!
+                        if (checkGrassHopperMoves) {
+                            int mx = movingPiece.getX();
+                            int my = movingPiece.getY();
+                            Piece temp = _board[x - 1][y - 1];
+                            _board[x - 1][y - 1] = movingPiece;
+                            _board[mx - 1][my - 1] = null;
+
+                            kingX = movingKing.getX();
+                            kingY = movingKing.getY();
+
+                            for (Piece otherPiece : otherPieces) {
+                                if (otherPiece.canMoveTo(kingX, kingY, this)) {
+                                    if (otherPiece.getX() != x || otherPiece.getY() != y) { // not captured
+                                        badMoveGrassHopperIntoCheck = true;
+                                        break; // can't move there
+                                    }
+                                }
+                            }
+                            _board[x - 1][y - 1] = temp;
+                            _board[mx - 1][my - 1] = movingPiece;
+                            if (badMoveGrassHopperIntoCheck) {
+                                continue;
+                            }
+                        }
+
+                        if (movingPiece.isPinned()) {
+                            // the piece can only move within the pinning
+                            Piece PinningPiece = movingPiece.getPinningPiece();
+                            Utils.AssertNotNull(PinningPiece);
+                            if (movingPiece.isReachable(x, y)) {
+                                // the moving point should fall exactly
+                                // inside the path from
+                                // the pinning piece to the king
+                                if (Utils.isInPath(x, y, PinningPiece.getX(), PinningPiece.getY(), kingX, kingY)) {
+
+                                    // valid move within the pin
+                                    newMoveInfo.setStaleMate(false);
+                                    newMoveInfo.addValidMove(movingPiece, x, y);
+                                }
+                            }
+                        } else {
+                            if (movingPiece.isReachable(x, y)) {
+                                newMoveInfo.setStaleMate(false);
+                                newMoveInfo.addValidMove(movingPiece, x, y);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        // in crazy house and bug house, any piece can be dropped in the middle
+        // in crazy house, check if we have droppable piece.
+        // in bug house, don't check
+        // in both cases, add drop any move
+        if (isCrazyOrBugHouse())
+        {
+            boolean addDropAnyMove = true;
+            if (isCrazyHouse())
+            {
+                List<Piece> droppable = getDroppablePieces(_currentColor);
+                addDropAnyMove = ! droppable.isEmpty();
+            }
+            if (addDropAnyMove)
+            {
+                // there is a piece to drop. its not a stale mate
+                newMoveInfo.setStaleMate(false);
+                Piece droppedPiece = Piece.create(Common.PIECE_TYPE_DROP_ANY, _currentColor);
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("move " + _currentMove + " color " + _currentColor + " adding drop moves in all squares");
+                }
+                // piece can be dropped anywhere
+                for ( int x = 8 ;x != 0 ; x-- )
+                {
+                    for ( int y = 8 ;y != 0 ; y-- )
+                    {
+                        if (getPieceAt(x,y) == null)
+                        {
+                            newMoveInfo.addValidMove(droppedPiece, x, y, true);
+                        }
+                    }
+                }
+            }
+        }
+
+        // in suicide if there is a valid capture move then remove all non capture moves
+        if (isSuicide()) {
+            boolean hasCaptureMove = false;
+            for (int i = 0; i < newMoveInfo.getValidMoveCount(); i++) {
+                if (PackedMove.isCapture(newMoveInfo.getValidMoveCode(i))) {
+                    hasCaptureMove = true;
+                    break;
+                }
+            }
+
+            if (hasCaptureMove) {
+                LOGGER.fine("keeping only the capture moves");
+                newMoveInfo.retainValidMoves(PackedMove.CAPTURE_FLAG);
+            }
+        }
+    }
+
     /**
-     * Take back all moves and clear all pieces from the board.
+     * Take back all moves and clear all pieces from the board. A game ended in its first position
+     * (i.e. a mate position) is no longer ended.
      */
     public void clearBoard() {
         takebackAllMoves();
+        discardPendingMoves();
         for (int x = 1; x <= 8; x++) {
             for (int y = 1; y <= 8; y++) {
                 setPieceAt(x, y, null);
             }
         }
         _moveInfos.clear();
+        _ended = false;
+        _winner = 0;
     }
 
     /**
@@ -1298,6 +1715,55 @@ public class Game {
         return numberOfPieces;
     }
 
+    /**
+     * Returns a 64 bit hash of the current position - the pieces on the board, the side to move,
+     * the castling availability, the ep pawn and (in crazy house and bug house) the droppable pieces.
+     * Equal positions have equal hash values, regardless of the moves played to reach them.
+     *
+     * @return a 64 bit hash of the current position
+     */
+    public long getPositionHash() {
+        long hash = _boardHash;
+        if (_currentColor == Common.COLOR_BLACK) {
+            hash ^= Zobrist.BLACK_TO_MOVE;
+        }
+        if (!isSuicideOrFreePlay()) {
+            for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+                if (hasCastlingRook(color, LEFT_ROOK_LOCATION)) {
+                    hash ^= Zobrist.CASTLING[color][Common.CASTLE_QUEEN];
+                }
+                if (hasCastlingRook(color, RIGHT_ROOK_LOCATION)) {
+                    hash ^= Zobrist.CASTLING[color][Common.CASTLE_KING];
+                }
+            }
+        }
+        if (_epPawn != null) {
+            hash ^= Zobrist.EP_COLUMN[_epPawn.getY()];
+        }
+        if (isCrazyOrBugHouse()) {
+            hash ^= Zobrist.pocketKey(Common.COLOR_WHITE, getDroppablePieces(Common.COLOR_WHITE));
+            hash ^= Zobrist.pocketKey(Common.COLOR_BLACK, getDroppablePieces(Common.COLOR_BLACK));
+        }
+        return hash;
+    }
+
+    /*
+     * returns true if the given color king and the rook at the given rook location attribute did not move
+     */
+    private boolean hasCastlingRook(int color, String rookLocationAttribute) {
+        King king = _king[color];
+        int row = (color == Common.COLOR_WHITE) ? 1 : 8;
+        if ((king == null) || king.isMoved() || (king.getX() != row)) {
+            return false;
+        }
+        Integer rookY = (Integer) getAttribute(rookLocationAttribute);
+        if (rookY == null) {
+            return false;
+        }
+        Piece rook = getPieceAt(row, rookY);
+        return (rook != null) && rook.isRook() && rook.isColor(color) && (!rook.isMoved());
+    }
+
     /**
      * Clear the given side color request
      *
@@ -1305,6 +1771,7 @@ public class Game {
      */
     public void clearReqPause(int color) {
         _reqPause[color] = false;
+        fireEvent(GameListener.EVENT_PAUSE_REQUEST_CLEARED, color, 0, null);
     }
 
     public void delAttribute(String key) {
@@ -1320,6 +1787,7 @@ public class Game {
     public void disconnect(int color) {
         _endString = Common.getColor(color) + " " + "disconnected";
         endGame(Common.OtherColor(color));
+        fireEvent(GameListener.EVENT_DISCONNECT, color, 0, null);
     }
 
     /**
@@ -1329,6 +1797,7 @@ public class Game {
         _endString = "Draw agreed.";
         _winner = Common.COLOR_ILLEGAL;
         endGame(Common.COLOR_ILLEGAL);
+        fireEvent(GameListener.EVENT_DRAW, _currentColor, 0, null);
     }
 
     private void endGame(int winner) {
@@ -1350,6 +1819,42 @@ public class Game {
         LOGGER.fine("Game " + getName() + " : ended. " + _endString);
     }
 
+    /*
+     * end the game with the given winner and end string, as recorded (used by GameJournal recovery)
+     */
+    void restoreEnd(int winner, String endString) {
+        _endString = endString;
+        endGame(winner);
+    }
+
+    /*
+     * the time left of the given color, not including the running clock (used by GameJournal)
+     */
+    int getStoredTimeLeftMs(int color) {
+        return _timeLeftMilliseconds[color];
+    }
+
+    void setStoredTimeLeftMs(int color, int timeLeft) {
+        _timeLeftMilliseconds[color] = timeLeft;
+    }
+
+    /*
+     * set the clock of the given color, as recorded (used by GameSnapshot). started is 0 for a stopped clock
+     */
+    void restoreClock(int color, long started, int duration) {
+        _clockStarted[color] = started;
+        _clockDuration[color] = duration;
+    }
+
+    /*
+     * queue a recorded premove of the given color, without playing it (used by GameSnapshot)
+     */
+    void restorePremove(int color, int premove, int condition) {
+        _premoves[color][_premoveCount[color]] = premove;
+        _premoveConditions[color][_premoveCount[color]] = condition;
+        _premoveCount[color]++;
+    }
+
     Piece findPiece(int type, int color) {
         for (int x = 8; x != 0; x--) {
             for (int y = 8; y != 0; y--) {
@@ -1449,12 +1954,14 @@ public class Game {
             return false;
         }
 
-        List<Piece> rooks = findPieces(Common.PIECE_TYPE_ROOK, color);
-        for (Piece rook : rooks) {
-            if ((castle == Common.CASTLE_QUEEN) && (rook.getY() == (Integer) getAttribute(LEFT_ROOK_LOCATION)) && (!rook.isMoved())) {
-                return true;
-            }
-            if ((castle == Common.CASTLE_KING) && (rook.getY() == (Integer) getAttribute(RIGHT_ROOK_LOCATION)) && (!rook.isMoved())) {
+        if ((castle != Common.CASTLE_KING) && (castle != Common.CASTLE_QUEEN)) {
+            return false;
+        }
+        // look for an unmoved rook on the castling rook column
+        int rookY = (Integer) getAttribute((castle == Common.CASTLE_QUEEN) ? LEFT_ROOK_LOCATION : RIGHT_ROOK_LOCATION);
+        for (int x = 8; x != 0; x--) {
+            Piece rook = getPieceAt(x, rookY);
+            if ((rook != null) && (rook.getType() == Common.PIECE_TYPE_ROOK) && (rook.getColor() == color) && (!rook.isMoved())) {
                 return true;
             }
         }
@@ -1573,7 +2080,8 @@ public class Game {
         if (moveNumber >= _currentMove) {
             return null;
         }
-        return getMoves().get(moveNumber);
+        // move info n holds move n (null for a null move played by the search engine)
+        return _moveInfos.get(moveNumber).getMove();
     }
 
     /**
@@ -1836,37 +2344,176 @@ public class Game {
         if (currentInfo == null) {
             return new ArrayList<Move>();
         }
-        return currentInfo.getValidNextMoves();
+        return currentInfo.getNamedValidNextMoves();
+    }
+
+    /**
+     * Fill the given buffer with the valid next moves, as packed moves (see {@link PackedMove}), without
+     * creating Move objects or naming the moves. A drop move of any droppable piece
+     * ({@link Common#PIECE_TYPE_DROP_ANY}) is expanded by the caller, i.e. with
+     * {@link #getActualDroppablePieceTypes(int)}. A packed move is played with {@link #playPackedMove(int)}.
+     *
+     * @param buffer - the buffer to fill
+     * @return the number of valid moves written to the buffer (at most the buffer length)
+     */
+    public int getValidNextMoves(int[] buffer) {
+        Utils.AssertNotNull(buffer);
+        MoveInfo currentInfo = getCurrentMoveInfo();
+        if (currentInfo == null) {
+            return 0;
+        }
+        int count = Math.min(currentInfo.getValidMoveCount(), buffer.length);
+        for (int i = 0; i < count; i++) {
+            buffer[i] = currentInfo.getValidMoveCode(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of valid next moves (see {@link #getValidNextMoves(int[])})
+     */
+    public int getValidNextMoveCount() {
+        MoveInfo currentInfo = getCurrentMoveInfo();
+        return (currentInfo == null) ? 0 : currentInfo.getValidMoveCount();
+    }
+
+    /**
+     * Returns the valid next move of the given packed move, or null if it is not a valid move of the current
+     * position. The capture flag of the packed move is ignored.
+     *
+     * @param packedMove - a packed move (see {@link PackedMove})
+     * @return the valid move, that can be played using playMove
+     */
+    public Move getValidNextMove(int packedMove) {
+        return PackedMove.toMove(this, packedMove);
+    }
+
+    /**
+     * Play the valid next move of the given packed move (see {@link #getValidNextMove(int)})
+     *
+     * @param packedMove - a packed move (see {@link PackedMove})
+     * @return true if the move was played
+     */
+    public boolean playPackedMove(int packedMove) {
+        Move move = PackedMove.toMove(this, packedMove);
+        if (move == null) {
+            LOGGER.warning("Game " + getName() + " : packed move " + packedMove + " is not a valid move");
+            return false;
+        }
+        return playMove(move);
+    }
+
+    /**
+     * Copy the position of the given game into this game - the pieces (with their moved and promoted state),
+     * the side to move, the castling rooks locations, the ep pawn and the captured / droppable pieces.
+     * The moves of the other game are not copied, so this game starts at the copied position.
+     * In bug house, the droppable pieces are copied into a private partner game.
+     *
+     * @param other - the game to copy the position from
+     */
+    void copyPositionFrom(Game other) {
+        Utils.AssertNotNull(other);
+        clearBoard();
+        _gkind = other._gkind;
+        _grules = other._grules;
+        _king[Common.COLOR_WHITE] = null;
+        _king[Common.COLOR_BLACK] = null;
+        for (int x = 8; x != 0; x--) {
+            for (int y = 8; y != 0; y--) {
+                Piece otherPiece = other.getPieceAt(x, y);
+                if (otherPiece != null) {
+                    setPieceAt(x, y, copyPiece(otherPiece));
+                }
+            }
+        }
+        setAttribute(Game.KING_LOCATION, other.getAttribute(Game.KING_LOCATION));
+        setAttribute(Game.LEFT_ROOK_LOCATION, other.getAttribute(Game.LEFT_ROOK_LOCATION));
+        setAttribute(Game.RIGHT_ROOK_LOCATION, other.getAttribute(Game.RIGHT_ROOK_LOCATION));
+        _startingColor = other._currentColor;
+        _currentColor = other._currentColor;
+        _moveNumber = other._moveNumber;
+        _epPawn = null;
+        if (other._epPawn != null) {
+            Piece epPawn = getPieceAt(other._epPawn.getX(), other._epPawn.getY());
+            if ((epPawn != null) && epPawn.isPawn()) {
+                _epPawn = (Pawn) epPawn;
+            }
+        }
+        _whiteCaptured = copyPieces(other._whiteCaptured);
+        _blackCaptured = copyPieces(other._blackCaptured);
+        _otherGame = null;
+        if (isBugHouse() && (other._otherGame != null)) {
+            Game partner = new Game(Common.GAME_KIND_BUG_HOUSE);
+            partner._whiteCaptured = copyPieces(other.getDroppablePieces(Common.COLOR_WHITE));
+            partner._blackCaptured = copyPieces(other.getDroppablePieces(Common.COLOR_BLACK));
+            _otherGame = partner;
+        }
+        _ended = false;
+        _winner = 0;
+
+        MoveInfo moveInfo = getCurrentMoveInfo();
+        MoveInfo otherMoveInfo = other.getCurrentMoveInfo();
+        if ((moveInfo != null) && (otherMoveInfo != null)) {
+            moveInfo.setDraw50MovesCount(otherMoveInfo.getDraw50MovesCount());
+        }
+    }
+
+    private static Piece copyPiece(Piece piece) {
+        Piece copy = Piece.create(piece.getType(), piece.getColor());
+        copy.setMoved(piece.isMoved());
+        if (piece.isPromoted()) {
+            copy.setPromoted();
+        }
+        if (piece.isPawn()) {
+            ((Pawn) copy).setWasPromotedTo(((Pawn) piece).getWasPromotedTo());
+        }
+        return copy;
     }
 
-    /*
-    public void copyPositionFrom(Game other)
-    {
-        IChessUtils.AssertNotNull(other);
-        clearBoard();
-        for (int x=8; x!=0 ; x--)
-        {
-            for (int y=8; y!=0 ; y--)
-            {
-                Piece otherPiece = other.getPieceAt(x,y);
-                if (otherPiece != null)
-                {
-                    setPieceAt(x, y, Piece.create(otherPiece.getType(), otherPiece.getColor()));
-                }
-            }
+    private static List<Piece> copyPieces(List<Piece> pieces) {
+        List<Piece> copy = new ArrayList<Piece>(pieces.size());
+        for (Piece piece : pieces) {
+            copy.add(copyPiece(piece));
         }
-        if (isFischer())
-        {
-            setAttribute(Game.KING_LOCATION, other.getAttribute(Game.KING_LOCATION));
-            setAttribute(Game.LEFT_ROOK_LOCATION, other.getAttribute(Game.LEFT_ROOK_LOCATION));
-            setAttribute(Game.RIGHT_ROOK_LOCATION, other.getAttribute(Game.RIGHT_ROOK_LOCATION));
+        return copy;
+    }
+
+    /**
+     * Returns the valid drop move of the given piece type to the given square, or null if there is no
+     * such valid move. Drop moves are kept in the valid moves list as "drop any" moves, so the actual drop
+     * move is added to the valid moves list the first time it is requested.
+     *
+     * @param toX       - row number 1..8
+     * @param toY       - column number 1..8
+     * @param pieceType - the dropped piece type
+     * @return The valid drop move, or null if the piece can't be dropped there.
+     */
+    Move getDropMove(int toX, int toY, int pieceType) {
+        Move validDropMove = getValidMove(toX, toY, toX, toY, pieceType);
+        if (validDropMove != null) {
+            return validDropMove;
+        }
+        if (getValidMove(toX, toY, toX, toY, Common.PIECE_TYPE_DROP_ANY) == null) {
+            LOGGER.fine("no drop move to " + toX + "," + toY);
+            return null;
+        }
+        if ((pieceType == Common.PIECE_TYPE_PAWN) && ((toX == 1) || (toX == 8))) {
+            LOGGER.fine("pawn can't be dropped on 1st or 8th line");
+            return null;
+        }
+        Piece droppablePiece = findPieceToDrop(getDroppablePieces(_currentColor), pieceType);
+        if (droppablePiece == null) {
+            LOGGER.fine("no droppable piece " + pieceType);
+            return null;
         }
+        getCurrentMoveInfo().addValidMove(droppablePiece, toX, toY, true);
+        return getValidMove(toX, toY, toX, toY, pieceType);
     }
-    */
 
     /**
      * Returns a list of valid next moves that can be played if the game is
-     * taken back to the given half move number.
+     * taken back to the given half move number. For a game with compact history
+     * the list is regenerated by replaying the moves on a scratch game.
      *
      * @param moveNumber
      * @return A list of valid next moves that can be played if the game is
@@ -1877,7 +2524,81 @@ public class Game {
         if (moveInfo == null) {
             return null;
         }
-        return moveInfo.getValidNextMoves();
+        if (!moveInfo.isCompacted()) {
+            return moveInfo.getNamedValidNextMoves();
+        }
+        Game replay = new Game(_gkind);
+        if (!replay.reset(_gkind, (String) getAttribute(INITIAL_POSITION_FEN))) {
+            LOGGER.warning("Game " + getName() + " : can't regenerate valid moves. invalid initial position");
+            return null;
+        }
+        for (int i = 0; i < moveNumber; i++) {
+            Move move = PackedMove.toMove(replay, PackedMove.encode(getMove(i)));
+            if ((move == null) || !replay.playMove(move)) {
+                LOGGER.warning("Game " + getName() + " : can't regenerate valid moves. replay failed at move " + i);
+                return null;
+            }
+        }
+        return replay.getValidNextMoves();
+    }
+
+    /**
+     * Returns the pieces of the given color that attack the given square - that could capture an enemy piece
+     * on it, ignoring pins and checks. Pawns attack diagonally only (not en passant).
+     *
+     * @param x     - row (1 to 8)
+     * @param y     - column (1 to 8)
+     * @param color - the attacking color
+     * @return the attacking pieces
+     */
+    public List<Piece> getAttackers(int x, int y, int color) {
+        List<Piece> attackers = new ArrayList<Piece>();
+        Attacks.collectAttackers(this, x, y, color, null, attackers);
+        return attackers;
+    }
+
+    /**
+     * Returns true if a piece of the given color attacks the given square (see {@link #getAttackers(int, int, int)})
+     */
+    public boolean isSquareAttacked(int x, int y, int color) {
+        return Attacks.collectAttackers(this, x, y, color, null, null) != null;
+    }
+
+    /**
+     * Returns the sliding pieces of the given color that attack the given square through exactly one other
+     * piece (of any color) - i.e. a rook behind a rook, or a bishop behind a pinned knight.
+     *
+     * @param x     - row (1 to 8)
+     * @param y     - column (1 to 8)
+     * @param color - the attacking color
+     * @return the x-ray attacking pieces
+     */
+    public List<Piece> getXRayAttackers(int x, int y, int color) {
+        return Attacks.getXRayAttackers(this, x, y, color);
+    }
+
+    /**
+     * Static exchange evaluation of a move : the material (in centipawns) won by the moving side if both sides
+     * keep capturing on the target square with their least valuable attacker, each side stopping when it no
+     * longer pays. Negative if the move loses material. Does not play the move.
+     *
+     * @param move - a move (or a drop) of the current position
+     * @return the material won by the move, in centipawns
+     */
+    public int getStaticExchangeValue(Move move) {
+        Utils.AssertNotNull(move);
+        return Attacks.staticExchange(this, move);
+    }
+
+    /**
+     * Returns the pieces of the given color (other than the king) that the other color can win material by
+     * capturing, by static exchange evaluation.
+     *
+     * @param color - a given color
+     * @return the hanging pieces
+     */
+    public List<Piece> getHangingPieces(int color) {
+        return Attacks.getHangingPieces(this, color);
     }
 
     public String getWhiteName() {
@@ -1897,30 +2618,54 @@ public class Game {
      * Take back all moves and set the initial position.
      */
     public void initialPosition() {
+        if (_gkind == Common.GAME_KIND_FISCHER) {
+            initialFischerPosition(Utils.randomInt(FEN.FISCHER_POSITIONS));
+            return;
+        }
         takebackAllMoves();
+        if (!copyStartPosition(StartPositions.getTemplate(_gkind))) {
+            setStartPosition(StartPositions.getStartFEN(_gkind));
+        }
+    }
 
-        String initPosition;
-        Game initialPositionGame;
-        switch (_gkind) {
-            case Common.GAME_KIND_FISCHER:
-                initPosition = FEN.create960FEN();
-                break;
-            case Common.GAME_KIND_MINICAPA:
-                initPosition = FEN.FEN_MINICAPA_POS;
-                break;
-            case Common.GAME_KIND_GRASSHOPER:
-                initPosition = FEN.FEN_GRASSHOPER_POS;
-                break;
-            case Common.GAME_KIND_CRAZY_HOUSE:
-            case Common.GAME_KIND_BUG_HOUSE:
-                initPosition = FEN.FEN_CRAZYHOUSE_POS;
-                break;
-            default:
-                initPosition = FEN.FEN_INITIAL_POS;
-                break;
+    /**
+     * Take back all moves and set the Fischer 960 initial position of the given Scharnagl number
+     * (see {@link FEN#create960FEN(int)}).
+     *
+     * @param index - a Scharnagl number, 0..959
+     * @return true on success. false if this is not a Fischer 960 game, or the number is out of range
+     */
+    public boolean initialFischerPosition(int index) {
+        if (_gkind != Common.GAME_KIND_FISCHER) {
+            LOGGER.warning("not a Fischer 960 game " + Common.GAME_KIND_TEXT[_gkind]);
+            return false;
         }
+        if ((index < 0) || (index >= FEN.FISCHER_POSITIONS)) {
+            LOGGER.warning("bad Fischer 960 position number " + index);
+            return false;
+        }
+        takebackAllMoves();
+        if (!copyStartPosition(StartPositions.getFischerTemplate(index))) {
+            setStartPosition(FEN.create960FEN(index));
+        }
+        return true;
+    }
+
+    /*
+     * create an analysed init position game (see StartPositions)
+     */
+    static Game createTemplate(int gkind, String initPosition) {
+        Game template = new Game(gkind, initPosition);
+        // a template is shared by threads - its valid moves are copied, never generated on demand
+        template.generatePendingMoves();
+        return template;
+    }
+
+    /*
+     * load the given init position, and analyse it
+     */
+    private void setStartPosition(String initPosition) {
         FEN.loadPositionToGame(this, initPosition);
-        // copyPositionFrom(initialPositionGame);
         setAttribute(Game.INITIAL_POSITION_FEN, initPosition);
         setAttribute(Game.KING_LOCATION, initPosition.indexOf('k') + 1);
         setAttribute(Game.LEFT_ROOK_LOCATION, initPosition.indexOf('r') + 1);
@@ -1928,6 +2673,45 @@ public class Game {
         analyse();
     }
 
+    /*
+     * copy the init position and its analysis from the given template game (with no moves taken). returns false
+     * if the template does not match this game rules
+     */
+    private boolean copyStartPosition(Game template) {
+        if ((template == null) || (template._grules != _grules) || (template._moveInfos.size() != 1) ||
+                (isBugHouse() && (_otherGame != null))) {
+            return false;
+        }
+        for (int x = 8; x != 0; x--) {
+            for (int y = 8; y != 0; y--) {
+                Piece piece = template.getPieceAt(x, y);
+                if (piece == null) {
+                    setPieceAt(x, y, null);
+                    continue;
+                }
+                Piece copy = Piece.create(piece.getType(), piece.getColor());
+                // keep the analysis state of the template pieces
+                copy.setCheckPin(piece.isCheckPin());
+                setPieceAt(x, y, copy);
+            }
+        }
+        _epPawn = null;
+        _whiteCaptured.clear();
+        _blackCaptured.clear();
+        _startingColor = template._startingColor;
+        _currentColor = template._currentColor;
+        _moveNumber = template._moveNumber;
+        _ended = false;
+        _winner = 0;
+        setAttribute(Game.INITIAL_POSITION_FEN, template.getAttribute(Game.INITIAL_POSITION_FEN));
+        setAttribute(Game.KING_LOCATION, template.getAttribute(Game.KING_LOCATION));
+        setAttribute(Game.LEFT_ROOK_LOCATION, template.getAttribute(Game.LEFT_ROOK_LOCATION));
+        setAttribute(Game.RIGHT_ROOK_LOCATION, template.getAttribute(Game.RIGHT_ROOK_LOCATION));
+        _moveInfos.clear();
+        _moveInfos.add(new MoveInfo(this, template._moveInfos.get(0)));
+        return true;
+    }
+
     /**
      * Returns true iff the game reached a check position.
      *
@@ -2013,6 +2797,45 @@ public class Game {
         return getCurrentMoveInfo().isStaleMate();
     }
 
+    /**
+     * Returns true if the moving side has at least one legal move. The position analysis stops at the first
+     * legal move found (king moves first, then captures, then other moves and drops), and the valid moves list
+     * is generated only when it is requested - so this check does not generate the valid moves.
+     *
+     * @return true if the moving side has a legal move
+     */
+    public boolean hasAnyLegalMove() {
+        MoveInfo currentInfo = getCurrentMoveInfo();
+        if (currentInfo == null) {
+            return false;
+        }
+        return currentInfo.isMovesPending() || (currentInfo.getValidMoveCount() > 0);
+    }
+
+    /**
+     * Returns the status of the current position, without generating the valid moves (see
+     * {@link #hasAnyLegalMove()}).
+     *
+     * @return STATUS_CHECKMATE, STATUS_STALEMATE, STATUS_ENDED (ended otherwise, i.e. resigned, out of time or
+     * drawn), STATUS_CHECK or STATUS_PLAYING. STATUS_ILLEGAL if the position was not analysed
+     */
+    public int status() {
+        MoveInfo currentInfo = getCurrentMoveInfo();
+        if (currentInfo == null) {
+            return STATUS_ILLEGAL;
+        }
+        if (currentInfo.isCheckMate()) {
+            return STATUS_CHECKMATE;
+        }
+        if (currentInfo.isStaleMate()) {
+            return STATUS_STALEMATE;
+        }
+        if (_ended) {
+            return STATUS_ENDED;
+        }
+        return currentInfo.isCheck() ? STATUS_CHECK : STATUS_PLAYING;
+    }
+
     /**
      * Returns true if the game started (some moves played)
      *
@@ -2068,9 +2891,18 @@ public class Game {
     public void pauseGame() {
         pauseClock();
         _isPaused = true;
+        fireEvent(GameListener.EVENT_PAUSE, _currentColor, 0, null);
     }
 
-    private boolean playMove(Move move) {
+    /**
+     * Play the given move on this game. The move must be one of the moves returned by
+     * {@link #getValidNextMoves getValidNextMoves} (or by {@link Engine#findBestMove Engine.findBestMove})
+     * for the current position.
+     *
+     * @param move - a valid next move
+     * @return true if the move was successfully played
+     */
+    public boolean playMove(Move move) {
 
         Utils.AssertNotNull(move);
 
@@ -2116,8 +2948,10 @@ public class Game {
                 LOGGER.warning("can't find dropped piece " + move.getAdditionalPieceTypeInfo());
                 return false;
             }
-            LOGGER.fine("move " + _currentMove + " color " + Common.getColor(_currentColor) + " drop move " +
-                    droppedPiece.getType() + " at " + toX + "," + toY);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("move " + _currentMove + " color " + Common.getColor(_currentColor) + " drop move " +
+                        droppedPiece.getType() + " at " + toX + "," + toY);
+            }
             if (! droppable.remove(droppedPiece))
             {
                 LOGGER.warning("could not remove droppable piece");
@@ -2163,6 +2997,9 @@ public class Game {
             }
 
             move.setMovedPiece(movingPiece);
+            // forget the moved pieces of a move played (and taken back) before from this position
+            currentInfo.getMovedPiece()[0] = null;
+            currentInfo.getMovedPiece()[1] = null;
 
             Piece capturedPiece = getPieceAt(toX, toY);
             boolean FischerCastle = false;
@@ -2228,7 +3065,9 @@ public class Game {
             promotionSquare[Common.COLOR_WHITE] = 8;
             promotionSquare[Common.COLOR_BLACK] = 1;
             if ((movingPiece.isPawn()) && (toX == promotionSquare[_currentColor])) {
-                LOGGER.fine("promotion move. promotion piece is " + move.getAdditionalPieceTypeInfo());
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("promotion move. promotion piece is " + move.getAdditionalPieceTypeInfo());
+                }
                 Piece promotedPiece = Piece.create(move.getAdditionalPieceTypeInfo(), _currentColor);
                 promotedPiece.setPromoted();
                 setPieceAt(fromX, fromY, null);
@@ -2281,14 +3120,17 @@ public class Game {
         // update time (unless its first or second move)
         if (isTimed()) {
             pauseClock();
-            int clockDuration = getClockDuration(_currentColor);
+            // a premove played right after the other color move is charged the premove time
+            int clockDuration = _chargePremoveTime ? _premoveTimeMs : getClockDuration(_currentColor);
             move.setMoveTime(clockDuration);
             _timeLeftMilliseconds[_currentColor] -= clockDuration;
             resetClock(_currentColor);
             _timeLeftMilliseconds[_currentColor] += (_timeIncrementForMove[_currentColor] * TimeUtils.MS_IN_SECOND);
 
-            LOGGER.fine(" Game " + getName() + " : Time Left W " + (_timeLeftMilliseconds[Common.COLOR_WHITE] / 1000) + " B "
-                    + (_timeLeftMilliseconds[Common.COLOR_BLACK] / 1000));
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(" Game " + getName() + " : Time Left W " + (_timeLeftMilliseconds[Common.COLOR_WHITE] / 1000) + " B "
+                        + (_timeLeftMilliseconds[Common.COLOR_BLACK] / 1000));
+            }
         }
 
         _currentMove++;
@@ -2302,14 +3144,23 @@ public class Game {
         }
         analyse();
 
-        Notation.getNames(move);
+        Notation.getNames(move, currentInfo);
+        Notation.getNameSuffix(move);
+        if (_compactHistory) {
+            currentInfo.compact();
+        }
 
         _movelist.addMove(move);
 
-        LOGGER.fine(" Game " + getName() + " : " + ((_currentMove + 1) / 2) + "." + (((_currentMove % 2) == 0) ? ".. " : " ")
-                + move.getNameAlg() + " . Time left : [ " + _timeLeftMilliseconds[Common.COLOR_WHITE] + " ] , [ "
-                + _timeLeftMilliseconds[Common.COLOR_BLACK] + " ]");
-
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(" Game " + getName() + " : " + ((_currentMove + 1) / 2) + "." + (((_currentMove % 2) == 0) ? ".. " : " ")
+                    + move.getNameAlg() + " . Time left : [ " + _timeLeftMilliseconds[Common.COLOR_WHITE] + " ] , [ "
+                    + _timeLeftMilliseconds[Common.COLOR_BLACK] + " ]");
+        }
+        fireEvent(GameListener.EVENT_MOVE, move.getColor(), 0, move);
+        if (_premoveCount[_currentColor] > 0) {
+            playPremoves(true);
+        }
 
         return true;
 
@@ -2417,6 +3268,7 @@ public class Game {
     public void resign(int color) {
         _endString = Common.getColor(color) + " " + "resigned";
         endGame(Common.OtherColor(color));
+        fireEvent(GameListener.EVENT_RESIGN, color, 0, null);
     }
 
     /**
@@ -2433,11 +3285,13 @@ public class Game {
                 return;
         }
         _endString = "BugHouse : Other game ended";
+        fireEvent(GameListener.EVENT_OTHER_GAME_ENDED, _currentColor, 0, null);
     }
     
     public void resumeGame() {
         resumeClock();
         _isPaused = false;
+        fireEvent(GameListener.EVENT_RESUME, _currentColor, 0, null);
     }
 
     public void setAttribute(String key, Object value) {
@@ -2529,8 +3383,26 @@ public class Game {
      * color.
      */
     boolean setPieceAt(int x, int y, Piece piece) {
+        if (_pendingMoveInfo != null) {
+            // the valid moves are generated from the position they belong to
+            generatePendingMoves();
+        }
+        Piece oldPiece = _board[x - 1][y - 1];
+        _changedSquares |= 1L << Zobrist.square(x, y);
+        if (oldPiece != null) {
+            _boardHash ^= Zobrist.pieceKey(oldPiece, x, y);
+            updateEvaluationTerms(oldPiece, x, y, -1);
+            if (_neuralEvaluation != null) {
+                _neuralEvaluation.pieceRemoved(oldPiece, x, y);
+            }
+        }
         _board[x - 1][y - 1] = piece;
         if (piece != null) {
+            _boardHash ^= Zobrist.pieceKey(piece, x, y);
+            updateEvaluationTerms(piece, x, y, 1);
+            if (_neuralEvaluation != null) {
+                _neuralEvaluation.pieceAdded(piece, x, y);
+            }
             piece.setX(x);
             piece.setY(y);
             if (piece.isRook()) {
@@ -2543,6 +3415,59 @@ public class Game {
         return true;
     }
 
+    /*
+     * add (sign 1) or remove (sign -1) the given piece evaluation terms
+     */
+    private void updateEvaluationTerms(Piece piece, int x, int y, int sign) {
+        int color = piece.getColor();
+        int type = piece.getType();
+        _material[color] += sign * Evaluation.PIECE_VALUES[type];
+        _pieceCount[color] += sign;
+        _pieceSquareMiddleGame[color] += sign * Evaluation.getPieceSquareValue(type, color, x, y, false);
+        _pieceSquareEndGame[color] += sign * Evaluation.getPieceSquareValue(type, color, x, y, true);
+        _phase += sign * Evaluation.PHASE_WEIGHTS[type];
+        if (type == Common.PIECE_TYPE_PAWN) {
+            _pawns[color] ^= 1L << Zobrist.square(x, y);
+        }
+    }
+
+    /**
+     * Returns the material value of the given color pieces on the board
+     */
+    int getMaterial(int color) {
+        return _material[color];
+    }
+
+    int getPieceCount(int color) {
+        return _pieceCount[color];
+    }
+
+    int getPieceSquareValue(int color, boolean endGame) {
+        return endGame ? _pieceSquareEndGame[color] : _pieceSquareMiddleGame[color];
+    }
+
+    /**
+     * Returns the game phase of the pieces on the board - from Evaluation.MAX_PHASE (all pieces) down to 0
+     * (pawns and kings only). may be above Evaluation.MAX_PHASE in variants with extra pieces.
+     */
+    int getPhase() {
+        return _phase;
+    }
+
+    /*
+     * the neural evaluation to notify on every piece placed or removed. null for none
+     */
+    void setNeuralEvaluation(NeuralEvaluation neuralEvaluation) {
+        _neuralEvaluation = neuralEvaluation;
+    }
+
+    /**
+     * Returns the given color pawns on the board, as a bitmask of squares (see Zobrist.square)
+     */
+    long getPawns(int color) {
+        return _pawns[color];
+    }
+
     /**
      * Signals that the given color offers draw. The draw request will be cleared if a move
      * is played (or taken back).
@@ -2552,6 +3477,7 @@ public class Game {
      */
     public void offerDraw(int color) {
         _reqDraw[color] = true;
+        fireEvent(GameListener.EVENT_DRAW_OFFER, color, 0, null);
         if ((_reqDraw[Common.COLOR_WHITE]) && (_reqDraw[Common.COLOR_BLACK])) {
             drawMutual();
         }
@@ -2563,10 +3489,170 @@ public class Game {
 
     public void setReqPause(int color) {
         _reqPause[color] = true;
+        fireEvent(GameListener.EVENT_PAUSE_REQUEST, color, 0, null);
     }
 
     public void setReqTakeback(int color) {
         _reqTakeback[color] = true;
+        fireEvent(GameListener.EVENT_TAKEBACK_REQUEST, color, 0, null);
+    }
+
+    /**
+     * Queue a premove of the given color, played as soon as the other color moves (see
+     * {@link #addPremove(int, int, int)})
+     *
+     * @param color   - the premove color
+     * @param premove - a packed move (see {@link PackedMove})
+     * @return true if the premove was queued (or played)
+     */
+    public boolean addPremove(int color, int premove) {
+        return addPremove(color, premove, PackedMove.NONE);
+    }
+
+    /**
+     * Queue a conditional premove of the given color. The queued premoves are played in order, each one inside
+     * the {@link #playMove(Move) playMove} of the other color move before it, and are charged the premove time
+     * (see {@link #setPremoveTimeMs(int)}) instead of their clock time. If a premove is not valid in the actual
+     * position, or the other color move is not the one it waits for, the whole queue of its color is cleared. <br>
+     * A premove of the color to move waits for the current position (condition against the last move), and is
+     * played at once, charged its clock time. The queues are cleared by a takeback.
+     *
+     * @param color     - the premove color
+     * @param premove   - a packed move (see {@link PackedMove})
+     * @param condition - the packed move of the other color this premove waits for, or {@link PackedMove#NONE}
+     *                  for any move
+     * @return true if the premove was queued (or played)
+     */
+    public boolean addPremove(int color, int premove, int condition) {
+        if (!Common.isBlackOrWhite(color)) {
+            LOGGER.warning("bad premove color " + color);
+            return false;
+        }
+        if (premove == PackedMove.NONE) {
+            LOGGER.warning("empty premove");
+            return false;
+        }
+        if (_ended) {
+            LOGGER.info("can't add premove. game ended.");
+            return false;
+        }
+        if (_premoveCount[color] == MAX_PREMOVES) {
+            LOGGER.warning("too many premoves for " + Common.getColor(color));
+            return false;
+        }
+        _premoves[color][_premoveCount[color]] = premove;
+        _premoveConditions[color][_premoveCount[color]] = condition;
+        _premoveCount[color]++;
+        fireEvent(GameListener.EVENT_PREMOVES_CHANGED, color, _premoveCount[color], null);
+        if (color == _currentColor) {
+            playPremoves(false);
+        }
+        return true;
+    }
+
+    /**
+     * Clear the queued premoves of the given color
+     */
+    public void clearPremoves(int color) {
+        if (_premoveCount[color] == 0) {
+            return;
+        }
+        _premoveCount[color] = 0;
+        fireEvent(GameListener.EVENT_PREMOVES_CHANGED, color, 0, null);
+    }
+
+    public int getPremoveCount(int color) {
+        return _premoveCount[color];
+    }
+
+    /**
+     * Returns the queued premove of the given color at the given index (0 is played next), as a packed move
+     */
+    public int getPremove(int color, int index) {
+        Utils.Assert((index >= 0) && (index < _premoveCount[color]), "bad premove index " + index);
+        return _premoves[color][index];
+    }
+
+    /**
+     * Returns the packed move of the other color the queued premove at the given index waits for, or
+     * {@link PackedMove#NONE} for any move
+     */
+    public int getPremoveCondition(int color, int index) {
+        Utils.Assert((index >= 0) && (index < _premoveCount[color]), "bad premove index " + index);
+        return _premoveConditions[color][index];
+    }
+
+    public int getPremoveTimeMs() {
+        return _premoveTimeMs;
+    }
+
+    /**
+     * Set the clock time charged for a premove played right after the other color move. 0 by default
+     *
+     * @param premoveTimeMs - time in milliseconds
+     * @return false if the time is negative
+     */
+    public boolean setPremoveTimeMs(int premoveTimeMs) {
+        if (premoveTimeMs < 0) {
+            LOGGER.warning("negative premove time " + premoveTimeMs);
+            return false;
+        }
+        _premoveTimeMs = premoveTimeMs;
+        return true;
+    }
+
+    /*
+     * play the queued premoves of the color to move while they are valid. the premoves of both colors may follow
+     * one another. afterMove is true when called right after the other color move
+     */
+    private void playPremoves(boolean afterMove) {
+        if (_playingPremoves) {
+            return;
+        }
+        _playingPremoves = true;
+        try {
+            while (!_ended && (_premoveCount[_currentColor] > 0)) {
+                int color = _currentColor;
+                int premove = _premoves[color][0];
+                int condition = _premoveConditions[color][0];
+                _premoveCount[color]--;
+                System.arraycopy(_premoves[color], 1, _premoves[color], 0, _premoveCount[color]);
+                System.arraycopy(_premoveConditions[color], 1, _premoveConditions[color], 0, _premoveCount[color]);
+
+                Move lastMove = getLastMove();
+                if ((condition != PackedMove.NONE) && ((lastMove == null) ||
+                        ((PackedMove.encode(lastMove) & PackedMove.MOVE_MASK) != (condition & PackedMove.MOVE_MASK)))) {
+                    LOGGER.info("game " + getName() + " " + Common.getColor(color) + " premoves dropped. other move");
+                    _premoveCount[color] = 0;
+                    fireEvent(GameListener.EVENT_PREMOVES_CHANGED, color, 0, null);
+                    return;
+                }
+                Move move = PackedMove.toMove(this, premove);
+                if (move == null) {
+                    LOGGER.info("game " + getName() + " " + Common.getColor(color) + " premoves dropped. invalid premove");
+                    _premoveCount[color] = 0;
+                    fireEvent(GameListener.EVENT_PREMOVES_CHANGED, color, 0, null);
+                    return;
+                }
+                move.setPremove(true);
+                _chargePremoveTime = afterMove;
+                boolean played;
+                try {
+                    played = playMove(move);
+                } finally {
+                    _chargePremoveTime = false;
+                }
+                if (!played) {
+                    _premoveCount[color] = 0;
+                    fireEvent(GameListener.EVENT_PREMOVES_CHANGED, color, 0, null);
+                    return;
+                }
+                fireEvent(GameListener.EVENT_PREMOVES_CHANGED, color, _premoveCount[color], null);
+                afterMove = true;
+            }
+        } finally {
+            _playingPremoves = false;
+        }
     }
 
     boolean setStartingColor(int color) {
@@ -2598,6 +3684,7 @@ public class Game {
         if (_clockStarted[color] != 0) {
             _clockStarted[color] = TimeUtils.nowInMs();
         }
+        fireEvent(GameListener.EVENT_TIME_LEFT, color, timeleft, null);
         return true;
     }
 
@@ -2719,6 +3806,7 @@ public class Game {
      */
     public void addClockTime(int color, int additionMS) {
         _clockStarted[color] += additionMS;
+        fireEvent(GameListener.EVENT_CLOCK_ADD, color, additionMS, null);
     }
 
     public boolean canTakeback()
@@ -2756,8 +3844,11 @@ public class Game {
             return;
         }
 
+        clearPremoves(Common.COLOR_WHITE);
+        clearPremoves(Common.COLOR_BLACK);
         _ended = false;
         _winner = 0;
+        discardPendingMoves();
         MoveInfo lastMoveInfo = getPreviousMoveInfo();
 
         Move lastMove = lastMoveInfo.getMove();
@@ -2791,8 +3882,9 @@ public class Game {
             droppable.add(capturedBeforeDropped);
             lastMove.setMovedPiece(capturedBeforeDropped);
         } else {
-            boolean fischerCastle = isFischer() && capturedPiece != null && movedPiece.isKing() &&
-                    capturedPiece.isColor(movedPiece.getColor()) && capturedPiece.isRook();
+            // the rook moved by castling is kept as the second moved piece. (the captured piece of a fischer
+            // KxR castling move is cleared when the move is played)
+            boolean fischerCastle = isFischer() && movedPiece.isKing() && (lastMoveInfo.getMovedPiece()[1] != null);
 
             if (!fischerCastle) { // fischer KxR - the rook might go elsewhere
                 setPieceAt(toX, toY, capturedPiece);
@@ -2873,9 +3965,10 @@ public class Game {
             }
         }
 
-        LOGGER.fine(" Game " + getName() + " : taking back move " + lastMove.getNameAlg());
-
-        LOGGER.fine("\n" + toString());
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(" Game " + getName() + " : taking back move " + lastMove.getNameAlg());
+            LOGGER.fine("\n" + toString());
+        }
 
         // must be called last
         _movelist.takeback();
@@ -2884,11 +3977,61 @@ public class Game {
             _moveNumber--;
         }
 
+        if (getCurrentMoveInfo().isCompacted()) {
+            // regenerate the valid moves of the position taken back to
+            _moveInfos.remove(_moveInfos.size() - 1);
+            analyse();
+        }
+
         if (isTimed()) {
             // reset clocks and start again with the current color
             resetClock(_currentColor);
             resumeClock();
         }
+        fireEvent(GameListener.EVENT_TAKEBACK, lastMove.getColor(), 0, lastMove);
+    }
+
+    /**
+     * Pass the turn to the other color without moving (a "null move"), as used by the search engine.
+     * Must not be called when the moving side is in check. Must be taken back using
+     * {@link #takebackNullMove takebackNullMove} before any other move is taken back.
+     *
+     * @return true on success
+     */
+    boolean playNullMove() {
+        if (!analyse()) {
+            LOGGER.warning("analyse failed.");
+            return false;
+        }
+        if (_ended) {
+            LOGGER.info("can't play null move. game ended.");
+            return false;
+        }
+        // the pins of the current position are recalculated by the null move analyse
+        generatePendingMoves();
+        _nullMoveEpPawns.add(_epPawn);
+        _epPawn = null;
+        _currentMove++;
+        _currentColor = Common.OtherColor(_currentColor);
+        analyse();
+        return true;
+    }
+
+    /**
+     * Take back a null move played with {@link #playNullMove playNullMove}
+     */
+    void takebackNullMove() {
+        if (_nullMoveEpPawns.isEmpty()) {
+            LOGGER.warning("no null move to take back");
+            return;
+        }
+        _ended = false;
+        _winner = 0;
+        discardPendingMoves();
+        _moveInfos.remove(_moveInfos.size() - 1);
+        _currentColor = Common.OtherColor(_currentColor);
+        _currentMove--;
+        _epPawn = _nullMoveEpPawns.remove(_nullMoveEpPawns.size() - 1);
     }
 
     /**
@@ -2934,6 +4077,7 @@ public class Game {
                     + Common.getColor(otherColor));
         }
         endGame(winner);
+        fireEvent(GameListener.EVENT_TIMEOUT, color, 0, null);
     }
 
     @Override
@@ -0,0 +1,214 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.logging.Logger;
+
+/**
+ * A decoded delta frame of a {@link GameDeltaStream} (see the frame layout there). <br>
+ * A spectator keeps a board of 64 piece codes and the pocket counts, applies the changes of the snapshot frame
+ * to an empty board and then the changes of each delta frame, in sequence order.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class GameDelta {
+
+    private final static Logger LOGGER = Logger.getLogger(GameDelta.class.getName());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private int _type;
+    private int _sequence;
+    private int _ply;
+    private int _eventColor;
+    private int _colorToMove;
+    private int _status;
+    private int _winner;
+    private int[] _timeLeftMs = new int[Common.COLOR_NUM];
+    private int _move = PackedMove.NONE;
+    private String _moveName;
+    private String _fen;
+    private String _moveList;
+    private byte[] _squares;
+    private byte[] _pieces;
+    private byte[] _pocketColors;
+    private byte[] _pocketTypes;
+    private byte[] _pocketCounts;
+
+    private GameDelta() {
+    }
+
+    /**
+     * Decode a frame
+     *
+     * @param frame - an encoded frame. its position is not changed
+     * @return the decoded frame, or null if the frame is truncated
+     */
+    public static GameDelta decode(ByteBuffer frame) {
+        Utils.AssertNotNull(frame);
+        ByteBuffer buffer = frame.duplicate();
+        GameDelta delta = new GameDelta();
+        try {
+            delta._type = buffer.get();
+            delta._sequence = buffer.getInt();
+            delta._ply = buffer.getShort();
+            delta._eventColor = buffer.get();
+            delta._colorToMove = buffer.get();
+            delta._status = buffer.get();
+            delta._winner = buffer.get();
+            delta._timeLeftMs[Common.COLOR_WHITE] = buffer.getInt();
+            delta._timeLeftMs[Common.COLOR_BLACK] = buffer.getInt();
+            if (delta._type == GameDeltaStream.FRAME_SNAPSHOT) {
+                delta._fen = readString(buffer);
+                delta._moveList = readString(buffer);
+            } else if ((delta._type == GameListener.EVENT_MOVE) || (delta._type == GameListener.EVENT_TAKEBACK)) {
+                delta._move = buffer.getInt();
+                delta._moveName = readString(buffer);
+            }
+            int count = buffer.get() & 0xFF;
+            delta._squares = new byte[count];
+            delta._pieces = new byte[count];
+            for (int i = 0; i < count; i++) {
+                delta._squares[i] = buffer.get();
+                delta._pieces[i] = buffer.get();
+            }
+            count = buffer.get() & 0xFF;
+            delta._pocketColors = new byte[count];
+            delta._pocketTypes = new byte[count];
+            delta._pocketCounts = new byte[count];
+            for (int i = 0; i < count; i++) {
+                delta._pocketColors[i] = buffer.get();
+                delta._pocketTypes[i] = buffer.get();
+                delta._pocketCounts[i] = buffer.get();
+            }
+        } catch (BufferUnderflowException e) {
+            LOGGER.warning("truncated game delta frame");
+            return null;
+        }
+        return delta;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Apply the changed squares and pockets of this frame to the given spectator state
+     *
+     * @param board   - 64 piece codes, by square ((x-1)*8 + (y-1))
+     * @param pockets - pocket counts, by color and piece type. may be null
+     */
+    public void applyTo(byte[] board, byte[][] pockets) {
+        for (int i = 0; i < _squares.length; i++) {
+            board[_squares[i]] = _pieces[i];
+        }
+        if (pockets != null) {
+            for (int i = 0; i < _pocketColors.length; i++) {
+                pockets[_pocketColors[i]][_pocketTypes[i]] = _pocketCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the frame type. {@link GameDeltaStream#FRAME_SNAPSHOT}, {@link GameDeltaStream#FRAME_POCKETS} or a
+     * {@link GameListener} event
+     */
+    public int getType() {
+        return _type;
+    }
+
+    public int getSequence() {
+        return _sequence;
+    }
+
+    public int getPly() {
+        return _ply;
+    }
+
+    public int getEventColor() {
+        return _eventColor;
+    }
+
+    public int getColorToMove() {
+        return _colorToMove;
+    }
+
+    /**
+     * Returns the game status flags (GameDeltaStream.STATUS_XXX)
+     */
+    public int getStatus() {
+        return _status;
+    }
+
+    public boolean isEnded() {
+        return (_status & GameDeltaStream.STATUS_ENDED) != 0;
+    }
+
+    /**
+     * Returns true for a move frame of a move played from a premove queue
+     */
+    public boolean isPremove() {
+        return (_status & GameDeltaStream.STATUS_PREMOVE) != 0;
+    }
+
+    public int getWinner() {
+        return _winner;
+    }
+
+    public int getTimeLeftMs(int color) {
+        return _timeLeftMs[color];
+    }
+
+    /**
+     * Returns the packed move of a move or takeback frame (see {@link PackedMove}). 0 for other frames
+     */
+    public int getMove() {
+        return _move;
+    }
+
+    /**
+     * Returns the algebraic name of the move of a move or takeback frame. null for other frames
+     */
+    public String getMoveName() {
+        return _moveName;
+    }
+
+    /**
+     * Returns the FEN of a snapshot frame. null for other frames
+     */
+    public String getFEN() {
+        return _fen;
+    }
+
+    /**
+     * Returns the move list (algebraic) of a snapshot frame. null for other frames
+     */
+    public String getMoveList() {
+        return _moveList;
+    }
+
+    public int getChangedSquareCount() {
+        return _squares.length;
+    }
+
+    public int getChangedPocketCount() {
+        return _pocketColors.length;
+    }
+}
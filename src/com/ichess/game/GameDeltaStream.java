@@ -0,0 +1,357 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A stream of compact delta frames of a game, for spectators. <br>
+ * Each state change of the game (see {@link GameListener}) is encoded once, as a small binary frame with the
+ * squares and pockets changed by it, the clocks and the game status, and the same frame is passed to all the
+ * observers of the game. A new observer starts with a snapshot frame (see {@link #addObserver(GameObserver)}).
+ * <br>
+ * Frame layout (big endian. strings are a short length followed by UTF-8 bytes, -1 for null) :
+ * <pre>
+ * byte   type            FRAME_SNAPSHOT, FRAME_POCKETS or a GameListener EVENT_XXX
+ * int    sequence        increased by 1 for each delta frame. a snapshot has the sequence of the last delta
+ * short  ply             half moves played
+ * byte   event color     the color of the event (i.e. the color that offered a draw)
+ * byte   color to move
+ * byte   status          STATUS_XXX flags
+ * byte   winner          0 while the game is in progress
+ * int    white time left in milliseconds (at the time of the frame)
+ * int    black time left in milliseconds
+ * move and takeback frames : int packed move, string move name (algebraic)
+ * snapshot frames : string FEN, string move list (algebraic)
+ * byte   changed squares count, each : byte square ((x-1)*8 + (y-1)), byte piece code (0 for an empty square)
+ * byte   changed pockets count, each : byte color, byte piece type, byte count
+ * </pre>
+ * A snapshot frame lists all the occupied squares and all the pocket pieces as changes. <br>
+ * The stream, like its game, is not thread safe - observers should be added and removed by the thread that
+ * changes the game (or with the game lock held).
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class GameDeltaStream implements GameListener {
+
+    private final static Logger LOGGER = Logger.getLogger(GameDeltaStream.class.getName());
+
+    public static final int FRAME_SNAPSHOT = 0;
+    /**
+     * the pockets of a bug house game were changed by its other game
+     */
+    public static final int FRAME_POCKETS = 64;
+
+    public static final int STATUS_ENDED = 1;
+    public static final int STATUS_CHECK = 2;
+    public static final int STATUS_PAUSED = 4;
+    public static final int STATUS_WHITE_DRAW_OFFER = 8;
+    public static final int STATUS_BLACK_DRAW_OFFER = 16;
+    /**
+     * a move frame of a move played from a premove queue
+     */
+    public static final int STATUS_PREMOVE = 32;
+
+    // piece code : piece type, color and promoted flag
+    public static final int PIECE_TYPE_MASK = 0xF;
+    public static final int PIECE_COLOR_SHIFT = 4;
+    public static final int PIECE_PROMOTED = 0x40;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Game _game;
+    private final Game _otherGame;
+    private final List<GameObserver> _observers = new CopyOnWriteArrayList<GameObserver>();
+    // the position of the last frame
+    private final byte[] _board = new byte[64];
+    private final byte[][] _pockets = new byte[Common.COLOR_NUM][Common.PIECE_TYPE_NUM];
+    private final byte[][] _pocketCounts = new byte[Common.COLOR_NUM][Common.PIECE_TYPE_NUM];
+    private int _sequence = 0;
+    private ByteBuffer _buffer = ByteBuffer.allocate(256);
+    private long _frames = 0;
+    private long _bytes = 0;
+
+    /**
+     * Create the delta stream of the given game. The stream listens to the game (and to the other game of a bug
+     * house game, for pocket changes) until it is closed.
+     *
+     * @param game - a given game
+     */
+    public GameDeltaStream(Game game) {
+        Utils.AssertNotNull(game);
+        _game = game;
+        _otherGame = game.isBugHouse() ? game.getOtherGame() : null;
+        readBoard(_board);
+        readPockets(_pockets);
+        game.addListener(this);
+        if (_otherGame != null) {
+            _otherGame.addListener(this);
+        }
+    }
+
+    public Game getGame() {
+        return _game;
+    }
+
+    /**
+     * Add an observer of the game, and return the snapshot frame it should start with. The observer receives all
+     * the delta frames after the snapshot.
+     *
+     * @param observer - a given observer
+     * @return the game snapshot frame
+     */
+    public ByteBuffer addObserver(GameObserver observer) {
+        Utils.AssertNotNull(observer);
+        _observers.add(observer);
+        return getSnapshotFrame();
+    }
+
+    /**
+     * Remove an observer added with {@link #addObserver(GameObserver)}
+     *
+     * @return true if the observer was removed
+     */
+    public boolean removeObserver(GameObserver observer) {
+        return _observers.remove(observer);
+    }
+
+    public int getObserverCount() {
+        return _observers.size();
+    }
+
+    /**
+     * Returns the number of delta frames encoded so far
+     */
+    public long getFrameCount() {
+        return _frames;
+    }
+
+    /**
+     * Returns the total size, in bytes, of the delta frames encoded so far (each sent to all observers)
+     */
+    public long getFrameBytes() {
+        return _bytes;
+    }
+
+    /**
+     * Returns a snapshot frame of the current game state
+     */
+    public ByteBuffer getSnapshotFrame() {
+        byte[] empty = new byte[64];
+        byte[][] emptyPockets = new byte[Common.COLOR_NUM][Common.PIECE_TYPE_NUM];
+        startFrame(FRAME_SNAPSHOT, _sequence, _game.getCurrentColor(), false);
+        putString(FEN.getFENString(_game));
+        putString(_game.getMoveListAlg());
+        putChanges(empty, emptyPockets);
+        return endFrame();
+    }
+
+    /**
+     * Stop listening to the game. Observers receive no more frames
+     */
+    public void close() {
+        _game.removeListener(this);
+        if (_otherGame != null) {
+            _otherGame.removeListener(this);
+        }
+        _observers.clear();
+    }
+
+    @Override
+    public void gameChanged(Game game, int event, int color, long value, Move move) {
+        // the queued premoves of a player are not shown, as the other player may observe the game
+        if (event == EVENT_PREMOVES_CHANGED) {
+            return;
+        }
+        if (game != _game) {
+            // a bug house other game move changes only the pockets
+            if ((event != EVENT_MOVE) && (event != EVENT_TAKEBACK)) {
+                return;
+            }
+            readPockets(_pocketCounts);
+            if (samePockets()) {
+                return;
+            }
+            event = FRAME_POCKETS;
+            move = null;
+        }
+        startFrame(event, ++_sequence, color, (event == EVENT_MOVE) && move.isPremove());
+        if (move != null) {
+            ensureSpace(64);
+            _buffer.putInt(PackedMove.encode(move));
+            putString(move.getNameAlg());
+        }
+        putChanges(_board, _pockets);
+        ByteBuffer frame = endFrame();
+        _frames++;
+        _bytes += frame.remaining();
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("game " + _game.getName() + " frame " + _sequence + " event " + event + " " +
+                    frame.remaining() + " bytes to " + _observers.size() + " observers");
+        }
+        for (GameObserver observer : _observers) {
+            observer.frameReceived(this, frame.duplicate());
+        }
+    }
+
+    /*
+     * start a frame with the common header
+     */
+    private void startFrame(int type, int sequence, int color, boolean premove) {
+        _buffer.clear();
+        _buffer.put((byte) type);
+        _buffer.putInt(sequence);
+        _buffer.putShort((short) _game.getCurrentMove());
+        _buffer.put((byte) color);
+        _buffer.put((byte) _game.getCurrentColor());
+        int status = 0;
+        if (_game.isEnded()) {
+            status |= STATUS_ENDED;
+        }
+        if (_game.isCheck()) {
+            status |= STATUS_CHECK;
+        }
+        if (_game.isPaused()) {
+            status |= STATUS_PAUSED;
+        }
+        if (_game.drawOfferedBy(Common.COLOR_WHITE)) {
+            status |= STATUS_WHITE_DRAW_OFFER;
+        }
+        if (_game.drawOfferedBy(Common.COLOR_BLACK)) {
+            status |= STATUS_BLACK_DRAW_OFFER;
+        }
+        if (premove) {
+            status |= STATUS_PREMOVE;
+        }
+        _buffer.put((byte) status);
+        _buffer.put((byte) _game.getWinner());
+        _buffer.putInt(_game.getTimeLeftMs(Common.COLOR_WHITE));
+        _buffer.putInt(_game.getTimeLeftMs(Common.COLOR_BLACK));
+    }
+
+    /*
+     * append the squares and pockets changed since the given position, and update it to the current position
+     */
+    private void putChanges(byte[] board, byte[][] pockets) {
+        ensureSpace(2 + 64 * 2 + 2 * Common.PIECE_TYPE_NUM * 3);
+        int countPosition = _buffer.position();
+        int count = 0;
+        _buffer.put((byte) 0);
+        for (int x = 1; x <= 8; x++) {
+            for (int y = 1; y <= 8; y++) {
+                int square = Zobrist.square(x, y);
+                byte code = (byte) pieceCode(_game.getPieceAt(x, y));
+                if (board[square] != code) {
+                    board[square] = code;
+                    _buffer.put((byte) square);
+                    _buffer.put(code);
+                    count++;
+                }
+            }
+        }
+        _buffer.put(countPosition, (byte) count);
+
+        readPockets(_pocketCounts);
+        countPosition = _buffer.position();
+        count = 0;
+        _buffer.put((byte) 0);
+        for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+            for (int type = 0; type < Common.PIECE_TYPE_NUM; type++) {
+                if (pockets[color][type] != _pocketCounts[color][type]) {
+                    pockets[color][type] = _pocketCounts[color][type];
+                    _buffer.put((byte) color);
+                    _buffer.put((byte) type);
+                    _buffer.put(pockets[color][type]);
+                    count++;
+                }
+            }
+        }
+        _buffer.put(countPosition, (byte) count);
+    }
+
+    /*
+     * copy the encoded frame, to be shared by all the observers
+     */
+    private ByteBuffer endFrame() {
+        _buffer.flip();
+        byte[] frame = new byte[_buffer.remaining()];
+        _buffer.get(frame);
+        return ByteBuffer.wrap(frame).asReadOnlyBuffer();
+    }
+
+    private void putString(String str) {
+        if (str == null) {
+            ensureSpace(2);
+            _buffer.putShort((short) -1);
+            return;
+        }
+        byte[] bytes = str.getBytes(UTF8);
+        ensureSpace(2 + bytes.length);
+        _buffer.putShort((short) Math.min(bytes.length, Short.MAX_VALUE));
+        _buffer.put(bytes, 0, Math.min(bytes.length, Short.MAX_VALUE));
+    }
+
+    private void ensureSpace(int size) {
+        if (_buffer.remaining() < size) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(_buffer.capacity() * 2, _buffer.position() + size));
+            _buffer.flip();
+            buffer.put(_buffer);
+            _buffer = buffer;
+        }
+    }
+
+    private boolean samePockets() {
+        for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+            for (int type = 0; type < Common.PIECE_TYPE_NUM; type++) {
+                if (_pockets[color][type] != _pocketCounts[color][type]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void readBoard(byte[] board) {
+        for (int x = 1; x <= 8; x++) {
+            for (int y = 1; y <= 8; y++) {
+                board[Zobrist.square(x, y)] = (byte) pieceCode(_game.getPieceAt(x, y));
+            }
+        }
+    }
+
+    private void readPockets(byte[][] pockets) {
+        for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+            Arrays.fill(pockets[color], (byte) 0);
+            if (!_game.isCrazyOrBugHouse()) {
+                continue;
+            }
+            for (Piece piece : _game.getDroppablePieces(color)) {
+                pockets[color][piece.getTypeWhenDropping()]++;
+            }
+        }
+    }
+
+    /**
+     * Returns the frame code of the given piece (0 for no piece)
+     */
+    public static int pieceCode(Piece piece) {
+        if (piece == null) {
+            return 0;
+        }
+        return piece.getType() | (piece.getColor() << PIECE_COLOR_SHIFT) | (piece.isPromoted() ? PIECE_PROMOTED : 0);
+    }
+}
@@ -0,0 +1,856 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of live games, for crash recovery. <br>
+ * An attached game (see {@link #attach(Game, long)}) is recorded as a snapshot of its current state, followed by
+ * a compact binary record of each state changing call (see {@link GameListener}) - moves and takebacks (with the
+ * clocks time left), draw, pause and takeback requests, pause/resume, clock changes and game ends. <br>
+ * Records are appended to memory mapped segment files, and a commit thread forces the appended records to disk
+ * every commit interval, so many records (of many games) share a single disk sync (group commit). In sync commit
+ * mode, each state change waits until its record was forced to disk. <br>
+ * On startup, {@link #recover(String, int)} rebuilds all the games that were not detached, by replaying the
+ * journal in parallel (a bug house pair of games is replayed together). A recovered game clock continues from its
+ * recorded time left - the time the games were down is not charged. <br>
+ * Only the players, the rated flag, the time controls and the game state are recorded. Other game attributes are
+ * not journaled, and time controls should be set before the game is attached.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class GameJournal implements Closeable {
+
+    private final static Logger LOGGER = Logger.getLogger(GameJournal.class.getName());
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+    public static final int DEFAULT_COMMIT_INTERVAL_MS = 10;
+
+    private static final int MAGIC = 0x4A434A4C; // JCJL
+    private static final int VERSION = 1;
+    // magic and version
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    // body length and crc
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // record types, other than the game listener events
+    private static final int RECORD_START = 64;
+    private static final int RECORD_DETACH = 65;
+
+    // offset of the partner game id in a snapshot record (after the game id, type, color, game kind and flags)
+    private static final int PARTNER_OFFSET = 15;
+    // snapshot flags
+    private static final int FLAG_RATED = 1;
+    private static final int FLAG_PAUSED = 2;
+    private static final int FLAG_ENDED = 4;
+
+    /*
+     * records a single game state changes
+     */
+    private class Recorder implements GameListener {
+        private final Game _game;
+        private final long _gameId;
+
+        Recorder(Game game, long gameId) {
+            _game = game;
+            _gameId = gameId;
+        }
+
+        @Override
+        public void gameChanged(Game game, int event, int color, long value, Move move) {
+            // queued premoves are not recovered. the moves played from them are recorded as moves
+            if (event == GameListener.EVENT_PREMOVES_CHANGED) {
+                return;
+            }
+            long record = append(_gameId, game, event, color, value, move);
+            if ((record > 0) && _syncCommit) {
+                awaitCommit(record);
+            }
+        }
+    }
+
+    private final File _directory;
+    private final int _segmentSize;
+    private final int _commitIntervalMs;
+    private final int _firstSegment;
+    private int _segmentNumber;
+    private MappedByteBuffer _segment = null;
+    private ByteBuffer _record = ByteBuffer.allocate(1024);
+    private final CRC32 _crc = new CRC32();
+    // records appended, and records forced to disk
+    private long _appended = 0;
+    private long _committed = 0;
+    private volatile boolean _syncCommit = false;
+    private boolean _closed = false;
+    private final Map<Long, Recorder> _recorders = new ConcurrentHashMap<Long, Recorder>();
+    private Thread _committer = null;
+
+    private GameJournal(File directory, int segmentSize, int commitIntervalMs, int firstSegment) {
+        _directory = directory;
+        _segmentSize = segmentSize;
+        _commitIntervalMs = commitIntervalMs;
+        _firstSegment = firstSegment;
+        _segmentNumber = firstSegment;
+    }
+
+    /**
+     * Open a journal in the given directory, with the default segment size and commit interval
+     *
+     * @param directory - journal directory. created if missing
+     * @return the journal, or null if the journal can't be created
+     */
+    public static GameJournal open(String directory) {
+        return open(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMMIT_INTERVAL_MS);
+    }
+
+    /**
+     * Open a journal in the given directory. The journal appends to a new segment, after the existing segments
+     * of the directory (which are not modified, and can be recovered before opening the journal).
+     *
+     * @param directory        - journal directory. created if missing
+     * @param segmentSize      - size of each segment file, in bytes
+     * @param commitIntervalMs - interval between commits, in milliseconds
+     * @return the journal, or null if the journal can't be created
+     */
+    public static GameJournal open(String directory, int segmentSize, int commitIntervalMs) {
+        Utils.AssertNotNull(directory);
+        Utils.Assert(segmentSize > SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE, "segment too small " + segmentSize);
+        Utils.Assert(commitIntervalMs > 0, "bad commit interval " + commitIntervalMs);
+        File dir = new File(directory);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LOGGER.warning("can't create journal directory " + directory);
+            return null;
+        }
+        int[] segments = listSegments(dir);
+        int first = (segments.length == 0) ? 1 : segments[segments.length - 1] + 1;
+        final GameJournal journal = new GameJournal(dir, segmentSize, commitIntervalMs, first);
+        synchronized (journal) {
+            if (!journal.mapSegment()) {
+                return null;
+            }
+        }
+        journal._committer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                journal.commitLoop();
+            }
+        }, "jchess-journal-0");
+        journal._committer.setDaemon(true);
+        journal._committer.start();
+        return journal;
+    }
+
+    /**
+     * Set sync commit mode. In sync commit mode a state change of an attached game returns only after its record
+     * was forced to disk (sharing the disk sync with all the records appended meanwhile)
+     *
+     * @param syncCommit - sync commit mode
+     */
+    public void setSyncCommit(boolean syncCommit) {
+        _syncCommit = syncCommit;
+    }
+
+    public boolean isSyncCommit() {
+        return _syncCommit;
+    }
+
+    /**
+     * Start recording the given game. A snapshot of the game current state is recorded, and then every state change
+     * of the game, until the game is detached. A bug house game should be attached (together with its other game)
+     * before its first move.
+     *
+     * @param game   - a given game
+     * @param gameId - a unique id of the game
+     * @return true on success. false if the id is already attached or the snapshot can't be written
+     */
+    public boolean attach(Game game, long gameId) {
+        Utils.AssertNotNull(game);
+        Recorder recorder = new Recorder(game, gameId);
+        synchronized (this) {
+            if (_recorders.containsKey(gameId)) {
+                LOGGER.warning("game " + gameId + " already attached to journal");
+                return false;
+            }
+            if (append(gameId, game, RECORD_START, game.getCurrentColor(), 0, null) <= 0) {
+                return false;
+            }
+            _recorders.put(gameId, recorder);
+        }
+        game.addListener(recorder);
+        return true;
+    }
+
+    /**
+     * Stop recording the given game (i.e. when the ended game was stored). A detached game is not recovered
+     *
+     * @param gameId - a given game id
+     * @return true on success. false if the game is not attached
+     */
+    public boolean detach(long gameId) {
+        Recorder recorder = _recorders.remove(gameId);
+        if (recorder == null) {
+            LOGGER.warning("game " + gameId + " is not attached to journal");
+            return false;
+        }
+        recorder._game.removeListener(recorder);
+        append(gameId, recorder._game, RECORD_DETACH, 0, 0, null);
+        return true;
+    }
+
+    /**
+     * Returns the number of records appended to this journal
+     */
+    public synchronized long getRecordCount() {
+        return _appended;
+    }
+
+    /**
+     * Wait until all the records appended so far are forced to disk
+     *
+     * @return true on success. false if the journal was closed or the thread was interrupted
+     */
+    public boolean commit() {
+        long record;
+        synchronized (this) {
+            record = _appended;
+        }
+        return awaitCommit(record);
+    }
+
+    /**
+     * Delete the segment files that were written before this journal was opened. Call after all the recovered
+     * games were attached to this journal (and committed), so the old segments are no longer needed.
+     *
+     * @return true if all the old segments were deleted
+     */
+    public boolean removeOldSegments() {
+        boolean ok = true;
+        for (int segment : listSegments(_directory)) {
+            if ((segment < _firstSegment) && !segmentFile(_directory, segment).delete()) {
+                LOGGER.warning("can't delete journal segment " + segment);
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Close the journal. The attached games are detached (without a detach record, so they are recovered), and
+     * all the appended records are forced to disk
+     */
+    @Override
+    public void close() {
+        for (Recorder recorder : _recorders.values()) {
+            recorder._game.removeListener(recorder);
+        }
+        _recorders.clear();
+        MappedByteBuffer segment;
+        synchronized (this) {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+            segment = _segment;
+            notifyAll();
+        }
+        try {
+            _committer.join();
+        } catch (InterruptedException e) {
+            LOGGER.warning("interrupted while waiting for journal commit thread");
+            Thread.currentThread().interrupt();
+        }
+        segment.force();
+    }
+
+    /*
+     * append a record of the given game. returns the record number (starting with 1), or 0 on failure
+     */
+    private synchronized long append(long gameId, Game game, int type, int color, long value, Move move) {
+        if (_closed) {
+            LOGGER.warning("journal closed. game " + gameId + " change " + type + " not recorded");
+            return 0;
+        }
+        _record.clear();
+        _record.putLong(gameId);
+        _record.put((byte) type);
+        _record.put((byte) color);
+        switch (type) {
+            case RECORD_START:
+                if (!writeSnapshot(game)) {
+                    return 0;
+                }
+                break;
+            case GameListener.EVENT_MOVE:
+            case GameListener.EVENT_TAKEBACK:
+                _record.putInt(PackedMove.encode(move));
+                _record.putInt(game.getStoredTimeLeftMs(Common.COLOR_WHITE));
+                _record.putInt(game.getStoredTimeLeftMs(Common.COLOR_BLACK));
+                break;
+            case GameListener.EVENT_TIME_LEFT:
+            case GameListener.EVENT_CLOCK_ADD:
+                _record.putLong(value);
+                break;
+            default:
+                break;
+        }
+        _record.flip();
+        int length = _record.remaining();
+        if (_segment.remaining() < RECORD_HEADER_SIZE + length) {
+            if (SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + length > _segmentSize) {
+                LOGGER.warning("game " + gameId + " record of " + length + " bytes is larger than a journal segment");
+                return 0;
+            }
+            // the rest of the full segment is left zero, which ends its records
+            _segment.force();
+            _segmentNumber++;
+            if (!mapSegment()) {
+                return 0;
+            }
+        }
+        _crc.reset();
+        _crc.update(_record.array(), 0, length);
+        _segment.putInt(length);
+        _segment.putInt((int) _crc.getValue());
+        _segment.put(_record);
+        _appended++;
+        return _appended;
+    }
+
+    /*
+     * write the snapshot of the given game to the record buffer
+     */
+    private boolean writeSnapshot(Game game) {
+        long partnerId = -1;
+        if (game.getOtherGame() != null) {
+            for (Recorder recorder : _recorders.values()) {
+                if (recorder._game == game.getOtherGame()) {
+                    partnerId = recorder._gameId;
+                }
+            }
+        }
+        int flags = (game.isRated() ? FLAG_RATED : 0) | (game.isPaused() ? FLAG_PAUSED : 0) |
+                (game.isEnded() ? FLAG_ENDED : 0);
+        ensureRecordSpace(64 + game.getCurrentMove() * 4);
+        _record.putInt(game.getGameKind());
+        _record.put((byte) flags);
+        _record.putLong(partnerId);
+        if (!writeString(game.getWhiteName()) || !writeString(game.getBlackName()) ||
+                !writeString((String) game.getAttribute(Game.INITIAL_POSITION_FEN))) {
+            return false;
+        }
+        for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+            _record.putInt(game.getTimeLimitForGame(color));
+            _record.putInt(game.getTimeLimitForMove(color));
+            _record.putInt(game.getTimeIncrementForMove(color));
+            _record.putInt(game.getStoredTimeLeftMs(color));
+            _record.put((byte) ((game.drawOfferedBy(color) ? 1 : 0) | (game.getReqPause(color) ? 2 : 0) |
+                    (game.getReqTakeback(color) ? 4 : 0)));
+        }
+        _record.putInt(game.getCurrentMove());
+        for (int i = 0; i < game.getCurrentMove(); i++) {
+            _record.putInt(PackedMove.encode(game.getMove(i)));
+        }
+        _record.putInt(game.getWinner());
+        return writeString(game.getEndString());
+    }
+
+    private boolean writeString(String str) {
+        if (str == null) {
+            ensureRecordSpace(2);
+            _record.putShort((short) -1);
+            return true;
+        }
+        byte[] bytes = str.getBytes(UTF8);
+        if (bytes.length > Short.MAX_VALUE) {
+            LOGGER.warning("journal string too long " + bytes.length);
+            return false;
+        }
+        ensureRecordSpace(2 + bytes.length);
+        _record.putShort((short) bytes.length);
+        _record.put(bytes);
+        return true;
+    }
+
+    private void ensureRecordSpace(int size) {
+        if (_record.remaining() < size) {
+            ByteBuffer record = ByteBuffer.allocate(Math.max(_record.capacity() * 2, _record.position() + size));
+            _record.flip();
+            record.put(_record);
+            _record = record;
+        }
+    }
+
+    /*
+     * create and map the current segment file
+     */
+    private boolean mapSegment() {
+        File file = segmentFile(_directory, _segmentNumber);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(_segmentSize);
+            _segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, _segmentSize);
+            _segment.putInt(MAGIC);
+            _segment.putInt(VERSION);
+            return true;
+        } catch (IOException e) {
+            LOGGER.warning("can't create journal segment " + file + " : " + e.getMessage());
+            return false;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    LOGGER.warning("can't close journal segment " + file);
+                }
+            }
+        }
+    }
+
+    /*
+     * force the appended records to disk every commit interval, or when a commit is awaited
+     */
+    private void commitLoop() {
+        while (true) {
+            long record;
+            MappedByteBuffer segment;
+            synchronized (this) {
+                if (!_closed && (_committed == _appended)) {
+                    try {
+                        wait(_commitIntervalMs);
+                    } catch (InterruptedException e) {
+                        LOGGER.warning("journal commit thread interrupted");
+                        return;
+                    }
+                }
+                if (_closed) {
+                    return;
+                }
+                record = _appended;
+                segment = _segment;
+            }
+            if (record == _committed) {
+                continue;
+            }
+            // the records of full segments were forced when the segment was replaced
+            segment.force();
+            synchronized (this) {
+                _committed = record;
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized boolean awaitCommit(long record) {
+        notifyAll();
+        while (_committed < record) {
+            if (_closed) {
+                return false;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                LOGGER.warning("interrupted while waiting for journal commit");
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static File segmentFile(File directory, int segment) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%08d", segment) + SEGMENT_SUFFIX);
+    }
+
+    /*
+     * the segment numbers of the given directory, sorted
+     */
+    private static int[] listSegments(File directory) {
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (names == null) {
+            return new int[0];
+        }
+        int[] segments = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            try {
+                segments[count] = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length()));
+                count++;
+            } catch (NumberFormatException e) {
+                LOGGER.warning("not a journal segment " + name);
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Rebuild the games recorded in the journal of the given directory, that were not detached. <br>
+     * The segments are read in order, up to the first torn or corrupted record. The games are replayed by the given
+     * number of threads.
+     *
+     * @param directory - journal directory
+     * @param threads   - number of replay threads
+     * @return the recovered games, by their id. empty if the directory has no journal
+     */
+    public static Map<Long, Game> recover(String directory, int threads) {
+        Utils.AssertNotNull(directory);
+        Utils.Assert(threads > 0, "bad thread count " + threads);
+        long start = System.currentTimeMillis();
+        List<ByteBuffer> records = readRecords(new File(directory));
+
+        // the last snapshot record of each game that was not detached after it
+        Map<Long, Integer> starts = new HashMap<Long, Integer>();
+        for (int i = 0; i < records.size(); i++) {
+            ByteBuffer record = records.get(i);
+            long gameId = record.getLong(0);
+            int type = record.get(8);
+            if (type == RECORD_START) {
+                starts.put(gameId, i);
+            } else if (type == RECORD_DETACH) {
+                starts.remove(gameId);
+            }
+        }
+
+        // a bug house pair of games is replayed together, in the journal order. the game attached second
+        // records its partner
+        Map<Long, Long> units = new HashMap<Long, Long>();
+        for (Map.Entry<Long, Integer> entry : starts.entrySet()) {
+            long gameId = entry.getKey();
+            long partnerId = records.get(entry.getValue()).getLong(PARTNER_OFFSET);
+            if (!units.containsKey(gameId)) {
+                units.put(gameId, gameId);
+            }
+            if (starts.containsKey(partnerId)) {
+                long unit = Math.min(gameId, partnerId);
+                units.put(gameId, unit);
+                units.put(partnerId, unit);
+            }
+        }
+        Map<Long, List<ByteBuffer>> unitRecords = new LinkedHashMap<Long, List<ByteBuffer>>();
+        for (int i = 0; i < records.size(); i++) {
+            ByteBuffer record = records.get(i);
+            long gameId = record.getLong(0);
+            Integer first = starts.get(gameId);
+            if ((first == null) || (i < first)) {
+                continue;
+            }
+            Long unit = units.get(gameId);
+            List<ByteBuffer> list = unitRecords.get(unit);
+            if (list == null) {
+                list = new ArrayList<ByteBuffer>();
+                unitRecords.put(unit, list);
+            }
+            list.add(record);
+        }
+
+        final List<List<ByteBuffer>> work = new ArrayList<List<ByteBuffer>>(unitRecords.values());
+        final Map<Long, Game> games = new ConcurrentHashMap<Long, Game>();
+        final AtomicInteger next = new AtomicInteger();
+        Thread[] workers = new Thread[Math.min(threads, Math.max(1, work.size()))];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int index;
+                    while ((index = next.getAndIncrement()) < work.size()) {
+                        replay(work.get(index), games);
+                    }
+                }
+            }, "jchess-journal-recovery-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                LOGGER.warning("interrupted while waiting for journal recovery thread " + worker.getName());
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        LOGGER.info("recovered " + games.size() + " games from " + records.size() + " journal records in " +
+                (System.currentTimeMillis() - start) + " ms");
+        return games;
+    }
+
+    /*
+     * read the valid records of all the segments of the given directory, in order
+     */
+    private static List<ByteBuffer> readRecords(File directory) {
+        List<ByteBuffer> records = new ArrayList<ByteBuffer>();
+        CRC32 crc = new CRC32();
+        for (int segment : listSegments(directory)) {
+            File file = segmentFile(directory, segment);
+            ByteBuffer buffer;
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "r");
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            } catch (IOException e) {
+                LOGGER.warning("can't read journal segment " + file + " : " + e.getMessage());
+                return records;
+            } finally {
+                if (raf != null) {
+                    try {
+                        raf.close();
+                    } catch (IOException e) {
+                        LOGGER.warning("can't close journal segment " + file);
+                    }
+                }
+            }
+            if ((buffer.remaining() < SEGMENT_HEADER_SIZE) || (buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION)) {
+                LOGGER.warning("not a journal segment " + file);
+                return records;
+            }
+            byte[] body = new byte[256];
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length == 0) {
+                    break;
+                }
+                if ((length < 0) || (length > buffer.remaining())) {
+                    LOGGER.warning("torn journal record in segment " + file);
+                    return records;
+                }
+                if (body.length < length) {
+                    body = new byte[length];
+                }
+                buffer.get(body, 0, length);
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    LOGGER.warning("corrupted journal record in segment " + file);
+                    return records;
+                }
+                records.add(ByteBuffer.wrap(Arrays.copyOf(body, length)));
+            }
+        }
+        return records;
+    }
+
+    /*
+     * replay the records of a single game (or a bug house pair of games)
+     */
+    private static void replay(List<ByteBuffer> records, Map<Long, Game> recovered) {
+        Map<Long, Game> games = new HashMap<Long, Game>();
+        for (ByteBuffer record : records) {
+            long gameId = record.getLong();
+            int type = record.get();
+            int color = record.get();
+            if (type == RECORD_START) {
+                Game game = restoreSnapshot(gameId, record, games);
+                if (game != null) {
+                    games.put(gameId, game);
+                    recovered.put(gameId, game);
+                }
+                continue;
+            }
+            Game game = games.get(gameId);
+            if ((game != null) && !replayEvent(game, type, color, record)) {
+                LOGGER.warning("journal replay of game " + gameId + " failed at move " + game.getCurrentMove());
+                games.remove(gameId);
+            }
+        }
+    }
+
+    private static Game restoreSnapshot(long gameId, ByteBuffer record, Map<Long, Game> games) {
+        int gkind = record.getInt();
+        int flags = record.get();
+        long partnerId = record.getLong();
+        String white = readString(record);
+        String black = readString(record);
+        String fen = readString(record);
+
+        Game game = new Game(gkind);
+        if ((fen != null) && !game.reset(gkind, fen)) {
+            LOGGER.warning("journal game " + gameId + " has an invalid position " + fen);
+            return null;
+        }
+        if (white != null) {
+            game.setWhiteName(white);
+        }
+        if (black != null) {
+            game.setBlackName(black);
+        }
+        game.setRated((flags & FLAG_RATED) != 0);
+        int[] timeLeft = new int[Common.COLOR_NUM];
+        int[] requests = new int[Common.COLOR_NUM];
+        for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+            int gameMinutes = record.getInt();
+            int moveSeconds = record.getInt();
+            int incrementSeconds = record.getInt();
+            if (gameMinutes > 0) {
+                game.setTimeLimitForGame(color, gameMinutes);
+            }
+            if (moveSeconds > 0) {
+                game.setTimeLimitForMove(color, moveSeconds);
+            }
+            if (incrementSeconds > 0) {
+                game.setTimeIncrementPerMove(color, incrementSeconds);
+            }
+            timeLeft[color] = record.getInt();
+            requests[color] = record.get();
+        }
+        Game partner = games.get(partnerId);
+        if ((partner != null) && game.isBugHouse()) {
+            game.setOtherGame(partner);
+            partner.setOtherGame(game);
+        }
+        int moves = record.getInt();
+        for (int i = 0; i < moves; i++) {
+            int code = record.getInt();
+            Move move = PackedMove.toMove(game, code);
+            if ((move == null) || !game.playMove(move)) {
+                LOGGER.warning("journal game " + gameId + " snapshot has an invalid move at " + i);
+                return null;
+            }
+        }
+        for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+            game.setStoredTimeLeftMs(color, timeLeft[color]);
+            if ((requests[color] & 1) != 0) {
+                game.offerDraw(color);
+            }
+            if ((requests[color] & 2) != 0) {
+                game.setReqPause(color);
+            }
+            if ((requests[color] & 4) != 0) {
+                game.setReqTakeback(color);
+            }
+        }
+        if ((flags & FLAG_PAUSED) != 0) {
+            game.pauseGame();
+        }
+        int winner = record.getInt();
+        String endString = readString(record);
+        if (((flags & FLAG_ENDED) != 0) && !game.isEnded()) {
+            game.restoreEnd(winner, endString);
+        }
+        return game;
+    }
+
+    private static boolean replayEvent(Game game, int type, int color, ByteBuffer record) {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("journal replay of " + game.getName() + " event " + type + " color " + color);
+        }
+        switch (type) {
+            case GameListener.EVENT_MOVE: {
+                Move move = PackedMove.toMove(game, record.getInt());
+                if ((move == null) || !game.playMove(move)) {
+                    return false;
+                }
+                game.setStoredTimeLeftMs(Common.COLOR_WHITE, record.getInt());
+                game.setStoredTimeLeftMs(Common.COLOR_BLACK, record.getInt());
+                return true;
+            }
+            case GameListener.EVENT_TAKEBACK:
+                if (!game.isStarted()) {
+                    return false;
+                }
+                game.takeback();
+                record.getInt();
+                game.setStoredTimeLeftMs(Common.COLOR_WHITE, record.getInt());
+                game.setStoredTimeLeftMs(Common.COLOR_BLACK, record.getInt());
+                return true;
+            case GameListener.EVENT_DRAW_OFFER:
+                game.offerDraw(color);
+                return true;
+            case GameListener.EVENT_PAUSE_REQUEST:
+                game.setReqPause(color);
+                return true;
+            case GameListener.EVENT_PAUSE_REQUEST_CLEARED:
+                game.clearReqPause(color);
+                return true;
+            case GameListener.EVENT_TAKEBACK_REQUEST:
+                game.setReqTakeback(color);
+                return true;
+            case GameListener.EVENT_PAUSE:
+                game.pauseGame();
+                return true;
+            case GameListener.EVENT_RESUME:
+                game.resumeGame();
+                return true;
+            case GameListener.EVENT_TIME_LEFT:
+                return game.setTimeLeftMilliseconds(color, record.getLong());
+            case GameListener.EVENT_CLOCK_ADD:
+                game.addClockTime(color, (int) record.getLong());
+                return true;
+            case GameListener.EVENT_DRAW:
+                // a draw offer accepted by the other color ended the game already
+                if (!game.isEnded()) {
+                    game.drawMutual();
+                }
+                return true;
+            case GameListener.EVENT_RESIGN:
+                game.resign(color);
+                return true;
+            case GameListener.EVENT_ABORT:
+                game.abort(color);
+                return true;
+            case GameListener.EVENT_DISCONNECT:
+                game.disconnect(color);
+                return true;
+            case GameListener.EVENT_TIMEOUT:
+                game.timeOut(color);
+                return true;
+            case GameListener.EVENT_OTHER_GAME_ENDED:
+                if (game.getOtherGame() != null) {
+                    game.otherGameEnded();
+                }
+                return true;
+            default:
+                LOGGER.warning("unknown journal record type " + type);
+                return false;
+        }
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,103 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+/**
+ * A listener of the state changing calls of a {@link Game} (see {@link Game#addListener(GameListener)}). <br>
+ * The listener is called synchronously, by the thread that changed the game, after the game state was changed.
+ * Moves played and taken back by searches are not reported, as they are played on copies of the game.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public interface GameListener {
+
+    /**
+     * a move was played. move is the played move
+     */
+    int EVENT_MOVE = 1;
+    /**
+     * the last move was taken back. move is the taken back move
+     */
+    int EVENT_TAKEBACK = 2;
+    /**
+     * color offered a draw
+     */
+    int EVENT_DRAW_OFFER = 3;
+    /**
+     * color requested a pause
+     */
+    int EVENT_PAUSE_REQUEST = 4;
+    /**
+     * the pause request of color was cleared
+     */
+    int EVENT_PAUSE_REQUEST_CLEARED = 5;
+    /**
+     * color requested a takeback
+     */
+    int EVENT_TAKEBACK_REQUEST = 6;
+    /**
+     * the game was paused
+     */
+    int EVENT_PAUSE = 7;
+    /**
+     * the game was resumed
+     */
+    int EVENT_RESUME = 8;
+    /**
+     * the time left of color was set to value milliseconds
+     */
+    int EVENT_TIME_LEFT = 9;
+    /**
+     * value milliseconds were added to the clock of color
+     */
+    int EVENT_CLOCK_ADD = 10;
+    /**
+     * the game ended in a mutual draw
+     */
+    int EVENT_DRAW = 11;
+    /**
+     * color resigned
+     */
+    int EVENT_RESIGN = 12;
+    /**
+     * color aborted the game
+     */
+    int EVENT_ABORT = 13;
+    /**
+     * color disconnected
+     */
+    int EVENT_DISCONNECT = 14;
+    /**
+     * color ran out of time
+     */
+    int EVENT_TIMEOUT = 15;
+    /**
+     * the bug house other game ended, and ended this game
+     */
+    int EVENT_OTHER_GAME_ENDED = 16;
+    /**
+     * a premove of color was queued or played, or the premoves of color were cleared. value is the number of
+     * queued premoves (see {@link Game#addPremove(int, int, int)})
+     */
+    int EVENT_PREMOVES_CHANGED = 17;
+
+    /**
+     * Called after the state of the given game was changed
+     *
+     * @param game  - the changed game
+     * @param event - the change. one of the EVENT_XXX constants
+     * @param color - the color of the change (for color events). otherwise the color to move
+     * @param value - the time value of clock events (in milliseconds), the queue length of premove events.
+     *              otherwise 0
+     * @param move  - the played or taken back move of move events. otherwise null
+     */
+    void gameChanged(Game game, int event, int color, long value, Move move);
+}
@@ -0,0 +1,30 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An observer (i.e. a spectator connection) of the delta frames of a game (see {@link GameDeltaStream}).
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public interface GameObserver {
+
+    /**
+     * Called with each delta frame of the observed game, by the thread that changed the game. The frame is shared
+     * by all the observers of the game, so it should be sent (or queued) as is, and not kept beyond that.
+     *
+     * @param stream - the delta stream of the observed game
+     * @param frame  - a read only view of the encoded frame (see {@link GameDelta#decode(ByteBuffer)})
+     */
+    void frameReceived(GameDeltaStream stream, ByteBuffer frame);
+}
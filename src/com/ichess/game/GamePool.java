@@ -0,0 +1,167 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.ArrayDeque;
+import java.util.logging.Logger;
+
+/**
+ * A bounded pool of reusable games. A game taken from the pool is reset in place (see {@link Game#reset(int, String)})
+ * instead of being allocated, and is returned to the pool when it is no longer used. <br>
+ * The pool is thread safe. A thread that handles one game at a time can use {@link #getThreadGame(int, String)}
+ * instead, that keeps a single game per thread.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class GamePool {
+
+    private final static Logger LOGGER = Logger.getLogger(GamePool.class.getName());
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final ThreadLocal<Game> THREAD_GAME = new ThreadLocal<Game>();
+
+    private final ArrayDeque<Game> _games;
+    private final int _capacity;
+    private long _created = 0;
+    private long _reused = 0;
+
+    /**
+     * Create a pool of up to {@link #DEFAULT_CAPACITY} games
+     */
+    public GamePool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a pool of up to the given number of games. Games released to a full pool are dropped.
+     *
+     * @param capacity - max number of games kept in the pool
+     */
+    public GamePool(int capacity) {
+        Utils.Assert(capacity > 0, "bad pool capacity " + capacity);
+        _capacity = capacity;
+        _games = new ArrayDeque<Game>(capacity);
+    }
+
+    /**
+     * Returns a game of the given game kind in its initial position, reused from the pool if possible.
+     *
+     * @param gkind - game kind
+     * @return a game in its initial position
+     */
+    public Game acquire(int gkind) {
+        Game game = poll();
+        if (game == null) {
+            return new Game(gkind);
+        }
+        game.reset(gkind);
+        return game;
+    }
+
+    /**
+     * Returns a game loaded from the given FEN, reused from the pool if possible.
+     *
+     * @param gkind - game kind. 0 to guess the game kind from the FEN
+     * @param fen   - a FEN string
+     * @return a game loaded from the given FEN. null if the FEN is invalid
+     */
+    public Game acquire(int gkind, String fen) {
+        Utils.AssertNotNull(fen);
+        Game game = poll();
+        if (game == null) {
+            return FEN.loadGame(fen, gkind);
+        }
+        if (!game.reset(gkind, fen)) {
+            LOGGER.warning("failed to load fen '" + fen + "'");
+            release(game);
+            return null;
+        }
+        return game;
+    }
+
+    /**
+     * Return a game to the pool. The game must not be used after it is released.
+     *
+     * @param game - a game taken from this pool (or any other game)
+     */
+    public void release(Game game) {
+        Utils.AssertNotNull(game);
+        synchronized (_games) {
+            if (_games.size() < _capacity) {
+                _games.push(game);
+            }
+        }
+    }
+
+    private Game poll() {
+        synchronized (_games) {
+            Game game = _games.poll();
+            if (game == null) {
+                _created++;
+            } else {
+                _reused++;
+            }
+            return game;
+        }
+    }
+
+    /**
+     * Returns the number of games in the pool
+     */
+    public int size() {
+        synchronized (_games) {
+            return _games.size();
+        }
+    }
+
+    /**
+     * Returns the number of games acquired that were created (not reused from the pool)
+     */
+    public long getCreated() {
+        synchronized (_games) {
+            return _created;
+        }
+    }
+
+    /**
+     * Returns the number of games acquired that were reused from the pool
+     */
+    public long getReused() {
+        synchronized (_games) {
+            return _reused;
+        }
+    }
+
+    /**
+     * Returns the game of the current thread, reset to the given FEN (or to the initial position if fen is null).
+     * The same game is returned by every call on the current thread, so it is valid only until the next call.
+     *
+     * @param gkind - game kind. 0 to guess the game kind from the FEN
+     * @param fen   - a FEN string. null for the initial position
+     * @return the game of the current thread. null if the FEN is invalid
+     */
+    public static Game getThreadGame(int gkind, String fen) {
+        Game game = THREAD_GAME.get();
+        if (game == null) {
+            game = new Game(gkind);
+            THREAD_GAME.set(game);
+            if (fen == null) {
+                return game;
+            }
+        }
+        if (!game.reset(gkind, fen)) {
+            LOGGER.warning("failed to load fen '" + fen + "'");
+            return null;
+        }
+        return game;
+    }
+}
@@ -0,0 +1,517 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.logging.Logger;
+
+/**
+ * A versioned binary snapshot of a complete live game (or a bug house pair of games), for moving live games
+ * between servers. <br>
+ * The snapshot keeps the players, the rated flag, the time controls, the clocks (time left, and the start time and
+ * duration of a running clock), the draw, pause and takeback requests, the queued premoves, the moves (with their
+ * move times), the end state and the game attributes. A restored game is identical to the written one - a running
+ * clock keeps running from the time it was started, so the time the game was moving is charged (the servers
+ * clocks are assumed to be synchronized). Game listeners and neural evaluation are not part of the snapshot. <br>
+ * The moves are replayed on restore, so takebacks, repetitions and the move list of a restored game work as
+ * before. The moves of a bug house pair are replayed together, by the time they were played.
+ * <br>
+ * Layout (big endian. strings are a short length followed by UTF-8 bytes, -1 for null) :
+ * <pre>
+ * int    MAGIC, short VERSION, byte games count (2 for a bug house pair), and for each game :
+ * int    game kind, byte FLAG_XXX flags, string white name, string black name, string initial FEN
+ * for each color : int game minutes, int move seconds, int increment seconds, int time left,
+ *                  long clock started time (0 if stopped), int clock duration, byte requests,
+ *                  byte premoves count, each : int packed premove, int packed condition
+ * int    premove time, int moves count, each : int packed move (MOVE_PREMOVE flag), int move time, long time played
+ * int    winner, string end string
+ * short  attributes count, each : string key, byte ATTRIBUTE_XXX type, value
+ * </pre>
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class GameSnapshot {
+
+    private final static Logger LOGGER = Logger.getLogger(GameSnapshot.class.getName());
+
+    private static final int MAGIC = 0x4A43534E; // JCSN
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int FLAG_RATED = 1;
+    private static final int FLAG_PAUSED = 2;
+    private static final int FLAG_ENDED = 4;
+    private static final int FLAG_COMPACT_HISTORY = 8;
+
+    private static final int REQUEST_DRAW = 1;
+    private static final int REQUEST_PAUSE = 2;
+    private static final int REQUEST_TAKEBACK = 4;
+
+    // a move played from a premove queue
+    private static final int MOVE_PREMOVE = 1 << 30;
+
+    private static final int ATTRIBUTE_STRING = 1;
+    private static final int ATTRIBUTE_INTEGER = 2;
+    private static final int ATTRIBUTE_LONG = 3;
+    private static final int ATTRIBUTE_BOOLEAN = 4;
+
+    private GameSnapshot() {
+    }
+
+    /**
+     * Returns a snapshot of the given game (and of its bug house other game, if any)
+     *
+     * @param game - a game
+     * @return a buffer with the snapshot, ready to be read. null on error
+     */
+    public static ByteBuffer write(Game game) {
+        Utils.AssertNotNull(game);
+        int size = 512 + game.getCurrentMove() * 16;
+        if (game.getOtherGame() != null) {
+            size += 512 + game.getOtherGame().getCurrentMove() * 16;
+        }
+        while (true) {
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            int position = write(game, buffer);
+            if (position > 0) {
+                buffer.flip();
+                return buffer;
+            }
+            if (position < 0) {
+                return null;
+            }
+            size *= 2;
+        }
+    }
+
+    /**
+     * Write a snapshot of the given game (and of its bug house other game, if any) to the given buffer
+     *
+     * @param game   - a game
+     * @param buffer - a buffer. the snapshot is written at its position
+     * @return the buffer position after the snapshot. 0 if the buffer is too small (its position is not changed),
+     * -1 on error
+     */
+    public static int write(Game game, ByteBuffer buffer) {
+        Utils.AssertNotNull(game);
+        Utils.AssertNotNull(buffer);
+        int start = buffer.position();
+        try {
+            buffer.putInt(MAGIC);
+            buffer.putShort((short) VERSION);
+            Game otherGame = game.getOtherGame();
+            buffer.put((byte) ((otherGame == null) ? 1 : 2));
+            if (!writeGame(game, buffer) || ((otherGame != null) && !writeGame(otherGame, buffer))) {
+                buffer.position(start);
+                return -1;
+            }
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            return 0;
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Restore a game from a snapshot
+     *
+     * @param buffer - a buffer with a snapshot at its position. the position is moved after the snapshot
+     * @return the restored game (with its restored bug house other game, if any). null if the snapshot is invalid
+     */
+    public static Game read(ByteBuffer buffer) {
+        Utils.AssertNotNull(buffer);
+        State[] states;
+        try {
+            if (buffer.getInt() != MAGIC) {
+                LOGGER.warning("not a game snapshot");
+                return null;
+            }
+            int version = buffer.getShort();
+            if (version != VERSION) {
+                LOGGER.warning("unsupported game snapshot version " + version);
+                return null;
+            }
+            int count = buffer.get();
+            if ((count != 1) && (count != 2)) {
+                LOGGER.warning("bad game snapshot games count " + count);
+                return null;
+            }
+            states = new State[count];
+            for (int i = 0; i < count; i++) {
+                states[i] = readState(buffer);
+                if (states[i] == null) {
+                    return null;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            LOGGER.warning("truncated game snapshot");
+            return null;
+        }
+
+        Game[] games = new Game[states.length];
+        for (int i = 0; i < states.length; i++) {
+            games[i] = states[i].createGame();
+            if (games[i] == null) {
+                return null;
+            }
+        }
+        if (games.length == 2) {
+            if (!games[0].isBugHouse() || !games[1].isBugHouse()) {
+                LOGGER.warning("game snapshot pair is not bug house");
+                return null;
+            }
+            games[0].setOtherGame(games[1]);
+            games[1].setOtherGame(games[0]);
+        }
+        if (!replay(games, states)) {
+            return null;
+        }
+        for (int i = 0; i < states.length; i++) {
+            states[i].restore(games[i]);
+        }
+        return games[0];
+    }
+
+    /*
+     * the recorded state of a single game
+     */
+    private static class State {
+        int gkind;
+        int flags;
+        String whiteName;
+        String blackName;
+        String initialFEN;
+        int[] gameMinutes = new int[Common.COLOR_NUM];
+        int[] moveSeconds = new int[Common.COLOR_NUM];
+        int[] incrementSeconds = new int[Common.COLOR_NUM];
+        int[] timeLeft = new int[Common.COLOR_NUM];
+        long[] clockStarted = new long[Common.COLOR_NUM];
+        int[] clockDuration = new int[Common.COLOR_NUM];
+        int[] requests = new int[Common.COLOR_NUM];
+        int[][] premoves = new int[Common.COLOR_NUM][];
+        int[][] premoveConditions = new int[Common.COLOR_NUM][];
+        int premoveTimeMs;
+        int[] moves;
+        int[] moveTimes;
+        long[] timesPlayed;
+        int winner;
+        String endString;
+        String[] attributeKeys;
+        Object[] attributeValues;
+
+        /*
+         * create the game in its initial position, before its moves are replayed
+         */
+        Game createGame() {
+            Game game = new Game(gkind);
+            if ((initialFEN != null) && !game.reset(gkind, initialFEN)) {
+                LOGGER.warning("game snapshot has an invalid position " + initialFEN);
+                return null;
+            }
+            if (whiteName != null) {
+                game.setWhiteName(whiteName);
+            }
+            if (blackName != null) {
+                game.setBlackName(blackName);
+            }
+            game.setRated((flags & FLAG_RATED) != 0);
+            if ((flags & FLAG_COMPACT_HISTORY) != 0) {
+                game.setCompactHistory(true);
+            }
+            for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+                if (gameMinutes[color] > 0) {
+                    game.setTimeLimitForGame(color, gameMinutes[color]);
+                }
+                if (moveSeconds[color] > 0) {
+                    game.setTimeLimitForMove(color, moveSeconds[color]);
+                }
+                if (incrementSeconds[color] > 0) {
+                    game.setTimeIncrementPerMove(color, incrementSeconds[color]);
+                }
+            }
+            game.setPremoveTimeMs(premoveTimeMs);
+            return game;
+        }
+
+        /*
+         * restore the state of the game after its moves were replayed
+         */
+        void restore(Game game) {
+            for (int i = 0; i < moves.length; i++) {
+                Move move = game.getMove(i);
+                move.setMoveTime(moveTimes[i]);
+                move.setTimePlayed(timesPlayed[i]);
+                move.setPremove((moves[i] & MOVE_PREMOVE) != 0);
+            }
+            for (int i = 0; i < attributeKeys.length; i++) {
+                game.setAttribute(attributeKeys[i], attributeValues[i]);
+            }
+            for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+                if ((requests[color] & REQUEST_DRAW) != 0) {
+                    game.offerDraw(color);
+                }
+                if ((requests[color] & REQUEST_PAUSE) != 0) {
+                    game.setReqPause(color);
+                }
+                if ((requests[color] & REQUEST_TAKEBACK) != 0) {
+                    game.setReqTakeback(color);
+                }
+                for (int i = 0; i < premoves[color].length; i++) {
+                    game.restorePremove(color, premoves[color][i], premoveConditions[color][i]);
+                }
+            }
+            if ((flags & FLAG_PAUSED) != 0) {
+                game.pauseGame();
+            }
+            if (((flags & FLAG_ENDED) != 0) && !game.isEnded()) {
+                game.restoreEnd(winner, endString);
+            }
+            // the clocks last, as pausing and ending the game stop them
+            for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+                game.setStoredTimeLeftMs(color, timeLeft[color]);
+                game.restoreClock(color, clockStarted[color], clockDuration[color]);
+            }
+        }
+    }
+
+    private static boolean writeGame(Game game, ByteBuffer buffer) {
+        int flags = (game.isRated() ? FLAG_RATED : 0) | (game.isPaused() ? FLAG_PAUSED : 0) |
+                (game.isEnded() ? FLAG_ENDED : 0) | (game.isCompactHistory() ? FLAG_COMPACT_HISTORY : 0);
+        buffer.putInt(game.getGameKind());
+        buffer.put((byte) flags);
+        if (!writeString(buffer, game.getWhiteName()) || !writeString(buffer, game.getBlackName()) ||
+                !writeString(buffer, (String) game.getAttribute(Game.INITIAL_POSITION_FEN))) {
+            return false;
+        }
+        for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+            buffer.putInt(game.getTimeLimitForGame(color));
+            buffer.putInt(game.getTimeLimitForMove(color));
+            buffer.putInt(game.getTimeIncrementForMove(color));
+            buffer.putInt(game.getStoredTimeLeftMs(color));
+            buffer.putLong(game.getClockStartedTime(color));
+            buffer.putInt(game.getClockDuration(color));
+            buffer.put((byte) ((game.drawOfferedBy(color) ? REQUEST_DRAW : 0) |
+                    (game.getReqPause(color) ? REQUEST_PAUSE : 0) | (game.getReqTakeback(color) ? REQUEST_TAKEBACK : 0)));
+            buffer.put((byte) game.getPremoveCount(color));
+            for (int i = 0; i < game.getPremoveCount(color); i++) {
+                buffer.putInt(game.getPremove(color, i));
+                buffer.putInt(game.getPremoveCondition(color, i));
+            }
+        }
+        buffer.putInt(game.getPremoveTimeMs());
+        buffer.putInt(game.getCurrentMove());
+        for (int i = 0; i < game.getCurrentMove(); i++) {
+            Move move = game.getMove(i);
+            buffer.putInt(PackedMove.encode(move) | (move.isPremove() ? MOVE_PREMOVE : 0));
+            buffer.putInt(move.getMoveTime());
+            buffer.putLong(move.getTimePlayed());
+        }
+        buffer.putInt(game.getWinner());
+        if (!writeString(buffer, game.getEndString())) {
+            return false;
+        }
+
+        int countPosition = buffer.position();
+        buffer.putShort((short) 0);
+        int count = 0;
+        for (String key : game.getAttributes()) {
+            Object value = game.getAttribute(key);
+            int type;
+            if (value instanceof String) {
+                type = ATTRIBUTE_STRING;
+            } else if (value instanceof Integer) {
+                type = ATTRIBUTE_INTEGER;
+            } else if (value instanceof Long) {
+                type = ATTRIBUTE_LONG;
+            } else if (value instanceof Boolean) {
+                type = ATTRIBUTE_BOOLEAN;
+            } else {
+                LOGGER.warning("game " + game.getName() + " attribute " + key + " of type " +
+                        value.getClass().getName() + " is not written to the snapshot");
+                continue;
+            }
+            if (!writeString(buffer, key)) {
+                return false;
+            }
+            buffer.put((byte) type);
+            switch (type) {
+                case ATTRIBUTE_STRING:
+                    if (!writeString(buffer, (String) value)) {
+                        return false;
+                    }
+                    break;
+                case ATTRIBUTE_INTEGER:
+                    buffer.putInt((Integer) value);
+                    break;
+                case ATTRIBUTE_LONG:
+                    buffer.putLong((Long) value);
+                    break;
+                default:
+                    buffer.put((byte) (((Boolean) value) ? 1 : 0));
+                    break;
+            }
+            count++;
+        }
+        buffer.putShort(countPosition, (short) count);
+        return true;
+    }
+
+    private static State readState(ByteBuffer buffer) {
+        State state = new State();
+        state.gkind = buffer.getInt();
+        if (!checkRange("game kind", state.gkind, 1, Common.GAME_KIND_NUM - 1)) {
+            return null;
+        }
+        state.flags = buffer.get();
+        state.whiteName = readString(buffer);
+        state.blackName = readString(buffer);
+        state.initialFEN = readString(buffer);
+        for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+            state.gameMinutes[color] = buffer.getInt();
+            state.moveSeconds[color] = buffer.getInt();
+            state.incrementSeconds[color] = buffer.getInt();
+            state.timeLeft[color] = buffer.getInt();
+            state.clockStarted[color] = buffer.getLong();
+            state.clockDuration[color] = buffer.getInt();
+            state.requests[color] = buffer.get();
+            int premoves = buffer.get();
+            if (!checkRange("premoves count", premoves, 0, Game.MAX_PREMOVES)) {
+                return null;
+            }
+            state.premoves[color] = new int[premoves];
+            state.premoveConditions[color] = new int[premoves];
+            for (int i = 0; i < premoves; i++) {
+                state.premoves[color][i] = buffer.getInt();
+                state.premoveConditions[color][i] = buffer.getInt();
+            }
+        }
+        state.premoveTimeMs = buffer.getInt();
+        int moves = buffer.getInt();
+        // each move takes 16 bytes
+        if (!checkRange("moves count", moves, 0, buffer.remaining() / 16)) {
+            return null;
+        }
+        state.moves = new int[moves];
+        state.moveTimes = new int[moves];
+        state.timesPlayed = new long[moves];
+        for (int i = 0; i < moves; i++) {
+            state.moves[i] = buffer.getInt();
+            state.moveTimes[i] = buffer.getInt();
+            state.timesPlayed[i] = buffer.getLong();
+        }
+        state.winner = buffer.getInt();
+        state.endString = readString(buffer);
+        int attributes = buffer.getShort();
+        // each attribute takes at least 4 bytes (key length, type and value)
+        if (!checkRange("attributes count", attributes, 0, buffer.remaining() / 4)) {
+            return null;
+        }
+        state.attributeKeys = new String[attributes];
+        state.attributeValues = new Object[attributes];
+        for (int i = 0; i < attributes; i++) {
+            state.attributeKeys[i] = readString(buffer);
+            int type = buffer.get();
+            switch (type) {
+                case ATTRIBUTE_STRING:
+                    state.attributeValues[i] = readString(buffer);
+                    break;
+                case ATTRIBUTE_INTEGER:
+                    state.attributeValues[i] = buffer.getInt();
+                    break;
+                case ATTRIBUTE_LONG:
+                    state.attributeValues[i] = buffer.getLong();
+                    break;
+                case ATTRIBUTE_BOOLEAN:
+                    state.attributeValues[i] = (buffer.get() != 0);
+                    break;
+                default:
+                    LOGGER.warning("bad game snapshot attribute type " + type);
+                    return null;
+            }
+        }
+        return state;
+    }
+
+    /*
+     * returns true if a recorded count is in the given range. otherwise the snapshot is bad
+     */
+    private static boolean checkRange(String name, int value, int min, int max) {
+        if ((value < min) || (value > max)) {
+            LOGGER.warning("bad game snapshot " + name + " " + value);
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * replay the moves of the games. the moves of a bug house pair are replayed by the time they were played, as
+     * the drops of each game depend on the captures of the other game
+     */
+    private static boolean replay(Game[] games, State[] states) {
+        int[] next = new int[games.length];
+        while (true) {
+            int index = -1;
+            for (int i = 0; i < games.length; i++) {
+                if ((next[i] < states[i].moves.length) && ((index < 0) ||
+                        (states[i].timesPlayed[next[i]] < states[index].timesPlayed[next[index]]))) {
+                    index = i;
+                }
+            }
+            if (index < 0) {
+                return true;
+            }
+            if (!playMove(games[index], states[index].moves[next[index]])) {
+                // moves played at the same time may be recorded out of order - try the other game move first
+                int other = games.length - 1 - index;
+                if ((other == index) || (next[other] == states[other].moves.length) ||
+                        !playMove(games[other], states[other].moves[next[other]])) {
+                    LOGGER.warning("game snapshot has an invalid move at " + next[index]);
+                    return false;
+                }
+                index = other;
+            }
+            next[index]++;
+        }
+    }
+
+    private static boolean playMove(Game game, int code) {
+        Move move = PackedMove.toMove(game, code & ~MOVE_PREMOVE);
+        return (move != null) && game.playMove(move);
+    }
+
+    private static boolean writeString(ByteBuffer buffer, String str) {
+        if (str == null) {
+            buffer.putShort((short) -1);
+            return true;
+        }
+        byte[] bytes = str.getBytes(UTF8);
+        if (bytes.length > Short.MAX_VALUE) {
+            LOGGER.warning("game snapshot string too long " + bytes.length);
+            return false;
+        }
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+        return true;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,145 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a {@link MateSolver} search - all the key moves that force mate in the searched number
+ * of moves, with the shortest mate of each key move.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class MateSolution {
+
+    public static final int RESULT_MATE = 1;
+    public static final int RESULT_NO_MATE = 2;
+    // the time limit was reached before all the moves were searched
+    public static final int RESULT_TIMEOUT = 3;
+    public static final int RESULT_ILLEGAL_POSITION = 4;
+
+    private final String _fen;
+    private final int _mateInMoves;
+    private int _result = RESULT_NO_MATE;
+    private final List<String> _keyMoves = new ArrayList<String>();
+    private final List<Integer> _keyMoveMates = new ArrayList<Integer>();
+    private long _nodes = 0;
+    private long _timeMs = 0;
+
+    MateSolution(String fen, int mateInMoves) {
+        _fen = fen;
+        _mateInMoves = mateInMoves;
+    }
+
+    /**
+     * Returns the FEN of the solved position
+     */
+    public String getFen() {
+        return _fen;
+    }
+
+    /**
+     * Returns the searched number of moves
+     */
+    public int getMateInMoves() {
+        return _mateInMoves;
+    }
+
+    /**
+     * Returns {@link #RESULT_MATE}, {@link #RESULT_NO_MATE}, {@link #RESULT_TIMEOUT} or {@link #RESULT_ILLEGAL_POSITION}
+     */
+    public int getResult() {
+        return _result;
+    }
+
+    void setResult(int result) {
+        _result = result;
+    }
+
+    /**
+     * Returns the key moves (algebraic notation) that force mate, shortest mates first
+     */
+    public List<String> getKeyMoves() {
+        return Collections.unmodifiableList(_keyMoves);
+    }
+
+    /**
+     * Returns the number of moves of the shortest mate that starts with the given key move, or 0 if it is not a key move
+     *
+     * @param keyMove - a key move in algebraic notation
+     */
+    public int getMateInMoves(String keyMove) {
+        int index = _keyMoves.indexOf(keyMove);
+        return (index < 0) ? 0 : _keyMoveMates.get(index);
+    }
+
+    /**
+     * Returns the number of moves of the shortest mate, or 0 if no mate was found
+     */
+    public int getShortestMate() {
+        return _keyMoveMates.isEmpty() ? 0 : _keyMoveMates.get(0);
+    }
+
+    void addKeyMove(String keyMove, int mateInMoves) {
+        _keyMoves.add(keyMove);
+        _keyMoveMates.add(mateInMoves);
+    }
+
+    /**
+     * Returns true if the position has a mate, with a single key move
+     */
+    public boolean isUnique() {
+        return (_result == RESULT_MATE) && (_keyMoves.size() == 1);
+    }
+
+    public long getNodes() {
+        return _nodes;
+    }
+
+    void setNodes(long nodes) {
+        _nodes = nodes;
+    }
+
+    public long getTimeMs() {
+        return _timeMs;
+    }
+
+    void setTimeMs(long timeMs) {
+        _timeMs = timeMs;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(_fen).append(" : ");
+        switch (_result) {
+            case RESULT_MATE:
+                builder.append(isUnique() ? "unique mate" : "mate");
+                break;
+            case RESULT_NO_MATE:
+                builder.append("no mate");
+                break;
+            case RESULT_TIMEOUT:
+                builder.append("timeout");
+                break;
+            default:
+                builder.append("illegal position");
+                break;
+        }
+        builder.append(" in ").append(_mateInMoves);
+        for (int i = 0; i < _keyMoves.size(); i++) {
+            builder.append(i == 0 ? " : " : ", ").append(_keyMoves.get(i)).append(" (").append(_keyMoveMates.get(i)).append(")");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,305 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A mate in N solver (i.e. for verifying puzzles). <br>
+ * The solver finds all the key moves of the side to move that force mate in up to N moves, using the
+ * game own rules - so regular, fischer and crazy house (with drops) positions are solved the same way.
+ * The search is a depth first search - the attacker needs one move that mates, the defender needs
+ * one reply that escapes. Checking moves of the attacker are searched first, and solved positions are
+ * cached by their position hash with the number of moves they were solved for. <br>
+ * A solver instance is not thread safe. {@link #solveAll solveAll} solves a batch of puzzles in parallel,
+ * with a solver per thread.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class MateSolver {
+
+    private final static Logger LOGGER = Logger.getLogger(MateSolver.class.getName());
+
+    public static final int MAX_MATE_IN_MOVES = 16;
+    public static final int MAX_THREADS = 256;
+    // limits are checked every 256 nodes
+    private static final long CHECK_LIMITS_MASK = 255;
+
+    private long _timeLimitMs = 0;
+    private long _deadline = 0;
+    private boolean _aborted = false;
+    private long _nodes = 0;
+    private int _attacker = Common.COLOR_WHITE;
+    // attacker to move positions - mate in up to n moves (n), or no mate in up to n moves (-n)
+    private final Map<Long, Integer> _cache = new HashMap<Long, Integer>();
+
+    /**
+     * Set the time limit of each solved position
+     *
+     * @param timeLimitMs - time limit in milliseconds. 0 means no limit
+     */
+    public void setTimeLimitMs(long timeLimitMs) {
+        _timeLimitMs = Math.max(0, timeLimitMs);
+    }
+
+    public long getTimeLimitMs() {
+        return _timeLimitMs;
+    }
+
+    /**
+     * Find all the moves of the side to move that force mate in up to the given number of moves.
+     * The game is not modified.
+     *
+     * @param game        - a given game
+     * @param mateInMoves - number of moves (of the side to move) - 1..MAX_MATE_IN_MOVES
+     * @return The solution
+     */
+    public MateSolution solve(Game game, int mateInMoves) {
+        Utils.AssertNotNull(game);
+        MateSolution solution = new MateSolution(FEN.getFENString(game), mateInMoves);
+        if ((mateInMoves < 1) || (mateInMoves > MAX_MATE_IN_MOVES)) {
+            LOGGER.warning("illegal mate in moves " + mateInMoves);
+            solution.setResult(MateSolution.RESULT_ILLEGAL_POSITION);
+            return solution;
+        }
+        if ((game.getCurrentMoveInfo() == null) || game.isEnded()) {
+            LOGGER.warning("can't solve. position is illegal or ended");
+            solution.setResult(MateSolution.RESULT_ILLEGAL_POSITION);
+            return solution;
+        }
+        long start = System.currentTimeMillis();
+        _deadline = (_timeLimitMs > 0) ? System.nanoTime() + _timeLimitMs * 1000000L : 0;
+        _aborted = false;
+        _nodes = 0;
+        _cache.clear();
+
+        Game searched = new Game(game.getGameKind());
+        searched.copyPositionFrom(game);
+        _attacker = searched.getCurrentColor();
+        List<Move> rootMoves = getMoves(searched);
+        boolean[] solved = new boolean[rootMoves.size()];
+        // shortest mates first
+        for (int moves = 1; (moves <= mateInMoves) && !_aborted; moves++) {
+            for (int i = 0; (i < rootMoves.size()) && !_aborted; i++) {
+                if (solved[i]) {
+                    continue;
+                }
+                if (!play(searched, rootMoves.get(i))) {
+                    continue;
+                }
+                String name = searched.getLastMove().getNameAlg();
+                boolean mate = isMated(searched) || ((moves > 1) && !searched.isEnded() && defenderLoses(searched, moves - 1));
+                searched.takeback();
+                if (mate && !_aborted) {
+                    solved[i] = true;
+                    solution.addKeyMove(name, moves);
+                }
+            }
+        }
+        if (_aborted) {
+            solution.setResult(MateSolution.RESULT_TIMEOUT);
+        } else {
+            solution.setResult(solution.getKeyMoves().isEmpty() ? MateSolution.RESULT_NO_MATE : MateSolution.RESULT_MATE);
+        }
+        solution.setNodes(_nodes);
+        solution.setTimeMs(System.currentTimeMillis() - start);
+        LOGGER.fine(solution.toString());
+        return solution;
+    }
+
+    /**
+     * Solve a batch of positions in parallel, each with the given time limit.
+     *
+     * @param fens        - the FEN of each position
+     * @param gkind       - game kind of the positions (0 to guess it from each FEN)
+     * @param mateInMoves - number of moves of the side to move
+     * @param threads     - number of threads. 1..MAX_THREADS
+     * @param timeLimitMs - time limit of each position, in milliseconds. 0 means no limit
+     * @return The solution of each position, in the given order
+     */
+    public static List<MateSolution> solveAll(final List<String> fens, final int gkind, final int mateInMoves,
+                                              int threads, final long timeLimitMs) {
+        Utils.AssertNotNull(fens);
+        if ((threads < 1) || (threads > MAX_THREADS)) {
+            LOGGER.warning("illegal number of threads " + threads + ". using 1");
+            threads = 1;
+        }
+        final MateSolution[] solutions = new MateSolution[fens.size()];
+        final AtomicInteger next = new AtomicInteger();
+        Thread[] workers = new Thread[Math.min(threads, Math.max(1, fens.size()))];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    MateSolver solver = new MateSolver();
+                    solver.setTimeLimitMs(timeLimitMs);
+                    int index;
+                    while ((index = next.getAndIncrement()) < solutions.length) {
+                        String fen = fens.get(index);
+                        Game game = FEN.loadGame(fen, gkind);
+                        if (game == null) {
+                            solutions[index] = new MateSolution(fen, mateInMoves);
+                            solutions[index].setResult(MateSolution.RESULT_ILLEGAL_POSITION);
+                            continue;
+                        }
+                        solutions[index] = solver.solve(game, mateInMoves);
+                    }
+                }
+            }, "jchess-mate-solver-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                LOGGER.warning("interrupted while waiting for mate solver thread " + worker.getName());
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        List<MateSolution> result = new ArrayList<MateSolution>(solutions.length);
+        for (MateSolution solution : solutions) {
+            result.add(solution);
+        }
+        return result;
+    }
+
+    /*
+     * the attacker (to move) mates in up to the given number of moves
+     */
+    private boolean attackerMates(Game game, int moves) {
+        long hash = game.getCurrentMoveInfo().getPositionHash();
+        Integer cached = _cache.get(hash);
+        if (cached != null) {
+            if ((cached > 0) && (cached <= moves)) {
+                return true;
+            }
+            if ((cached < 0) && (-cached >= moves)) {
+                return false;
+            }
+        }
+        boolean mate = false;
+        List<Move> deferred = new ArrayList<Move>();
+        // checks first. quiet moves can't mate in 1
+        for (Move move : getMoves(game)) {
+            if (!play(game, move)) {
+                continue;
+            }
+            if (isMated(game)) {
+                mate = true;
+            } else if ((moves > 1) && !game.isEnded()) {
+                if (game.getCurrentMoveInfo().isCheck()) {
+                    mate = defenderLoses(game, moves - 1);
+                } else {
+                    deferred.add(move);
+                }
+            }
+            game.takeback();
+            if (mate || _aborted) {
+                break;
+            }
+        }
+        for (int i = 0; (i < deferred.size()) && !mate && !_aborted; i++) {
+            if (!play(game, deferred.get(i))) {
+                continue;
+            }
+            mate = defenderLoses(game, moves - 1);
+            game.takeback();
+        }
+        if (_aborted) {
+            return false;
+        }
+        if (mate) {
+            if ((cached == null) || (cached < 0) || (cached > moves)) {
+                _cache.put(hash, moves);
+            }
+        } else if ((cached == null) || (cached < 0)) {
+            _cache.put(hash, -moves);
+        }
+        return mate;
+    }
+
+    /*
+     * every move of the defender (to move) is answered by a mate in up to the given number of moves
+     */
+    private boolean defenderLoses(Game game, int moves) {
+        for (Move move : getMoves(game)) {
+            if (!play(game, move)) {
+                continue;
+            }
+            boolean mate = !game.isEnded() && attackerMates(game, moves);
+            game.takeback();
+            if (!mate || _aborted) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean play(Game game, Move move) {
+        if (((++_nodes & CHECK_LIMITS_MASK) == 0) && (_deadline != 0) && (System.nanoTime() > _deadline)) {
+            _aborted = true;
+        }
+        if (_aborted) {
+            return false;
+        }
+        if (!game.playMove(move)) {
+            LOGGER.warning("failed to play solved move " + move);
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * the game ended by the attacker win
+     */
+    private boolean isMated(Game game) {
+        return game.isEnded() && (game.getWinner() == _attacker);
+    }
+
+    /*
+     * the valid moves of the side to move, with the drop moves of each droppable piece type
+     */
+    private static List<Move> getMoves(Game game) {
+        List<Move> validMoves = game.getValidNextMoves();
+        // actual drop moves are appended to the valid moves list as they are requested
+        int validMovesCount = validMoves.size();
+        List<Move> moves = new ArrayList<Move>(validMovesCount);
+        List<Integer> dropTypes = null;
+        for (int i = 0; i < validMovesCount; i++) {
+            Move move = validMoves.get(i);
+            if (!move.isDropMove()) {
+                moves.add(move);
+                continue;
+            }
+            if (move.getAdditionalPieceTypeInfo() != Common.PIECE_TYPE_DROP_ANY) {
+                // actual drop moves are added again when their "drop any" move is expanded
+                continue;
+            }
+            if (dropTypes == null) {
+                dropTypes = game.getActualDroppablePieceTypes(game.getCurrentColor());
+            }
+            for (int dropType : dropTypes) {
+                Move dropMove = game.getDropMove(move.getToX(), move.getToY(), dropType);
+                if (dropMove != null) {
+                    moves.add(dropMove);
+                }
+            }
+        }
+        return moves;
+    }
+}
@@ -0,0 +1,611 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * A Monte Carlo tree search (UCT) engine, for game kinds with a large branching factor - mainly crazy
+ * house and bug house, where every empty square is a drop target. <br>
+ * Each playout selects a line of the tree by the UCT formula, adds a new node, and plays a short random
+ * game from it - captures are preferred, and the final position is scored by the static evaluation.
+ * The moves are the game own valid moves, drops included. <br>
+ * With more than one thread, each thread grows its own tree of the same position (root parallelization),
+ * and the visits of the root moves of all the trees are summed. The trees are kept between searches, and
+ * reused when the next searched position is in them (i.e. after the engine move and the reply). <br>
+ * The search is limited by time (or the game clock, see {@link #setUseGameClock setUseGameClock}) and
+ * number of playouts - whichever comes first.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class MonteCarloEngine implements Player {
+
+    private final static Logger LOGGER = Logger.getLogger(MonteCarloEngine.class.getName());
+
+    public static final int DEFAULT_TIME_LIMIT_MS = 1000;
+    public static final int DEFAULT_PLAYOUT_PLIES = 8;
+    public static final double DEFAULT_EXPLORATION = 1.4;
+    public static final int MAX_THREADS = 256;
+    public static final int MAX_TREE_NODES = 1 << 20;
+
+    // reused trees are searched for the next position up to this depth
+    private static final int MAX_REUSE_PLIES = 4;
+    // chance (percent) of playing a capture in a playout, when there is one
+    private static final int PLAYOUT_CAPTURE_PERCENT = 75;
+    // evaluation (centipawns) scale of the win probability at the end of a playout
+    private static final double EVALUATION_SCALE = 400.0;
+    // limits are checked every 16 playouts
+    private static final long CHECK_LIMITS_MASK = 15;
+
+    private long _timeLimitMs = DEFAULT_TIME_LIMIT_MS;
+    private long _playoutLimit = 0;
+    private int _threads = 1;
+    private int _playoutPlies = DEFAULT_PLAYOUT_PLIES;
+    private double _exploration = DEFAULT_EXPLORATION;
+    private boolean _useGameClock = false;
+    private long _seed = System.nanoTime();
+
+    private Worker[] _workers = new Worker[0];
+    private volatile boolean _stopped = false;
+
+    private long _playouts = 0;
+    private double _winRate = 0.5;
+
+    /**
+     * Set the search time limit
+     *
+     * @param timeLimitMs - time limit in milliseconds. 0 means no time limit
+     * @return true on success
+     */
+    public boolean setTimeLimitMs(long timeLimitMs) {
+        if (timeLimitMs < 0) {
+            LOGGER.warning("illegal time limit " + timeLimitMs);
+            return false;
+        }
+        _timeLimitMs = timeLimitMs;
+        return true;
+    }
+
+    public long getTimeLimitMs() {
+        return _timeLimitMs;
+    }
+
+    /**
+     * Set the max number of playouts of a search (of all the threads)
+     *
+     * @param playoutLimit - max number of playouts. 0 means no limit
+     * @return true on success
+     */
+    public boolean setPlayoutLimit(long playoutLimit) {
+        if (playoutLimit < 0) {
+            LOGGER.warning("illegal playout limit " + playoutLimit);
+            return false;
+        }
+        _playoutLimit = playoutLimit;
+        return true;
+    }
+
+    public long getPlayoutLimit() {
+        return _playoutLimit;
+    }
+
+    /**
+     * Set the number of search threads. Changing the number of threads drops the kept trees.
+     *
+     * @param threads - number of search threads, 1..MAX_THREADS
+     * @return true on success
+     */
+    public synchronized boolean setThreads(int threads) {
+        if ((threads < 1) || (threads > MAX_THREADS)) {
+            LOGGER.warning("illegal number of threads " + threads);
+            return false;
+        }
+        _threads = threads;
+        _workers = new Worker[0];
+        return true;
+    }
+
+    public int getThreads() {
+        return _threads;
+    }
+
+    /**
+     * Set the number of random plies of each playout, before the position is evaluated
+     *
+     * @param playoutPlies - number of plies. 0 evaluates the new tree node itself
+     * @return true on success
+     */
+    public boolean setPlayoutPlies(int playoutPlies) {
+        if (playoutPlies < 0) {
+            LOGGER.warning("illegal playout plies " + playoutPlies);
+            return false;
+        }
+        _playoutPlies = playoutPlies;
+        return true;
+    }
+
+    public int getPlayoutPlies() {
+        return _playoutPlies;
+    }
+
+    /**
+     * Set the UCT exploration constant. Higher values search more moves, lower values search the best moves deeper
+     *
+     * @param exploration - exploration constant, positive
+     * @return true on success
+     */
+    public boolean setExploration(double exploration) {
+        if (!(exploration > 0)) {
+            LOGGER.warning("illegal exploration " + exploration);
+            return false;
+        }
+        _exploration = exploration;
+        return true;
+    }
+
+    public double getExploration() {
+        return _exploration;
+    }
+
+    /**
+     * Take the search time limit from the game clock of the moving side, instead of the fixed time limit.
+     * For a game without time limit, the fixed time limit is used. See {@link Engine#getTimeLimitMs(Game)}.
+     *
+     * @param useGameClock - true to use the game clock
+     */
+    public void setUseGameClock(boolean useGameClock) {
+        _useGameClock = useGameClock;
+    }
+
+    public boolean isUseGameClock() {
+        return _useGameClock;
+    }
+
+    /**
+     * Set the seed of the random playouts (for repeatable searches). Drops the kept trees.
+     */
+    public synchronized void setSeed(long seed) {
+        _seed = seed;
+        _workers = new Worker[0];
+    }
+
+    /**
+     * Returns the time limit for searching the given game current position, in milliseconds. 0 means no limit.
+     */
+    public long getTimeLimitMs(Game game) {
+        if (!_useGameClock || !game.isTimed()) {
+            return _timeLimitMs;
+        }
+        return Engine.getClockTimeLimitMs(game);
+    }
+
+    /**
+     * Search the given game current position, and return the most visited move.
+     * The given game is not modified.
+     *
+     * @param game - a given game
+     * @return The best move found, as a valid next move of the given game. null if the game ended
+     * or has no valid moves.
+     */
+    public synchronized Move findBestMove(Game game) {
+        Utils.AssertNotNull(game);
+        if (game.isEnded()) {
+            LOGGER.warning("can't search. game ended");
+            return null;
+        }
+        if (!game.hasAnyLegalMove()) {
+            LOGGER.warning("can't search. no valid moves");
+            return null;
+        }
+        _stopped = false;
+        long timeLimitMs = getTimeLimitMs(game);
+        final long deadline = (timeLimitMs > 0) ? System.nanoTime() + timeLimitMs * 1000000L : 0;
+        final long playoutLimit = (_playoutLimit > 0) ? Math.max(1, _playoutLimit / _threads) : 0;
+
+        if (_workers.length != _threads) {
+            _workers = new Worker[_threads];
+            for (int i = 0; i < _threads; i++) {
+                _workers[i] = new Worker(_seed + i);
+            }
+        }
+        for (Worker worker : _workers) {
+            worker.setRoot(game);
+        }
+
+        Thread[] helpers = new Thread[_threads - 1];
+        for (int i = 1; i < _threads; i++) {
+            final Worker helper = _workers[i];
+            helpers[i - 1] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    helper.search(deadline, playoutLimit);
+                }
+            }, "jchess-mcts-" + i);
+            helpers[i - 1].setDaemon(true);
+            helpers[i - 1].start();
+        }
+        try {
+            _workers[0].search(deadline, playoutLimit);
+        } finally {
+            _stopped = true;
+            joinAll(helpers);
+        }
+
+        // sum the root moves visits of all the trees
+        Map<Integer, int[]> visits = new HashMap<Integer, int[]>();
+        Map<Integer, double[]> wins = new HashMap<Integer, double[]>();
+        _playouts = 0;
+        for (Worker worker : _workers) {
+            _playouts += worker._playouts;
+            if (worker._root.children == null) {
+                continue;
+            }
+            for (Node child : worker._root.children) {
+                if (!visits.containsKey(child.move)) {
+                    visits.put(child.move, new int[1]);
+                    wins.put(child.move, new double[1]);
+                }
+                visits.get(child.move)[0] += child.visits;
+                wins.get(child.move)[0] += child.wins;
+            }
+        }
+        int bestCode = PackedMove.NONE;
+        int bestVisits = -1;
+        for (Map.Entry<Integer, int[]> entry : visits.entrySet()) {
+            if (entry.getValue()[0] > bestVisits) {
+                bestCode = entry.getKey();
+                bestVisits = entry.getValue()[0];
+            }
+        }
+        _winRate = (bestVisits > 0) ? wins.get(bestCode)[0] / bestVisits : 0.5;
+        LOGGER.fine("mcts playouts " + _playouts + " best move visits " + bestVisits + " win rate " + _winRate);
+
+        Move move = PackedMove.toMove(game, bestCode);
+        if (move == null) {
+            LOGGER.warning("search found no valid move");
+        }
+        return move;
+    }
+
+    /**
+     * Stop the running search (if any) as soon as possible. The running {@link #findBestMove findBestMove}
+     * returns the best move found so far. May be called from any thread.
+     */
+    public void stop() {
+        _stopped = true;
+    }
+
+    /**
+     * Drop the kept trees
+     */
+    public synchronized void clearTrees() {
+        _workers = new Worker[0];
+    }
+
+    /**
+     * Returns the number of playouts of the last search (of all the threads)
+     */
+    public long getPlayouts() {
+        return _playouts;
+    }
+
+    /**
+     * Returns the win rate (0..1) of the best move of the last search, from the point of view of the side to move
+     */
+    public double getWinRate() {
+        return _winRate;
+    }
+
+    private static void joinAll(Thread[] threads) {
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                LOGGER.warning("interrupted while waiting for search thread " + thread.getName());
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /*
+     * a tree node - the position after the node move
+     */
+    private static final class Node {
+        Node parent;
+        final int move;
+        // the color that played the node move
+        final int color;
+        long hash = 0;
+        Node[] children = null;
+        int visits = 0;
+        // sum of the playout results, from the point of view of the node color
+        double wins = 0;
+
+        Node(Node parent, int move, int color) {
+            this.parent = parent;
+            this.move = move;
+            this.color = color;
+        }
+    }
+
+    /*
+     * the tree and the searched game of a search thread
+     */
+    private final class Worker {
+        private final Random _random;
+        private final Evaluation _evaluation = new Evaluation();
+        private Game _game = null;
+        private Node _root = null;
+        private int _treeNodes = 0;
+        private long _playouts = 0;
+
+        Worker(long seed) {
+            _random = new Random(seed);
+        }
+
+        /*
+         * reuse the kept tree if the given game position is in it
+         */
+        void setRoot(Game game) {
+            long hash = game.getCurrentMoveInfo().getPositionHash();
+            Node root = (_root != null) && (_game != null) && (_game.getGameKind() == game.getGameKind()) ?
+                    findNode(_root, hash, MAX_REUSE_PLIES) : null;
+            _game = new Game(game.getGameKind());
+            _game.copyPositionFrom(game);
+            if (root == null) {
+                root = new Node(null, PackedMove.NONE, Common.OtherColor(_game.getCurrentColor()));
+                root.hash = hash;
+                _treeNodes = 1;
+            } else {
+                root.parent = null;
+                _treeNodes = countNodes(root);
+            }
+            _root = root;
+        }
+
+        void search(long deadline, long playoutLimit) {
+            _playouts = 0;
+            while (!_stopped) {
+                if ((playoutLimit > 0) && (_playouts >= playoutLimit)) {
+                    break;
+                }
+                if (((_playouts & CHECK_LIMITS_MASK) == 0) && (deadline != 0) && (_playouts > 0) &&
+                        (System.nanoTime() > deadline)) {
+                    break;
+                }
+                playout();
+                _playouts++;
+            }
+        }
+
+        private void playout() {
+            // select
+            Node node = _root;
+            int plies = 0;
+            while ((node.children != null) && (node.children.length > 0)) {
+                Node child = select(node);
+                Move move = PackedMove.toMove(_game, child.move);
+                if ((move == null) || !_game.playMove(move)) {
+                    LOGGER.warning("failed to play tree move " + child.move);
+                    break;
+                }
+                plies++;
+                node = child;
+                node.hash = _game.getCurrentMoveInfo().getPositionHash();
+            }
+            // expand
+            if (!_game.isEnded() && (node.children == null) && (_treeNodes < MAX_TREE_NODES)) {
+                expand(node);
+                if (node.children.length > 0) {
+                    Node child = node.children[_random.nextInt(node.children.length)];
+                    Move move = PackedMove.toMove(_game, child.move);
+                    if ((move != null) && _game.playMove(move)) {
+                        plies++;
+                        node = child;
+                        node.hash = _game.getCurrentMoveInfo().getPositionHash();
+                    }
+                }
+            }
+            // simulate
+            double whiteResult = simulate();
+            // back propagate
+            while (node != null) {
+                node.visits++;
+                node.wins += (node.color == Common.COLOR_WHITE) ? whiteResult : 1 - whiteResult;
+                node = node.parent;
+            }
+            for (int i = 0; i < plies; i++) {
+                _game.takeback();
+            }
+        }
+
+        /*
+         * the child with the best UCT value. unvisited children first
+         */
+        private Node select(Node node) {
+            double logVisits = Math.log(Math.max(1, node.visits));
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (Node child : node.children) {
+                if (child.visits == 0) {
+                    return child;
+                }
+                double value = child.wins / child.visits + _exploration * Math.sqrt(logVisits / child.visits);
+                if (value > bestValue) {
+                    best = child;
+                    bestValue = value;
+                }
+            }
+            return best;
+        }
+
+        private void expand(Node node) {
+            List<Integer> codes = getMoveCodes(_game);
+            int color = _game.getCurrentColor();
+            // unvisited children are selected in order
+            for (int i = codes.size() - 1; i > 0; i--) {
+                int j = _random.nextInt(i + 1);
+                int code = codes.get(i);
+                codes.set(i, codes.get(j));
+                codes.set(j, code);
+            }
+            Node[] children = new Node[codes.size()];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = new Node(node, codes.get(i), color);
+            }
+            node.children = children;
+            _treeNodes += children.length;
+        }
+
+        /*
+         * play random moves (captures preferred) from the current position, and return the white
+         * win probability of the final position. the game is back at the current position when done.
+         */
+        private double simulate() {
+            int plies = 0;
+            while ((plies < _playoutPlies) && !_game.isEnded()) {
+                Move move = getRandomMove();
+                if ((move == null) || !_game.playMove(move)) {
+                    break;
+                }
+                plies++;
+            }
+            double result;
+            if (_game.isEnded()) {
+                int winner = _game.getWinner();
+                result = (winner == Common.COLOR_WHITE) ? 1 : ((winner == Common.COLOR_BLACK) ? 0 : 0.5);
+            } else {
+                double score = _evaluation.evaluate(_game) / EVALUATION_SCALE;
+                result = 1 / (1 + Math.exp(-score));
+                if (_game.getCurrentColor() == Common.COLOR_BLACK) {
+                    result = 1 - result;
+                }
+            }
+            for (int i = 0; i < plies; i++) {
+                _game.takeback();
+            }
+            return result;
+        }
+
+        private Move getRandomMove() {
+            List<Move> validMoves = _game.getValidNextMoves();
+            // actual drop moves are appended to the valid moves list as they are requested
+            int validMovesCount = validMoves.size();
+            if (validMovesCount == 0) {
+                return null;
+            }
+            if (_random.nextInt(100) < PLAYOUT_CAPTURE_PERCENT) {
+                int captures = 0;
+                for (int i = 0; i < validMovesCount; i++) {
+                    if (validMoves.get(i).isCapture()) {
+                        captures++;
+                    }
+                }
+                if (captures > 0) {
+                    int capture = _random.nextInt(captures);
+                    for (int i = 0; i < validMovesCount; i++) {
+                        if (validMoves.get(i).isCapture() && (capture-- == 0)) {
+                            return validMoves.get(i);
+                        }
+                    }
+                }
+            }
+            for (int tries = 0; tries < validMovesCount; tries++) {
+                Move move = validMoves.get(_random.nextInt(validMovesCount));
+                if (!move.isDropMove()) {
+                    return move;
+                }
+                if (move.getAdditionalPieceTypeInfo() != Common.PIECE_TYPE_DROP_ANY) {
+                    continue;
+                }
+                List<Integer> dropTypes = _game.getActualDroppablePieceTypes(_game.getCurrentColor());
+                if (dropTypes.isEmpty()) {
+                    continue;
+                }
+                Move dropMove = _game.getDropMove(move.getToX(), move.getToY(),
+                        dropTypes.get(_random.nextInt(dropTypes.size())));
+                if (dropMove != null) {
+                    return dropMove;
+                }
+            }
+            return null;
+        }
+    }
+
+    /*
+     * the node of the given position hash, up to the given depth below the given node
+     */
+    private static Node findNode(Node node, long hash, int depth) {
+        if (node.hash == hash) {
+            return node;
+        }
+        if ((depth == 0) || (node.children == null)) {
+            return null;
+        }
+        for (Node child : node.children) {
+            if (child.visits > 0) {
+                Node found = findNode(child, hash, depth - 1);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int countNodes(Node node) {
+        int count = 1;
+        if (node.children != null) {
+            for (Node child : node.children) {
+                count += countNodes(child);
+            }
+        }
+        return count;
+    }
+
+    /*
+     * the codes of the valid moves of the side to move, with the drop moves of each droppable piece type
+     */
+    private static List<Integer> getMoveCodes(Game game) {
+        List<Move> validMoves = game.getValidNextMoves();
+        // actual drop moves are appended to the valid moves list as they are requested
+        int validMovesCount = validMoves.size();
+        List<Integer> codes = new ArrayList<Integer>(validMovesCount);
+        List<Integer> dropTypes = null;
+        for (int i = 0; i < validMovesCount; i++) {
+            Move move = validMoves.get(i);
+            if (!move.isDropMove()) {
+                codes.add(PackedMove.encode(move));
+                continue;
+            }
+            if (move.getAdditionalPieceTypeInfo() != Common.PIECE_TYPE_DROP_ANY) {
+                // actual drop moves are added again when their "drop any" move is expanded
+                continue;
+            }
+            if (dropTypes == null) {
+                dropTypes = game.getActualDroppablePieceTypes(game.getCurrentColor());
+            }
+            for (int dropType : dropTypes) {
+                Move dropMove = game.getDropMove(move.getToX(), move.getToY(), dropType);
+                if (dropMove != null) {
+                    codes.add(PackedMove.encode(dropMove));
+                }
+            }
+        }
+        return codes;
+    }
+}
@@ -34,6 +34,7 @@ public class Move {
     private int _additionalPieceTypeInfo = Common.PIECE_TYPE_ILLEGAL;
     private long _timePlayed; // the time the move was played
     private int _move_time = 0; // move time (how much time it took to move) in milliseconds
+    private boolean _premove = false; // played from a premove queue (see Game.addPremove)
 
     public Move(Game game, int fromX, int fromY, int toX, int toY, int additionalPieceTypeInfo) {
         _game = game;
@@ -44,6 +45,26 @@ public class Move {
         _additionalPieceTypeInfo = additionalPieceTypeInfo;
     }
 
+    /*
+     * copy a valid move of another game (with the same position) to the given game
+     */
+    Move(Game game, Move other) {
+        this(game, other._fromX, other._fromY, other._toX, other._toY, other._additionalPieceTypeInfo);
+        if (other.isDropMove()) {
+            Piece droppedPiece = other.getMovedPiece();
+            setMovedPiece(Piece.create(droppedPiece.getType(), droppedPiece.getColor()));
+        } else {
+            setMovedPiece(game.getPieceAt(_fromX, _fromY));
+            _capturedPiece = game.getPieceAt(_toX, _toY);
+        }
+        _epCapture = other._epCapture;
+        _moveNumber = other._moveNumber;
+        _nameAlg = other._nameAlg;
+        _nameFig = other._nameFig;
+        _nameAlgSuffix = other._nameAlgSuffix;
+        _nameNum = other._nameNum;
+    }
+
     @Override
     public boolean equals(Object other) {
         if (!(other instanceof Move))
@@ -166,6 +187,17 @@ public class Move {
         this._timePlayed = timePlayed;
     }
 
+    /**
+     * Returns true if the move was played from the premove queue of its color
+     */
+    public boolean isPremove() {
+        return _premove;
+    }
+
+    void setPremove(boolean premove) {
+        _premove = premove;
+    }
+
     public int getToX() {
         return _toX;
     }
@@ -12,7 +12,10 @@ package com.ichess.game;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -35,14 +38,71 @@ public class MoveInfo {
     private boolean checkMate = false;
     private int draw50MovesCount; // for 50 moves, count moves with no pawn or
     private String fenPos;
+    private long positionHash;
     private boolean hasEnoughMaterial[] = {true, true, true, true};
     private Move move;
     private Piece movedPiece[] = {null, null};
     private boolean staleMate = false;
-    private List<Move> validNextMoves = new ArrayList<Move>();
+    // the valid next moves, as packed moves (see PackedMove), with the moved and captured piece of each move.
+    // a Move is created for a valid move only when it is requested, from the kept pieces - so also after this
+    // position is past
+    private int[] validCodes = NO_CODES;
+    private Piece[] validPieces = NO_PIECES;
+    private Piece[] validCapturedPieces = NO_PIECES;
+    private int validCount = 0;
+    // the move number of the valid moves
+    private int validMoveNumber;
+    private Move[] validMoves = null;
+    private List<Move> validNextMoves = null;
+    private boolean validNextMovesNamed = false;
+    // the valid moves were not generated yet - the analyse found a legal move and deferred the generation to the
+    // first request of the valid moves (see Game.generatePendingMoves)
+    private boolean movesPending = false;
+    // the valid next moves and FEN of a past position were dropped (see Game.setCompactHistory)
+    private boolean compacted = false;
+
+    private static final int[] NO_CODES = new int[0];
+    private static final Piece[] NO_PIECES = new Piece[0];
+    private static final int INITIAL_VALID_MOVES = 48;
 
     public MoveInfo(Game game) {
         _game = game;
+        validMoveNumber = game.getCurrentMove() + 1;
+    }
+
+    /*
+     * copy the move info of another game (with the same position, and no moves played) to the given game
+     */
+    MoveInfo(Game game, MoveInfo other) {
+        _game = game;
+        check = other.check;
+        doubleCheck = other.doubleCheck;
+        checkMate = other.checkMate;
+        draw50MovesCount = other.draw50MovesCount;
+        fenPos = other.fenPos;
+        positionHash = other.positionHash;
+        hasEnoughMaterial = other.hasEnoughMaterial.clone();
+        staleMate = other.staleMate;
+        compacted = other.compacted;
+        validMoveNumber = game.getCurrentMove() + 1;
+        other.ensureValidMoves();
+        // the pieces of the other game are replaced by the pieces of this game. actual drop moves are added again
+        // when requested
+        validCodes = new int[other.validCount];
+        validPieces = new Piece[other.validCount];
+        validCapturedPieces = new Piece[other.validCount];
+        for (int i = 0; i < other.validCount; i++) {
+            int code = other.validCodes[i];
+            if (!PackedMove.isDrop(code)) {
+                Piece piece = game.getPieceAt(PackedMove.fromX(code), PackedMove.fromY(code));
+                validPieces[validCount] = piece;
+                validCapturedPieces[validCount] = getCapturedPiece(piece, PackedMove.toX(code), PackedMove.toY(code));
+                validCodes[validCount++] = code;
+            } else if (PackedMove.additionalPieceType(code) == Common.PIECE_TYPE_DROP_ANY) {
+                validPieces[validCount] = Piece.create(Common.PIECE_TYPE_DROP_ANY, game.getCurrentColor());
+                validCodes[validCount++] = code;
+            }
+        }
     }
 
     void addValidMove(Piece piece, int toX, int toY) {
@@ -93,16 +153,38 @@ public class MoveInfo {
         Utils.AssertNotNull(piece);
 
         if (drop) {
-            Move move = new Move(_game, toX, toY, toX, toY, piece.getTypeWhenDropping());
-            move.setMovedPiece(piece);
-            validNextMoves.add(move);
-            move.setMoveNumber(_game.getCurrentMove() + 1);
-            LOGGER.fine("adding move " + _game.getCurrentMove() + " valid drop to " + toX + "," + toY + " piece " + Notation.getPieceCharacter(piece.getTypeWhenDropping()));
+            int dropType = piece.getTypeWhenDropping();
+            addValidCode(PackedMove.encode(toX, toY, toX, toY, dropType, true), piece, null);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("adding move " + _game.getCurrentMove() + " valid drop to " + toX + "," + toY + " piece " +
+                        Notation.getPieceCharacter(dropType));
+            }
             return;
         }
 
-        Move move = new Move(_game, piece.getX(), piece.getY(), toX, toY, promotionPiece);
-        move.setMovedPiece(piece);
+        int code = PackedMove.encode(piece.getX(), piece.getY(), toX, toY, promotionPiece, false);
+        Piece captured = getCapturedPiece(piece, toX, toY);
+        if ((captured != null) && (captured.getColor() != piece.getColor())) {
+            code |= PackedMove.CAPTURE_FLAG;
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("adding valid move " + _game.getCurrentMove() + " from " + piece.getX() + "," + piece.getY() + " to " + toX + "," + toY +
+                    " piece " + Notation.getPieceCharacter(piece.getType()));
+        }
+        // the same move may be generated twice (i.e. a fischer king step and castling to the same square, or a
+        // grasshopper jump). the valid moves hold each move once
+        for (int i = 0; i < validCount; i++) {
+            if ((validCodes[i] & PackedMove.MOVE_MASK) == (code & PackedMove.MOVE_MASK)) {
+                return;
+            }
+        }
+        addValidCode(code, piece, captured);
+    }
+
+    /*
+     * the piece captured by a piece moving to the given square (an own rook for a fischer castling move)
+     */
+    private Piece getCapturedPiece(Piece piece, int toX, int toY) {
         Piece captured = _game.getPieceAt(toX, toY);
 
         // check if EP capture move
@@ -115,13 +197,113 @@ public class MoveInfo {
                 }
             }
         }
-        move.setMoveNumber(_game.getCurrentMove() + 1);
-        move.setCapturedPiece(captured);
+        return captured;
+    }
 
-        LOGGER.fine("adding valid move " + _game.getCurrentMove() + " from " + piece.getX() + "," + piece.getY() + " to " + toX + "," + toY +
-                " piece " + Notation.getPieceCharacter(piece.getType()));
+    private void addValidCode(int code, Piece piece, Piece captured) {
+        if (validCount == validCodes.length) {
+            int capacity = Math.max(INITIAL_VALID_MOVES, validCount * 2);
+            validCodes = Arrays.copyOf(validCodes, capacity);
+            validPieces = Arrays.copyOf(validPieces, capacity);
+            validCapturedPieces = Arrays.copyOf(validCapturedPieces, capacity);
+            if (validMoves != null) {
+                validMoves = Arrays.copyOf(validMoves, capacity);
+            }
+        }
+        validCodes[validCount] = code;
+        validPieces[validCount] = piece;
+        validCapturedPieces[validCount] = captured;
+        int index = validCount++;
+        if (validNextMoves != null) {
+            validNextMoves.add(getMoveView(index));
+            validNextMovesNamed = false;
+        }
+    }
 
-        validNextMoves.add(move);
+    /*
+     * returns the Move of the valid move at the given index, creating it (from the kept pieces) if needed
+     */
+    private Move getMoveView(int index) {
+        if (validMoves == null) {
+            validMoves = new Move[validCodes.length];
+        }
+        Move move = validMoves[index];
+        if (move != null) {
+            return move;
+        }
+        int code = validCodes[index];
+        int toX = PackedMove.toX(code);
+        int toY = PackedMove.toY(code);
+        if (PackedMove.isDrop(code)) {
+            move = new Move(_game, toX, toY, toX, toY, PackedMove.additionalPieceType(code));
+        } else {
+            move = new Move(_game, PackedMove.fromX(code), PackedMove.fromY(code), toX, toY,
+                    PackedMove.additionalPieceType(code));
+            move.setCapturedPiece(validCapturedPieces[index]);
+        }
+        move.setMovedPiece(validPieces[index]);
+        move.setMoveNumber(validMoveNumber);
+        validMoves[index] = move;
+        return move;
+    }
+
+    /*
+     * the number of valid moves, and the valid moves as packed moves (no Move is created)
+     */
+    int getValidMoveCount() {
+        ensureValidMoves();
+        return validCount;
+    }
+
+    int getValidMoveCode(int index) {
+        ensureValidMoves();
+        return validCodes[index];
+    }
+
+    /*
+     * the moved piece of the valid move at the given index
+     */
+    Piece getValidMovePiece(int index) {
+        ensureValidMoves();
+        return validPieces[index];
+    }
+
+    /*
+     * true if the generation of the valid moves is deferred. the position has a legal move (it is not a mate
+     * or a stalemate)
+     */
+    boolean isMovesPending() {
+        return movesPending;
+    }
+
+    void setMovesPending(boolean movesPending) {
+        this.movesPending = movesPending;
+    }
+
+    private void ensureValidMoves() {
+        if (movesPending) {
+            _game.generatePendingMoves();
+        }
+    }
+
+    /*
+     * keep only the valid moves matching the given flags (i.e. the captures in suicide). called by the analysis,
+     * before any Move is created
+     */
+    void retainValidMoves(int flags) {
+        int count = 0;
+        for (int i = 0; i < validCount; i++) {
+            if ((validCodes[i] & flags) == flags) {
+                validPieces[count] = validPieces[i];
+                validCapturedPieces[count] = validCapturedPieces[i];
+                validCodes[count++] = validCodes[i];
+            }
+        }
+        Arrays.fill(validPieces, count, validCount, null);
+        Arrays.fill(validCapturedPieces, count, validCount, null);
+        validCount = count;
+        validMoves = null;
+        validNextMoves = null;
     }
 
     /**
@@ -147,12 +329,26 @@ public class MoveInfo {
      * Return a FEN representation of the Game right after this move was played.
      *
      * @return A FEN representation of the Game right after this move was
-     * played.
+     * played. null for a past position of a game with compact history.
      */
     public String getFenPosition() {
         return fenPos;
     }
 
+    /**
+     * Return the position hash of the Game right after this move was played.
+     *
+     * @return The position hash of the Game right after this move was played.
+     * @see Game#getPositionHash()
+     */
+    public long getPositionHash() {
+        return positionHash;
+    }
+
+    void setPositionHash(long positionHash) {
+        this.positionHash = positionHash;
+    }
+
     boolean[] getHasEnoughMaterial() {
         return hasEnoughMaterial;
     }
@@ -177,11 +373,22 @@ public class MoveInfo {
         this.movedPiece = movedPiece;
     }
 
+    /*
+     * returns the valid move, or null if the move is not valid. the move is named, unless it is a drop move
+     * (a drop move is named when played, after the dropped piece is known)
+     */
     Move getValidMove(int fromX, int fromY, int toX, int toY, int additionalPieceType) {
-        for (Move move : validNextMoves) {
-            if ((move.getFromX() == fromX) && (move.getFromY() == fromY) && (move.getToX() == toX) && (move.getToY() == toY)
-                    && (move.getAdditionalPieceTypeInfo() == additionalPieceType)) {
-                LOGGER.fine("found valid move " + move.getNameNum());
+        ensureValidMoves();
+        int wanted = PackedMove.encode(fromX, fromY, toX, toY, additionalPieceType, false) & PackedMove.MOVE_MASK;
+        for (int i = 0; i < validCount; i++) {
+            if ((validCodes[i] & PackedMove.MOVE_MASK) == wanted) {
+                Move move = getMoveView(i);
+                if ((move.getNameNum() == null) && (!move.isDropMove())) {
+                    Notation.getNames(move, this);
+                }
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("found valid move " + move.getNameNum());
+                }
                 return move;
             }
         }
@@ -189,16 +396,37 @@ public class MoveInfo {
     }
 
     /**
-     * Return all the valid moves that can be played from this move.
+     * Return all the valid moves that can be played from this move. The move names are not calculated
+     * (see {@link #getNamedValidNextMoves()}).
      *
      * @return All the valid moves that can be played from this move.
      */
     List<Move> getValidNextMoves() {
+        ensureValidMoves();
+        if (validNextMoves == null) {
+            validNextMoves = new ArrayList<Move>(validCount);
+            for (int i = 0; i < validCount; i++) {
+                validNextMoves.add(getMoveView(i));
+            }
+        }
         return validNextMoves;
     }
 
-    void setValidNextMoves(List<Move> validNextMoves) {
-        this.validNextMoves = validNextMoves;
+    /*
+     * returns all the valid moves, after calculating the names of the valid moves that were not named yet.
+     * the valid moves are named only when needed, since most of them are never played nor shown
+     */
+    List<Move> getNamedValidNextMoves() {
+        if (validNextMovesNamed) {
+            return validNextMoves;
+        }
+        for (Move move : getValidNextMoves()) {
+            if (move.getNameNum() == null) {
+                Notation.getNames(move, this);
+            }
+        }
+        validNextMovesNamed = true;
+        return validNextMoves;
     }
 
     /**
@@ -241,8 +469,12 @@ public class MoveInfo {
     }
 
     boolean isMoveValid(int fromX, int fromY, int toX, int toY) {
-        for (Move move : validNextMoves) {
-            if ((move.getFromX() == fromX) && (move.getFromY() == fromY) && (move.getToX() == toX) && (move.getToY() == toY)) {
+        ensureValidMoves();
+        int from = Zobrist.square(fromX, fromY);
+        int to = Zobrist.square(toX, toY);
+        for (int i = 0; i < validCount; i++) {
+            int code = validCodes[i];
+            if ((PackedMove.fromSquare(code) == from) && (PackedMove.toSquare(code) == to)) {
                 return true;
             }
         }
@@ -271,4 +503,24 @@ public class MoveInfo {
     void setFenPos(String fenPos) {
         this.fenPos = fenPos;
     }
+
+    /*
+     * drop the valid next moves and the FEN of a past position, keeping the played move, the moved pieces
+     * (for takeback), the position hash and the counters
+     */
+    void compact() {
+        validCodes = NO_CODES;
+        validPieces = NO_PIECES;
+        validCapturedPieces = NO_PIECES;
+        validCount = 0;
+        validMoves = null;
+        validNextMoves = Collections.emptyList();
+        validNextMovesNamed = false;
+        fenPos = null;
+        compacted = true;
+    }
+
+    boolean isCompacted() {
+        return compacted;
+    }
 }
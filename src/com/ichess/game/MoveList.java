@@ -21,11 +21,13 @@ import java.util.List;
 public class MoveList {
 
     private int _currentMove = 0;
+
+    // the joined move lists are built when requested, and kept until the next move is added or taken back
     private String _listAlg;
     private String _listFig;
     private String _listFigLang;
-
     private String _listNum;
+
     private List<String> _movesAlg = new ArrayList<String>();
     private List<String> _movesFig = new ArrayList<String>();
     private List<String> _movesFigLang = new ArrayList<String>();
@@ -44,133 +46,118 @@ public class MoveList {
         Game game = move.getGame();
         Utils.AssertNotNull(game);
 
-        if (_currentMove != 0) {
-            _listNum += " ";
-            _listAlg += " ";
-            _listFig += " ";
-            _listFigLang += " ";
-        }
-
-        _listNum += move.getNameNum();
-        _listAlg += move.getNameAlg();
-        _listFig += move.getNameFig();
-        _listFigLang += move.getNameFigLang();
-
         _movesNum.add(move.getNameNum());
         _movesAlg.add(move.getNameAlg());
         _movesFig.add(move.getNameFig());
         _movesFigLang.add(move.getNameFigLang());
 
         _currentMove++;
+        clearLists();
     }
 
     public String getListAlg() {
+        if (_listAlg == null) {
+            _listAlg = join(_movesAlg, 0, _currentMove);
+        }
         return _listAlg;
     }
 
     public String getListAlg(int fromMove) {
         Utils.Assert(fromMove <= _currentMove);
-        String result = "";
-        for (int index = fromMove; index < _currentMove; index++) {
-            result += _movesAlg.get(index);
-            if (index != (_currentMove - 1)) {
-                result += " ";
-            }
-        }
-        return result;
+        return join(_movesAlg, fromMove, _currentMove);
     }
 
     public String getListFig() {
+        if (_listFig == null) {
+            _listFig = join(_movesFig, 0, _currentMove);
+        }
         return _listFig;
     }
 
     public String getListFig(int fromMove) {
         Utils.Assert(fromMove <= _currentMove);
-        String result = "";
-        for (int index = fromMove; index < _currentMove; index++) {
-            result += _movesFig.get(index);
-            if (index != (_currentMove - 1)) {
-                result += " ";
-            }
-        }
-        return result;
+        return join(_movesFig, fromMove, _currentMove);
     }
 
     public String getListFigLang() {
+        if (_listFigLang == null) {
+            _listFigLang = join(_movesFigLang, 0, _currentMove);
+        }
         return _listFigLang;
     }
 
     public String getListFigLang(int fromMove) {
         Utils.Assert(fromMove <= _currentMove);
-        String result = "";
-        for (int index = fromMove; index < _currentMove; index++) {
-            result += _movesFigLang.get(index);
-            if (index != (_currentMove - 1)) {
-                result += " ";
-            }
-        }
-        return result;
+        return join(_movesFigLang, fromMove, _currentMove);
     }
 
     public String getListNum() {
+        if (_listNum == null) {
+            _listNum = join(_movesNum, 0, _currentMove);
+        }
         return _listNum;
     }
 
     public String getListNumFromMove(int fromMove) {
         Utils.Assert(fromMove <= _currentMove);
-        String result = "";
-        for (int index = fromMove; index < _currentMove; index++) {
-            result += _movesNum.get(index);
-            if (index != (_currentMove - 1)) {
-                result += " ";
-            }
-        }
-        return result;
+        return join(_movesNum, fromMove, _currentMove);
     }
 
     public String getListNumToMove(int toMove) {
         Utils.Assert(toMove <= _currentMove);
-        String result = "";
-        for (int index = 0; index < toMove; index++) {
-            result += _movesNum.get(index);
-            if (index != (toMove - 1)) {
-                result += " ";
-            }
-        }
-        return result;
+        return join(_movesNum, 0, toMove);
     }
 
     public void takeback() {
 
-        if (_currentMove == 1) {
-            _listAlg = "";
-            _listFig = "";
-            _listFigLang = "";
-            _listNum = "";
-        } else {
-            _listNum = _listNum.substring(0, _listNum.length() - 6);
-
-            int lastSpace = _listAlg.lastIndexOf(" ");
-            _listAlg = _listAlg.substring(0, lastSpace);
-
-            lastSpace = _listFig.lastIndexOf(" ");
-            _listFig = _listFig.substring(0, lastSpace);
-
-            lastSpace = _listFigLang.lastIndexOf(" ");
-            _listFigLang = _listFigLang.substring(0, lastSpace);
-        }
-
         _currentMove--;
 
         _movesAlg.remove(_currentMove);
         _movesFig.remove(_currentMove);
         _movesFigLang.remove(_currentMove);
         _movesNum.remove(_currentMove);
+        clearLists();
+    }
+
+    /**
+     * Remove all the moves from the list
+     */
+    public void clear() {
+        _movesAlg.clear();
+        _movesFig.clear();
+        _movesFigLang.clear();
+        _movesNum.clear();
+        _currentMove = 0;
+        clearLists();
+    }
+
+    private void clearLists() {
+        _listAlg = null;
+        _listFig = null;
+        _listFigLang = null;
+        _listNum = null;
+    }
+
+    /*
+     * join the move names from the given move to the given move (exclusive), separated by spaces
+     */
+    private static String join(List<String> names, int fromMove, int toMove) {
+        if (fromMove >= toMove) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder((toMove - fromMove) * 8);
+        for (int index = fromMove; index < toMove; index++) {
+            if (index != fromMove) {
+                result.append(' ');
+            }
+            result.append(names.get(index));
+        }
+        return result.toString();
     }
 
     @Override
     public String toString() {
-        return _listAlg;
+        return getListAlg();
     }
 
 }
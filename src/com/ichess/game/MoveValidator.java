@@ -0,0 +1,499 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A stateless move validation service (FEN + move to the next FEN, the legal moves and the status of a FEN),
+ * backed by a bounded cache of analysed positions. <br>
+ * A position is cached with its legal moves (packed, see {@link PackedMove}), their names, its status and the
+ * position and key of each successor, so a cached position is answered without loading the FEN or generating
+ * moves. The key of a position is a 64 bit hash of the position part of its FEN (the pieces, the side to move,
+ * the castling availability and the ep square - without the move counters), and a hit is verified against the
+ * cached position text. <br>
+ * The cache is split to segments, each one least recently used and guarded by its own lock, so the validator
+ * can be shared by all the request threads. Positions are analysed on the request thread, with its thread game
+ * (see {@link GamePool#getThreadGame(int, String)}).
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class MoveValidator {
+
+    private final static Logger LOGGER = Logger.getLogger(MoveValidator.class.getName());
+
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    private static final int SEGMENTS = 16;
+
+    /**
+     * An analysed position. Immutable, and shared by all the requests of the position.
+     */
+    public static class Position {
+        private final long _key;
+        private final int _gkind;
+        private final String _position;
+        private final int _colorToMove;
+        private final int _status;
+        private final int[] _moves;
+        private final String[] _names;
+        private final String[] _numericNames;
+        private final String[] _successors;
+        private final long[] _successorKeys;
+        // the move resets the 50 moves count (a pawn move, a capture or a drop)
+        private final boolean[] _resets;
+
+        private Position(long key, int gkind, String position, Game game, int[] moves) {
+            _key = key;
+            _gkind = gkind;
+            _position = position;
+            _colorToMove = game.getCurrentColor();
+            _status = game.status();
+            _moves = moves;
+            _names = new String[moves.length];
+            _numericNames = new String[moves.length];
+            _successors = new String[moves.length];
+            _successorKeys = new long[moves.length];
+            _resets = new boolean[moves.length];
+            StringBuilder fen = new StringBuilder(96);
+            for (int i = 0; i < moves.length; i++) {
+                if (!game.playPackedMove(moves[i])) {
+                    LOGGER.warning("failed to play valid move " + moves[i] + " of " + position);
+                    continue;
+                }
+                Move move = game.getLastMove();
+                _names[i] = move.getNameAlg();
+                _numericNames[i] = move.getNameNum();
+                fen.setLength(0);
+                FEN.appendFENString(game, fen);
+                _successors[i] = fen.substring(0, positionEnd(fen, 0));
+                _successorKeys[i] = key(gkind, _successors[i], 0, _successors[i].length());
+                _resets[i] = (game.getCurrentMoveInfo().getDraw50MovesCount() == 0);
+                game.takeback();
+            }
+        }
+
+        public long getKey() {
+            return _key;
+        }
+
+        /**
+         * Returns the position part of the FEN of this position (without the move counters)
+         */
+        public String getPosition() {
+            return _position;
+        }
+
+        public int getColorToMove() {
+            return _colorToMove;
+        }
+
+        /**
+         * Returns the position status. one of the Game.STATUS_XXX constants (see {@link Game#status()})
+         */
+        public int getStatus() {
+            return _status;
+        }
+
+        /**
+         * Returns the number of legal moves. The drops of a crazy house position are listed by piece type
+         */
+        public int getMoveCount() {
+            return _moves.length;
+        }
+
+        /**
+         * Returns the legal move at the given index, as a packed move
+         */
+        public int getMove(int index) {
+            return _moves[index];
+        }
+
+        /**
+         * Returns the algebraic name of the legal move at the given index
+         */
+        public String getMoveName(int index) {
+            return _names[index];
+        }
+
+        /**
+         * Returns the position part of the FEN after the legal move at the given index
+         */
+        public String getSuccessor(int index) {
+            return _successors[index];
+        }
+
+        /**
+         * Returns the key of the position after the legal move at the given index
+         */
+        public long getSuccessorKey(int index) {
+            return _successorKeys[index];
+        }
+
+        /**
+         * Returns the index of the given legal move, by its algebraic or numeric name. -1 if not found
+         */
+        public int indexOf(String move) {
+            for (int i = 0; i < _names.length; i++) {
+                if (move.equals(_names[i]) || move.equals(_numericNames[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int indexOf(int packedMove) {
+            for (int i = 0; i < _moves.length; i++) {
+                if ((_moves[i] & PackedMove.MOVE_MASK) == (packedMove & PackedMove.MOVE_MASK)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean matches(int gkind, CharSequence fen, int start, int end) {
+            if ((_gkind != gkind) || (end - start != _position.length())) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                if (fen.charAt(i) != _position.charAt(i - start)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /*
+     * a least recently used segment of the cache
+     */
+    private static class Segment {
+        private final LinkedHashMap<Long, Position> _positions = new LinkedHashMap<Long, Position>(16, 0.75f, true);
+        private final int _capacity;
+        private long _hits = 0;
+        private long _misses = 0;
+        private long _evictions = 0;
+
+        Segment(int capacity) {
+            _capacity = capacity;
+        }
+
+        Position get(long key) {
+            return _positions.get(key);
+        }
+
+        /*
+         * add a position, evicting the least recently used position of a full segment
+         */
+        void put(long key, Position position) {
+            _positions.put(key, position);
+            if (_positions.size() > _capacity) {
+                Iterator<Position> eldest = _positions.values().iterator();
+                eldest.next();
+                eldest.remove();
+                _evictions++;
+            }
+        }
+
+        int size() {
+            return _positions.size();
+        }
+
+        void clear() {
+            _positions.clear();
+            _hits = 0;
+            _misses = 0;
+            _evictions = 0;
+        }
+    }
+
+    private final Segment[] _segments = new Segment[SEGMENTS];
+    private final int _capacity;
+
+    /**
+     * Create a validator that caches up to {@link #DEFAULT_CAPACITY} positions
+     */
+    public MoveValidator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a validator that caches up to the given number of positions. The least recently used positions
+     * are evicted from a full cache.
+     *
+     * @param capacity - max number of cached positions
+     */
+    public MoveValidator(int capacity) {
+        Utils.Assert(capacity > 0, "bad cache capacity " + capacity);
+        _capacity = capacity;
+        for (int i = 0; i < SEGMENTS; i++) {
+            _segments[i] = new Segment((capacity + SEGMENTS - 1) / SEGMENTS);
+        }
+    }
+
+    /**
+     * Returns the analysed position of the given FEN
+     *
+     * @param fen   - a FEN string
+     * @param gkind - game kind. 0 to guess the game kind from the FEN
+     * @return the position, with its legal moves and status. null if the FEN is invalid
+     */
+    public Position getPosition(String fen, int gkind) {
+        Utils.AssertNotNull(fen);
+        int start = FEN.skipSpaces(fen, 0);
+        return getPosition(fen, gkind, start, positionEnd(fen, start));
+    }
+
+    /**
+     * Returns the analysed position after the legal move at the given index of the given position
+     *
+     * @param position - an analysed position
+     * @param index    - a legal move index
+     * @return the position after the move. null if it failed to load
+     */
+    public Position getSuccessor(Position position, int index) {
+        Utils.AssertNotNull(position);
+        String successor = position.getSuccessor(index);
+        return getPosition(successor, position._gkind, 0, successor.length());
+    }
+
+    /**
+     * Play a move on the given FEN
+     *
+     * @param fen   - a FEN string
+     * @param gkind - game kind. 0 to guess the game kind from the FEN
+     * @param move  - a move, in algebraic or numeric notation
+     * @return the FEN after the move. null if the FEN is invalid or the move is not legal
+     */
+    public String playMove(String fen, int gkind, String move) {
+        Utils.AssertNotNull(fen);
+        Utils.AssertNotNull(move);
+        int start = FEN.skipSpaces(fen, 0);
+        int end = positionEnd(fen, start);
+        Position position = getPosition(fen, gkind, start, end);
+        if (position == null) {
+            return null;
+        }
+        int index = position.indexOf(move);
+        if (index < 0) {
+            // other notations of the move (i.e. without a check suffix) are resolved by the game
+            Game game = GamePool.getThreadGame(gkind, fen);
+            Move validMove = (game == null) ? null : Notation.getMove(game, move);
+            if (validMove != null) {
+                index = position.indexOf(PackedMove.encode(validMove));
+            }
+            if (index < 0) {
+                LOGGER.info("illegal move '" + move + "' for FEN '" + fen + "'");
+                return null;
+            }
+        }
+
+        // the move counters follow the position, if present
+        int halfMoves = 0;
+        int moveNumber = 1;
+        int tokenStart = FEN.skipSpaces(fen, end);
+        if (tokenStart < fen.length()) {
+            int tokenEnd = FEN.tokenEnd(fen, tokenStart);
+            halfMoves = FEN.parseInt(fen, tokenStart, tokenEnd);
+            tokenStart = FEN.skipSpaces(fen, tokenEnd);
+            if (tokenStart < fen.length()) {
+                moveNumber = FEN.parseInt(fen, tokenStart, FEN.tokenEnd(fen, tokenStart));
+            }
+        }
+        String successor = position.getSuccessor(index);
+        StringBuilder result = new StringBuilder(successor.length() + 8);
+        result.append(successor).append(' ');
+        result.append(position._resets[index] ? 0 : halfMoves + 1).append(' ');
+        result.append((position.getColorToMove() == Common.COLOR_BLACK) ? moveNumber + 1 : moveNumber);
+        return result.toString();
+    }
+
+    private Position getPosition(CharSequence fen, int gkind, int start, int end) {
+        long key = key(gkind, fen, start, end);
+        Segment segment = _segments[(int) (key & (SEGMENTS - 1))];
+        synchronized (segment) {
+            Position position = segment.get(key);
+            if ((position != null) && position.matches(gkind, fen, start, end)) {
+                segment._hits++;
+                return position;
+            }
+            segment._misses++;
+        }
+
+        // analyse outside of the segment lock. a position analysed by two threads at once is cached twice
+        String text = fen.subSequence(start, end).toString();
+        Game game = GamePool.getThreadGame(gkind, text);
+        if (game == null) {
+            return null;
+        }
+        int[] moves = getLegalMoves(game);
+        Position position = new Position(key, gkind, text, game, moves);
+        synchronized (segment) {
+            segment.put(key, position);
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("analysed position '" + text + "' : " + moves.length + " moves, status " + position.getStatus());
+        }
+        return position;
+    }
+
+    /*
+     * returns the legal moves of the game current position, with the "drop any" moves expanded to the droppable
+     * piece types
+     */
+    private static int[] getLegalMoves(Game game) {
+        MoveInfo moveInfo = game.getCurrentMoveInfo();
+        int validMovesCount = moveInfo.getValidMoveCount();
+        int[] moves = new int[validMovesCount];
+        List<Integer> dropTypes = null;
+        int count = 0;
+        for (int i = 0; i < validMovesCount; i++) {
+            int code = moveInfo.getValidMoveCode(i);
+            if (!PackedMove.isDrop(code)) {
+                moves[count++] = code;
+                continue;
+            }
+            if (PackedMove.additionalPieceType(code) != Common.PIECE_TYPE_DROP_ANY) {
+                // actual drop moves are added again when their "drop any" move is expanded
+                continue;
+            }
+            if (dropTypes == null) {
+                dropTypes = game.getActualDroppablePieceTypes(game.getCurrentColor());
+            }
+            int toX = PackedMove.toX(code);
+            int toY = PackedMove.toY(code);
+            for (int dropType : dropTypes) {
+                if ((dropType == Common.PIECE_TYPE_PAWN) && ((toX == 1) || (toX == 8))) {
+                    continue;
+                }
+                if (count == moves.length) {
+                    int[] grown = new int[moves.length * 2];
+                    System.arraycopy(moves, 0, grown, 0, count);
+                    moves = grown;
+                }
+                moves[count++] = PackedMove.encode(toX, toY, toX, toY, dropType, true);
+            }
+        }
+        if (count == moves.length) {
+            return moves;
+        }
+        int[] result = new int[count];
+        System.arraycopy(moves, 0, result, 0, count);
+        return result;
+    }
+
+    /*
+     * returns the end of the position part of a FEN (the first 4 tokens)
+     */
+    private static int positionEnd(CharSequence fen, int start) {
+        int end = start;
+        for (int token = 0; token < 4; token++) {
+            int tokenStart = FEN.skipSpaces(fen, end);
+            if (tokenStart == fen.length()) {
+                break;
+            }
+            end = FEN.tokenEnd(fen, tokenStart);
+        }
+        return end;
+    }
+
+    /*
+     * 64 bit FNV-1a hash of the game kind and the position part of a FEN
+     */
+    private static long key(int gkind, CharSequence fen, int start, int end) {
+        long hash = 0xcbf29ce484222325L ^ gkind;
+        for (int i = start; i < end; i++) {
+            hash ^= fen.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash ^ (hash >>> 32);
+    }
+
+    /**
+     * Returns the number of cached positions
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : _segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * Returns the number of position requests answered from the cache
+     */
+    public long getHits() {
+        long hits = 0;
+        for (Segment segment : _segments) {
+            synchronized (segment) {
+                hits += segment._hits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the number of position requests that were analysed
+     */
+    public long getMisses() {
+        long misses = 0;
+        for (Segment segment : _segments) {
+            synchronized (segment) {
+                misses += segment._misses;
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * Returns the number of positions evicted from a full cache
+     */
+    public long getEvictions() {
+        long evictions = 0;
+        for (Segment segment : _segments) {
+            synchronized (segment) {
+                evictions += segment._evictions;
+            }
+        }
+        return evictions;
+    }
+
+    /**
+     * Returns the part of the position requests answered from the cache (0 to 1)
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long requests = hits + getMisses();
+        return (requests == 0) ? 0 : ((double) hits) / requests;
+    }
+
+    /**
+     * Remove all the cached positions and reset the counters
+     */
+    public void clear() {
+        for (Segment segment : _segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+/**
+ * Neural network evaluation of a game position (see {@link NeuralNetwork}). <br>
+ * The evaluation attaches itself to the evaluated game, and keeps the network accumulators up to date
+ * as pieces are placed and removed from the board, so only the small hidden layers are computed for
+ * each evaluation. Evaluating another game re-attaches the evaluation, and recomputes the accumulators. <br>
+ * Pieces in hand (crazy house and bug house) are not network inputs, and are added with their
+ * {@link Evaluation} pocket values. <br>
+ * An evaluation instance must not be shared between threads.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class NeuralEvaluation implements Evaluator {
+
+    private final NeuralNetwork _network;
+    // accumulators, indexed by perspective color
+    private final short[][] _accumulators = new short[Common.COLOR_NUM][];
+    // clipped accumulators of the moving side followed by the other side
+    private final int[] _input;
+    private final int[] _hidden;
+    private Game _game = null;
+
+    public NeuralEvaluation(NeuralNetwork network) {
+        Utils.AssertNotNull(network);
+        _network = network;
+        _accumulators[Common.COLOR_WHITE] = new short[network._accumulatorSize];
+        _accumulators[Common.COLOR_BLACK] = new short[network._accumulatorSize];
+        _input = new int[2 * network._accumulatorSize];
+        _hidden = new int[network._hiddenSize];
+    }
+
+    @Override
+    public int evaluate(Game game) {
+        if (game != _game) {
+            attach(game);
+        }
+        int color = game.getCurrentColor();
+        int score = propagate(_accumulators[color], _accumulators[Common.OtherColor(color)]);
+        if (game.isCrazyOrBugHouse()) {
+            int pocket = Evaluation.getPocketValue(game.getDroppablePieces(color)) -
+                    Evaluation.getPocketValue(game.getDroppablePieces(Common.OtherColor(color)));
+            score += pocket;
+        }
+        return score;
+    }
+
+    /**
+     * Stop following the changes of the evaluated game
+     */
+    public void detach() {
+        if (_game != null) {
+            _game.setNeuralEvaluation(null);
+            _game = null;
+        }
+    }
+
+    private void attach(Game game) {
+        detach();
+        game.setNeuralEvaluation(this);
+        _game = game;
+        refresh();
+    }
+
+    /*
+     * recompute the accumulators from the pieces on the board
+     */
+    private void refresh() {
+        for (int perspective = Common.COLOR_WHITE; perspective <= Common.COLOR_BLACK; perspective++) {
+            System.arraycopy(_network._featureBiases, 0, _accumulators[perspective], 0, _network._accumulatorSize);
+        }
+        for (int x = 8; x != 0; x--) {
+            for (int y = 8; y != 0; y--) {
+                Piece piece = _game.getPieceAt(x, y);
+                if (piece != null) {
+                    pieceAdded(piece, x, y);
+                }
+            }
+        }
+    }
+
+    /*
+     * called by the game when a piece is placed at (x,y)
+     */
+    void pieceAdded(Piece piece, int x, int y) {
+        update(piece, x, y, true);
+    }
+
+    /*
+     * called by the game when a piece is removed from (x,y)
+     */
+    void pieceRemoved(Piece piece, int x, int y) {
+        update(piece, x, y, false);
+    }
+
+    private void update(Piece piece, int x, int y, boolean add) {
+        int size = _network._accumulatorSize;
+        short[] weights = _network._featureWeights;
+        for (int perspective = Common.COLOR_WHITE; perspective <= Common.COLOR_BLACK; perspective++) {
+            short[] accumulator = _accumulators[perspective];
+            int offset = NeuralNetwork.getFeature(perspective, piece.getColor(), piece.getType(), x, y) * size;
+            if (add) {
+                for (int i = 0; i < size; i++) {
+                    accumulator[i] += weights[offset + i];
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    accumulator[i] -= weights[offset + i];
+                }
+            }
+        }
+    }
+
+    /*
+     * clipped relu of both accumulators, through the hidden layer into the output
+     */
+    private int propagate(short[] us, short[] them) {
+        int size = _network._accumulatorSize;
+        int[] input = _input;
+        for (int i = 0; i < size; i++) {
+            input[i] = clip(us[i]);
+            input[size + i] = clip(them[i]);
+        }
+        byte[] hiddenWeights = _network._hiddenWeights;
+        int[] hidden = _hidden;
+        int inputSize = input.length;
+        for (int h = 0; h < hidden.length; h++) {
+            int offset = h * inputSize;
+            int sum = _network._hiddenBiases[h];
+            for (int i = 0; i < inputSize; i++) {
+                sum += input[i] * hiddenWeights[offset + i];
+            }
+            hidden[h] = clip(sum >> NeuralNetwork.HIDDEN_SHIFT);
+        }
+        byte[] outputWeights = _network._outputWeights;
+        int output = _network._outputBias;
+        for (int h = 0; h < hidden.length; h++) {
+            output += hidden[h] * outputWeights[h];
+        }
+        return output / _network._outputScale;
+    }
+
+    private static int clip(int value) {
+        return Math.min(Math.max(value, 0), NeuralNetwork.ACTIVATION_MAX);
+    }
+}
@@ -0,0 +1,250 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Quantized weights of an efficiently updatable neural network evaluation (see {@link NeuralEvaluation}). <br>
+ * The network input is one feature per (piece color relative to the perspective, piece type, square)
+ * - 2 x PIECE_TYPE_NUM x 64 features. The input layer is kept as 2 accumulators (one per
+ * perspective) of int16 values. The accumulators of the moving side and of the other side are
+ * clipped to 0..127 and concatenated into the hidden layer (int8 weights), which is clipped again
+ * into the single output neuron. <br>
+ * File format (big endian) : magic, version, feature count, accumulator size, hidden size, output scale,
+ * followed by the feature weights and biases (int16), the hidden weights (int8) and biases (int32),
+ * and the output weights (int8) and bias (int32).
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class NeuralNetwork {
+
+    private final static Logger LOGGER = Logger.getLogger(NeuralNetwork.class.getName());
+
+    static final int MAGIC = 0x4E4E5545; // "NNUE"
+    static final int VERSION = 1;
+    static final int FEATURE_COUNT = 2 * Common.PIECE_TYPE_NUM * 64;
+    static final int MAX_LAYER_SIZE = 4096;
+    // clipped activation range
+    static final int ACTIVATION_MAX = 127;
+    // hidden layer sums are divided by 2^HIDDEN_SHIFT before activation
+    static final int HIDDEN_SHIFT = 6;
+
+    final int _accumulatorSize;
+    final int _hiddenSize;
+    final int _outputScale;
+    // [feature * accumulatorSize + i]
+    final short[] _featureWeights;
+    final short[] _featureBiases;
+    // [hidden * 2 * accumulatorSize + i]
+    final byte[] _hiddenWeights;
+    final int[] _hiddenBiases;
+    final byte[] _outputWeights;
+    final int _outputBias;
+
+    NeuralNetwork(int accumulatorSize, int hiddenSize, int outputScale,
+                  short[] featureWeights, short[] featureBiases, byte[] hiddenWeights, int[] hiddenBiases,
+                  byte[] outputWeights, int outputBias) {
+        Utils.Assert(featureWeights.length == FEATURE_COUNT * accumulatorSize);
+        Utils.Assert(featureBiases.length == accumulatorSize);
+        Utils.Assert(hiddenWeights.length == hiddenSize * 2 * accumulatorSize);
+        Utils.Assert(hiddenBiases.length == hiddenSize);
+        Utils.Assert(outputWeights.length == hiddenSize);
+        Utils.Assert(outputScale > 0);
+        _accumulatorSize = accumulatorSize;
+        _hiddenSize = hiddenSize;
+        _outputScale = outputScale;
+        _featureWeights = featureWeights;
+        _featureBiases = featureBiases;
+        _hiddenWeights = hiddenWeights;
+        _hiddenBiases = hiddenBiases;
+        _outputWeights = outputWeights;
+        _outputBias = outputBias;
+    }
+
+    public int getAccumulatorSize() {
+        return _accumulatorSize;
+    }
+
+    public int getHiddenSize() {
+        return _hiddenSize;
+    }
+
+    /**
+     * Load a network from the given file.
+     *
+     * @param fileName - network file name
+     * @return The loaded network, or null if the file can't be read or is not a valid network file
+     */
+    public static NeuralNetwork load(String fileName) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(fileName);
+            return load(in);
+        } catch (IOException e) {
+            LOGGER.warning("can't read network file " + fileName + " : " + e.getMessage());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOGGER.warning("can't close network file " + fileName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load a network from the given stream. The stream is not closed.
+     *
+     * @param stream - a given stream
+     * @return The loaded network, or null if the stream is not a valid network
+     */
+    public static NeuralNetwork load(InputStream stream) {
+        Utils.AssertNotNull(stream);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC) {
+                LOGGER.warning("not a network file");
+                return null;
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                LOGGER.warning("unsupported network version " + version);
+                return null;
+            }
+            int featureCount = in.readInt();
+            int accumulatorSize = in.readInt();
+            int hiddenSize = in.readInt();
+            int outputScale = in.readInt();
+            if ((featureCount != FEATURE_COUNT) ||
+                    (accumulatorSize < 1) || (accumulatorSize > MAX_LAYER_SIZE) ||
+                    (hiddenSize < 1) || (hiddenSize > MAX_LAYER_SIZE) || (outputScale < 1)) {
+                LOGGER.warning("illegal network dimensions " + featureCount + "," + accumulatorSize + "," + hiddenSize +
+                        " scale " + outputScale);
+                return null;
+            }
+            short[] featureWeights = readShorts(in, FEATURE_COUNT * accumulatorSize);
+            short[] featureBiases = readShorts(in, accumulatorSize);
+            byte[] hiddenWeights = new byte[hiddenSize * 2 * accumulatorSize];
+            in.readFully(hiddenWeights);
+            int[] hiddenBiases = new int[hiddenSize];
+            for (int i = 0; i < hiddenSize; i++) {
+                hiddenBiases[i] = in.readInt();
+            }
+            byte[] outputWeights = new byte[hiddenSize];
+            in.readFully(outputWeights);
+            int outputBias = in.readInt();
+            return new NeuralNetwork(accumulatorSize, hiddenSize, outputScale, featureWeights, featureBiases,
+                    hiddenWeights, hiddenBiases, outputWeights, outputBias);
+        } catch (IOException e) {
+            LOGGER.warning("can't read network : " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static short[] readShorts(DataInputStream in, int count) throws IOException {
+        short[] values = new short[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readShort();
+        }
+        return values;
+    }
+
+    /**
+     * Save this network to the given stream, in the format read by {@link #load(InputStream)}.
+     * The stream is flushed but not closed.
+     *
+     * @param stream - a given stream
+     * @return true on success
+     */
+    public boolean save(OutputStream stream) {
+        Utils.AssertNotNull(stream);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(FEATURE_COUNT);
+            out.writeInt(_accumulatorSize);
+            out.writeInt(_hiddenSize);
+            out.writeInt(_outputScale);
+            for (short weight : _featureWeights) {
+                out.writeShort(weight);
+            }
+            for (short bias : _featureBiases) {
+                out.writeShort(bias);
+            }
+            out.write(_hiddenWeights);
+            for (int bias : _hiddenBiases) {
+                out.writeInt(bias);
+            }
+            out.write(_outputWeights);
+            out.writeInt(_outputBias);
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            LOGGER.warning("can't write network : " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Returns the index of the given piece feature, from the given perspective
+     */
+    static int getFeature(int perspective, int color, int type, int x, int y) {
+        int square = Zobrist.square(x, y);
+        if (perspective == Common.COLOR_BLACK) {
+            // mirror the board, so each side sees itself at the bottom
+            square ^= 56;
+        }
+        int relativeColor = (color == perspective) ? 0 : 1;
+        return (relativeColor * Common.PIECE_TYPE_NUM + type) * 64 + square;
+    }
+
+    /*
+     * a network with small random weights. used for tests and benchmarks
+     */
+    static NeuralNetwork createRandom(int accumulatorSize, int hiddenSize, long seed) {
+        Random random = new Random(seed);
+        short[] featureWeights = new short[FEATURE_COUNT * accumulatorSize];
+        for (int i = 0; i < featureWeights.length; i++) {
+            featureWeights[i] = (short) (random.nextInt(33) - 16);
+        }
+        short[] featureBiases = new short[accumulatorSize];
+        for (int i = 0; i < accumulatorSize; i++) {
+            featureBiases[i] = (short) random.nextInt(64);
+        }
+        byte[] hiddenWeights = new byte[hiddenSize * 2 * accumulatorSize];
+        for (int i = 0; i < hiddenWeights.length; i++) {
+            hiddenWeights[i] = (byte) (random.nextInt(65) - 32);
+        }
+        int[] hiddenBiases = new int[hiddenSize];
+        for (int i = 0; i < hiddenSize; i++) {
+            hiddenBiases[i] = random.nextInt(1024) - 512;
+        }
+        byte[] outputWeights = new byte[hiddenSize];
+        for (int i = 0; i < hiddenSize; i++) {
+            outputWeights[i] = (byte) (random.nextInt(65) - 32);
+        }
+        return new NeuralNetwork(accumulatorSize, hiddenSize, 16, featureWeights, featureBiases,
+                hiddenWeights, hiddenBiases, outputWeights, 0);
+    }
+}
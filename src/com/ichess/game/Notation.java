@@ -15,7 +15,9 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  * @author Ran Berenfeld
@@ -30,6 +32,11 @@ public class Notation {
     // map of numbers to rows
     private static final String[] sRowNames = {"", "1", "2", "3", "4", "5", "6", "7", "8"};
 
+    // unwanted tokens in moves (like #,+,!,?,ep)
+    private static final Pattern MOVE_ANNOTATIONS = Pattern.compile("[\\?!\\+#\\.\\$]+");
+    private static final Pattern EP_ANNOTATION = Pattern.compile("ep", Pattern.LITERAL);
+    private static final Pattern SPACES = Pattern.compile("[\\s+]");
+
     // mapping of English characters to pieces
     private static HashMap<String, Integer> sCharEngToPiece = new HashMap<String, Integer>();
     // mapping of pieces to English characters
@@ -125,13 +132,23 @@ public class Notation {
         return sPieceToCharEng.get(pieceType);
     }
 
+    /*
+     * remove unwanted tokens in a move string (like #,+,!,?,ep)
+     */
+    static String removeAnnotations(String move) {
+        move = MOVE_ANNOTATIONS.matcher(move).replaceAll("");
+        return EP_ANNOTATION.matcher(move).replaceAll("");
+    }
+
     static Move getMove(Game game, String str) {
         Utils.AssertNotNull(game);
         Utils.AssertNotNull(str);
 
         int fromX, fromY, toX, toY;
 
-        LOGGER.fine("getting move '" + str + "'");
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("getting move '" + str + "'");
+        }
 
         // check if move is in long numeric format
         if (str.length() >= 4) {
@@ -140,7 +157,9 @@ public class Notation {
             toX = str.charAt(3) - 48;
             toY = getColumn(str.charAt(2));
 
-            LOGGER.fine("Found move numeric " + fromX + "," + fromY + "-" + toX + "," + toY);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Found move numeric " + fromX + "," + fromY + "-" + toX + "," + toY);
+            }
             if ((Utils.isBetween(fromX, 1, 8)) && (Utils.isBetween(fromY, 1, 8)) && (Utils.isBetween(toX, 1, 8))
                     && (Utils.isBetween(toY, 1, 8))) {
                 // move with numeric format. if length = 4, add a space
@@ -169,34 +188,7 @@ public class Notation {
                     }
 
                     LOGGER.fine("a drop move '" + str + "' of " + sourcePieceType + " to " + toX + "," + toY);
-                    // first look for a valid drop move (if it's there its all ok)
-                    Move validDropMove = game.getValidMove(toX, toY, toX, toY, sourcePieceType);
-                    if (validDropMove != null)
-                    {
-                        // we got the drop move
-                        return validDropMove;
-                    }
-                    Move move = game.getValidMove(toX, toY, toX, toY, Common.PIECE_TYPE_DROP_ANY);
-                    if (move == null)
-                    {
-                        // drop move not found.
-                        LOGGER.warning("can't find drop move " + str);
-                        return null;
-                    }
-                    // drop move found. now check if piece can be dropped
-                    if ((sourcePieceType == Common.PIECE_TYPE_PAWN) && ( (toX == 1) || (toX == 8)))
-                    {
-                        LOGGER.warning("can't find drop move " + str + " : pawn can't be dropped on 1st or 8th line");
-                        return null;
-                    }
-                    List<Piece> droppable = game.getDroppablePieces(game.getCurrentColor());
-                    Piece droppablePiece = Game.findPieceToDrop(droppable, sourcePieceType);
-                    if ( droppablePiece != null )
-                    {
-                        game.getCurrentMoveInfo().addValidMove(droppablePiece, toX, toY, true);
-                    }
-                    // ok. if all is ok, we now have a valid drop move
-                    validDropMove = game.getValidMove(toX, toY, toX, toY, sourcePieceType);
+                    Move validDropMove = game.getDropMove(toX, toY, sourcePieceType);
                     if (validDropMove == null)
                     {
                         LOGGER.warning("can't find drop move " + str);
@@ -220,8 +212,7 @@ public class Notation {
         int promotionPiece = Common.PIECE_TYPE_ILLEGAL;
 
         // remove unwanted tokens in moves (like #,+,!,?,ep)
-        str = str.replaceAll("[\\?!\\+#\\.\\$]+", "");
-        str = str.replaceAll("ep", "");
+        str = removeAnnotations(str);
 
         // handle promotion =
         int eqLoc = str.indexOf('=');
@@ -332,8 +323,10 @@ public class Notation {
                         return null;
                     }
 
-                    LOGGER.fine("parsing pawn algebric move str '" + str +
-                            "' from src row " + +sourceRow + " col " + sourceColumn + " to dest row " + destRow + " col " + destColumn);
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.fine("parsing pawn algebric move str '" + str + "' from src row " + sourceRow +
+                                " col " + sourceColumn + " to dest row " + destRow + " col " + destColumn);
+                    }
 
                     // find a pawn on the source column that can move to destination row
                     if (color == Common.COLOR_WHITE) {
@@ -408,8 +401,10 @@ public class Notation {
                         toX = destRow;
                         toY = destColumn;
 
-                        LOGGER.fine("parsing pawn algebric move str '" + str +
-                                "' from src row " + +sourceRow + " col " + sourceColumn + " to dest row " + destRow + " col " + destColumn);
+                        if (LOGGER.isLoggable(Level.FINE)) {
+                            LOGGER.fine("parsing pawn algebric move str '" + str + "' from src row " + sourceRow +
+                                    " col " + sourceColumn + " to dest row " + destRow + " col " + destColumn);
+                        }
                         return game.getValidMove(fromX, fromY, toX, toY, promotionPiece);
                     }
                 } else {
@@ -451,8 +446,10 @@ public class Notation {
                         return null;
                     }
 
-                    LOGGER.fine("parsing regular algebric move of " + Notation.getPieceCharacter(srcPiece.getType()) + " str '" + str +
-                            "' from " + srcPiece.getX() + "," + srcPiece.getY() + " to " + destRow + "," + destColumn);
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.fine("parsing regular algebric move of " + Notation.getPieceCharacter(srcPiece.getType()) + " str '" + str +
+                                "' from " + srcPiece.getX() + "," + srcPiece.getY() + " to " + destRow + "," + destColumn);
+                    }
 
                     fromX = srcPiece.getX();
                     fromY = srcPiece.getY();
@@ -484,34 +481,7 @@ public class Notation {
                 LOGGER.fine("a drop move '" + str + "' of " + sourcePieceType + " to " + destRow + "," + destColumn);
                 toX = destRow;
                 toY = destColumn;
-                // first look for a valid drop move (if it's there its all ok)
-                Move validDropMove = game.getValidMove(toX, toY, toX, toY, sourcePieceType);
-                if (validDropMove != null)
-                {
-                    // we got the drop move
-                    return validDropMove;
-                }
-                Move move = game.getValidMove(toX, toY, toX, toY, Common.PIECE_TYPE_DROP_ANY);
-                if (move == null)
-                {
-                    // drop move not found.
-                    LOGGER.warning("can't find drop move " + str);
-                    return null;
-                }
-                // drop move found. now check if piece can be dropped
-                if ((sourcePieceType == Common.PIECE_TYPE_PAWN) && ( (toX == 1) || (toX == 8)))
-                {
-                    LOGGER.warning("can't find drop move " + str + " : pawn can't be dropped on 1st or 8th line");
-                    return null;
-                }
-                List<Piece> droppable = game.getDroppablePieces(game.getCurrentColor());
-                Piece droppablePiece = Game.findPieceToDrop(droppable, sourcePieceType);
-                if ( droppablePiece != null )
-                {
-                    game.getCurrentMoveInfo().addValidMove(droppablePiece, toX, toY, true);
-                }
-                // ok. if all is ok, we now have a valid drop move
-                validDropMove = game.getValidMove(toX, toY, toX, toY, sourcePieceType);
+                Move validDropMove = game.getDropMove(toX, toY, sourcePieceType);
                 if (validDropMove == null)
                 {
                     LOGGER.warning("can't find drop move " + str);
@@ -579,13 +549,13 @@ public class Notation {
     }
 
     /*
-     * given a game and the PGN move string, returns a new move with the given
-     * string
+     * calculates the numeric, algebraic and figurine names of a valid move, given the move info holding the move.
+     * the names depend only on the move and on the other valid moves of its move info (and not on the current
+     * position of the game), so the names of the valid moves of any move info can be calculated when needed.
      */
-    static void getNames(Move move) {
+    static void getNames(Move move, MoveInfo info) {
         Utils.AssertNotNull(move);
-        Game game = move.getGame();
-        Utils.AssertNotNull(game);
+        Utils.AssertNotNull(info);
 
         int fromX = move.getFromX();
         int fromY = move.getFromY();
@@ -593,31 +563,27 @@ public class Notation {
         int toY = move.getToY();
         boolean FischerCastle = false;
 
-        String name_num = "";
+        StringBuilder name_num = new StringBuilder(5);
 
         if (move.isDropMove()) {
-            name_num += (char) (toY + 96);
-            name_num += (char) (toX + 48);
+            name_num.append((char) (toY + 96));
+            name_num.append((char) (toX + 48));
         } else {
-            name_num += (char) (fromY + 96);
-            name_num += (char) (fromX + 48);
+            name_num.append((char) (fromY + 96));
+            name_num.append((char) (fromX + 48));
         }
 
-        name_num += (char) (toY + 96);
-        name_num += (char) (toX + 48);
+        name_num.append((char) (toY + 96));
+        name_num.append((char) (toX + 48));
 
         if (move.getAdditionalPieceTypeInfo() != Common.PIECE_TYPE_ILLEGAL) {
             String promotionPieceName = Notation.getPieceCharacter(move.getAdditionalPieceTypeInfo()).toLowerCase();
-            LOGGER.fine("move promotion piece is " + move.getAdditionalPieceTypeInfo() + " piece name " + promotionPieceName);
-            name_num += promotionPieceName;
+            name_num.append(promotionPieceName);
         } else {
-            name_num += " ";
+            name_num.append(' ');
         }
 
-        move.setNameNum(name_num);
-
-        MoveInfo info = game.getCurrentMoveInfo();
-        Utils.AssertNotNull(info);
+        move.setNameNum(name_num.toString());
 
         if (Utils.isEmptyString(move.getNameAlg())) {
 
@@ -681,8 +647,6 @@ public class Notation {
                     }
                     // handle promotion
                     if ((toX == 8) || (toX == 1)) {
-                        LOGGER.fine("move promotion piece is " + move.getAdditionalPieceTypeInfo());
-                        name_num += Notation.getPieceCharacter(move.getAdditionalPieceTypeInfo());
                         name_alg += '=' + Notation.getPieceCharacter(move.getAdditionalPieceTypeInfo());
                         if (piece.isWhite()) {
                             name_fig += '=' + sPieceToUnicodeFiguresWhite.get(move.getAdditionalPieceTypeInfo());
@@ -703,27 +667,30 @@ public class Notation {
                     String h1 = "";
                     String h2 = "";
 
-                    LOGGER.fine("name_alg is '" + name_alg + "'");
-
-                    List<Piece> others = game.findPieces(piece.getType(), piece.getColor());
-
-                    LOGGER.fine("others size " + others.size());
-
-                    for (Piece other : others) {
-                        if ((other.getX() != piece.getX()) || (other.getY() != piece.getY())) {
-                            LOGGER.fine("found helper piece " + other.getType() + " color " + other.getColor());
-                            if (info.isMoveValid(other.getX(), other.getY(), toX, toY)) {
-                                if (other.getY() != fromY) {
-                                    // add column helper
-                                    if (Utils.isEmptyString(h1)) {
-                                        h1 += sColNamesEng.get(fromY);
-                                    }
-                                } else {
-                                    // add row helper
-                                    if (Utils.isEmptyString(h2)) {
-                                        h2 += sRowNames[fromX];
-                                    }
-                                }
+                    // other pieces of the same type that can move to the same square
+                    for (int i = 0; i < info.getValidMoveCount(); i++) {
+                        int other = info.getValidMoveCode(i);
+                        if ((PackedMove.toX(other) != toX) || (PackedMove.toY(other) != toY) || PackedMove.isDrop(other)) {
+                            continue;
+                        }
+                        int otherFromX = PackedMove.fromX(other);
+                        int otherFromY = PackedMove.fromY(other);
+                        if ((otherFromX == fromX) && (otherFromY == fromY)) {
+                            continue;
+                        }
+                        Piece otherPiece = info.getValidMovePiece(i);
+                        if ((otherPiece == null) || (otherPiece.getType() != piece.getType()) || (otherPiece.getColor() != piece.getColor())) {
+                            continue;
+                        }
+                        if (otherFromY != fromY) {
+                            // add column helper
+                            if (Utils.isEmptyString(h1)) {
+                                h1 += sColNamesEng.get(fromY);
+                            }
+                        } else {
+                            // add row helper
+                            if (Utils.isEmptyString(h2)) {
+                                h2 += sRowNames[fromX];
                             }
                         }
                     }
@@ -737,7 +704,6 @@ public class Notation {
                     name_fig += sColNamesEng.get(toY);
                     name_alg += sRowNames[toX];
                     name_fig += sRowNames[toX];
-                    LOGGER.fine("name_alg is '" + name_alg + "'");
 
                     // check for castle
                     if (piece.isKing()) {
@@ -754,10 +720,21 @@ public class Notation {
                 }
             }
 
-            LOGGER.fine("move names are '" + name_alg + "' , '" + name_fig);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("move names are '" + name_alg + "' , '" + name_fig);
+            }
             move.setNameAlg(name_alg);
             move.setNameFig(name_fig);
         }
+    }
+
+    /*
+     * calculates the check / mate suffix of the algebraic name of a move that was played
+     */
+    static void getNameSuffix(Move move) {
+        Utils.AssertNotNull(move);
+        Game game = move.getGame();
+        Utils.AssertNotNull(game);
 
         // suffix is null and this is the actual move played, then we can
         // compute the suffix
@@ -805,7 +782,7 @@ public class Notation {
 
         // play the moves on an empty game
         // remove all kinds of spaces, convert with " "
-        movelist = movelist.replaceAll("[\\s+]", " ");
+        movelist = SPACES.matcher(movelist).replaceAll(" ");
 
         movelist = movelist.replace(".", ". ");
         movelist = movelist.replace("{", " { ");
@@ -849,8 +826,7 @@ public class Notation {
             }
 
             // remove unwanted tokens in moves (like #,+,!,?,ep)
-            tok = tok.replaceAll("[\\?!\\+#\\.\\$]+", "");
-            tok = tok.replaceAll("ep", "");
+            tok = removeAnnotations(tok);
 
             if (Utils.isEmptyString(tok)) {
                 continue;
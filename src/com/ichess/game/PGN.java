@@ -12,9 +12,11 @@ package com.ichess.game;
 
 
 
+import java.io.StringReader;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -31,6 +33,24 @@ public class PGN {
 
     private final static Logger LOGGER = Logger.getLogger(PGN.class.getName());
 
+    private static final Pattern WHITE_SPACES = Pattern.compile("\\s+");
+    private static final Pattern CONTROL_CHARACTERS = Pattern.compile("\\p{C}");
+    private static final Pattern PGN_TAG = Pattern.compile("\\[\\s*([^\\s]*)\\s+\"([^\"]*)\"\\s*\\]");
+    private static final Pattern MOVE_NUMBER_DOT = Pattern.compile(".", Pattern.LITERAL);
+
+    // NAGs and their unicode display (first 2 digits)
+    private static final String[][] NAGS = {
+            {"$10", "="}, {"$11", "="}, {"$12", "="}, {"$13", "\u221E"}, {"$14", "\u2A72"}, {"$15", "\u2A71"},
+            {"$16", "\u0177"}, {"$17", "\u2213"}, {"$18", "+-"}, {"$19", "-+"},
+            {"$1", "!"}, {"$2", "?"}, {"$3", "!!"}, {"$4", "??"}, {"$5", "!?"}, {"$6", "?!"}};
+    private static final Pattern[] NAG_PATTERNS = new Pattern[NAGS.length];
+
+    static {
+        for (int index = 0; index < NAGS.length; index++) {
+            NAG_PATTERNS[index] = Pattern.compile(NAGS[index][0], Pattern.LITERAL);
+        }
+    }
+
     public static final String PGN_VARIANT_FISCHER = "Fischerandom";
     public static final String PGN_VARIANT_SUICIDE = "Suicide";
     public static final String PGN_VARIANT_GRASSHOPER = "Grasshoper";
@@ -109,6 +129,48 @@ public class PGN {
         return PGN_DATE_FORMATTER.format(date);
     }
 
+    /**
+     * Returns the game kind of the given PGN variant tag value
+     *
+     * @param variant - a PGN variant tag value
+     * @return the game kind of the variant. 0 if the variant is unknown
+     */
+    public static int getVariantGameKind(String variant) {
+        Utils.AssertNotNull(variant);
+        if (PGN_VARIANT_FISCHER.equalsIgnoreCase(variant)) {
+            return Common.GAME_KIND_FISCHER;
+        } else if (PGN_VARIANT_SUICIDE.equalsIgnoreCase(variant)) {
+            return Common.GAME_KIND_SUICIDE;
+        } else if (PGN_VARIANT_MINICAPA.equalsIgnoreCase(variant)) {
+            return Common.GAME_KIND_MINICAPA;
+        } else if (PGN_VARIANT_GRASSHOPER.equalsIgnoreCase(variant)) {
+            return Common.GAME_KIND_GRASSHOPER;
+        } else if (PGN_VARIANT_FREEPLAY.equalsIgnoreCase(variant)) {
+            return Common.GAME_KIND_FREEPLAY;
+        } else if (PGN_VARIANT_CRAZY_HOUSE.equalsIgnoreCase(variant)) {
+            return Common.GAME_KIND_CRAZY_HOUSE;
+        } else if (PGN_VARIANT_BUG_HOUSE.equalsIgnoreCase(variant)) {
+            return Common.GAME_KIND_BUG_HOUSE;
+        }
+        return 0;
+    }
+
+    /**
+     * Scan the games of a PGN string, reading only the tag pairs of each game (see {@link PGNScanner})
+     *
+     * @param pgnString - a PGN string of any number of games
+     * @return the headers of the games
+     */
+    public static List<PGNHeader> scanHeaders(String pgnString) {
+        Utils.AssertNotNull(pgnString);
+        List<PGNHeader> headers = new ArrayList<PGNHeader>();
+        PGNScanner scanner = new PGNScanner(new StringReader(pgnString));
+        for (PGNHeader header = scanner.next(); header != null; header = scanner.next()) {
+            headers.add(header);
+        }
+        return headers;
+    }
+
     /**
      * Returns PGN move prefix of the last move in the given game for example if
      * the game move number is 1 : ("1." for white, "1..." for black) if not
@@ -155,7 +217,17 @@ public class PGN {
         Utils.AssertNotNull(game);
 
         StringBuilder pgn = new StringBuilder();
+        appendPGN(game, pgn);
+        return pgn.toString();
+    }
 
+    /**
+     * Append the PGN description of a game (as returned by {@link #getPGNString(Game)}) to the given buffer
+     *
+     * @param game
+     * @param pgn - a given buffer
+     */
+    static void appendPGN(Game game, StringBuilder pgn) {
         for (String pgn_key : _pgn_attrbutes) {
             String value = (String) game.getAttribute(pgn_key);
             if (Utils.isEmptyString(value)) {
@@ -179,16 +251,15 @@ public class PGN {
         while (index < game.getCurrentMove()) {
             Move move = game.getMove(index);
             if ((index == 0) || (move.getColor() == Common.COLOR_WHITE)) {
-                pgn.append(getMovePrefix(moveNumber, move.getColor())).append(" ");
+                pgn.append(moveNumber).append(Common.isWhite(move.getColor()) ? ". " : "... ");
             }
 
-            pgn.append(move.getNameAlg()).append(" ");
+            pgn.append(move.getNameAlg()).append(' ');
 
             String comment = move.getComment();
             if (!Utils.isEmptyString(comment)) {
                 // replace all {,} with (,)
-                comment = comment.replaceAll("\\{", "\\(");
-                comment = comment.replaceAll("\\}", "\\)");
+                comment = comment.replace('{', '(').replace('}', ')');
 
                 pgn.append(Utils.LRO).append("{ ")
                         .append(Utils.encodeInRLE(comment))
@@ -200,8 +271,6 @@ public class PGN {
             }
         }
         pgn.append(getResultString(game.getWinner())).append('\n');
-
-        return pgn.toString();
     }
 
     /**
@@ -232,17 +301,33 @@ public class PGN {
      */
     public static Game loadGame(String pgnString) {
         Utils.AssertNotNull(pgnString);
-        Game game = new Game();
+        return loadGame(new Game(), pgnString);
+    }
+
+    /**
+     * Loads a PGN string into the given game, that is reset (see {@link Game#reset(int)}) and reused
+     * instead of allocating a new game.
+     *
+     * @param game      - a given game
+     * @param pgnString - a PGN string
+     * @return The given game, loaded from the given PGN string. null on error.
+     */
+    public static Game loadGame(Game game, String pgnString) {
+        Utils.AssertNotNull(game);
+        Utils.AssertNotNull(pgnString);
+        game.reset(Common.GAME_KIND_REGULAR);
 
-        LOGGER.fine("loading PGN " + pgnString);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("loading PGN " + pgnString);
+        }
 
         String _pgnString = pgnString;
 
         // replace all white spaces with regular spaces
-        _pgnString = _pgnString.replaceAll("\\s+", " ");
+        _pgnString = WHITE_SPACES.matcher(_pgnString).replaceAll(" ");
 
         // replace all control characters with spaces
-        _pgnString = _pgnString.replaceAll("\\p{C}", " ");
+        _pgnString = CONTROL_CHARACTERS.matcher(_pgnString).replaceAll(" ");
 
         String temp = _pgnString;
         temp = temp.trim();
@@ -256,10 +341,9 @@ public class PGN {
         String whiteName, blackName, otherWhiteName = "", otherBlackName = "";
 
         String key,value;
-        int tagIndex;
-        Pattern pgnTagsPattern = Pattern.compile("\\[\\s*([^\\s]*)\\s+\"([^\"]*)\"\\s*\\]");
+        int tagIndex = 0;
+        Matcher m = PGN_TAG.matcher(temp);
         do {
-            Matcher m = pgnTagsPattern.matcher(temp);
             if (!m.find())
             {
                 break;
@@ -268,9 +352,6 @@ public class PGN {
             key = m.group(1);
             value = m.group(2);
 
-            temp = temp.substring(tagIndex, temp.length());
-            temp = temp.trim();
-
             if ((Utils.isEmptyString(key)) || (Utils.isEmptyString(value))) {
                 continue;
             }
@@ -329,29 +410,15 @@ public class PGN {
             game.setAttribute(key, value);
         } while(true);
 
-        temp = temp.trim();
+        temp = temp.substring(tagIndex).trim();
 
-        temp = temp.replaceAll("\\.", ". ");
+        temp = MOVE_NUMBER_DOT.matcher(temp).replaceAll(". ");
 
         // replace all NAGs with the unicode display
         // (first 2 digits)
-        temp = temp.replaceAll("\\$10", "=");
-        temp = temp.replaceAll("\\$11", "=");
-        temp = temp.replaceAll("\\$12", "=");
-        temp = temp.replaceAll("\\$13", "\u221E");
-        temp = temp.replaceAll("\\$14", "\u2A72");
-        temp = temp.replaceAll("\\$15", "\u2A71");
-        temp = temp.replaceAll("\\$16", "\u0177");
-        temp = temp.replaceAll("\\$17", "\u2213");
-        temp = temp.replaceAll("\\$18", "+-");
-        temp = temp.replaceAll("\\$19", "-+");
-
-        temp = temp.replaceAll("\\$1", "!");
-        temp = temp.replaceAll("\\$2", "?");
-        temp = temp.replaceAll("\\$3", "!!");
-        temp = temp.replaceAll("\\$4", "??");
-        temp = temp.replaceAll("\\$5", "!?");
-        temp = temp.replaceAll("\\$6", "?!");
+        for (int index = 0; index < NAGS.length; index++) {
+            temp = NAG_PATTERNS[index].matcher(temp).replaceAll(NAGS[index][1]);
+        }
 
 
         // replace comments "{}[]()" with spaces to isloate comments
@@ -373,8 +440,7 @@ public class PGN {
         boolean pgnEnded = false;
 
         if (setup) {
-            game = FEN.loadGame(fen, true, gkind);
-            if (game == null) {
+            if (!game.reset(gkind, fen)) {
                 LOGGER.warning("PGN failed to load fen : " + fen);
                 LOGGER.warning("failed to parse PGN : " + _pgnString);
                 return null;
@@ -450,7 +516,9 @@ public class PGN {
                 continue;
             }
 
-            LOGGER.fine("parse token " + tok);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("parse token " + tok);
+            }
 
             if (openBrs.contains(tok)) {
                 // start comment
@@ -535,10 +603,11 @@ public class PGN {
             }
 
             // remove unwanted tokens in moves (like #,+,!,?,ep)
-            tok = tok.replaceAll("[\\?!\\+#\\.\\$]+", "");
-            tok = tok.replaceAll("ep", "");
+            tok = Notation.removeAnnotations(tok);
 
-            LOGGER.fine("handling token: '" + tok + "'");
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("handling token: '" + tok + "'");
+            }
 
             if (!currentGame.playMove(tok)) {
                 LOGGER.warning("invalid move token " + tok + " for " + Common.getColor(currentGame.getCurrentColor()));
@@ -0,0 +1,143 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The tag pairs and the raw movetext of a single PGN game, as found by {@link PGNScanner} without
+ * replaying the game moves. <br>
+ * The game is replayed only on demand, by {@link #getGame()} or {@link #loadGame(Game)}.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class PGNHeader {
+
+    private final int _index;
+    private final long _offset;
+    private final Map<String, String> _tags;
+    private final String _text;
+    private final int _movetextStart;
+    private Game _game = null;
+    private boolean _loaded = false;
+
+    PGNHeader(int index, long offset, Map<String, String> tags, String text, int movetextStart) {
+        _index = index;
+        _offset = offset;
+        _tags = Collections.unmodifiableMap(tags);
+        _text = text;
+        _movetextStart = movetextStart;
+    }
+
+    /**
+     * Returns the index of the game in the scanned PGN (starting with 0)
+     */
+    public int getIndex() {
+        return _index;
+    }
+
+    /**
+     * Returns the offset, in characters, of the game in the scanned PGN
+     */
+    public long getOffset() {
+        return _offset;
+    }
+
+    /**
+     * Returns all the tag pairs of the game, in their PGN order
+     */
+    public Map<String, String> getTags() {
+        return _tags;
+    }
+
+    /**
+     * Returns the value of the given tag. null if the game has no such tag
+     */
+    public String getTag(String key) {
+        return _tags.get(key);
+    }
+
+    public String getWhite() {
+        return getTag(PGN.STR_WHITE);
+    }
+
+    public String getBlack() {
+        return getTag(PGN.STR_BLACK);
+    }
+
+    public String getResult() {
+        return getTag(PGN.STR_RESULT);
+    }
+
+    public String getDate() {
+        return getTag(PGN.STR_DATE);
+    }
+
+    public String getEco() {
+        return getTag(PGN.STR_ECO);
+    }
+
+    public String getVariant() {
+        return getTag(PGN.STR_VARIANT);
+    }
+
+    /**
+     * Returns the game kind of the game variant tag. {@link Common#GAME_KIND_REGULAR} if the game has no variant tag,
+     * and 0 for an unknown variant
+     */
+    public int getGameKind() {
+        String variant = getVariant();
+        return (variant == null) ? Common.GAME_KIND_REGULAR : PGN.getVariantGameKind(variant);
+    }
+
+    /**
+     * Returns the full PGN text of the game (tag pairs and movetext)
+     */
+    public String getText() {
+        return _text;
+    }
+
+    /**
+     * Returns the raw movetext of the game (moves, comments and the result), not parsed
+     */
+    public CharSequence getMovetext() {
+        return _text.subSequence(_movetextStart, _text.length());
+    }
+
+    /**
+     * Returns the game, replayed from its PGN text on the first call.
+     *
+     * @return the replayed game. null if the game PGN is invalid
+     */
+    public Game getGame() {
+        if (!_loaded) {
+            _game = PGN.loadGame(_text);
+            _loaded = true;
+        }
+        return _game;
+    }
+
+    /**
+     * Replay the game into the given game (see {@link PGN#loadGame(Game, String)}). The replayed game is not kept.
+     *
+     * @param game - a given game, that is reset and reused
+     * @return the given game. null if the game PGN is invalid
+     */
+    public Game loadGame(Game game) {
+        return PGN.loadGame(game, _text);
+    }
+
+    @Override
+    public String toString() {
+        return "PGN game " + _index + " " + _tags;
+    }
+}
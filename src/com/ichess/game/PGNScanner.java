@@ -0,0 +1,262 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A header-only scanner of PGN games. The scanner splits a PGN stream of any number of games, and reads the tag
+ * pairs of each game, without parsing or replaying the movetext. <br>
+ * A game starts with its tag pairs, and its movetext ends where a line starts with the next game tag
+ * ('[' out of a comment). A game with no movetext ends when one of its tags repeats.
+ * Each game is returned as a {@link PGNHeader}, that replays the game on demand.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class PGNScanner implements Closeable {
+
+    private final static Logger LOGGER = Logger.getLogger(PGNScanner.class.getName());
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final Reader _reader;
+    private final char[] _buffer = new char[BUFFER_SIZE];
+    private int _position = 0;
+    private int _limit = 0;
+    private int _pushback = -1;
+    // offset of the next character in the stream
+    private long _offset = 0;
+    private int _index = 0;
+
+    // the current game text
+    private final StringBuilder _text = new StringBuilder();
+    private final StringBuilder _tagKey = new StringBuilder();
+    private final StringBuilder _tagValue = new StringBuilder();
+
+    // a tag that starts the next game
+    private String _pendingKey = null;
+    private String _pendingValue = null;
+    private String _pendingText = null;
+    private long _pendingOffset = 0;
+
+    /**
+     * Create a scanner of the given PGN stream. The reader is read in blocks, so it does not have to be buffered
+     *
+     * @param reader - a PGN stream
+     */
+    public PGNScanner(Reader reader) {
+        Utils.AssertNotNull(reader);
+        _reader = reader;
+    }
+
+    /**
+     * Scan the next game.
+     *
+     * @return the next game tag pairs and movetext. null at the end of the stream (or on a read error)
+     */
+    public PGNHeader next() {
+        _text.setLength(0);
+        Map<String, String> tags = new LinkedHashMap<String, String>();
+        long offset = -1;
+        if (_pendingKey != null) {
+            offset = _pendingOffset;
+            _text.append(_pendingText);
+            tags.put(_pendingKey, _pendingValue);
+            _pendingKey = null;
+        }
+
+        int movetextStart = -1;
+        boolean lineStart = true;
+        boolean inComment = false;
+        boolean inLineComment = false;
+        for (int ch = read(); ch >= 0; ch = read()) {
+            if (movetextStart < 0) {
+                // tag pairs section
+                if (ch == '[') {
+                    long tagOffset = _offset - 1;
+                    int tagStart = _text.length();
+                    _text.append('[');
+                    if (!readTag()) {
+                        continue;
+                    }
+                    String key = _tagKey.toString();
+                    if (tags.containsKey(key)) {
+                        // a game with no movetext. this tag starts the next game
+                        _pendingKey = key;
+                        _pendingValue = _tagValue.toString();
+                        _pendingText = _text.substring(tagStart);
+                        _pendingOffset = tagOffset;
+                        _text.setLength(tagStart);
+                        break;
+                    }
+                    if (offset < 0) {
+                        offset = tagOffset;
+                    }
+                    tags.put(key, _tagValue.toString());
+                    lineStart = false;
+                    continue;
+                }
+                if (Character.isWhitespace(ch) || (ch == BYTE_ORDER_MARK)) {
+                    if (offset >= 0) {
+                        _text.append((char) ch);
+                    }
+                    lineStart = (ch == '\n') || lineStart;
+                    continue;
+                }
+                if ((ch == '%') && lineStart) {
+                    // escape line
+                    skipLine();
+                    continue;
+                }
+                if (offset < 0) {
+                    offset = _offset - 1;
+                }
+                movetextStart = _text.length();
+            }
+
+            // movetext section
+            if (inComment) {
+                inComment = (ch != '}');
+            } else if (inLineComment) {
+                inLineComment = (ch != '\n');
+            } else if (ch == '{') {
+                inComment = true;
+            } else if (ch == ';') {
+                inLineComment = true;
+            } else if ((ch == '[') && lineStart) {
+                // next game tag pairs
+                unread(ch);
+                break;
+            }
+            _text.append((char) ch);
+            lineStart = (ch == '\n') || (lineStart && ((ch == ' ') || (ch == '\t') || (ch == '\r')));
+        }
+
+        if (offset < 0) {
+            return null;
+        }
+        if (movetextStart < 0) {
+            movetextStart = _text.length();
+        }
+        return new PGNHeader(_index++, offset, tags, _text.toString(), movetextStart);
+    }
+
+    /*
+     * read a tag pair (after its '['), into the tag key and value. returns false if the tag has no key
+     */
+    private boolean readTag() {
+        _tagKey.setLength(0);
+        _tagValue.setLength(0);
+        int ch = skipSpaces();
+        while ((ch >= 0) && (!Character.isWhitespace(ch)) && (ch != '"') && (ch != ']')) {
+            _text.append((char) ch);
+            _tagKey.append((char) ch);
+            ch = read();
+        }
+        if ((ch >= 0) && (ch != '\n') && Character.isWhitespace(ch)) {
+            _text.append((char) ch);
+            ch = skipSpaces();
+        }
+        if (ch == '"') {
+            _text.append('"');
+            boolean escaped = false;
+            for (ch = read(); (ch >= 0) && (ch != '\n'); ch = read()) {
+                _text.append((char) ch);
+                if (escaped) {
+                    escaped = false;
+                } else if (ch == '\\') {
+                    escaped = true;
+                    continue;
+                } else if (ch == '"') {
+                    break;
+                }
+                _tagValue.append((char) ch);
+            }
+            if (ch == '"') {
+                ch = read();
+            }
+        }
+        while ((ch >= 0) && (ch != ']') && (ch != '\n')) {
+            _text.append((char) ch);
+            ch = read();
+        }
+        if (ch >= 0) {
+            _text.append((char) ch);
+        }
+        return _tagKey.length() > 0;
+    }
+
+    /*
+     * skip white spaces (kept in the game text). returns the next character
+     */
+    private int skipSpaces() {
+        int ch = read();
+        while ((ch >= 0) && (ch != '\n') && Character.isWhitespace(ch)) {
+            _text.append((char) ch);
+            ch = read();
+        }
+        return ch;
+    }
+
+    private void skipLine() {
+        int ch = read();
+        while ((ch >= 0) && (ch != '\n')) {
+            ch = read();
+        }
+    }
+
+    private int read() {
+        if (_pushback >= 0) {
+            int ch = _pushback;
+            _pushback = -1;
+            _offset++;
+            return ch;
+        }
+        if (_position == _limit) {
+            try {
+                _limit = _reader.read(_buffer, 0, _buffer.length);
+            } catch (IOException e) {
+                LOGGER.warning("failed to read PGN : " + e.getMessage());
+                _limit = -1;
+            }
+            _position = 0;
+            if (_limit <= 0) {
+                _limit = 0;
+                return -1;
+            }
+        }
+        _offset++;
+        return _buffer[_position++];
+    }
+
+    private void unread(int ch) {
+        _pushback = ch;
+        _offset--;
+    }
+
+    /**
+     * Close the scanned PGN stream
+     */
+    @Override
+    public void close() {
+        try {
+            _reader.close();
+        } catch (IOException e) {
+            LOGGER.warning("failed to close PGN : " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,194 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A streaming PGN writer. Each game is formatted (as by {@link PGN#getPGNString(Game)}) into a reused buffer, and
+ * encoded in UTF-8 directly to the output stream, optionally gzip compressed - no PGN string is created per game.
+ * <br>
+ * Games are separated by an empty line, so the output can be read back with {@link PGNScanner}.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class PGNWriter implements Closeable, Flushable {
+
+    private final static Logger LOGGER = Logger.getLogger(PGNWriter.class.getName());
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private final Writer _writer;
+    private final StringBuilder _pgn = new StringBuilder(1024);
+    private final char[] _chars = new char[BUFFER_SIZE / 8];
+    private int _games = 0;
+    private long _length = 0;
+
+    /**
+     * Create a writer of the given stream, not compressed
+     *
+     * @param out - a given stream. closed when the writer is closed
+     */
+    public PGNWriter(OutputStream out) throws IOException {
+        this(out, false);
+    }
+
+    /**
+     * Create a writer of the given stream
+     *
+     * @param out      - a given stream. closed when the writer is closed
+     * @param compress - gzip compress the written PGN
+     */
+    public PGNWriter(OutputStream out, boolean compress) throws IOException {
+        Utils.AssertNotNull(out);
+        OutputStream stream = new BufferedOutputStream(out, BUFFER_SIZE);
+        if (compress) {
+            stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+        }
+        _writer = new OutputStreamWriter(stream, UTF8);
+    }
+
+    /**
+     * Create a writer of the given channel
+     *
+     * @param channel  - a given channel. closed when the writer is closed
+     * @param compress - gzip compress the written PGN
+     */
+    public PGNWriter(WritableByteChannel channel, boolean compress) throws IOException {
+        this(Channels.newOutputStream(channel), compress);
+    }
+
+    /**
+     * Create a writer of the given file. The file is gzip compressed if its name ends with ".gz"
+     *
+     * @param fileName - a given file name. an existing file is overwritten
+     * @return the writer, or null if the file can't be created
+     */
+    public static PGNWriter create(String fileName) {
+        Utils.AssertNotNull(fileName);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(fileName);
+            return new PGNWriter(out, fileName.endsWith(GZIP_SUFFIX));
+        } catch (IOException e) {
+            LOGGER.warning("can't create PGN file " + fileName + " : " + e.getMessage());
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ce) {
+                    LOGGER.warning("can't close PGN file " + fileName);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Write the given game
+     *
+     * @param game - a given game
+     * @return true if the game was written, false on a write error
+     */
+    public boolean write(Game game) {
+        Utils.AssertNotNull(game);
+        _pgn.setLength(0);
+        PGN.appendPGN(game, _pgn);
+        _pgn.append('\n');
+        try {
+            int length = _pgn.length();
+            for (int start = 0; start < length; start += _chars.length) {
+                int end = Math.min(length, start + _chars.length);
+                _pgn.getChars(start, end, _chars, 0);
+                _writer.write(_chars, 0, end - start);
+            }
+            _length += length;
+        } catch (IOException e) {
+            LOGGER.warning("can't write game PGN : " + e.getMessage());
+            return false;
+        }
+        _games++;
+        return true;
+    }
+
+    /**
+     * Write all the given games, until the first write error
+     *
+     * @param games - given games
+     * @return the number of games written
+     */
+    public int writeAll(Iterator<Game> games) {
+        Utils.AssertNotNull(games);
+        int count = 0;
+        while (games.hasNext()) {
+            if (!write(games.next())) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Write all the given games, until the first write error
+     *
+     * @param games - given games
+     * @return the number of games written
+     */
+    public int writeAll(Iterable<Game> games) {
+        Utils.AssertNotNull(games);
+        return writeAll(games.iterator());
+    }
+
+    /**
+     * Returns the number of games written
+     */
+    public int getGameCount() {
+        return _games;
+    }
+
+    /**
+     * Returns the number of characters written (before encoding and compression)
+     */
+    public long getLength() {
+        return _length;
+    }
+
+    /**
+     * Flush the written games to the stream. A compressed stream is flushed only up to its last full block
+     */
+    @Override
+    public void flush() throws IOException {
+        _writer.flush();
+    }
+
+    /**
+     * Close the writer, completing the compressed stream, and close the stream
+     */
+    @Override
+    public void close() throws IOException {
+        _writer.close();
+    }
+}
@@ -0,0 +1,117 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+/**
+ * Encodes a move in a single int, so moves can be stored in primitive arrays and hash tables. <br>
+ * Bits 0-5 are the from square, bits 6-11 the to square (square = (x-1)*8 + (y-1)), bits 12-15
+ * the additional piece type (promotion or dropped piece type), bit 16 is set for drop moves and bit 17
+ * for captures (of an enemy piece, including en passant). The capture flag is set in the valid moves of a
+ * game (see {@link Game#getValidNextMoves(int[])}), and is not part of the move identity (see {@link #MOVE_MASK}).
+ * 0 is never a valid move, and is used as "no move".
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public final class PackedMove {
+
+    public static final int NONE = 0;
+
+    private static final int SQUARE_MASK = 0x3F;
+    private static final int TO_SHIFT = 6;
+    private static final int PIECE_TYPE_SHIFT = 12;
+    private static final int PIECE_TYPE_MASK = 0xF;
+    public static final int DROP_FLAG = 1 << 16;
+    public static final int CAPTURE_FLAG = 1 << 17;
+    /**
+     * the bits that identify a move : from, to and additional piece type
+     */
+    public static final int MOVE_MASK = 0xFFFF;
+
+    private PackedMove() {
+    }
+
+    public static int encode(int fromX, int fromY, int toX, int toY, int additionalPieceType, boolean drop) {
+        int code = Zobrist.square(fromX, fromY) | (Zobrist.square(toX, toY) << TO_SHIFT) |
+                ((additionalPieceType & PIECE_TYPE_MASK) << PIECE_TYPE_SHIFT);
+        if (drop) {
+            code |= DROP_FLAG;
+        }
+        return code;
+    }
+
+    public static int encode(Move move) {
+        int code = encode(move.getFromX(), move.getFromY(), move.getToX(), move.getToY(),
+                move.getAdditionalPieceTypeInfo(), move.isDropMove());
+        Piece captured = move.getCapturedPiece();
+        if ((captured != null) && !move.isDropMove() && (move.getMovedPiece() != null) &&
+                (captured.getColor() != move.getMovedPiece().getColor())) {
+            code |= CAPTURE_FLAG;
+        }
+        return code;
+    }
+
+    public static int fromSquare(int code) {
+        return code & SQUARE_MASK;
+    }
+
+    public static int toSquare(int code) {
+        return (code >>> TO_SHIFT) & SQUARE_MASK;
+    }
+
+    public static int fromX(int code) {
+        return (fromSquare(code) >>> 3) + 1;
+    }
+
+    public static int fromY(int code) {
+        return (fromSquare(code) & 7) + 1;
+    }
+
+    public static int toX(int code) {
+        return (toSquare(code) >>> 3) + 1;
+    }
+
+    public static int toY(int code) {
+        return (toSquare(code) & 7) + 1;
+    }
+
+    public static int additionalPieceType(int code) {
+        return (code >>> PIECE_TYPE_SHIFT) & PIECE_TYPE_MASK;
+    }
+
+    public static boolean isDrop(int code) {
+        return (code & DROP_FLAG) != 0;
+    }
+
+    public static boolean isCapture(int code) {
+        return (code & CAPTURE_FLAG) != 0;
+    }
+
+    /**
+     * Returns true if the given (non drop) move is a promotion
+     */
+    public static boolean isPromotion(int code) {
+        return !isDrop(code) && (additionalPieceType(code) != Common.PIECE_TYPE_ILLEGAL);
+    }
+
+    /**
+     * Returns the valid next move of the given game that matches the given code, or null if there is
+     * no such valid move in the current position.
+     */
+    static Move toMove(Game game, int code) {
+        if (code == NONE) {
+            return null;
+        }
+        if (isDrop(code)) {
+            return game.getDropMove(toX(code), toY(code), additionalPieceType(code));
+        }
+        return game.getValidMove(fromX(code), fromY(code), toX(code), toY(code), additionalPieceType(code));
+    }
+}
@@ -98,6 +98,16 @@ public abstract class Piece {
 
     abstract void doCalcReachability(Game pos);
 
+    /*
+     * recalculate the reachability, and return true if it was changed (used to check the incremental reachability)
+     */
+    boolean recalcReachability(Game pos) {
+        boolean[] reachable = _reachable.clone();
+        clearReachability();
+        doCalcReachability(pos);
+        return !Arrays.equals(reachable, _reachable);
+    }
+
     public int getColor() {
         return _color;
     }
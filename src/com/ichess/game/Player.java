@@ -0,0 +1,37 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+/**
+ * A computer player, that finds a move for a given game (i.e. {@link Engine} or {@link MonteCarloEngine}).
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public interface Player {
+
+    /**
+     * Search the given game current position, and return the best move found.
+     * The given game is not modified.
+     *
+     * @param game - a given game
+     * @return The best move found, as a valid next move of the given game. null if the game ended
+     * or has no valid moves.
+     */
+    Move findBestMove(Game game);
+
+    /**
+     * Set the search time limit
+     *
+     * @param timeLimitMs - time limit in milliseconds. 0 means no time limit
+     * @return true on success
+     */
+    boolean setTimeLimitMs(long timeLimitMs);
+}
@@ -0,0 +1,187 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * The nodes of a proof number search tree (see {@link SuicideSolver}), kept in fixed size records
+ * outside of the java heap objects. <br>
+ * Each node holds its proof and disproof numbers, its parent, its move (see {@link PackedMove}) and
+ * its children - the children of a node are allocated together, so only the first child is kept.
+ * Nodes are stored in segments of direct memory, or of a memory mapped file, so a tree can grow
+ * beyond the heap size.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+class ProofTree {
+
+    private final static Logger LOGGER = Logger.getLogger(ProofTree.class.getName());
+
+    static final int NONE = -1;
+
+    private static final int NODE_SIZE = 24;
+    private static final int PROOF = 0;
+    private static final int DISPROOF = 4;
+    private static final int PARENT = 8;
+    private static final int FIRST_CHILD = 12;
+    private static final int MOVE = 16;
+    private static final int CHILD_COUNT = 20;
+
+    private static final int SEGMENT_SHIFT = 18;
+    private static final int SEGMENT_NODES = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_NODES - 1;
+    private static final long SEGMENT_BYTES = (long) SEGMENT_NODES * NODE_SIZE;
+
+    private final List<ByteBuffer> _segments = new ArrayList<ByteBuffer>();
+    private final String _fileName;
+    private RandomAccessFile _file = null;
+    private int _size = 0;
+
+    /**
+     * Create a tree in direct memory (fileName null), or in a memory mapped file.
+     * The file is deleted when the tree is closed.
+     */
+    ProofTree(String fileName) {
+        _fileName = fileName;
+    }
+
+    int size() {
+        return _size;
+    }
+
+    /*
+     * add the given number of nodes (children of the same parent). returns the first node, or NONE if
+     * the tree can't grow
+     */
+    int addNodes(int count, int parent) {
+        if ((long) _size + count > Integer.MAX_VALUE) {
+            LOGGER.warning("proof tree is full");
+            return NONE;
+        }
+        while ((((long) _size + count) >> SEGMENT_SHIFT) >= _segments.size()) {
+            if (!addSegment()) {
+                return NONE;
+            }
+        }
+        int first = _size;
+        _size += count;
+        for (int node = first; node < _size; node++) {
+            setInt(node, PARENT, parent);
+            setInt(node, FIRST_CHILD, NONE);
+            setInt(node, CHILD_COUNT, 0);
+        }
+        return first;
+    }
+
+    private boolean addSegment() {
+        if (_fileName == null) {
+            _segments.add(ByteBuffer.allocateDirect((int) SEGMENT_BYTES));
+            return true;
+        }
+        try {
+            if (_file == null) {
+                _file = new RandomAccessFile(_fileName, "rw");
+                _file.setLength(0);
+            }
+            _segments.add(_file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                    _segments.size() * SEGMENT_BYTES, SEGMENT_BYTES));
+            return true;
+        } catch (IOException e) {
+            LOGGER.warning("can't grow proof tree file " + _fileName + " : " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Remove all the nodes (the tree memory is kept for reuse)
+     */
+    void clear() {
+        _size = 0;
+    }
+
+    /**
+     * Release the tree memory, and delete the tree file
+     */
+    void close() {
+        _segments.clear();
+        _size = 0;
+        if (_file != null) {
+            try {
+                _file.close();
+            } catch (IOException e) {
+                LOGGER.warning("can't close proof tree file " + _fileName);
+            }
+            _file = null;
+            if (!new File(_fileName).delete()) {
+                // a mapped file can't be deleted on some platforms until the mapping is collected
+                new File(_fileName).deleteOnExit();
+            }
+        }
+    }
+
+    int getProof(int node) {
+        return getInt(node, PROOF);
+    }
+
+    int getDisproof(int node) {
+        return getInt(node, DISPROOF);
+    }
+
+    void setNumbers(int node, int proof, int disproof) {
+        setInt(node, PROOF, proof);
+        setInt(node, DISPROOF, disproof);
+    }
+
+    int getParent(int node) {
+        return getInt(node, PARENT);
+    }
+
+    int getFirstChild(int node) {
+        return getInt(node, FIRST_CHILD);
+    }
+
+    int getChildCount(int node) {
+        return getInt(node, CHILD_COUNT);
+    }
+
+    void setChildren(int node, int firstChild, int count) {
+        setInt(node, FIRST_CHILD, firstChild);
+        setInt(node, CHILD_COUNT, count);
+    }
+
+    boolean isExpanded(int node) {
+        return getInt(node, FIRST_CHILD) != NONE;
+    }
+
+    int getMove(int node) {
+        return getInt(node, MOVE);
+    }
+
+    void setMove(int node, int move) {
+        setInt(node, MOVE, move);
+    }
+
+    private int getInt(int node, int field) {
+        return _segments.get(node >>> SEGMENT_SHIFT).getInt((node & SEGMENT_MASK) * NODE_SIZE + field);
+    }
+
+    private void setInt(int node, int field, int value) {
+        _segments.get(node >>> SEGMENT_SHIFT).putInt((node & SEGMENT_MASK) * NODE_SIZE + field, value);
+    }
+}
@@ -0,0 +1,677 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A single alpha-beta search of the {@link Engine}. <br>
+ * The search runs on a private copy of the searched game, so the searched game is never modified.
+ * Iterative deepening with aspiration windows, principal variation search, null move pruning,
+ * late move reductions, check extensions and a captures-only quiescence search. <br>
+ * Moves are ordered by the transposition table move, captures (most valuable victim / least
+ * valuable attacker), promotions, killer moves and the history heuristic. <br>
+ * Several searchers of the same position can run in parallel threads over a shared transposition
+ * table (lazy SMP). Helper searchers with an odd thread id search one ply deeper in each iteration,
+ * so the threads fill the shared table with different parts of the tree.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+class Searcher {
+
+    private final static Logger LOGGER = Logger.getLogger(Searcher.class.getName());
+
+    static final int MAX_PLY = 64;
+    static final int INFINITE = 32000;
+    static final int MATE = 30000;
+    // scores beyond this bound are mate scores
+    static final int MATE_BOUND = MATE - 2 * MAX_PLY;
+
+    private static final int MAX_MOVES = 512;
+    private static final int ASPIRATION_WINDOW = 50;
+    private static final int MAX_QUIESCENCE_EVASION_PLY = 4;
+    // limits are checked every 64 nodes
+    private static final long CHECK_LIMITS_MASK = 63;
+
+    // move ordering scores
+    private static final int SCORE_HASH_MOVE = 1 << 30;
+    private static final int SCORE_CAPTURE = 1 << 28;
+    private static final int SCORE_PROMOTION = 1 << 27;
+    private static final int SCORE_KILLER = 1 << 26;
+    private static final int HISTORY_MAX = 1 << 20;
+
+    private final TranspositionTable _transpositionTable;
+    private final Game _game;
+    private final Evaluator _evaluation;
+    private final Tablebases _tablebases;
+    private final int _threadId;
+    // nodes searched by all the threads of the search
+    private final AtomicLong _sharedNodes;
+
+    private final int[][] _codes = new int[MAX_PLY + 1][MAX_MOVES];
+    private final int[][] _scores = new int[MAX_PLY + 1][MAX_MOVES];
+    private final int[][] _killers = new int[MAX_PLY + 1][2];
+    private final int[][][] _history = new int[Common.COLOR_NUM][64][64];
+
+    // position hashes of the searched game moves, followed by the position hashes of the search path
+    private final long[] _keys;
+    private final int _rootKeyIndex;
+
+    private long _nodes = 0;
+    private long _nodeLimit = 0;
+    private long _deadline = 0;
+    private boolean _limitsActive = false;
+    private volatile boolean _stopped = false;
+
+    private int _rootBestMove = PackedMove.NONE;
+    private int _bestMove = PackedMove.NONE;
+    private int _score = 0;
+    private int _completedDepth = 0;
+    private String _principalVariation = "";
+
+    /**
+     * Create one thread of a parallel search of the given game current position
+     *
+     * @param transpositionTable - the transposition table shared by all the threads
+     * @param game               - the searched game. it is not modified by the search
+     * @param threadId           - 0 for the main thread, 1.. for helper threads
+     * @param sharedNodes        - nodes counter shared by all the threads, used for the node limit
+     * @param network            - neural network to evaluate with. null to use the handcrafted {@link Evaluation}
+     * @param tablebases         - endgame tablebases to probe. may be null
+     */
+    Searcher(TranspositionTable transpositionTable, Game game, int threadId, AtomicLong sharedNodes,
+             NeuralNetwork network, Tablebases tablebases) {
+        Utils.AssertNotNull(transpositionTable);
+        Utils.AssertNotNull(game);
+        Utils.AssertNotNull(sharedNodes);
+        _transpositionTable = transpositionTable;
+        _threadId = threadId;
+        _sharedNodes = sharedNodes;
+        _game = new Game(game.getGameKind());
+        _game.copyPositionFrom(game);
+        _evaluation = (network != null) ? new NeuralEvaluation(network) : new Evaluation();
+        _tablebases = tablebases;
+
+        int historyLength = game.getCurrentMove();
+        _keys = new long[historyLength + MAX_PLY + 2];
+        for (int i = 0; i < historyLength; i++) {
+            MoveInfo moveInfo = game.getMoveInfo(i);
+            if (moveInfo != null) {
+                _keys[i] = moveInfo.getPositionHash();
+            }
+        }
+        _rootKeyIndex = historyLength;
+    }
+
+    /**
+     * Stop the search as soon as possible. may be called from any thread
+     */
+    void stop() {
+        _stopped = true;
+    }
+
+    long getNodes() {
+        return _nodes;
+    }
+
+    int getBestMove() {
+        return _bestMove;
+    }
+
+    int getScore() {
+        return _score;
+    }
+
+    int getCompletedDepth() {
+        return _completedDepth;
+    }
+
+    String getPrincipalVariation() {
+        return _principalVariation;
+    }
+
+    /**
+     * Run an iterative deepening search until the given depth is completed, or one of the limits is reached.
+     * The first iteration is always completed.
+     *
+     * @param maxDepth    - max depth in plies
+     * @param timeLimitMs - time limit in milliseconds. 0 means no limit
+     * @param nodeLimit   - max number of nodes. 0 means no limit
+     * @return The best move code (see {@link PackedMove}), or {@link PackedMove#NONE} if there are no moves
+     */
+    int iterate(int maxDepth, long timeLimitMs, long nodeLimit) {
+        _deadline = (timeLimitMs > 0) ? System.nanoTime() + timeLimitMs * 1000000L : 0;
+        _nodeLimit = nodeLimit;
+        _limitsActive = false;
+
+        int rootMoves = generateMoves(0, false);
+        if (rootMoves == 0) {
+            LOGGER.warning("no moves to search");
+            return PackedMove.NONE;
+        }
+        int bestMove = _codes[0][0];
+        int score = 0;
+        int depthOffset = _threadId & 1;
+        for (int depth = 1 + depthOffset; depth <= Math.min(maxDepth + depthOffset, MAX_PLY - 1); depth++) {
+            _rootBestMove = PackedMove.NONE;
+            int window = ASPIRATION_WINDOW;
+            int alpha = -INFINITE;
+            int beta = INFINITE;
+            if ((depth >= 4) && (Math.abs(score) < MATE_BOUND)) {
+                alpha = score - window;
+                beta = score + window;
+            }
+            int result;
+            while (true) {
+                result = search(depth, alpha, beta, 0, false);
+                if (_stopped) {
+                    break;
+                }
+                if (result <= alpha) {
+                    window *= 4;
+                    alpha = (window > 1000) ? -INFINITE : Math.max(-INFINITE, result - window);
+                } else if (result >= beta) {
+                    window *= 4;
+                    beta = (window > 1000) ? INFINITE : Math.min(INFINITE, result + window);
+                } else {
+                    break;
+                }
+            }
+            if (_stopped) {
+                break;
+            }
+            if (_rootBestMove != PackedMove.NONE) {
+                bestMove = _rootBestMove;
+            }
+            score = result;
+            _bestMove = bestMove;
+            _score = score;
+            _completedDepth = depth;
+            _limitsActive = true;
+            _principalVariation = extractPrincipalVariation(depth);
+            LOGGER.fine("depth " + depth + " score " + score + " nodes " + _nodes + " pv " + _principalVariation);
+
+            if ((rootMoves == 1) || ((Math.abs(score) >= MATE_BOUND) && (MATE - Math.abs(score) <= depth))) {
+                // forced move, or a mate was found within the searched depth
+                break;
+            }
+        }
+        _bestMove = bestMove;
+        return bestMove;
+    }
+
+    /*
+     * alpha-beta search (principal variation search) of the current position
+     */
+    private int search(int depth, int alpha, int beta, int ply, boolean allowNullMove) {
+        boolean pvNode = (beta - alpha) > 1;
+        MoveInfo moveInfo = _game.getCurrentMoveInfo();
+        long hash = moveInfo.getPositionHash();
+        _keys[_rootKeyIndex + ply] = hash;
+
+        if (ply > 0) {
+            if (_game.isEnded()) {
+                return getTerminalScore(ply);
+            }
+            if (isRepetition(ply)) {
+                return 0;
+            }
+            // mate distance pruning
+            alpha = Math.max(alpha, -MATE + ply);
+            beta = Math.min(beta, MATE - ply - 1);
+            if (alpha >= beta) {
+                return alpha;
+            }
+            if ((_tablebases != null) && (_game.getPieceCount(Common.COLOR_WHITE) +
+                    _game.getPieceCount(Common.COLOR_BLACK) <= _tablebases.getMaxMen())) {
+                int entry = _tablebases.probe(_game);
+                if (entry != Tablebase.NOT_FOUND) {
+                    return getTablebaseScore(entry, ply);
+                }
+            }
+        }
+        if (depth <= 0) {
+            return quiesce(alpha, beta, ply, 0);
+        }
+        if (ply >= MAX_PLY) {
+            return _evaluation.evaluate(_game);
+        }
+        countNode();
+        if (_stopped) {
+            return 0;
+        }
+
+        int hashMove = PackedMove.NONE;
+        long entry = _transpositionTable.probe(hash);
+        if (entry != 0) {
+            hashMove = TranspositionTable.getMove(entry);
+            if (!pvNode && (ply > 0) && (TranspositionTable.getDepth(entry) >= depth)) {
+                int hashScore = fromTranspositionTable(TranspositionTable.getScore(entry), ply);
+                int bound = TranspositionTable.getBound(entry);
+                if ((bound == TranspositionTable.BOUND_EXACT) ||
+                        ((bound == TranspositionTable.BOUND_LOWER) && (hashScore >= beta)) ||
+                        ((bound == TranspositionTable.BOUND_UPPER) && (hashScore <= alpha))) {
+                    return hashScore;
+                }
+            }
+        }
+
+        boolean inCheck = moveInfo.isCheck();
+
+        // null move pruning
+        if (allowNullMove && !pvNode && !inCheck && (depth >= 3) && canPlayNullMove() &&
+                (_evaluation.evaluate(_game) >= beta)) {
+            int reduction = 2 + depth / 4;
+            if (_game.playNullMove()) {
+                int score = -search(depth - 1 - reduction, -beta, -beta + 1, ply + 1, false);
+                _game.takebackNullMove();
+                if (_stopped) {
+                    return 0;
+                }
+                if (score >= beta) {
+                    return (score >= MATE_BOUND) ? beta : score;
+                }
+            }
+        }
+
+        int count = generateMoves(ply, false);
+        if (count == 0) {
+            // i.e. bug house with no pieces to move or drop
+            return inCheck ? -MATE + ply : 0;
+        }
+        scoreMoves(ply, count, hashMove);
+
+        int[] codes = _codes[ply];
+        int color = _game.getCurrentColor();
+        int bestScore = -INFINITE;
+        int bestMove = PackedMove.NONE;
+        int bound = TranspositionTable.BOUND_UPPER;
+        int movesSearched = 0;
+        for (int i = 0; i < count; i++) {
+            pickMove(ply, i, count);
+            int code = codes[i];
+            boolean quiet = !PackedMove.isCapture(code) && !PackedMove.isPromotion(code);
+            if (!playMove(code)) {
+                continue;
+            }
+            boolean givesCheck = _game.getCurrentMoveInfo().isCheck();
+            int newDepth = depth - 1;
+            if (givesCheck && (ply < MAX_PLY / 2)) {
+                newDepth++;
+            }
+
+            int score;
+            if (movesSearched == 0) {
+                score = -search(newDepth, -beta, -alpha, ply + 1, true);
+            } else {
+                // late move reductions
+                int reduction = 0;
+                if ((depth >= 3) && (movesSearched >= 3) && quiet && !inCheck && !givesCheck &&
+                        (code != _killers[ply][0]) && (code != _killers[ply][1])) {
+                    reduction = ((depth >= 5) && (movesSearched >= 8)) ? 2 : 1;
+                }
+                score = -search(newDepth - reduction, -alpha - 1, -alpha, ply + 1, true);
+                if ((score > alpha) && (reduction > 0)) {
+                    score = -search(newDepth, -alpha - 1, -alpha, ply + 1, true);
+                }
+                if ((score > alpha) && (score < beta)) {
+                    score = -search(newDepth, -beta, -alpha, ply + 1, true);
+                }
+            }
+            _game.takeback();
+            if (_stopped) {
+                return 0;
+            }
+            movesSearched++;
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = code;
+                if (score > alpha) {
+                    alpha = score;
+                    bound = TranspositionTable.BOUND_EXACT;
+                    if (ply == 0) {
+                        _rootBestMove = code;
+                    }
+                    if (score >= beta) {
+                        bound = TranspositionTable.BOUND_LOWER;
+                        if (quiet) {
+                            updateKillersAndHistory(ply, color, code, depth);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        if (movesSearched == 0) {
+            return inCheck ? -MATE + ply : 0;
+        }
+        _transpositionTable.store(hash, bestMove, toTranspositionTable(bestScore, ply), depth, bound);
+        return bestScore;
+    }
+
+    /*
+     * search captures (and queen promotions) only, until the position is quiet.
+     * in check, all evasions are searched
+     */
+    private int quiesce(int alpha, int beta, int ply, int quiescencePly) {
+        if (_game.isEnded()) {
+            return getTerminalScore(ply);
+        }
+        countNode();
+        if (_stopped) {
+            return 0;
+        }
+        if (ply >= MAX_PLY) {
+            return _evaluation.evaluate(_game);
+        }
+
+        boolean evasions = _game.getCurrentMoveInfo().isCheck() && (quiescencePly < MAX_QUIESCENCE_EVASION_PLY);
+        int bestScore;
+        if (evasions) {
+            bestScore = -MATE + ply;
+        } else {
+            bestScore = _evaluation.evaluate(_game);
+            if (bestScore >= beta) {
+                return bestScore;
+            }
+            if (bestScore > alpha) {
+                alpha = bestScore;
+            }
+        }
+
+        int count = generateMoves(ply, !evasions);
+        scoreMoves(ply, count, PackedMove.NONE);
+        int[] codes = _codes[ply];
+        for (int i = 0; i < count; i++) {
+            pickMove(ply, i, count);
+            if (!playMove(codes[i])) {
+                continue;
+            }
+            int score = -quiesce(-beta, -alpha, ply + 1, quiescencePly + 1);
+            _game.takeback();
+            if (_stopped) {
+                return 0;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                if (score > alpha) {
+                    alpha = score;
+                    if (score >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return bestScore;
+    }
+
+    /*
+     * collect the valid move codes of the current position into the given ply move list, without creating
+     * Move objects. "drop any" moves are expanded into the drop moves of the actual droppable piece types.
+     * returns the number of moves
+     */
+    private int generateMoves(int ply, boolean capturesOnly) {
+        int[] codes = _codes[ply];
+        MoveInfo moveInfo = _game.getCurrentMoveInfo();
+        // actual drop moves are appended to the valid moves as they are requested
+        int validMovesCount = moveInfo.getValidMoveCount();
+        List<Integer> dropTypes = null;
+        int count = 0;
+        for (int i = 0; (i < validMovesCount) && (count < MAX_MOVES); i++) {
+            int code = moveInfo.getValidMoveCode(i);
+            if (PackedMove.isDrop(code)) {
+                if (capturesOnly || (PackedMove.additionalPieceType(code) != Common.PIECE_TYPE_DROP_ANY)) {
+                    // actual drop moves are added again when their "drop any" move is expanded
+                    continue;
+                }
+                if (dropTypes == null) {
+                    dropTypes = _game.getActualDroppablePieceTypes(_game.getCurrentColor());
+                }
+                int toX = PackedMove.toX(code);
+                int toY = PackedMove.toY(code);
+                for (int dropType : dropTypes) {
+                    if (count == MAX_MOVES) {
+                        break;
+                    }
+                    if ((dropType == Common.PIECE_TYPE_PAWN) && ((toX == 1) || (toX == 8))) {
+                        continue;
+                    }
+                    codes[count++] = PackedMove.encode(toX, toY, toX, toY, dropType, true);
+                }
+                continue;
+            }
+            if (capturesOnly && !PackedMove.isCapture(code) &&
+                    (PackedMove.additionalPieceType(code) != Common.PIECE_TYPE_QUEEN)) {
+                continue;
+            }
+            if (!contains(codes, count, code)) {
+                codes[count++] = code;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * play the move of the given code. the Move object is created only here
+     */
+    private boolean playMove(int code) {
+        Move move = PackedMove.toMove(_game, code);
+        if ((move == null) || !_game.playMove(move)) {
+            LOGGER.warning("failed to play searched move " + code);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean contains(int[] codes, int count, int code) {
+        for (int i = 0; i < count; i++) {
+            if (codes[i] == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scoreMoves(int ply, int count, int hashMove) {
+        int[] codes = _codes[ply];
+        int[] scores = _scores[ply];
+        int[][] colorHistory = _history[_game.getCurrentColor()];
+        for (int i = 0; i < count; i++) {
+            int code = codes[i];
+            if (code == hashMove) {
+                scores[i] = SCORE_HASH_MOVE;
+            } else if (PackedMove.isCapture(code)) {
+                // an empty target square of a capture is en passant
+                Piece captured = _game.getPieceAt(PackedMove.toX(code), PackedMove.toY(code));
+                int capturedType = (captured == null) ? Common.PIECE_TYPE_PAWN : captured.getType();
+                Piece moved = _game.getPieceAt(PackedMove.fromX(code), PackedMove.fromY(code));
+                scores[i] = SCORE_CAPTURE + Evaluation.PIECE_VALUES[capturedType] * 16 -
+                        Evaluation.PIECE_VALUES[moved.getType()] / 16;
+            } else if (PackedMove.isPromotion(code)) {
+                scores[i] = SCORE_PROMOTION + Evaluation.PIECE_VALUES[PackedMove.additionalPieceType(code)];
+            } else if (code == _killers[ply][0]) {
+                scores[i] = SCORE_KILLER + 1;
+            } else if (code == _killers[ply][1]) {
+                scores[i] = SCORE_KILLER;
+            } else {
+                scores[i] = colorHistory[PackedMove.fromSquare(code)][PackedMove.toSquare(code)];
+            }
+        }
+    }
+
+    /*
+     * move the best scored move of the remaining moves to the given index
+     */
+    private void pickMove(int ply, int index, int count) {
+        int[] scores = _scores[ply];
+        int best = index;
+        for (int i = index + 1; i < count; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        if (best != index) {
+            int[] codes = _codes[ply];
+            int code = codes[index];
+            codes[index] = codes[best];
+            codes[best] = code;
+            int score = scores[index];
+            scores[index] = scores[best];
+            scores[best] = score;
+        }
+    }
+
+    private void updateKillersAndHistory(int ply, int color, int code, int depth) {
+        if (_killers[ply][0] != code) {
+            _killers[ply][1] = _killers[ply][0];
+            _killers[ply][0] = code;
+        }
+        int[] history = _history[color][PackedMove.fromSquare(code)];
+        int toSquare = PackedMove.toSquare(code);
+        history[toSquare] += depth * depth;
+        if (history[toSquare] >= HISTORY_MAX) {
+            for (int[][] colorHistory : _history) {
+                for (int[] fromHistory : colorHistory) {
+                    for (int i = 0; i < fromHistory.length; i++) {
+                        fromHistory[i] >>= 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * a null move is not played in variants where zugzwang is common, or with pawns only
+     */
+    private boolean canPlayNullMove() {
+        if (_game.isSuicideOrFreePlay()) {
+            return false;
+        }
+        int color = _game.getCurrentColor();
+        for (int x = 8; x != 0; x--) {
+            for (int y = 8; y != 0; y--) {
+                Piece piece = _game.getPieceAt(x, y);
+                if ((piece != null) && (piece.getColor() == color) && !piece.isPawn() && !piece.isKing()) {
+                    return true;
+                }
+            }
+        }
+        return _game.isCrazyOrBugHouse() && !_game.getDroppablePieces(color).isEmpty();
+    }
+
+    private boolean isRepetition(int ply) {
+        int index = _rootKeyIndex + ply;
+        long key = _keys[index];
+        int limit = Math.max(0, index - 100);
+        for (int i = index - 4; i >= limit; i -= 2) {
+            if (_keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * score of a tablebase entry - a mate score, by the distance to mate
+     */
+    private static int getTablebaseScore(int entry, int ply) {
+        switch (Tablebase.getResult(entry)) {
+            case Tablebase.RESULT_WIN:
+                return MATE - ply - Tablebase.getDistance(entry);
+            case Tablebase.RESULT_LOSS:
+                return -MATE + ply + Tablebase.getDistance(entry);
+            default:
+                return 0;
+        }
+    }
+
+    private int getTerminalScore(int ply) {
+        int winner = _game.getWinner();
+        int color = _game.getCurrentColor();
+        if (winner == color) {
+            return MATE - ply;
+        }
+        if (winner == Common.OtherColor(color)) {
+            return -MATE + ply;
+        }
+        return 0;
+    }
+
+    private void countNode() {
+        _nodes++;
+        if ((_nodes & CHECK_LIMITS_MASK) != 0) {
+            return;
+        }
+        long totalNodes = _sharedNodes.addAndGet(CHECK_LIMITS_MASK + 1);
+        if (_limitsActive) {
+            if ((_nodeLimit > 0) && (totalNodes >= _nodeLimit)) {
+                _stopped = true;
+            }
+            if ((_deadline != 0) && (System.nanoTime() - _deadline >= 0)) {
+                _stopped = true;
+            }
+        }
+    }
+
+    /*
+     * mate scores are stored relative to the stored position, and not to the root
+     */
+    private static int toTranspositionTable(int score, int ply) {
+        if (score >= MATE_BOUND) {
+            return score + ply;
+        }
+        if (score <= -MATE_BOUND) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    private static int fromTranspositionTable(int score, int ply) {
+        if (score >= MATE_BOUND) {
+            return score - ply;
+        }
+        if (score <= -MATE_BOUND) {
+            return score + ply;
+        }
+        return score;
+    }
+
+    /*
+     * follow the transposition table moves from the current position
+     */
+    private String extractPrincipalVariation(int maxLength) {
+        StringBuilder pv = new StringBuilder();
+        int played = 0;
+        while ((played < maxLength) && !_game.isEnded()) {
+            long entry = _transpositionTable.probe(_game.getCurrentMoveInfo().getPositionHash());
+            if (entry == 0) {
+                break;
+            }
+            Move move = PackedMove.toMove(_game, TranspositionTable.getMove(entry));
+            if ((move == null) || !_game.playMove(move)) {
+                break;
+            }
+            if (played > 0) {
+                pv.append(' ');
+            }
+            pv.append(move.getNameAlg());
+            played++;
+        }
+        while (played > 0) {
+            _game.takeback();
+            played--;
+        }
+        return pv.toString();
+    }
+}
@@ -0,0 +1,74 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Analysed init positions of each game kind, and of each Fischer 960 position (by its Scharnagl number). <br>
+ * A template game is created and analysed once, on first use, and is never modified afterwards - a new game
+ * copies the template position and valid moves (see Game.initialPosition) instead of parsing and analysing
+ * its init position.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+class StartPositions {
+
+    private static final AtomicReferenceArray<Game> TEMPLATES = new AtomicReferenceArray<Game>(Common.GAME_KIND_NUM);
+    private static final AtomicReferenceArray<Game> FISCHER_TEMPLATES = new AtomicReferenceArray<Game>(FEN.FISCHER_POSITIONS);
+
+    /**
+     * Returns the init position FEN of the given game kind (other than Fischer 960)
+     */
+    static String getStartFEN(int gkind) {
+        switch (gkind) {
+            case Common.GAME_KIND_MINICAPA:
+                return FEN.FEN_MINICAPA_POS;
+            case Common.GAME_KIND_GRASSHOPER:
+                return FEN.FEN_GRASSHOPER_POS;
+            case Common.GAME_KIND_CRAZY_HOUSE:
+            case Common.GAME_KIND_BUG_HOUSE:
+                return FEN.FEN_CRAZYHOUSE_POS;
+            default:
+                return FEN.FEN_INITIAL_POS;
+        }
+    }
+
+    /**
+     * Returns the analysed init position of the given game kind (other than Fischer 960). null for an unknown game kind
+     */
+    static Game getTemplate(int gkind) {
+        if ((gkind < 0) || (gkind >= Common.GAME_KIND_NUM)) {
+            return null;
+        }
+        Game template = TEMPLATES.get(gkind);
+        if (template == null) {
+            // templates created concurrently are equal, so the first one is kept
+            TEMPLATES.compareAndSet(gkind, null, Game.createTemplate(gkind, getStartFEN(gkind)));
+            template = TEMPLATES.get(gkind);
+        }
+        return template;
+    }
+
+    /**
+     * Returns the analysed Fischer 960 init position of the given Scharnagl number
+     */
+    static Game getFischerTemplate(int index) {
+        Utils.Assert((index >= 0) && (index < FEN.FISCHER_POSITIONS));
+        Game template = FISCHER_TEMPLATES.get(index);
+        if (template == null) {
+            FISCHER_TEMPLATES.compareAndSet(index, null,
+                    Game.createTemplate(Common.GAME_KIND_FISCHER, FEN.create960FEN(index)));
+            template = FISCHER_TEMPLATES.get(index);
+        }
+        return template;
+    }
+}
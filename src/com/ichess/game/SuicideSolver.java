@@ -0,0 +1,385 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A proof number search (PN²) solver of suicide positions. <br>
+ * Suicide captures are forced, so the game trees are narrow and deep, and a best first proof number
+ * search proves them much faster than an alpha-beta search. The solver first tries to prove a win of
+ * the side to move, and then a win of the other side. The moves are the game own suicide moves (forced
+ * captures, promotion to king), and the game own end rules decide the won positions. <br>
+ * The first level tree is kept in a {@link ProofTree} - in direct memory, or in a memory mapped file
+ * (see {@link #setTreeFile}) for large proofs. Each new node of the first level tree is initialized by a
+ * small second level search, which is discarded. <br>
+ * A position repeated in the searched line, or a line longer than the max depth, is not a win - so a
+ * draw result means no side can force a win within the max depth. <br>
+ * A solver instance is not thread safe.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class SuicideSolver {
+
+    private final static Logger LOGGER = Logger.getLogger(SuicideSolver.class.getName());
+
+    public static final int RESULT_UNKNOWN = 0;
+    public static final int RESULT_WIN = 1;
+    public static final int RESULT_LOSS = 2;
+    public static final int RESULT_DRAW = 3;
+
+    public static final int DEFAULT_MAX_DEPTH = 200;
+    public static final int DEFAULT_MAX_TREE_NODES = 1 << 22;
+    public static final int DEFAULT_SECOND_LEVEL_NODES = 16;
+
+    private static final int INFINITE = 100000000;
+    // search status
+    private static final int PROVEN = 1;
+    private static final int DISPROVEN = -1;
+    private static final int OPEN = 0;
+    // limits are checked every 256 nodes
+    private static final long CHECK_LIMITS_MASK = 255;
+
+    private int _maxDepth = DEFAULT_MAX_DEPTH;
+    private int _maxTreeNodes = DEFAULT_MAX_TREE_NODES;
+    private int _secondLevelNodes = DEFAULT_SECOND_LEVEL_NODES;
+    private String _treeFileName = null;
+    private long _timeLimitMs = 0;
+
+    private Game _game = null;
+    private int _attacker = Common.COLOR_WHITE;
+    // position hashes of the searched line
+    private long[] _path = null;
+    private ProofTree _secondLevelTree = null;
+    private long _deadline = 0;
+    private boolean _aborted = false;
+    private long _nodes = 0;
+
+    private int _result = RESULT_UNKNOWN;
+    private String _bestMove = null;
+    private long _timeMs = 0;
+
+    /**
+     * Set the max number of plies of a proof
+     */
+    public void setMaxDepth(int maxDepth) {
+        _maxDepth = Math.max(1, maxDepth);
+    }
+
+    public int getMaxDepth() {
+        return _maxDepth;
+    }
+
+    /**
+     * Set the max number of nodes of the first level tree
+     */
+    public void setMaxTreeNodes(int maxTreeNodes) {
+        _maxTreeNodes = Math.max(1, maxTreeNodes);
+    }
+
+    public int getMaxTreeNodes() {
+        return _maxTreeNodes;
+    }
+
+    /**
+     * Set the max number of nodes of each second level search. 0 means a single level proof number search
+     */
+    public void setSecondLevelNodes(int secondLevelNodes) {
+        _secondLevelNodes = Math.max(0, secondLevelNodes);
+    }
+
+    public int getSecondLevelNodes() {
+        return _secondLevelNodes;
+    }
+
+    /**
+     * Keep the first level tree in a memory mapped file, instead of direct memory.
+     * The file is deleted at the end of each solve.
+     *
+     * @param fileName - a file name, or null for direct memory
+     */
+    public void setTreeFile(String fileName) {
+        _treeFileName = fileName;
+    }
+
+    public String getTreeFile() {
+        return _treeFileName;
+    }
+
+    /**
+     * Set the time limit of each solved position
+     *
+     * @param timeLimitMs - time limit in milliseconds. 0 means no limit
+     */
+    public void setTimeLimitMs(long timeLimitMs) {
+        _timeLimitMs = Math.max(0, timeLimitMs);
+    }
+
+    public long getTimeLimitMs() {
+        return _timeLimitMs;
+    }
+
+    /**
+     * Solve the current position of the given suicide game. The game is not modified.
+     *
+     * @param game - a given suicide game
+     * @return {@link #RESULT_WIN} or {@link #RESULT_LOSS} (for the side to move), {@link #RESULT_DRAW},
+     * or {@link #RESULT_UNKNOWN} if the position was not solved within the limits
+     */
+    public int solve(Game game) {
+        Utils.AssertNotNull(game);
+        _result = RESULT_UNKNOWN;
+        _bestMove = null;
+        _nodes = 0;
+        _timeMs = 0;
+        if (!game.isSuicide()) {
+            LOGGER.warning("can't solve. not a suicide game");
+            return _result;
+        }
+        if ((game.getCurrentMoveInfo() == null) || game.isEnded()) {
+            LOGGER.warning("can't solve. position is illegal or ended");
+            return _result;
+        }
+        long start = System.currentTimeMillis();
+        _deadline = (_timeLimitMs > 0) ? System.nanoTime() + _timeLimitMs * 1000000L : 0;
+        _aborted = false;
+        _game = new Game(game.getGameKind());
+        _game.copyPositionFrom(game);
+        _path = new long[_maxDepth + 1];
+        _path[0] = _game.getCurrentMoveInfo().getPositionHash();
+        _secondLevelTree = (_secondLevelNodes > 0) ? new ProofTree(null) : null;
+        ProofTree tree = new ProofTree(_treeFileName);
+        try {
+            int sideToMove = _game.getCurrentColor();
+            _attacker = sideToMove;
+            int status = search(tree, 0, _maxTreeNodes, true);
+            if (status == PROVEN) {
+                _result = RESULT_WIN;
+                _bestMove = getProvingMove(tree);
+            } else if (status == DISPROVEN) {
+                tree.clear();
+                _attacker = Common.OtherColor(sideToMove);
+                status = search(tree, 0, _maxTreeNodes, true);
+                if (status == PROVEN) {
+                    _result = RESULT_LOSS;
+                } else if (status == DISPROVEN) {
+                    _result = RESULT_DRAW;
+                }
+            }
+        } finally {
+            tree.close();
+            if (_secondLevelTree != null) {
+                _secondLevelTree.close();
+                _secondLevelTree = null;
+            }
+            _game = null;
+        }
+        _timeMs = System.currentTimeMillis() - start;
+        LOGGER.fine("solved suicide position. result " + _result + " nodes " + _nodes + " time " + _timeMs + "ms");
+        return _result;
+    }
+
+    /**
+     * Returns the result of the last solve
+     */
+    public int getResult() {
+        return _result;
+    }
+
+    /**
+     * Returns the winning move (algebraic notation) of the last solved position, or null if it is not a win
+     */
+    public String getBestMove() {
+        return _bestMove;
+    }
+
+    /**
+     * Returns the number of moves played by the last solve
+     */
+    public long getNodes() {
+        return _nodes;
+    }
+
+    public long getTimeMs() {
+        return _timeMs;
+    }
+
+    /*
+     * proof number search of the current game position (the tree root) at the given depth of the searched line.
+     * the game is back at the root position when the search returns
+     */
+    private int search(ProofTree tree, int rootDepth, int maxNodes, boolean firstLevel) {
+        if (tree.addNodes(1, ProofTree.NONE) == ProofTree.NONE) {
+            return OPEN;
+        }
+        tree.setMove(0, PackedMove.NONE);
+        tree.setNumbers(0, 1, 1);
+        while ((tree.getProof(0) != 0) && (tree.getDisproof(0) != 0) && !_aborted) {
+            if (tree.size() >= maxNodes) {
+                if (firstLevel) {
+                    LOGGER.fine("proof tree reached " + tree.size() + " nodes");
+                }
+                break;
+            }
+            // select the most proving node
+            int node = 0;
+            int depth = rootDepth;
+            while (tree.isExpanded(node)) {
+                node = selectChild(tree, node, _game.getCurrentColor() == _attacker);
+                _game.playMove(PackedMove.toMove(_game, tree.getMove(node)));
+                _path[++depth] = _game.getCurrentMoveInfo().getPositionHash();
+            }
+            boolean expanded = expand(tree, node, depth, firstLevel);
+            // update the ancestors
+            while (true) {
+                update(tree, node, _game.getCurrentColor() == _attacker);
+                if (node == 0) {
+                    break;
+                }
+                _game.takeback();
+                node = tree.getParent(node);
+            }
+            if (!expanded) {
+                break;
+            }
+        }
+        if (tree.getProof(0) == 0) {
+            return PROVEN;
+        }
+        if (tree.getDisproof(0) == 0) {
+            return DISPROVEN;
+        }
+        return OPEN;
+    }
+
+    /*
+     * add the children of the given node. returns false if the tree can't grow or the search was aborted
+     */
+    private boolean expand(ProofTree tree, int node, int depth, boolean firstLevel) {
+        List<Move> moves = new ArrayList<Move>(_game.getValidNextMoves());
+        if (moves.isEmpty()) {
+            tree.setNumbers(node, INFINITE, 0);
+            return true;
+        }
+        int first = tree.addNodes(moves.size(), node);
+        if (first == ProofTree.NONE) {
+            return false;
+        }
+        for (int i = 0; i < moves.size(); i++) {
+            int child = first + i;
+            Move move = moves.get(i);
+            tree.setMove(child, PackedMove.encode(move));
+            if (!play(move)) {
+                tree.setNumbers(child, 1, 1);
+                continue;
+            }
+            if (_game.isEnded()) {
+                if (_game.getWinner() == _attacker) {
+                    tree.setNumbers(child, 0, INFINITE);
+                } else {
+                    tree.setNumbers(child, INFINITE, 0);
+                }
+            } else if ((depth + 1 >= _maxDepth) || isRepeated(depth + 1)) {
+                tree.setNumbers(child, INFINITE, 0);
+            } else if (firstLevel && (_secondLevelTree != null)) {
+                _secondLevelTree.clear();
+                search(_secondLevelTree, depth + 1, _secondLevelNodes, false);
+                tree.setNumbers(child, _secondLevelTree.getProof(0), _secondLevelTree.getDisproof(0));
+            } else {
+                tree.setNumbers(child, 1, 1);
+            }
+            _game.takeback();
+        }
+        tree.setChildren(node, first, moves.size());
+        return !_aborted;
+    }
+
+    /*
+     * keeps the hash of the current position in the searched line, and checks if it was repeated
+     */
+    private boolean isRepeated(int depth) {
+        long hash = _game.getCurrentMoveInfo().getPositionHash();
+        _path[depth] = hash;
+        for (int i = depth - 2; i >= 0; i -= 2) {
+            if (_path[i] == hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int selectChild(ProofTree tree, int node, boolean attackerToMove) {
+        int first = tree.getFirstChild(node);
+        int count = tree.getChildCount(node);
+        int best = first;
+        int bestNumber = INFINITE + 1;
+        for (int child = first; child < first + count; child++) {
+            int number = attackerToMove ? tree.getProof(child) : tree.getDisproof(child);
+            if (number < bestNumber) {
+                best = child;
+                bestNumber = number;
+            }
+        }
+        return best;
+    }
+
+    /*
+     * the attacker needs one proven move, the defender needs one disproven move
+     */
+    private static void update(ProofTree tree, int node, boolean attackerToMove) {
+        if (!tree.isExpanded(node)) {
+            return;
+        }
+        int first = tree.getFirstChild(node);
+        int count = tree.getChildCount(node);
+        int min = INFINITE;
+        int sum = 0;
+        for (int child = first; child < first + count; child++) {
+            int proof = tree.getProof(child);
+            int disproof = tree.getDisproof(child);
+            min = Math.min(min, attackerToMove ? proof : disproof);
+            sum = Math.min(INFINITE, sum + (attackerToMove ? disproof : proof));
+        }
+        if (attackerToMove) {
+            tree.setNumbers(node, min, sum);
+        } else {
+            tree.setNumbers(node, sum, min);
+        }
+    }
+
+    private String getProvingMove(ProofTree tree) {
+        int first = tree.getFirstChild(0);
+        for (int child = first; child < first + tree.getChildCount(0); child++) {
+            if (tree.getProof(child) == 0) {
+                Move move = PackedMove.toMove(_game, tree.getMove(child));
+                if ((move != null) && _game.playMove(move)) {
+                    String name = _game.getLastMove().getNameAlg();
+                    _game.takeback();
+                    return name;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean play(Move move) {
+        if (((++_nodes & CHECK_LIMITS_MASK) == 0) && (_deadline != 0) && (System.nanoTime() > _deadline)) {
+            _aborted = true;
+        }
+        if (!_game.playMove(move)) {
+            LOGGER.warning("failed to play solved move " + move);
+            return false;
+        }
+        return true;
+    }
+}
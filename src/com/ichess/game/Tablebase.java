@@ -0,0 +1,545 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+
+/**
+ * An endgame tablebase of a single material set (i.e. KQvK), generated by the {@link TablebaseGenerator}. <br>
+ * The table holds the distance to mate (in plies) of every position of the material set, with the side
+ * to move, in regular chess rules with no castling. En passant captures are ignored. <br>
+ * Positions are indexed from the "strong" side point of view (the first side of the signature, kept as white),
+ * using the board symmetries - with pawns the strong king is kept on the a-d files (32 squares), and
+ * without pawns in the a1-d1-d4 triangle (10 squares). Each entry is bit packed to the minimal number of
+ * bits - 0 for a draw (or an illegal position), otherwise the distance to mate in plies + 1. An odd distance
+ * means the side to move mates, an even distance means the side to move is mated. <br>
+ * Table files are memory mapped, so they are not read into the heap. A table is immutable, and can be
+ * probed from any thread.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class Tablebase {
+
+    private final static Logger LOGGER = Logger.getLogger(Tablebase.class.getName());
+
+    public static final int RESULT_LOSS = -1;
+    public static final int RESULT_DRAW = 0;
+    public static final int RESULT_WIN = 1;
+
+    /**
+     * probe result of a position which is not in the table
+     */
+    public static final int NOT_FOUND = -1;
+
+    static final int MAGIC = 0x4A544231; // "JTB1"
+    static final int VERSION = 1;
+    static final String FILE_EXTENSION = ".jtb";
+    static final int MAX_MEN = 5;
+    // the piece types of a signature, in signature order
+    static final String PIECE_CHARACTERS = "QRBNP";
+    private static final int[] PIECE_TYPES = {Common.PIECE_TYPE_QUEEN, Common.PIECE_TYPE_ROOK,
+            Common.PIECE_TYPE_BISHOP, Common.PIECE_TYPE_KNIGHT, Common.PIECE_TYPE_PAWN};
+
+    // strong king squares, for tables with and without pawns
+    private static final int[] PAWN_KING_SQUARES = new int[32];
+    private static final int[] TRIANGLE_KING_SQUARES = new int[10];
+    private static final int[] PAWN_KING_SLOTS = new int[64];
+    private static final int[] TRIANGLE_KING_SLOTS = new int[64];
+
+    static {
+        int pawnSlot = 0;
+        int triangleSlot = 0;
+        for (int square = 0; square < 64; square++) {
+            int row = square >> 3;
+            int column = square & 7;
+            PAWN_KING_SLOTS[square] = -1;
+            TRIANGLE_KING_SLOTS[square] = -1;
+            if (column < 4) {
+                PAWN_KING_SQUARES[pawnSlot] = square;
+                PAWN_KING_SLOTS[square] = pawnSlot++;
+                if (row <= column) {
+                    TRIANGLE_KING_SQUARES[triangleSlot] = square;
+                    TRIANGLE_KING_SLOTS[square] = triangleSlot++;
+                }
+            }
+        }
+    }
+
+    private final String _signature;
+    // piece types in index order - strong king, weak king, strong pieces, weak pieces
+    private final int[] _types;
+    // piece colors in index order (the strong side is white)
+    private final int[] _colors;
+    private final boolean _hasPawns;
+    private final int _size;
+    private final int _bits;
+    private final int _mask;
+    private final ByteBuffer _data;
+
+    Tablebase(String signature, int bits, ByteBuffer data) {
+        _signature = signature;
+        String[] sides = signature.split("v");
+        _types = new int[signature.length() - 1];
+        _colors = new int[_types.length];
+        _types[0] = Common.PIECE_TYPE_KING;
+        _colors[0] = Common.COLOR_WHITE;
+        _types[1] = Common.PIECE_TYPE_KING;
+        _colors[1] = Common.COLOR_BLACK;
+        int piece = 2;
+        boolean hasPawns = false;
+        for (int side = 0; side < 2; side++) {
+            for (int i = 1; i < sides[side].length(); i++) {
+                _types[piece] = getPieceType(sides[side].charAt(i));
+                _colors[piece] = (side == 0) ? Common.COLOR_WHITE : Common.COLOR_BLACK;
+                hasPawns |= (_types[piece] == Common.PIECE_TYPE_PAWN);
+                piece++;
+            }
+        }
+        _hasPawns = hasPawns;
+        _size = getSize(_types.length, hasPawns);
+        _bits = bits;
+        _mask = (1 << bits) - 1;
+        _data = data;
+    }
+
+    public String getSignature() {
+        return _signature;
+    }
+
+    /**
+     * Returns the number of pieces (kings included) of this table material
+     */
+    public int getNumberOfMen() {
+        return _types.length;
+    }
+
+    /**
+     * Returns the number of entries in this table
+     */
+    public int getSize() {
+        return _size;
+    }
+
+    /**
+     * Returns the result of a probed entry - {@link #RESULT_WIN}, {@link #RESULT_DRAW} or {@link #RESULT_LOSS},
+     * from the side to move point of view.
+     *
+     * @param entry - an entry returned by {@link #probe(Game)}
+     */
+    public static int getResult(int entry) {
+        Utils.Assert(entry >= 0, "no result for entry " + entry);
+        if (entry == 0) {
+            return RESULT_DRAW;
+        }
+        return (((entry - 1) & 1) == 1) ? RESULT_WIN : RESULT_LOSS;
+    }
+
+    /**
+     * Returns the distance to mate of a probed entry, in plies. 0 for a draw (or a mated position)
+     *
+     * @param entry - an entry returned by {@link #probe(Game)}
+     */
+    public static int getDistance(int entry) {
+        Utils.Assert(entry >= 0, "no distance for entry " + entry);
+        return (entry == 0) ? 0 : entry - 1;
+    }
+
+    /**
+     * Probe the current position of the given game.
+     *
+     * @param game - a given game
+     * @return The position entry (see {@link #getResult(int)} and {@link #getDistance(int)}), or
+     * {@link #NOT_FOUND} if the game position is not of this table material, or is not covered by the table
+     * (castling is available, an ep capture is available, or the game is not a regular / fischer game).
+     */
+    public int probe(Game game) {
+        Utils.AssertNotNull(game);
+        if (!isProbeable(game)) {
+            return NOT_FOUND;
+        }
+        // find the strong side, and list the pieces in index order
+        int[] squares = new int[_types.length];
+        for (int strongColor = Common.COLOR_WHITE; strongColor <= Common.COLOR_BLACK; strongColor++) {
+            if (findSquares(game, strongColor, squares)) {
+                if (strongColor == Common.COLOR_BLACK) {
+                    // mirror the board, so the strong side is white
+                    for (int i = 0; i < squares.length; i++) {
+                        squares[i] ^= 56;
+                    }
+                }
+                return getEntry(getIndex(squares, game.getCurrentColor() == strongColor));
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /*
+     * regular rules, no castling and no ep
+     */
+    static boolean isProbeable(Game game) {
+        int gkind = game.getGameKind();
+        if ((gkind != Common.GAME_KIND_REGULAR) && (gkind != Common.GAME_KIND_FISCHER)) {
+            return false;
+        }
+        if (game.getEpPawn() != null) {
+            return false;
+        }
+        for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+            if (game.getCastlingAvailability(color, Common.CASTLE_KING) ||
+                    game.getCastlingAvailability(color, Common.CASTLE_QUEEN)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * fill the squares of the game pieces in index order, with the given color as the strong side.
+     * returns false if the game pieces do not match this table material
+     */
+    private boolean findSquares(Game game, int strongColor, int[] squares) {
+        boolean[] used = new boolean[_types.length];
+        int found = 0;
+        for (int x = 1; x <= 8; x++) {
+            for (int y = 1; y <= 8; y++) {
+                Piece piece = game.getPieceAt(x, y);
+                if (piece == null) {
+                    continue;
+                }
+                int color = (piece.getColor() == strongColor) ? Common.COLOR_WHITE : Common.COLOR_BLACK;
+                int i = 0;
+                while ((i < _types.length) && (used[i] || (_types[i] != piece.getType()) || (_colors[i] != color))) {
+                    i++;
+                }
+                if (i == _types.length) {
+                    return false;
+                }
+                used[i] = true;
+                squares[i] = Zobrist.square(x, y);
+                found++;
+            }
+        }
+        return found == _types.length;
+    }
+
+    /*
+     * index of the given position (strong side is white). the squares are modified to their
+     * symmetric position
+     */
+    int getIndex(int[] squares, boolean strongToMove) {
+        int kingSlot = normalize(squares, _hasPawns);
+        int index = kingSlot;
+        for (int i = 1; i < squares.length; i++) {
+            index = (index << 6) | squares[i];
+        }
+        return (index << 1) | (strongToMove ? 0 : 1);
+    }
+
+    /*
+     * move the strong king to the indexed board part using the board symmetries.
+     * returns the strong king slot
+     */
+    static int normalize(int[] squares, boolean hasPawns) {
+        int transform = 0;
+        if ((squares[0] & 7) > 3) {
+            // mirror files
+            transform |= 7;
+        }
+        if (!hasPawns && ((squares[0] >> 3) > 3)) {
+            // mirror rows
+            transform |= 56;
+        }
+        if (transform != 0) {
+            for (int i = 0; i < squares.length; i++) {
+                squares[i] ^= transform;
+            }
+        }
+        if (hasPawns) {
+            return PAWN_KING_SLOTS[squares[0]];
+        }
+        if ((squares[0] >> 3) > (squares[0] & 7)) {
+            // mirror the a1-h8 diagonal
+            for (int i = 0; i < squares.length; i++) {
+                squares[i] = ((squares[i] & 7) << 3) | (squares[i] >> 3);
+            }
+        }
+        return TRIANGLE_KING_SLOTS[squares[0]];
+    }
+
+    /*
+     * the squares of the given index. returns true if the strong side is to move
+     */
+    boolean getSquares(int index, int[] squares) {
+        boolean strongToMove = (index & 1) == 0;
+        index >>>= 1;
+        for (int i = squares.length - 1; i > 0; i--) {
+            squares[i] = index & 63;
+            index >>>= 6;
+        }
+        squares[0] = _hasPawns ? PAWN_KING_SQUARES[index] : TRIANGLE_KING_SQUARES[index];
+        return strongToMove;
+    }
+
+    int[] getTypes() {
+        return _types;
+    }
+
+    int[] getColors() {
+        return _colors;
+    }
+
+    boolean hasPawns() {
+        return _hasPawns;
+    }
+
+    int getEntry(int index) {
+        long bit = (long) index * _bits;
+        int offset = (int) (bit >>> 3);
+        int value = (_data.get(offset) & 0xFF) | ((_data.get(offset + 1) & 0xFF) << 8) |
+                ((_data.get(offset + 2) & 0xFF) << 16);
+        return (value >>> (int) (bit & 7)) & _mask;
+    }
+
+    /*
+     * number of entries of a table with the given number of men
+     */
+    static int getSize(int men, boolean hasPawns) {
+        long kingSlots = hasPawns ? PAWN_KING_SQUARES.length : TRIANGLE_KING_SQUARES.length;
+        long size = (kingSlots << (6 * (men - 1))) * 2;
+        Utils.Assert(size <= Integer.MAX_VALUE, "table too large " + men + " men");
+        return (int) size;
+    }
+
+    /*
+     * bit pack the given entries (bits of the largest entry per entry)
+     */
+    static Tablebase create(String signature, int[] entries) {
+        int max = 0;
+        for (int entry : entries) {
+            max = Math.max(max, entry);
+        }
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(max));
+        // 2 padding bytes, so every entry can be read as 3 bytes
+        byte[] data = new byte[(int) (((long) entries.length * bits + 7) >>> 3) + 2];
+        long bit = 0;
+        for (int entry : entries) {
+            int offset = (int) (bit >>> 3);
+            int value = entry << (int) (bit & 7);
+            data[offset] |= (byte) value;
+            data[offset + 1] |= (byte) (value >>> 8);
+            data[offset + 2] |= (byte) (value >>> 16);
+            bit += bits;
+        }
+        return new Tablebase(signature, bits, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Save this table to the given file, in the format read by {@link #load(String)}
+     *
+     * @param fileName - a given file name
+     * @return true on success
+     */
+    public boolean save(String fileName) {
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(fileName);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream headerOut = new DataOutputStream(header);
+            headerOut.writeInt(MAGIC);
+            headerOut.writeInt(VERSION);
+            headerOut.writeUTF(_signature);
+            headerOut.writeInt(_bits);
+            headerOut.writeInt(_data.capacity());
+            headerOut.flush();
+            out.write(header.toByteArray());
+            byte[] buffer = new byte[64 * 1024];
+            ByteBuffer data = _data.duplicate();
+            data.clear();
+            while (data.hasRemaining()) {
+                int length = Math.min(buffer.length, data.remaining());
+                data.get(buffer, 0, length);
+                out.write(buffer, 0, length);
+            }
+            return true;
+        } catch (IOException e) {
+            LOGGER.warning("can't write tablebase file " + fileName + " : " + e.getMessage());
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LOGGER.warning("can't close tablebase file " + fileName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load (memory map) a table from the given file.
+     *
+     * @param fileName - a given file name
+     * @return The loaded table, or null if the file can't be read or is not a valid table file
+     */
+    public static Tablebase load(String fileName) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(fileName, "r");
+            if (file.readInt() != MAGIC) {
+                LOGGER.warning("not a tablebase file " + fileName);
+                return null;
+            }
+            int version = file.readInt();
+            if (version != VERSION) {
+                LOGGER.warning("unsupported tablebase version " + version + " in " + fileName);
+                return null;
+            }
+            String signature = file.readUTF();
+            int bits = file.readInt();
+            int length = file.readInt();
+            if (!isValidSignature(signature) || (bits < 1) || (bits > 16)) {
+                LOGGER.warning("illegal tablebase header " + signature + " bits " + bits + " in " + fileName);
+                return null;
+            }
+            boolean hasPawns = signature.indexOf('P') >= 0;
+            long expectedLength = (((long) getSize(signature.length() - 1, hasPawns) * bits + 7) >>> 3) + 2;
+            if ((length != expectedLength) || (file.getFilePointer() + length > file.length())) {
+                LOGGER.warning("illegal tablebase data length " + length + " in " + fileName);
+                return null;
+            }
+            // the mapping stays valid after the file is closed
+            ByteBuffer data = file.getChannel().map(FileChannel.MapMode.READ_ONLY, file.getFilePointer(), length);
+            return new Tablebase(signature, bits, data);
+        } catch (IOException e) {
+            LOGGER.warning("can't read tablebase file " + fileName + " : " + e.getMessage());
+            return null;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    LOGGER.warning("can't close tablebase file " + fileName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the signature of the given pieces (kings not included), with the strong side first. i.e. KRvKP
+     *
+     * @param whiteTypes - piece types of the white side
+     * @param blackTypes - piece types of the black side
+     * @return The signature, or null if there are pieces of other types
+     */
+    static String getSignature(int[] whiteTypes, int whiteCount, int[] blackTypes, int blackCount) {
+        String white = getSide(whiteTypes, whiteCount);
+        String black = getSide(blackTypes, blackCount);
+        if ((white == null) || (black == null)) {
+            return null;
+        }
+        return (compareSides(white, black) >= 0) ? white + "v" + black : black + "v" + white;
+    }
+
+    /*
+     * the side string (i.e. KRP) of the given piece types
+     */
+    private static String getSide(int[] types, int count) {
+        StringBuilder builder = new StringBuilder("K");
+        for (int i = 0; i < PIECE_TYPES.length; i++) {
+            for (int j = 0; j < count; j++) {
+                if (types[j] == PIECE_TYPES[i]) {
+                    builder.append(PIECE_CHARACTERS.charAt(i));
+                }
+            }
+        }
+        return (builder.length() == count + 1) ? builder.toString() : null;
+    }
+
+    /*
+     * compare sides by material value, then by the number of pieces, then by the pieces
+     */
+    static int compareSides(String side1, String side2) {
+        int value1 = getSideValue(side1);
+        int value2 = getSideValue(side2);
+        if (value1 != value2) {
+            return (value1 > value2) ? 1 : -1;
+        }
+        if (side1.length() != side2.length()) {
+            return (side1.length() > side2.length()) ? 1 : -1;
+        }
+        // Q before R before B ..
+        for (int i = 1; i < side1.length(); i++) {
+            int c1 = PIECE_CHARACTERS.indexOf(side1.charAt(i));
+            int c2 = PIECE_CHARACTERS.indexOf(side2.charAt(i));
+            if (c1 != c2) {
+                return (c1 < c2) ? 1 : -1;
+            }
+        }
+        return 0;
+    }
+
+    private static int getSideValue(String side) {
+        int value = 0;
+        for (int i = 1; i < side.length(); i++) {
+            value += Evaluation.PIECE_VALUES[getPieceType(side.charAt(i))];
+        }
+        return value;
+    }
+
+    static int getPieceType(char c) {
+        int i = PIECE_CHARACTERS.indexOf(c);
+        return (i < 0) ? Common.PIECE_TYPE_ILLEGAL : PIECE_TYPES[i];
+    }
+
+    static char getPieceCharacter(int type) {
+        for (int i = 0; i < PIECE_TYPES.length; i++) {
+            if (PIECE_TYPES[i] == type) {
+                return PIECE_CHARACTERS.charAt(i);
+            }
+        }
+        return '?';
+    }
+
+    /*
+     * a signature is 2 sides (strong side first), each starting with a king followed by pieces in signature order
+     */
+    static boolean isValidSignature(String signature) {
+        if (signature == null) {
+            return false;
+        }
+        String[] sides = signature.split("v");
+        if ((sides.length != 2) || (signature.length() - 1 > MAX_MEN)) {
+            return false;
+        }
+        for (String side : sides) {
+            if ((side.length() == 0) || (side.charAt(0) != 'K')) {
+                return false;
+            }
+            int last = 0;
+            for (int i = 1; i < side.length(); i++) {
+                int c = PIECE_CHARACTERS.indexOf(side.charAt(i));
+                if (c < last) {
+                    return false;
+                }
+                last = c;
+            }
+        }
+        return compareSides(sides[0], sides[1]) >= 0;
+    }
+}
@@ -0,0 +1,538 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Offline generator of endgame tablebases (see {@link Tablebase}) by retrograde analysis. <br>
+ * The moves of every position of the table material are generated once with the game own move rules,
+ * and kept as a successors graph. Moves leaving the material set (captures and promotions) are resolved
+ * by probing the smaller tables, which are generated first if needed. The graph is then solved level
+ * by level - a position is won in n plies if one of its moves leads to a position lost in n-1 plies, and
+ * lost in n plies if all of its moves lead to positions won in at most n-1 plies. Positions never
+ * resolved are draws. <br>
+ * The move generation is split between threads. Memory use grows with the number of moves of the
+ * table - 4 men tables need a few hundred megabytes, 5 men tables need a large heap. <br>
+ * Usage : java com.ichess.game.TablebaseGenerator [directory] [max men] [threads]
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class TablebaseGenerator {
+
+    private final static Logger LOGGER = Logger.getLogger(TablebaseGenerator.class.getName());
+
+    private static final int MAX_THREADS = 256;
+
+    // position flags
+    private static final byte FLAG_ILLEGAL = 1;
+    private static final byte FLAG_DRAW = 2;
+    // a move leaving the table draws
+    private static final byte FLAG_DRAW_EXIT = 4;
+
+    private final Tablebases _tablebases;
+    private int _threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Create a generator of tables into the given set. Tables needed by generated tables are taken from
+     * the set, and generated tables are added to the set (and saved to the set directory, if any).
+     *
+     * @param tablebases - a set of tables
+     */
+    public TablebaseGenerator(Tablebases tablebases) {
+        Utils.AssertNotNull(tablebases);
+        _tablebases = tablebases;
+    }
+
+    /**
+     * Set the number of move generation threads
+     *
+     * @param threads - 1..256
+     * @return true if the number is legal
+     */
+    public boolean setThreads(int threads) {
+        if ((threads < 1) || (threads > MAX_THREADS)) {
+            LOGGER.warning("illegal number of threads " + threads);
+            return false;
+        }
+        _threads = threads;
+        return true;
+    }
+
+    public int getThreads() {
+        return _threads;
+    }
+
+    /**
+     * Generate all the tables of up to the given number of men (kings included), that are not in the set already.
+     *
+     * @param maxMen - 3..5
+     * @return The number of generated tables, or -1 on failure
+     */
+    public int generateAll(int maxMen) {
+        if ((maxMen < 3) || (maxMen > Tablebase.MAX_MEN)) {
+            LOGGER.warning("illegal number of men " + maxMen);
+            return -1;
+        }
+        int generated = 0;
+        for (int men = 3; men <= maxMen; men++) {
+            for (String signature : getSignatures(men)) {
+                if (_tablebases.hasTablebase(signature)) {
+                    continue;
+                }
+                if (generate(signature) == null) {
+                    return -1;
+                }
+                generated++;
+            }
+        }
+        return generated;
+    }
+
+    /**
+     * Generate the table of the given signature (i.e. KRvKP), with the tables it needs.
+     * If the set has this table already, the existing table is returned.
+     *
+     * @param signature - a table signature. the strong side is first
+     * @return The table, or null if the signature is illegal or the generation failed
+     */
+    public Tablebase generate(String signature) {
+        if (!Tablebase.isValidSignature(signature) || (signature.length() - 1 < 3)) {
+            LOGGER.warning("illegal tablebase signature " + signature);
+            return null;
+        }
+        Tablebase table = _tablebases.getTablebase(signature);
+        if (table != null) {
+            return table;
+        }
+        for (String subSignature : getSubSignatures(signature)) {
+            if (!_tablebases.hasTablebase(subSignature) && (generate(subSignature) == null)) {
+                return null;
+            }
+        }
+
+        LOGGER.info("generating tablebase " + signature);
+        long start = System.currentTimeMillis();
+        Tablebase layout = new Tablebase(signature, 1, null);
+        int size = layout.getSize();
+        Solver solver = new Solver(layout, size);
+        if (!solver.generateMoves()) {
+            return null;
+        }
+        int[] entries = solver.solve();
+        table = Tablebase.create(signature, entries);
+        LOGGER.info("generated tablebase " + signature + " in " + (System.currentTimeMillis() - start) + "ms, " +
+                size + " positions, longest mate " + solver.getLongestMate() + " plies");
+
+        _tablebases.addTablebase(table);
+        if (_tablebases.getDirectory() != null) {
+            String fileName = new File(_tablebases.getDirectory(), signature + Tablebase.FILE_EXTENSION).getPath();
+            if (!table.save(fileName)) {
+                return null;
+            }
+        }
+        return table;
+    }
+
+    /*
+     * all the signatures of the given number of men, with mating material
+     */
+    static List<String> getSignatures(int men) {
+        Set<String> signatures = new TreeSet<String>();
+        for (int strongPieces = men - 2; strongPieces * 2 >= men - 2; strongPieces--) {
+            for (String strong : getSides(strongPieces)) {
+                for (String weak : getSides(men - 2 - strongPieces)) {
+                    String signature = (Tablebase.compareSides(strong, weak) >= 0) ? strong + "v" + weak : weak + "v" + strong;
+                    if (hasMatingMaterial(signature)) {
+                        signatures.add(signature);
+                    }
+                }
+            }
+        }
+        return new ArrayList<String>(signatures);
+    }
+
+    /*
+     * all the sides (i.e. KRP) with the given number of pieces
+     */
+    private static List<String> getSides(int pieces) {
+        List<String> sides = new ArrayList<String>();
+        addSides("K", 0, pieces, sides);
+        return sides;
+    }
+
+    private static void addSides(String prefix, int first, int pieces, List<String> sides) {
+        if (pieces == 0) {
+            sides.add(prefix);
+            return;
+        }
+        for (int i = first; i < Tablebase.PIECE_CHARACTERS.length(); i++) {
+            addSides(prefix + Tablebase.PIECE_CHARACTERS.charAt(i), i, pieces - 1, sides);
+        }
+    }
+
+    /*
+     * the signatures (with mating material) reachable by a capture and / or a promotion
+     */
+    static List<String> getSubSignatures(String signature) {
+        Set<String> subSignatures = new TreeSet<String>();
+        String[] sides = signature.split("v");
+        for (int side = 0; side < 2; side++) {
+            String mover = sides[side];
+            String other = sides[1 - side];
+            // captures, with or without a promotion
+            for (int captured = 1; captured < other.length(); captured++) {
+                String remaining = other.substring(0, captured) + other.substring(captured + 1);
+                addSubSignature(mover, remaining, subSignatures);
+                for (String promoted : getPromotions(mover)) {
+                    addSubSignature(promoted, remaining, subSignatures);
+                }
+            }
+            for (String promoted : getPromotions(mover)) {
+                addSubSignature(promoted, other, subSignatures);
+            }
+        }
+        return new ArrayList<String>(subSignatures);
+    }
+
+    /*
+     * the sides reached by promoting one pawn of the given side
+     */
+    private static List<String> getPromotions(String side) {
+        List<String> promotions = new ArrayList<String>();
+        int pawn = side.indexOf('P');
+        if (pawn < 0) {
+            return promotions;
+        }
+        for (char promotion : "QRBN".toCharArray()) {
+            promotions.add(sortSide(side.substring(0, pawn) + promotion + side.substring(pawn + 1)));
+        }
+        return promotions;
+    }
+
+    private static String sortSide(String side) {
+        StringBuilder builder = new StringBuilder("K");
+        for (int i = 0; i < Tablebase.PIECE_CHARACTERS.length(); i++) {
+            char c = Tablebase.PIECE_CHARACTERS.charAt(i);
+            for (int j = 1; j < side.length(); j++) {
+                if (side.charAt(j) == c) {
+                    builder.append(c);
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void addSubSignature(String side1, String side2, Set<String> subSignatures) {
+        String signature = (Tablebase.compareSides(side1, side2) >= 0) ? side1 + "v" + side2 : side2 + "v" + side1;
+        if ((signature.length() - 1 >= 3) && hasMatingMaterial(signature)) {
+            subSignatures.add(signature);
+        }
+    }
+
+    private static boolean hasMatingMaterial(String signature) {
+        for (String side : signature.split("v")) {
+            int[] types = new int[side.length() - 1];
+            for (int i = 1; i < side.length(); i++) {
+                types[i - 1] = Tablebase.getPieceType(side.charAt(i));
+            }
+            if (Tablebases.hasMatingMaterial(types, types.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * the positions graph of a single table
+     */
+    private class Solver {
+
+        private final Tablebase _layout;
+        private final int _size;
+        private final int[] _entries;
+        private final byte[] _flags;
+        // shortest win / longest loss by a move leaving the table, in plies
+        private final short[] _exitWin;
+        private final short[] _exitLoss;
+        private final Part[] _parts;
+        private int _longestMate = 0;
+
+        Solver(Tablebase layout, int size) {
+            _layout = layout;
+            _size = size;
+            _entries = new int[size];
+            _flags = new byte[size];
+            _exitWin = new short[size];
+            _exitLoss = new short[size];
+            int threads = Math.min(_threads, Math.max(1, size / 1024));
+            _parts = new Part[threads];
+            for (int i = 0; i < threads; i++) {
+                _parts[i] = new Part((int) ((long) size * i / threads), (int) ((long) size * (i + 1) / threads));
+            }
+        }
+
+        int getLongestMate() {
+            return _longestMate;
+        }
+
+        /*
+         * generate the moves of all the positions, in parallel parts
+         */
+        boolean generateMoves() {
+            Thread[] threads = new Thread[_parts.length];
+            for (int i = 0; i < _parts.length; i++) {
+                final Part part = _parts[i];
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        part.generateMoves();
+                    }
+                }, "jchess-tablebase-" + i);
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+            boolean ok = true;
+            for (int i = 0; i < threads.length; i++) {
+                try {
+                    threads[i].join();
+                } catch (InterruptedException e) {
+                    LOGGER.warning("interrupted while waiting for tablebase thread " + threads[i].getName());
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                ok &= _parts[i]._done;
+            }
+            if (!ok) {
+                LOGGER.warning("tablebase move generation failed");
+            }
+            return ok;
+        }
+
+        /*
+         * resolve the positions level by level. returns the table entries
+         */
+        int[] solve() {
+            int maxExit = 0;
+            for (int i = 0; i < _size; i++) {
+                maxExit = Math.max(maxExit, Math.max(_exitWin[i], _exitLoss[i]));
+            }
+            int lastChange = 0;
+            for (int plies = 1; (plies <= lastChange + 1) || (plies <= maxExit); plies++) {
+                boolean win = (plies & 1) == 1;
+                for (Part part : _parts) {
+                    if (part.resolve(plies, win)) {
+                        lastChange = plies;
+                    }
+                }
+            }
+            _longestMate = lastChange;
+            return _entries;
+        }
+
+        /*
+         * a range of positions, with the moves graph of the range (successor indexes of each position)
+         */
+        private class Part {
+
+            private final int _start;
+            private final int _end;
+            private final int[] _offsets;
+            private int[] _successors = new int[1024];
+            private boolean _done = false;
+
+            Part(int start, int end) {
+                _start = start;
+                _end = end;
+                _offsets = new int[end - start + 1];
+            }
+
+            void generateMoves() {
+                int[] types = _layout.getTypes();
+                int[] colors = _layout.getColors();
+                int[] squares = new int[types.length];
+                int[] successor = new int[types.length];
+                Game game = new Game(Common.GAME_KIND_REGULAR);
+                int count = 0;
+                for (int index = _start; index < _end; index++) {
+                    _offsets[index - _start] = count;
+                    boolean strongToMove = _layout.getSquares(index, squares);
+                    if (!isValidPlacement(types, squares)) {
+                        _flags[index] = FLAG_ILLEGAL;
+                        continue;
+                    }
+                    setPosition(game, types, colors, squares, strongToMove);
+                    if (game.getCurrentMoveInfo() == null) {
+                        // the side not to move is in check
+                        _flags[index] = FLAG_ILLEGAL;
+                        continue;
+                    }
+                    if (game.isEnded()) {
+                        if (game.isCheckMate()) {
+                            _entries[index] = 1;
+                        } else {
+                            _flags[index] = FLAG_DRAW;
+                        }
+                        continue;
+                    }
+                    List<Move> moves = new ArrayList<Move>(game.getValidNextMoves());
+                    for (Move move : moves) {
+                        if ((move.getCapturedPiece() == null) &&
+                                (move.getAdditionalPieceTypeInfo() == Common.PIECE_TYPE_ILLEGAL)) {
+                            // a move inside the table
+                            System.arraycopy(squares, 0, successor, 0, squares.length);
+                            int from = Zobrist.square(move.getFromX(), move.getFromY());
+                            for (int i = 0; i < successor.length; i++) {
+                                if (successor[i] == from) {
+                                    successor[i] = Zobrist.square(move.getToX(), move.getToY());
+                                    break;
+                                }
+                            }
+                            if (count == _successors.length) {
+                                int[] successors = new int[_successors.length * 2];
+                                System.arraycopy(_successors, 0, successors, 0, count);
+                                _successors = successors;
+                            }
+                            _successors[count++] = _layout.getIndex(successor, !strongToMove);
+                        } else if (!addExit(index, game, move)) {
+                            return;
+                        }
+                    }
+                }
+                _offsets[_end - _start] = count;
+                _done = true;
+            }
+
+            /*
+             * resolve the positions won (or lost) in the given number of plies.
+             * returns true if any position was resolved
+             */
+            boolean resolve(int plies, boolean win) {
+                boolean changed = false;
+                for (int index = _start; index < _end; index++) {
+                    if ((_entries[index] != 0) || ((_flags[index] & (FLAG_ILLEGAL | FLAG_DRAW)) != 0)) {
+                        continue;
+                    }
+                    int first = _offsets[index - _start];
+                    int last = _offsets[index - _start + 1];
+                    boolean resolved;
+                    if (win) {
+                        // a move to a position lost in plies-1 (entry plies-1+1)
+                        resolved = (_exitWin[index] == plies);
+                        for (int i = first; (i < last) && !resolved; i++) {
+                            resolved = (_entries[_successors[i]] == plies);
+                        }
+                    } else {
+                        // all moves lead to positions won in at most plies-1
+                        resolved = ((_flags[index] & FLAG_DRAW_EXIT) == 0) && (_exitLoss[index] <= plies);
+                        for (int i = first; (i < last) && resolved; i++) {
+                            int entry = _entries[_successors[i]];
+                            resolved = (entry != 0) && (entry <= plies) && (((entry - 1) & 1) == 1);
+                        }
+                    }
+                    if (resolved) {
+                        _entries[index] = plies + 1;
+                        changed = true;
+                    }
+                }
+                return changed;
+            }
+
+            /*
+             * a move leaving the table (capture or promotion). the result is probed after the move
+             */
+            private boolean addExit(int index, Game game, Move move) {
+                if (!game.playMove(move)) {
+                    LOGGER.warning("failed to play tablebase move " + move);
+                    return false;
+                }
+                int entry;
+                if (game.isEnded()) {
+                    entry = game.isCheckMate() ? 1 : 0;
+                } else {
+                    entry = _tablebases.probe(game);
+                }
+                game.takeback();
+                if (entry == Tablebase.NOT_FOUND) {
+                    LOGGER.warning("missing tablebase for move " + move + " of " + _layout.getSignature());
+                    return false;
+                }
+                if (entry == 0) {
+                    _flags[index] |= FLAG_DRAW_EXIT;
+                    return true;
+                }
+                // the moving side result is the opposite of the probed result, one ply later
+                int plies = Tablebase.getDistance(entry) + 1;
+                if (Tablebase.getResult(entry) == Tablebase.RESULT_LOSS) {
+                    if ((_exitWin[index] == 0) || (plies < _exitWin[index])) {
+                        _exitWin[index] = (short) plies;
+                    }
+                } else {
+                    _exitLoss[index] = (short) Math.max(_exitLoss[index], plies);
+                }
+                return true;
+            }
+        }
+    }
+
+    /*
+     * distinct squares, and no pawns on the first or last rows
+     */
+    private static boolean isValidPlacement(int[] types, int[] squares) {
+        for (int i = 0; i < squares.length; i++) {
+            if (types[i] == Common.PIECE_TYPE_PAWN) {
+                int row = squares[i] >> 3;
+                if ((row == 0) || (row == 7)) {
+                    return false;
+                }
+            }
+            for (int j = 0; j < i; j++) {
+                if (squares[i] == squares[j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /*
+     * set the given position in the given regular game, with no castling
+     */
+    private static void setPosition(Game game, int[] types, int[] colors, int[] squares, boolean whiteToMove) {
+        game.clearBoard();
+        for (int i = 0; i < types.length; i++) {
+            Piece piece = Piece.create(types[i], colors[i]);
+            piece.setMoved(true);
+            game.setPieceAt((squares[i] >> 3) + 1, (squares[i] & 7) + 1, piece);
+        }
+        game.setStartingColor(whiteToMove ? Common.COLOR_WHITE : Common.COLOR_BLACK);
+    }
+
+    public static void main(String[] args) {
+        String directory = (args.length > 0) ? args[0] : ".";
+        int maxMen = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        Tablebases tablebases = new Tablebases(directory);
+        TablebaseGenerator generator = new TablebaseGenerator(tablebases);
+        if ((args.length > 2) && !generator.setThreads(Integer.parseInt(args[2]))) {
+            System.exit(1);
+        }
+        int generated = generator.generateAll(maxMen);
+        if (generated < 0) {
+            System.exit(1);
+        }
+        System.out.println("generated " + generated + " tablebases in " + directory);
+    }
+}
@@ -0,0 +1,202 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A set of endgame tablebases (see {@link Tablebase}), probed by material. <br>
+ * Tables are read from a directory of table files (named by their signature, i.e. KQvK.jtb), and are
+ * loaded (memory mapped) the first time they are probed. Generated tables can be added as well. <br>
+ * Positions without enough mating material for both sides (by the game rules - i.e. KBvKN) are draws,
+ * and need no table. The set can be shared by several threads (i.e. the {@link Engine} search threads).
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class Tablebases {
+
+    private final static Logger LOGGER = Logger.getLogger(Tablebases.class.getName());
+
+    private final String _directory;
+    // table file names by signature, for tables not loaded yet
+    private final Map<String, String> _files = new HashMap<String, String>();
+    private final Map<String, Tablebase> _tables = new HashMap<String, Tablebase>();
+    private volatile int _maxMen = 2;
+
+    /**
+     * Create an empty set of tables
+     */
+    public Tablebases() {
+        _directory = null;
+    }
+
+    /**
+     * Create a set of the tables in the given directory
+     *
+     * @param directory - tables directory. generated tables are saved there too
+     */
+    public Tablebases(String directory) {
+        Utils.AssertNotNull(directory);
+        _directory = directory;
+        File[] files = new File(directory).listFiles();
+        if (files == null) {
+            LOGGER.warning("can't list tablebases directory " + directory);
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(Tablebase.FILE_EXTENSION)) {
+                continue;
+            }
+            String signature = name.substring(0, name.length() - Tablebase.FILE_EXTENSION.length());
+            if (!Tablebase.isValidSignature(signature)) {
+                LOGGER.warning("ignoring tablebase file " + name);
+                continue;
+            }
+            _files.put(signature, file.getPath());
+            _maxMen = Math.max(_maxMen, signature.length() - 1);
+        }
+        LOGGER.info("found " + _files.size() + " tablebases in " + directory);
+    }
+
+    /**
+     * Returns the tables directory, or null if there is no directory
+     */
+    public String getDirectory() {
+        return _directory;
+    }
+
+    /**
+     * Returns the max number of men (kings included) of the tables in this set
+     */
+    public int getMaxMen() {
+        return _maxMen;
+    }
+
+    /**
+     * Add a table to this set (replacing a table of the same material)
+     *
+     * @param table - a given table
+     */
+    public synchronized void addTablebase(Tablebase table) {
+        Utils.AssertNotNull(table);
+        _tables.put(table.getSignature(), table);
+        _files.remove(table.getSignature());
+        _maxMen = Math.max(_maxMen, table.getNumberOfMen());
+    }
+
+    /**
+     * Returns true if this set has a table of the given signature (loaded or not)
+     */
+    public synchronized boolean hasTablebase(String signature) {
+        return _tables.containsKey(signature) || _files.containsKey(signature);
+    }
+
+    /**
+     * Returns the table of the given signature (i.e. KRvKP), loading it if needed.
+     *
+     * @param signature - a table signature
+     * @return The table, or null if there is no such table in this set
+     */
+    public synchronized Tablebase getTablebase(String signature) {
+        Tablebase table = _tables.get(signature);
+        if (table != null) {
+            return table;
+        }
+        String fileName = _files.remove(signature);
+        if (fileName == null) {
+            return null;
+        }
+        table = Tablebase.load(fileName);
+        if (table == null) {
+            return null;
+        }
+        if (!table.getSignature().equals(signature)) {
+            LOGGER.warning("tablebase file " + fileName + " holds " + table.getSignature());
+            return null;
+        }
+        LOGGER.fine("loaded tablebase " + signature);
+        _tables.put(signature, table);
+        return table;
+    }
+
+    /**
+     * Probe the current position of the given game.
+     *
+     * @param game - a given game
+     * @return The position entry (see {@link Tablebase#getResult(int)} and {@link Tablebase#getDistance(int)}),
+     * or {@link Tablebase#NOT_FOUND} if the position is not covered by the tables
+     */
+    public int probe(Game game) {
+        Utils.AssertNotNull(game);
+        int[] whiteTypes = new int[Tablebase.MAX_MEN];
+        int[] blackTypes = new int[Tablebase.MAX_MEN];
+        int whiteCount = 0;
+        int blackCount = 0;
+        int men = 0;
+        for (int x = 1; x <= 8; x++) {
+            for (int y = 1; y <= 8; y++) {
+                Piece piece = game.getPieceAt(x, y);
+                if (piece == null) {
+                    continue;
+                }
+                men++;
+                if (men > _maxMen) {
+                    return Tablebase.NOT_FOUND;
+                }
+                if (piece.isKing()) {
+                    continue;
+                }
+                if (piece.isWhite()) {
+                    whiteTypes[whiteCount++] = piece.getType();
+                } else {
+                    blackTypes[blackCount++] = piece.getType();
+                }
+            }
+        }
+        if (!Tablebase.isProbeable(game)) {
+            return Tablebase.NOT_FOUND;
+        }
+        if (!hasMatingMaterial(whiteTypes, whiteCount) && !hasMatingMaterial(blackTypes, blackCount)) {
+            return 0;
+        }
+        String signature = Tablebase.getSignature(whiteTypes, whiteCount, blackTypes, blackCount);
+        if (signature == null) {
+            return Tablebase.NOT_FOUND;
+        }
+        Tablebase table = getTablebase(signature);
+        if (table == null) {
+            return Tablebase.NOT_FOUND;
+        }
+        return table.probe(game);
+    }
+
+    /*
+     * same as the game rules no material draw - a pawn, a rook, a queen or 2 minor pieces
+     */
+    static boolean hasMatingMaterial(int[] types, int count) {
+        int minorPieces = 0;
+        for (int i = 0; i < count; i++) {
+            switch (types[i]) {
+                case Common.PIECE_TYPE_KNIGHT:
+                case Common.PIECE_TYPE_BISHOP:
+                    minorPieces++;
+                    break;
+                default:
+                    return true;
+            }
+        }
+        return minorPieces > 1;
+    }
+}
@@ -0,0 +1,139 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * A fixed size transposition table used by the {@link Engine}. <br>
+ * Each entry is stored in 2 longs - the entry data, and the position hash xor-ed with the data.
+ * A reader accepts an entry only if the xor of both longs gives back the position hash, so a
+ * table can be shared by all the search threads without locks - each long is read and written
+ * atomically, and an entry torn by concurrent writers is simply treated as a miss.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class TranspositionTable {
+
+    private final static Logger LOGGER = Logger.getLogger(TranspositionTable.class.getName());
+
+    static final int BOUND_UPPER = 1;
+    static final int BOUND_LOWER = 2;
+    static final int BOUND_EXACT = 3;
+
+    private static final int ENTRY_SIZE_BYTES = 16;
+    private static final int SCORE_OFFSET = 32768;
+
+    private final AtomicLongArray _table;
+    private final int _mask;
+    private volatile int _generation = 0;
+
+    /**
+     * Create a transposition table of (up to) the given size.
+     *
+     * @param sizeInMB - table size in megabytes. the number of entries is rounded down to a power of 2
+     */
+    public TranspositionTable(int sizeInMB) {
+        if (sizeInMB < 1) {
+            LOGGER.warning("illegal transposition table size " + sizeInMB + "MB. using 1MB");
+            sizeInMB = 1;
+        }
+        long entries = Long.highestOneBit(((long) sizeInMB << 20) / ENTRY_SIZE_BYTES);
+        entries = Math.min(entries, 1L << 29);
+        _table = new AtomicLongArray((int) entries * 2);
+        _mask = (int) entries - 1;
+    }
+
+    /**
+     * Returns the number of entries in this table
+     *
+     * @return the number of entries in this table
+     */
+    public int getNumberOfEntries() {
+        return _mask + 1;
+    }
+
+    /**
+     * Remove all entries from this table
+     */
+    public void clear() {
+        for (int i = 0; i < _table.length(); i++) {
+            _table.set(i, 0);
+        }
+        _generation = 0;
+    }
+
+    /*
+     * mark a new search. entries from older searches are replaced first
+     */
+    void newSearch() {
+        _generation = (_generation + 1) & 0xFF;
+    }
+
+    /**
+     * Returns the entry data of the given position hash, or 0 if not found
+     */
+    long probe(long hash) {
+        int index = ((int) hash & _mask) << 1;
+        long data = _table.get(index + 1);
+        if ((_table.get(index) ^ data) != hash) {
+            return 0;
+        }
+        return data;
+    }
+
+    void store(long hash, int move, int score, int depth, int bound) {
+        int index = ((int) hash & _mask) << 1;
+        long oldData = _table.get(index + 1);
+        boolean sameHash = (_table.get(index) ^ oldData) == hash;
+        if (oldData != 0) {
+            if (sameHash) {
+                if ((depth < getDepth(oldData) - 2) && (bound != BOUND_EXACT)) {
+                    return;
+                }
+                if (move == PackedMove.NONE) {
+                    // keep the known best move
+                    move = getMove(oldData);
+                }
+            } else if ((getGeneration(oldData) == _generation) && (depth < getDepth(oldData))) {
+                return;
+            }
+        }
+        long data = (move & 0xFFFFFL) |
+                (((long) (score + SCORE_OFFSET) & 0xFFFFL) << 20) |
+                (((long) depth & 0xFFL) << 36) |
+                (((long) bound & 0x3L) << 44) |
+                (((long) _generation & 0xFFL) << 46);
+        _table.lazySet(index, hash ^ data);
+        _table.lazySet(index + 1, data);
+    }
+
+    static int getMove(long data) {
+        return (int) (data & 0xFFFFFL);
+    }
+
+    static int getScore(long data) {
+        return (int) ((data >>> 20) & 0xFFFFL) - SCORE_OFFSET;
+    }
+
+    static int getDepth(long data) {
+        return (int) ((data >>> 36) & 0xFFL);
+    }
+
+    static int getBound(long data) {
+        return (int) ((data >>> 44) & 0x3L);
+    }
+
+    private static int getGeneration(long data) {
+        return (int) ((data >>> 46) & 0xFFL);
+    }
+}
@@ -0,0 +1,99 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.List;
+
+/**
+ * Zobrist keys used to compute the 64 bit position hash of a game. <br>
+ * The keys are generated from a fixed seed, so a position hash is stable between runs and
+ * can be stored (i.e. in transposition tables or position caches).
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+final class Zobrist {
+
+    // max number of pieces of the same type in a pocket that are hashed separately
+    static final int MAX_POCKET_COUNT = 32;
+
+    static final long[][][] PIECES = new long[Common.COLOR_NUM][Common.PIECE_TYPE_NUM][64];
+    static final long[][] CASTLING = new long[Common.COLOR_NUM][Common.CASTLE_NUM];
+    static final long[] EP_COLUMN = new long[9];
+    static final long[][][] POCKET = new long[Common.COLOR_NUM][Common.PIECE_TYPE_NUM][MAX_POCKET_COUNT];
+    static final long BLACK_TO_MOVE;
+
+    private static long sSeed = 0x1CE55C0DE2009L;
+
+    static {
+        for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+            for (int type = Common.PIECE_TYPE_PAWN; type < Common.PIECE_TYPE_NUM; type++) {
+                for (int square = 0; square < 64; square++) {
+                    PIECES[color][type][square] = nextKey();
+                }
+                for (int count = 0; count < MAX_POCKET_COUNT; count++) {
+                    POCKET[color][type][count] = nextKey();
+                }
+            }
+            for (int castle = Common.CASTLE_KING; castle < Common.CASTLE_NUM; castle++) {
+                CASTLING[color][castle] = nextKey();
+            }
+        }
+        for (int column = 1; column <= 8; column++) {
+            EP_COLUMN[column] = nextKey();
+        }
+        BLACK_TO_MOVE = nextKey();
+    }
+
+    private Zobrist() {
+    }
+
+    /*
+     * splitmix64 generator. good enough distribution, and no dependency on java.util.Random implementation
+     */
+    private static long nextKey() {
+        sSeed += 0x9E3779B97F4A7C15L;
+        long z = sSeed;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns the 0..63 square index of (x,y) - x is the row number 1..8, y is the column number 1..8
+     */
+    static int square(int x, int y) {
+        return ((x - 1) << 3) + (y - 1);
+    }
+
+    static long pieceKey(Piece piece, int x, int y) {
+        return PIECES[piece.getColor()][piece.getType()][square(x, y)];
+    }
+
+    /**
+     * Returns the hash of the given color droppable pieces (crazy house and bug house)
+     */
+    static long pocketKey(int color, List<Piece> pieces) {
+        if (pieces.isEmpty()) {
+            return 0;
+        }
+        int[] counts = new int[Common.PIECE_TYPE_NUM];
+        for (Piece piece : pieces) {
+            counts[piece.getTypeWhenDropping()]++;
+        }
+        long key = 0;
+        for (int type = Common.PIECE_TYPE_PAWN; type < Common.PIECE_TYPE_NUM; type++) {
+            if (counts[type] != 0) {
+                key ^= POCKET[color][type][Math.min(counts[type], MAX_POCKET_COUNT - 1)];
+            }
+        }
+        return key;
+    }
+}
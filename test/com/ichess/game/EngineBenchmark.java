@@ -0,0 +1,69 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.LogManager;
+
+/**
+ * Engine scaling benchmark - nodes per second and time to depth per number of search threads. <br>
+ * Usage : ant benchmark -Dbenchmark=EngineBenchmark -Dbenchmark.args="[depth] [max threads]"
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class EngineBenchmark {
+
+    private static final String[] POSITIONS = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+    };
+
+    public static void main(String[] args) {
+        LogManager.getLogManager().reset();
+        int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+        int maxThreads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(maxThreads);
+
+        System.out.println("depth " + depth + ", " + POSITIONS.length + " positions");
+        System.out.println("threads\ttime to depth (ms)\tnodes\tnodes/sec\tspeedup");
+        long singleThreadTime = 0;
+        for (int threads : threadCounts) {
+            Engine engine = new Engine(64);
+            engine.setThreads(threads);
+            engine.setMaxDepth(depth);
+            engine.setTimeLimitMs(0);
+            long nodes = 0;
+            long time = 0;
+            for (String fen : POSITIONS) {
+                Game game = FEN.loadGame(fen, 0);
+                engine.clearHash();
+                long start = System.nanoTime();
+                engine.findBestMove(game);
+                time += System.nanoTime() - start;
+                nodes += engine.getNodes();
+            }
+            long timeMs = Math.max(1, time / 1000000);
+            if (threads == 1) {
+                singleThreadTime = timeMs;
+            }
+            System.out.println(threads + "\t" + timeMs + "\t" + nodes + "\t" + (nodes * 1000 / timeMs) + "\t" +
+                    String.format("%.2f", (double) singleThreadTime / timeMs));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.Arrays;
+import java.util.logging.LogManager;
+
+/**
+ * Evaluation benchmark - nanoseconds per static evaluation, of the handcrafted evaluation and of the
+ * neural network evaluation. <br>
+ * Usage : ant benchmark -Dbenchmark=EvaluationBenchmark -Dbenchmark.args="[iterations] [network file]" <br>
+ * Without a network file, a random network of the default dimensions is used.
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class EvaluationBenchmark {
+
+    private static final int DEFAULT_ACCUMULATOR_SIZE = 256;
+    private static final int DEFAULT_HIDDEN_SIZE = 32;
+
+    private static final String[] POSITIONS = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+    };
+
+    public static void main(String[] args) {
+        LogManager.getLogManager().reset();
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 10000000;
+        Game[] games = new Game[POSITIONS.length];
+        for (int i = 0; i < POSITIONS.length; i++) {
+            games[i] = FEN.loadGame(POSITIONS[i], 0);
+        }
+        NeuralNetwork network = (args.length > 1) ? NeuralNetwork.load(args[1]) :
+                NeuralNetwork.createRandom(DEFAULT_ACCUMULATOR_SIZE, DEFAULT_HIDDEN_SIZE, 0);
+        if (network == null) {
+            System.out.println("can't load network " + args[1]);
+            return;
+        }
+        measure("handcrafted evaluation", new Evaluation(), games, iterations);
+        // each game has its own neural evaluation, so the accumulators are not recomputed
+        measure("neural evaluation " + network.getAccumulatorSize() + "x2-" + network.getHiddenSize() + "-1",
+                new NeuralEvaluation[]{new NeuralEvaluation(network), new NeuralEvaluation(network),
+                        new NeuralEvaluation(network), new NeuralEvaluation(network)}, games, iterations);
+        measure("neural evaluation (accumulator refresh)", new NeuralEvaluation(network), games, iterations / 10);
+    }
+
+    private static void measure(String name, Evaluator evaluator, Game[] games, int iterations) {
+        Evaluator[] evaluators = new Evaluator[games.length];
+        Arrays.fill(evaluators, evaluator);
+        measure(name, evaluators, games, iterations);
+    }
+
+    private static void measure(String name, Evaluator[] evaluators, Game[] games, int iterations) {
+        // warm up
+        long checksum = run(evaluators, games, iterations / 10);
+        long start = System.nanoTime();
+        checksum += run(evaluators, games, iterations);
+        long time = System.nanoTime() - start;
+        System.out.println(name + " : " + String.format("%.1f", (double) time / iterations) +
+                " ns per evaluation (checksum " + checksum + ")");
+    }
+
+    private static long run(Evaluator[] evaluators, Game[] games, int iterations) {
+        long checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            int index = i % games.length;
+            checksum += evaluators[index].evaluate(games[index]);
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,97 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.logging.LogManager;
+
+/**
+ * FEN benchmark - positions per second of the FEN writer (into a reused buffer and into new strings),
+ * of the FEN position parser, and of a full FEN game load (into a new game and into a reset game). <br>
+ * Usage : ant benchmark -Dbenchmark=FENBenchmark -Dbenchmark.args="[iterations]"
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class FENBenchmark {
+
+    private static final String[] POSITIONS = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r1bqkbnr/pppp1ppp/2n5/4p3/4P3/5N2/PPPP1PPP/RNBQKB1R w KQkq - 2 3",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "r1bqk2r/pppp1Npp/2n2n2/2b5/4P3/8/PPPP1PPP/RNBQKB1R[Pp] b KQkq - 0 5",
+    };
+
+    public static void main(String[] args) {
+        LogManager.getLogManager().reset();
+        final int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        final Game[] games = new Game[POSITIONS.length];
+        for (int i = 0; i < POSITIONS.length; i++) {
+            games[i] = FEN.loadGame(POSITIONS[i], 0);
+        }
+
+        final StringBuilder buffer = new StringBuilder(128);
+        measure("append FEN string (reused buffer)", iterations, new Task() {
+            public long run(int i) {
+                buffer.setLength(0);
+                return FEN.appendFENString(games[i % games.length], buffer).length();
+            }
+        });
+        measure("get FEN string", iterations, new Task() {
+            public long run(int i) {
+                return FEN.getFENString(games[i % games.length]).length();
+            }
+        });
+        final Game[] targets = new Game[POSITIONS.length];
+        for (int i = 0; i < POSITIONS.length; i++) {
+            targets[i] = new Game(games[i].getGameKind());
+        }
+        measure("load FEN position", iterations, new Task() {
+            public long run(int i) {
+                int index = i % POSITIONS.length;
+                targets[index].clearBoard();
+                return FEN.loadPositionToGame(targets[index], POSITIONS[index]) ? 1 : 0;
+            }
+        });
+        measure("load FEN game", iterations / 100, new Task() {
+            public long run(int i) {
+                return FEN.loadGame(POSITIONS[i % POSITIONS.length], 0).getMoveNumber();
+            }
+        });
+        final Game reused = new Game();
+        measure("reset FEN game", iterations / 100, new Task() {
+            public long run(int i) {
+                return reused.reset(0, POSITIONS[i % POSITIONS.length]) ? reused.getMoveNumber() : 0;
+            }
+        });
+    }
+
+    private interface Task {
+        long run(int i);
+    }
+
+    private static void measure(String name, int iterations, Task task) {
+        // warm up
+        long checksum = run(task, iterations / 10);
+        long start = System.nanoTime();
+        checksum += run(task, iterations);
+        long time = System.nanoTime() - start;
+        System.out.println(name + " : " + String.format("%.1f", (double) time / iterations) + " ns per position, " +
+                String.format("%.0f", iterations * 1e9 / time) + " positions per second (checksum " + checksum + ")");
+    }
+
+    private static long run(Task task, int iterations) {
+        long checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            checksum += task.run(i);
+        }
+        return checksum;
+    }
+}
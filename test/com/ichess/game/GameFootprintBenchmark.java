@@ -0,0 +1,83 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.LogManager;
+
+/**
+ * Game memory footprint benchmark - replays the games of a PGN file with full and with compact history (see
+ * {@link Game#setCompactHistory(boolean)}), keeps them all in memory, and measures the heap used per game. <br>
+ * Usage : ant benchmark -Dbenchmark=GameFootprintBenchmark -Dbenchmark.args="[pgn file]"
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class GameFootprintBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        LogManager.getLogManager().reset();
+        String filename = (args.length > 0) ? args[0] : "test/pgn_files/fischerandom.pgn";
+
+        List<int[]> moveLists = new ArrayList<int[]>();
+        List<Integer> kinds = new ArrayList<Integer>();
+        List<String> positions = new ArrayList<String>();
+        long plies = 0;
+        PGNScanner scanner = new PGNScanner(new InputStreamReader(new FileInputStream(filename), "UTF-8"));
+        for (PGNHeader header = scanner.next(); header != null; header = scanner.next()) {
+            Game game = header.getGame();
+            if ((game == null) || game.isBugHouse()) {
+                continue;
+            }
+            int[] moves = new int[game.getCurrentMove()];
+            for (int i = 0; i < moves.length; i++) {
+                moves[i] = PackedMove.encode(game.getMove(i));
+            }
+            moveLists.add(moves);
+            kinds.add(game.getGameKind());
+            positions.add((String) game.getAttribute(Game.INITIAL_POSITION_FEN));
+            plies += moves.length;
+        }
+        scanner.close();
+        System.out.println(moveLists.size() + " games, " + plies + " half moves");
+
+        for (boolean compact : new boolean[]{false, true}) {
+            long before = usedMemory();
+            long start = System.nanoTime();
+            List<Game> games = new ArrayList<Game>(moveLists.size());
+            for (int g = 0; g < moveLists.size(); g++) {
+                Game game = new Game(kinds.get(g));
+                game.reset(kinds.get(g), positions.get(g));
+                game.setCompactHistory(compact);
+                for (int code : moveLists.get(g)) {
+                    game.playMove(PackedMove.toMove(game, code));
+                }
+                games.add(game);
+            }
+            long time = System.nanoTime() - start;
+            long used = usedMemory() - before;
+            System.out.println((compact ? "compact" : "full   ") + " history : " + (used / games.size()) +
+                    " bytes per game, " + (used / Math.max(plies, 1)) + " bytes per half move, replay " +
+                    (time / 1000000) + " ms");
+            games.clear();
+        }
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,85 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.LogManager;
+
+/**
+ * Game journal benchmark - journals the moves of the games of a PGN file (as live games), and measures the
+ * journal append rate and the recovery time with 1 and more replay threads. <br>
+ * Usage : ant benchmark -Dbenchmark=GameJournalBenchmark -Dbenchmark.args="[pgn file] [threads] [journal dir]"
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class GameJournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        LogManager.getLogManager().reset();
+        String filename = (args.length > 0) ? args[0] : "test/pgn_files/fischerandom.pgn";
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String directory = (args.length > 2) ? args[2] : new File(System.getProperty("java.io.tmpdir"), "jchess-journal").getPath();
+        deleteJournal(directory);
+
+        List<Game> games = new ArrayList<Game>();
+        PGNScanner scanner = new PGNScanner(new InputStreamReader(new FileInputStream(filename), "UTF-8"));
+        for (PGNHeader header = scanner.next(); header != null; header = scanner.next()) {
+            Game game = header.getGame();
+            if (game != null) {
+                games.add(game);
+            }
+        }
+        scanner.close();
+
+        GameJournal journal = GameJournal.open(directory);
+        long start = System.nanoTime();
+        long id = 0;
+        for (Game loaded : games) {
+            Game game = new Game(loaded.getGameKind());
+            game.reset(loaded.getGameKind(), (String) loaded.getAttribute(Game.INITIAL_POSITION_FEN));
+            journal.attach(game, id++);
+            for (int i = 0; i < loaded.getCurrentMove(); i++) {
+                game.playMove(PackedMove.toMove(game, PackedMove.encode(loaded.getMove(i))));
+            }
+        }
+        journal.commit();
+        long time = System.nanoTime() - start;
+        long records = journal.getRecordCount();
+        journal.close();
+        System.out.println("journaled " + games.size() + " games, " + records + " records in " + (time / 1000000) +
+                " ms, " + String.format("%.0f", records * 1e9 / time) + " records per second");
+
+        // warm up
+        GameJournal.recover(directory, threads);
+        for (int count : new int[]{1, threads}) {
+            start = System.nanoTime();
+            Map<Long, Game> recovered = GameJournal.recover(directory, count);
+            time = System.nanoTime() - start;
+            System.out.println("recovered " + recovered.size() + " games with " + count + " threads in " +
+                    (time / 1000000) + " ms");
+        }
+        deleteJournal(directory);
+    }
+
+    private static void deleteJournal(String directory) {
+        File[] files = new File(directory).listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
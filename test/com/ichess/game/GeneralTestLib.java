@@ -16,11 +16,19 @@ import com.ichess.jvoodoo.Voodoo;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
 
@@ -1190,4 +1198,1682 @@ public class GeneralTestLib {
         game.playMoveList("g8g8q h8g8  f7g8q d8g8  b1c3  e4e4p g4g4n f3f3p");
         assertEquals(game.getMoveListAlg(), "Q@g8 Rxg8 fxg8=Q Qxg8 Nc3 P@e4 N@g4 P@f3");
     }
+
+    @Test
+    public void test_PositionHash()
+    {
+        Game game = new Game();
+        long initialHash = game.getPositionHash();
+        assertTrue(game.playMoveList("Nf3 Nf6"));
+        assertTrue(game.getPositionHash() != initialHash);
+        assertTrue(game.playMoveList("Ng1 Ng8"));
+        assertEquals(initialHash, game.getPositionHash());
+        assertEquals(initialHash, game.getCurrentMoveInfo().getPositionHash());
+        game.takebackAllMoves();
+        assertEquals(initialHash, game.getPositionHash());
+
+        // same pieces, other side to move
+        Game blackToMove = FEN.loadGame("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR b KQkq - 0 1", 0);
+        assertNotNull(blackToMove);
+        assertTrue(blackToMove.getPositionHash() != initialHash);
+    }
+
+    @Test
+    public void test_Engine_MateInOne()
+    {
+        Game game = FEN.loadGame("6k1/5ppp/8/8/8/8/5PPP/R5K1 w - - 0 1", 0);
+        assertNotNull(game);
+        Engine engine = new Engine(1);
+        engine.setMaxDepth(3);
+        Move move = engine.findBestMove(game);
+        assertNotNull(move);
+        assertEquals(1, engine.getMateIn());
+        assertTrue(game.playMove(move));
+        assertTrue(game.isCheckMate());
+        assertTrue(game.isEnded());
+        assertNull(engine.findBestMove(game));
+    }
+
+    @Test
+    public void test_Engine_CrazyHouseDropMate()
+    {
+        Game game = FEN.loadGame("6k1/5ppp/8/8/8/8/8/6K1[R] w - - 0 1", 0);
+        assertNotNull(game);
+        assertTrue(game.isCrazyHouse());
+        Engine engine = new Engine(1);
+        engine.setMaxDepth(3);
+        Move move = engine.findBestMove(game);
+        assertNotNull(move);
+        assertTrue(move.isDropMove());
+        assertTrue(game.playMove(move));
+        assertTrue(game.isCheckMate());
+    }
+
+    @Test
+    public void test_Engine_AllGameKinds()
+    {
+        for (int gkind = Common.GAME_KIND_REGULAR; gkind < Common.GAME_KIND_NUM; gkind++)
+        {
+            Game game = new Game(gkind);
+            String fen = game.getCurrentMoveInfo().getFenPosition();
+            Engine engine = new Engine(1);
+            engine.setMaxDepth(3);
+            for (int i = 0; i < 4; i++)
+            {
+                Move move = engine.findBestMove(game);
+                assertNotNull("game kind " + gkind, move);
+                assertTrue("game kind " + gkind, game.playMove(move));
+            }
+            game.takebackAllMoves();
+            assertEquals(fen, game.getCurrentMoveInfo().getFenPosition());
+        }
+    }
+
+    @Test
+    public void test_Engine_Threads()
+    {
+        Engine engine = new Engine(1);
+        assertFalse(engine.setThreads(0));
+        assertTrue(engine.setThreads(4));
+        engine.setMaxDepth(3);
+        Game game = FEN.loadGame("6k1/5ppp/8/8/8/8/5PPP/R5K1 w - - 0 1", 0);
+        Move move = engine.findBestMove(game);
+        assertNotNull(move);
+        assertEquals(1, engine.getMateIn());
+        assertTrue(game.playMove(move));
+        assertTrue(game.isCheckMate());
+
+        game = new Game();
+        for (int i = 0; i < 4; i++)
+        {
+            move = engine.findBestMove(game);
+            assertNotNull(move);
+            assertTrue(game.playMove(move));
+        }
+    }
+
+    @Test
+    public void test_Engine_GameClockTimeLimit()
+    {
+        Engine engine = new Engine(1);
+        engine.setTimeLimitMs(700);
+        Game game = new Game();
+        engine.setUseGameClock(true);
+        // not timed. use the fixed time limit
+        assertEquals(700, engine.getTimeLimitMs(game));
+
+        assertTrue(game.setTimeLimitForGame(5));
+        assertTrue(game.setTimeIncrementPerMove(2));
+        assertEquals(5 * 60 * 1000 / 30 + 1500, engine.getTimeLimitMs(game));
+        engine.setUseGameClock(false);
+        assertEquals(700, engine.getTimeLimitMs(game));
+    }
+
+    @Test
+    public void test_Evaluation_Incremental()
+    {
+        Evaluation evaluation = new Evaluation();
+        Game game = new Game();
+        // symmetric position
+        assertEquals(Evaluation.TEMPO, evaluation.evaluate(game));
+
+        // captures and castling
+        String[] moves = "e4 e5 Nf3 Nc6 Bc4 Nf6 O-O Nxe4 Re1 d5 Bxd5 Qxd5 Nc3 Qa5 Nxe4 Be6 Neg5 O-O-O Nxe6 fxe6 d3 Bc5 Be3 Bxe3 Rxe3 Qxa2 Rxa2 Rd6".split(" ");
+        List<Integer> scores = new ArrayList<Integer>();
+        for (String move : moves)
+        {
+            assertTrue(move, game.playMove(move));
+            Game copy = new Game();
+            copy.copyPositionFrom(game);
+            int score = evaluation.evaluate(game);
+            assertEquals(move, new Evaluation().evaluate(copy), score);
+            scores.add(score);
+        }
+        for (int i = moves.length - 1; i > 0; i--)
+        {
+            game.takeback();
+            assertEquals(moves[i - 1], scores.get(i - 1).intValue(), evaluation.evaluate(game));
+        }
+        game.takeback();
+        assertEquals(Evaluation.TEMPO, evaluation.evaluate(game));
+
+        // en passant and promotion
+        Game ep = FEN.loadGame("4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 1", 0);
+        int before = evaluation.evaluate(ep);
+        assertTrue(ep.playMove("exd6"));
+        Game copy = new Game();
+        copy.copyPositionFrom(ep);
+        assertEquals(new Evaluation().evaluate(copy), evaluation.evaluate(ep));
+        ep.takeback();
+        assertEquals(before, evaluation.evaluate(ep));
+
+        Game promotion = FEN.loadGame("8/P6k/8/8/8/8/8/K7 w - - 0 1", 0);
+        before = evaluation.evaluate(promotion);
+        assertTrue(promotion.playMove("a8=Q"));
+        copy = new Game();
+        copy.copyPositionFrom(promotion);
+        assertEquals(new Evaluation().evaluate(copy), evaluation.evaluate(promotion));
+        assertTrue(evaluation.evaluate(promotion) < -Evaluation.PIECE_VALUES[Common.PIECE_TYPE_QUEEN] / 2);
+        promotion.takeback();
+        assertEquals(before, evaluation.evaluate(promotion));
+    }
+
+    @Test
+    public void test_Evaluation_Variants()
+    {
+        Evaluation evaluation = new Evaluation();
+        // a passed pawn is better than a blocked one
+        Game passed = FEN.loadGame("4k3/8/8/8/3P4/8/8/4K3 w - - 0 1", 0);
+        Game blocked = FEN.loadGame("4k3/3p4/8/8/3P4/8/8/4K3 w - - 0 1", 0);
+        assertTrue(evaluation.evaluate(passed) > evaluation.evaluate(blocked) + 100);
+
+        // in suicide less pieces is better
+        Game suicide = new Game(Common.GAME_KIND_SUICIDE);
+        assertTrue(suicide.playMoveList("e3 b5 Bxb5"));
+        assertTrue(evaluation.evaluate(suicide) > 0);
+
+        // in crazy house, the pocket counts
+        Game crazyHouse = FEN.loadGame("4k3/8/8/8/8/8/8/4K3[Q] b - - 0 1", 0);
+        assertTrue(crazyHouse.isCrazyHouse());
+        assertTrue(evaluation.evaluate(crazyHouse) < -Evaluation.POCKET_VALUES[Common.PIECE_TYPE_QUEEN] / 2);
+    }
+
+    @Test
+    public void test_NeuralEvaluation_Incremental()
+    {
+        NeuralNetwork network = NeuralNetwork.createRandom(32, 8, 1);
+        NeuralEvaluation evaluation = new NeuralEvaluation(network);
+        Game game = new Game();
+        String[] moves = "e4 e5 Nf3 Nc6 Bc4 Nf6 O-O Nxe4 Re1 d5 Bxd5 Qxd5 Nc3 Qa5 Nxe4 Be6".split(" ");
+        List<Integer> scores = new ArrayList<Integer>();
+        scores.add(evaluation.evaluate(game));
+        for (String move : moves)
+        {
+            assertTrue(move, game.playMove(move));
+            Game copy = new Game();
+            copy.copyPositionFrom(game);
+            int score = evaluation.evaluate(game);
+            assertEquals(move, new NeuralEvaluation(network).evaluate(copy), score);
+            scores.add(score);
+        }
+        for (int i = moves.length - 1; i >= 0; i--)
+        {
+            game.takeback();
+            assertEquals(moves[i], scores.get(i).intValue(), evaluation.evaluate(game));
+        }
+        evaluation.detach();
+    }
+
+    @Test
+    public void test_NeuralNetwork_SaveAndLoad()
+    {
+        NeuralNetwork network = NeuralNetwork.createRandom(16, 4, 2);
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        assertTrue(network.save(out));
+        NeuralNetwork loaded = NeuralNetwork.load(new java.io.ByteArrayInputStream(out.toByteArray()));
+        assertNotNull(loaded);
+        assertEquals(16, loaded.getAccumulatorSize());
+        assertEquals(4, loaded.getHiddenSize());
+
+        Game game = FEN.loadGame("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", 0);
+        assertEquals(new NeuralEvaluation(network).evaluate(game), new NeuralEvaluation(loaded).evaluate(game));
+
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), 100);
+        assertNull(NeuralNetwork.load(new java.io.ByteArrayInputStream(truncated)));
+        assertNull(NeuralNetwork.load(new java.io.ByteArrayInputStream(new byte[]{1, 2, 3, 4})));
+        assertNull(NeuralNetwork.load("no_such_network_file.nnue"));
+
+        Engine engine = new Engine(1);
+        engine.setNeuralNetwork(loaded);
+        engine.setMaxDepth(3);
+        game = FEN.loadGame("6k1/5ppp/8/8/8/8/5PPP/R5K1 w - - 0 1", 0);
+        Move move = engine.findBestMove(game);
+        assertNotNull(move);
+        assertTrue(game.playMove(move));
+        assertTrue(game.isCheckMate());
+    }
+
+    @Test
+    public void test_Tablebase_KRvK() throws Exception
+    {
+        assertEquals(Arrays.asList("KQvK", "KRvK"), TablebaseGenerator.getSubSignatures("KPvK"));
+        assertTrue(TablebaseGenerator.getSignatures(4).contains("KRvKP"));
+        assertFalse(TablebaseGenerator.getSignatures(4).contains("KNvKB"));
+
+        java.io.File directory = java.nio.file.Files.createTempDirectory("jchess-tablebases").toFile();
+        try {
+            Tablebases tablebases = new Tablebases(directory.getPath());
+            Tablebase table = new TablebaseGenerator(tablebases).generate("KRvK");
+            assertNotNull(table);
+            // the longest KRvK mate is 16 moves
+            int longestWin = 0;
+            for (int i = 0; i < table.getSize(); i++) {
+                int entry = table.getEntry(i);
+                if ((entry != 0) && (Tablebase.getResult(entry) == Tablebase.RESULT_WIN)) {
+                    longestWin = Math.max(longestWin, Tablebase.getDistance(entry));
+                }
+            }
+            assertEquals(31, longestWin);
+
+            String[] fens = {
+                    "R5k1/8/6K1/8/8/8/8/8 b - - 0 1",
+                    "8/8/8/8/8/6k1/r7/6K1 b - - 0 1",
+                    "8/8/8/8/8/8/6kR/4K3 b - - 0 1",
+                    "8/8/8/4k3/8/8/8/R3K3 w - - 0 1",
+            };
+            int[] entries = new int[fens.length];
+            for (int i = 0; i < fens.length; i++) {
+                entries[i] = tablebases.probe(FEN.loadGame(fens[i], 0));
+            }
+            assertEquals(Tablebase.RESULT_LOSS, Tablebase.getResult(entries[0]));
+            assertEquals(0, Tablebase.getDistance(entries[0]));
+            assertEquals(Tablebase.RESULT_WIN, Tablebase.getResult(entries[1]));
+            assertEquals(1, Tablebase.getDistance(entries[1]));
+            assertEquals(Tablebase.RESULT_DRAW, Tablebase.getResult(entries[2]));
+            assertEquals(Tablebase.RESULT_WIN, Tablebase.getResult(entries[3]));
+
+            // reload the table file (memory mapped)
+            Tablebases loaded = new Tablebases(directory.getPath());
+            assertEquals(3, loaded.getMaxMen());
+            for (int i = 0; i < fens.length; i++) {
+                assertEquals(entries[i], loaded.probe(FEN.loadGame(fens[i], 0)));
+            }
+            assertEquals(0, loaded.probe(FEN.loadGame("8/8/8/4k3/8/8/8/4K3 w - - 0 1", 0)));
+            assertEquals(Tablebase.NOT_FOUND, loaded.probe(FEN.loadGame("8/8/8/4k3/8/8/8/1Q2K3 w - - 0 1", 0)));
+            assertEquals(Tablebase.NOT_FOUND, loaded.probe(FEN.loadGame("4k3/8/8/8/8/8/8/R3K3 w Q - 0 1", 0)));
+
+            // the engine mates by the table distance
+            Engine engine = new Engine(1);
+            engine.setTablebases(loaded);
+            engine.setMaxDepth(2);
+            Game game = FEN.loadGame(fens[3], 0);
+            for (int ply = 0; (ply < Tablebase.getDistance(entries[3])) && !game.isEnded(); ply++) {
+                Move move = engine.findBestMove(game);
+                assertNotNull(move);
+                assertTrue(game.playMove(move));
+            }
+            assertTrue(game.isCheckMate());
+        } finally {
+            java.io.File[] files = directory.listFiles();
+            if (files != null) {
+                for (java.io.File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void test_MateSolver()
+    {
+        MateSolver solver = new MateSolver();
+        MateSolution solution = solver.solve(FEN.loadGame("kbK5/pp6/1P6/8/8/8/8/R7 w - - 0 1", 0), 2);
+        assertEquals(MateSolution.RESULT_MATE, solution.getResult());
+        assertTrue(solution.isUnique());
+        assertEquals(Arrays.asList("Ra6"), solution.getKeyMoves());
+        assertEquals(2, solution.getShortestMate());
+
+        solution = solver.solve(FEN.loadGame("6k1/5ppp/8/8/8/8/5PPP/R5K1 w - - 0 1", Common.GAME_KIND_FISCHER), 1);
+        assertTrue(solution.isUnique());
+        assertEquals(Arrays.asList("Ra8#"), solution.getKeyMoves());
+
+        solution = solver.solve(FEN.loadGame("5rk1/5ppp/8/8/8/8/8/R5K1 w - - 0 1", 0), 2);
+        assertEquals(MateSolution.RESULT_NO_MATE, solution.getResult());
+        assertTrue(solution.getKeyMoves().isEmpty());
+
+        // any rook drop on the 8th row mates
+        solution = solver.solve(FEN.loadGame("6k1/5ppp/8/8/8/8/8/6K1[R] w - - 0 1", 0), 1);
+        assertEquals(MateSolution.RESULT_MATE, solution.getResult());
+        assertFalse(solution.isUnique());
+        assertEquals(5, solution.getKeyMoves().size());
+        assertEquals(1, solution.getMateInMoves("R@a8#"));
+
+        // all mates in up to 2 moves, shortest first
+        solution = solver.solve(FEN.loadGame("k7/8/1K6/8/8/8/8/6Q1 w - - 0 1", 0), 2);
+        assertEquals("Qg8#", solution.getKeyMoves().get(0));
+        assertEquals(2, solution.getMateInMoves("Qg6"));
+        assertEquals(0, solution.getMateInMoves("Qb1"));
+
+        List<String> fens = Arrays.asList(
+                "r2qkb1r/pp2nppp/3p4/2pNN1B1/2BnP3/3P4/PPP2PPP/R2bK2R w KQkq - 1 1",
+                "kbK5/pp6/1P6/8/8/8/8/R7 w - - 0 1",
+                "k7/8/8/8/8/8/8/8 w - - 0 1",
+                "5rk1/5ppp/8/8/8/8/8/R5K1 w - - 0 1");
+        List<MateSolution> solutions = MateSolver.solveAll(fens, 0, 2, 2, 0);
+        assertEquals(4, solutions.size());
+        assertEquals(Arrays.asList("Nf6+"), solutions.get(0).getKeyMoves());
+        assertTrue(solutions.get(1).isUnique());
+        assertEquals(MateSolution.RESULT_ILLEGAL_POSITION, solutions.get(2).getResult());
+        assertEquals(MateSolution.RESULT_NO_MATE, solutions.get(3).getResult());
+
+        solutions = MateSolver.solveAll(fens.subList(0, 1), 0, 4, 1, 1);
+        assertEquals(MateSolution.RESULT_TIMEOUT, solutions.get(0).getResult());
+    }
+
+    @Test
+    public void test_SuicideSolver()
+    {
+        SuicideSolver solver = new SuicideSolver();
+        solver.setMaxDepth(30);
+        // the rook is given to the pawn
+        assertEquals(SuicideSolver.RESULT_WIN, solver.solve(FEN.loadGame("8/8/8/8/8/8/1p6/R7 w - - 0 1", Common.GAME_KIND_SUICIDE)));
+        assertEquals("Rc1", solver.getBestMove());
+        // the capture is forced
+        assertEquals(SuicideSolver.RESULT_LOSS, solver.solve(FEN.loadGame("8/8/8/8/8/8/1p6/R7 b - - 0 1", Common.GAME_KIND_SUICIDE)));
+        assertNull(solver.getBestMove());
+        assertEquals(SuicideSolver.RESULT_WIN, solver.solve(FEN.loadGame("8/8/8/8/8/8/pp6/R7 w - - 0 1", Common.GAME_KIND_SUICIDE)));
+        assertEquals("Rxa2", solver.getBestMove());
+
+        // single level search, in a memory mapped tree
+        File treeFile = new File(System.getProperty("java.io.tmpdir"), "jchess-proof-tree-test.bin");
+        solver.setTreeFile(treeFile.getPath());
+        solver.setSecondLevelNodes(0);
+        assertEquals(SuicideSolver.RESULT_LOSS, solver.solve(FEN.loadGame("8/8/8/8/8/1p6/8/R7 b - - 0 1", Common.GAME_KIND_SUICIDE)));
+        assertTrue(solver.getNodes() > 0);
+        assertFalse(treeFile.exists());
+        solver.setTreeFile(null);
+
+        // no side wins within the max depth
+        solver.setMaxDepth(4);
+        assertEquals(SuicideSolver.RESULT_DRAW, solver.solve(FEN.loadGame("8/8/8/3k4/8/8/8/4K3 w - - 0 1", Common.GAME_KIND_SUICIDE)));
+
+        // tree limit
+        solver.setMaxDepth(SuicideSolver.DEFAULT_MAX_DEPTH);
+        solver.setMaxTreeNodes(100);
+        assertEquals(SuicideSolver.RESULT_UNKNOWN, solver.solve(FEN.loadGame("8/8/8/8/8/2p5/8/R6K w - - 0 1", Common.GAME_KIND_SUICIDE)));
+
+        // only suicide games
+        assertEquals(SuicideSolver.RESULT_UNKNOWN, solver.solve(new Game()));
+    }
+
+    @Test
+    public void test_MonteCarloEngine()
+    {
+        MonteCarloEngine engine = new MonteCarloEngine();
+        engine.setSeed(1);
+        engine.setTimeLimitMs(0);
+        engine.setPlayoutLimit(300);
+        // drop mate
+        Game game = FEN.loadGame("k7/8/1K6/8/8/8/8/8[Q] w - - 0 1", Common.GAME_KIND_CRAZY_HOUSE);
+        Move move = engine.findBestMove(game);
+        assertNotNull(move);
+        assertTrue(game.playMove(move));
+        assertEquals("Q@a7#", game.getLastMove().getNameAlg());
+        assertEquals(300, engine.getPlayouts());
+        assertTrue(engine.getWinRate() > 0.9);
+
+        // parallel trees
+        assertTrue(engine.setThreads(2));
+        game = FEN.loadGame("r1bqkbnr/pppp1ppp/2n5/4p3/2B1P3/5Q2/PPPP1PPP/RNB1K1NR[] w KQkq - 0 4", Common.GAME_KIND_CRAZY_HOUSE);
+        move = engine.findBestMove(game);
+        assertNotNull(move);
+        assertTrue(game.playMove(move));
+        assertEquals("Qxf7#", game.getLastMove().getNameAlg());
+
+        // bug house, with tree reuse between the moves
+        engine.setPlayoutLimit(50);
+        game = new Game(Common.GAME_KIND_BUG_HOUSE);
+        for (int i = 0; i < 4; i++)
+        {
+            move = engine.findBestMove(game);
+            assertNotNull(move);
+            assertTrue(game.playMove(move));
+        }
+        assertFalse(engine.setThreads(0));
+    }
+
+    @Test
+    public void test_Arena()
+    {
+        ArenaResult stats = new ArenaResult("a", "b");
+        stats.setSprt(0, 50, 0.05, 0.05);
+        for (int i = 0; i < 100; i++)
+        {
+            stats.addResult(i < 60 ? 1 : (i < 80 ? 0.5 : 0));
+        }
+        assertEquals(0.7, stats.getScore(), 1e-9);
+        assertEquals(147.2, stats.getElo(), 0.1);
+        assertTrue(stats.getEloError() > 50 && stats.getEloError() < 100);
+        assertEquals(ArenaResult.SPRT_H1, stats.getSprtResult());
+
+        Arena arena = new Arena();
+        arena.addGameKind(Common.GAME_KIND_REGULAR);
+        arena.addGameKind(Common.GAME_KIND_CRAZY_HOUSE);
+        assertTrue(arena.addTimeControl(1, 0));
+        assertTrue(arena.setTimeScale(20));
+        assertTrue(arena.setThreads(2));
+        assertTrue(arena.setSprt(0, 200, 0.05, 0.05));
+        arena.setMaxPlies(100);
+        java.io.StringWriter pgn = new java.io.StringWriter();
+        arena.setPgnWriter(pgn);
+        ArenaResult result = arena.play("engine", new Arena.PlayerFactory()
+        {
+            @Override
+            public Player createPlayer()
+            {
+                Engine engine = new Engine(1);
+                engine.setMaxDepth(1);
+                return engine;
+            }
+        }, "random", new Arena.PlayerFactory()
+        {
+            @Override
+            public Player createPlayer()
+            {
+                MonteCarloEngine engine = new MonteCarloEngine();
+                engine.setSeed(1);
+                engine.setPlayoutLimit(1);
+                return engine;
+            }
+        }, 12);
+        assertTrue(result.getGames() > 0);
+        assertTrue(result.getWins() > result.getLosses());
+        assertEquals(ArenaResult.SPRT_H1, result.getSprtResult());
+        assertTrue(result.getGames() < 12);
+        assertTrue(result.getGamesPerSecond() > 0);
+        assertTrue(pgn.toString().contains("[White \"engine\"]"));
+        assertTrue(pgn.toString().contains("[Variant \"CrazyHouse\"]"));
+        assertFalse(arena.setTimeScale(0.5));
+    }
+
+    @Test
+    public void test_FENRoundTrip()
+    {
+        String[] fens = {
+                "rnbqkbnr/ppp1pppp/8/8/3pP3/8/PPPP1PPP/RNBQKBNR b KQkq e3 0 3",
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w Kq - 3 17",
+                "bqnbrkrn/pppppppp/8/8/8/8/PPPPPPPP/BQNBRKRN w GEge - 0 1",
+                "r1b2n1Q~/pppp1kr1/4pNpp/1N2n3/1b6/4PPQP/PPP1BB2/R4K2[QPPr] w - - 0 37",
+                "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        };
+        StringBuilder buffer = new StringBuilder();
+        for (String fen : fens) {
+            Game game = FEN.loadGame(fen, 0);
+            assertNotNull(fen, game);
+            assertEquals(fen, FEN.getFENString(game));
+            // the writer appends into a reused buffer
+            buffer.setLength(0);
+            buffer.append("fen:");
+            assertEquals("fen:" + fen, FEN.appendFENString(game, buffer).toString());
+
+            // the position parser accepts any character sequence
+            Game positionGame = new Game(game.getGameKind());
+            positionGame.clearBoard();
+            assertTrue(FEN.loadPositionToGame(positionGame, new StringBuilder(fen)));
+            assertEquals(FEN.getFENPosition(game), FEN.getFENPosition(positionGame));
+        }
+
+        // xfen 9th row holdings
+        Game game = FEN.loadGame("1rq1k1nr/p1pp1ppp/b1p1p3/4N3/1b1PPB2/1PN5/P1PQ1PPP/R3K2R/Bn w KQk - 0 10", 0);
+        assertNotNull(game);
+        assertEquals(Common.GAME_KIND_CRAZY_HOUSE, game.getGameKind());
+        assertEquals("1rq1k1nr/p1pp1ppp/b1p1p3/4N3/1b1PPB2/1PN5/P1PQ1PPP/R3K2R[Nb] w KQk - 0 10", FEN.getFENString(game));
+
+        // bad positions
+        assertNull(FEN.loadGame("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP w KQkq - 0 1", true));
+        assertNull(FEN.loadGame("rnbqkbnr/pppppppp/9/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", true));
+        assertNull(FEN.loadGame("rnbqkbnr/ppppxppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", true));
+        assertNull(FEN.loadGame("~rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", true));
+        assertNull(FEN.loadGame("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR[Px] w KQkq - 0 1", Common.GAME_KIND_CRAZY_HOUSE));
+        assertNull(FEN.loadGame("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR[P] w KQkq - 0 1", Common.GAME_KIND_REGULAR));
+        game = FEN.loadGame("  rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR   w  KQkq  -  x  y ", 0);
+        assertNotNull(game);
+        assertEquals(FEN.FEN_INITIAL_POS, FEN.getFENString(game));
+    }
+
+    @Test
+    public void test_GameReset()
+    {
+        Game game = new Game(Common.GAME_KIND_CRAZY_HOUSE);
+        game.setWhiteName("white");
+        game.setAttribute(PGN.STR_EVENT, "event");
+        assertTrue(game.playMoveList("e4 d5 exd5 Nc6 dxc6 e6 cxb7 Bxb7 N@c3"));
+        assertTrue(game.setPremoveTimeMs(100));
+        assertTrue(game.addPremove(Common.COLOR_WHITE, PackedMove.encode(2, 1, 3, 1, Common.PIECE_TYPE_ILLEGAL, false)));
+
+        game.reset(Common.GAME_KIND_REGULAR);
+        assertEquals(0, game.getPremoveTimeMs());
+        assertEquals(0, game.getPremoveCount(Common.COLOR_WHITE));
+        Game newGame = new Game(Common.GAME_KIND_REGULAR);
+        assertEquals(FEN.getFENString(newGame), FEN.getFENString(game));
+        assertEquals(newGame.getPositionHash(), game.getPositionHash());
+        assertEquals(Common.GAME_KIND_REGULAR, game.getGameKind());
+        assertEquals(0, game.getCurrentMove());
+        assertEquals("", game.getMoveListAlg());
+        assertTrue(game.noCapturedPieces());
+        assertNull(game.getWhiteName());
+        assertNull(game.getAttribute(PGN.STR_EVENT));
+        assertEquals(newGame.getValidNextMoves().size(), game.getValidNextMoves().size());
+        assertTrue(game.playMoveList("e4 e5 Nf3"));
+
+        String fen = "r1b2n1Q~/pppp1kr1/4pNpp/1N2n3/1b6/4PPQP/PPP1BB2/R4K2[QPPr] w - - 0 37";
+        assertTrue(game.reset(0, fen));
+        assertEquals(Common.GAME_KIND_CRAZY_HOUSE, game.getGameKind());
+        assertEquals(fen, FEN.getFENString(game));
+        assertEquals(FEN.loadGame(fen, 0).getPositionHash(), game.getPositionHash());
+        assertFalse(game.reset(Common.GAME_KIND_REGULAR, "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP w KQkq - 0 1"));
+
+        // pooled games are reused
+        GamePool pool = new GamePool(1);
+        Game pooled = pool.acquire(Common.GAME_KIND_REGULAR, FEN.FEN_INITIAL_POS);
+        assertNotNull(pooled);
+        assertTrue(pooled.playMove("e4"));
+        pool.release(pooled);
+        pool.release(new Game());
+        assertEquals(1, pool.size());
+        assertSame(pooled, pool.acquire(Common.GAME_KIND_SUICIDE));
+        assertEquals(Common.GAME_KIND_SUICIDE, pooled.getGameKind());
+        assertEquals(0, pooled.getCurrentMove());
+        assertEquals(1, pool.getReused());
+        assertEquals(1, pool.getCreated());
+
+        Game threadGame = GamePool.getThreadGame(Common.GAME_KIND_REGULAR, null);
+        assertSame(threadGame, GamePool.getThreadGame(0, "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1"));
+        assertEquals("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", FEN.getFENString(threadGame));
+
+        // PGN loading into a reused game
+        Game pgnGame = PGN.loadGame(game, "[Event \"e\"]\n1. e4 e5 2. Nf3 *");
+        assertSame(game, pgnGame);
+        assertEquals("e4 e5 Nf3", game.getMoveListAlg());
+        assertEquals("e", game.getAttribute(PGN.STR_EVENT));
+    }
+
+    @Test
+    public void test_StartPositionTemplates()
+    {
+        assertEquals("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w AHah - 0 1", FEN.create960FEN(518));
+        assertEquals("bbqnnrkr/pppppppp/8/8/8/8/PPPPPPPP/BBQNNRKR w FHfh - 0 1", FEN.create960FEN(0));
+        assertNull(FEN.create960FEN(960));
+        Set<String> positions = new HashSet<>();
+        for (int index = 0; index < FEN.FISCHER_POSITIONS; index++) {
+            String fen = FEN.create960FEN(index);
+            String row = fen.substring(fen.lastIndexOf('/') + 1, fen.indexOf(' '));
+            assertTrue(positions.add(row));
+            assertTrue(row.indexOf('R') < row.indexOf('K'));
+            assertTrue(row.indexOf('K') < row.lastIndexOf('R'));
+            assertTrue((row.indexOf('B') + row.lastIndexOf('B')) % 2 == 1);
+        }
+
+        // a game started from a template is the same as a game loaded from its FEN
+        int[] gkinds = {Common.GAME_KIND_REGULAR, Common.GAME_KIND_SUICIDE, Common.GAME_KIND_GRASSHOPER,
+                Common.GAME_KIND_MINICAPA, Common.GAME_KIND_CRAZY_HOUSE, Common.GAME_KIND_FISCHER};
+        for (int gkind : gkinds) {
+            Game game = new Game(gkind);
+            Game loaded = FEN.loadGame((String) game.getAttribute(Game.INITIAL_POSITION_FEN), gkind);
+            assertNotNull(loaded);
+            assertEquals(FEN.getFENString(loaded), FEN.getFENString(game));
+            assertEquals(loaded.getPositionHash(), game.getPositionHash());
+            assertEquals(loaded.getValidNextMoves().size(), game.getValidNextMoves().size());
+            for (Move move : game.getValidNextMoves()) {
+                assertSame(game, move.getGame());
+                assertSame(game.getPieceAt(move.getFromX(), move.getFromY()), move.getMovedPiece());
+                assertNotNull(loaded.getValidMove(move.getFromX(), move.getFromY(), move.getToX(), move.getToY(),
+                        move.getAdditionalPieceTypeInfo()));
+            }
+        }
+
+        Game game = new Game();
+        assertTrue(game.playMoveList("e4 e5 Nf3 Nc6 Bb5 a6 O-O"));
+        game.initialPosition();
+        assertEquals(FEN.FEN_INITIAL_POS, FEN.getFENString(game));
+        assertTrue(game.playMoveList("d4 d5"));
+        assertFalse(game.initialFischerPosition(518));
+
+        // Fischer 960 starts by Scharnagl number
+        game = new Game(Common.GAME_KIND_FISCHER);
+        assertTrue(game.initialFischerPosition(0));
+        assertEquals("bbqnnrkr/pppppppp/8/8/8/8/PPPPPPPP/BBQNNRKR w HFhf - 0 1", FEN.getFENString(game));
+        assertTrue(game.playMoveList("g3 g6 Nc3 Nc6"));
+        assertTrue(game.initialFischerPosition(959));
+        assertEquals(0, game.getCurrentMove());
+        assertEquals(FEN.getFENString(FEN.loadGame(FEN.create960FEN(959), Common.GAME_KIND_FISCHER)), FEN.getFENString(game));
+        assertFalse(game.initialFischerPosition(-1));
+    }
+
+    @Test
+    public void test_PGNHeaderScan() throws Exception
+    {
+        String pgn =
+                "\uFEFF[Event \"first\"]\n" +
+                "[White \"Fuchs, \\\"R\\\"\"]\n" +
+                "[Black \"Veizaj\"]\n" +
+                "[Result \"1-0\"]\n" +
+                "\n" +
+                "1. e4 {[%clk 0:03:00]\n[not a tag]} e5\n" +
+                "2. Nf3 Nc6 1-0\n" +
+                "\n" +
+                "[Event \"no moves\"]\n" +
+                "[Event \"second\"]\n" +
+                "[Variant \"Suicide\"]\n" +
+                "  [Result \"*\"]\n" +
+                "1. e3 b5 *\n";
+        List<PGNHeader> headers = PGN.scanHeaders(pgn);
+        assertEquals(3, headers.size());
+
+        PGNHeader first = headers.get(0);
+        assertEquals(0, first.getIndex());
+        assertEquals(1, first.getOffset());
+        assertEquals("first", first.getTag(PGN.STR_EVENT));
+        assertEquals("Fuchs, \"R\"", first.getWhite());
+        assertEquals("Veizaj", first.getBlack());
+        assertEquals("1-0", first.getResult());
+        assertNull(first.getVariant());
+        assertEquals(Common.GAME_KIND_REGULAR, first.getGameKind());
+        assertEquals("[Event, White, Black, Result]", first.getTags().keySet().toString());
+        assertTrue(first.getMovetext().toString().startsWith("1. e4 {[%clk 0:03:00]\n[not a tag]} e5"));
+        assertTrue(first.getMovetext().toString().trim().endsWith("Nc6 1-0"));
+        assertEquals("e4 e5 Nf3 Nc6", first.getGame().getMoveListAlg());
+        assertSame(first.getGame(), first.getGame());
+
+        PGNHeader noMoves = headers.get(1);
+        assertEquals("no moves", noMoves.getTag(PGN.STR_EVENT));
+        assertEquals(pgn.indexOf("[Event \"no moves\""), noMoves.getOffset());
+        assertEquals(0, noMoves.getMovetext().length());
+
+        PGNHeader second = headers.get(2);
+        assertEquals(2, second.getIndex());
+        assertEquals("*", second.getResult());
+        assertEquals(Common.GAME_KIND_SUICIDE, second.getGameKind());
+        assertEquals(pgn.substring(pgn.indexOf("[Event \"second\"")), second.getText());
+        Game game = second.loadGame(new Game());
+        assertEquals(Common.GAME_KIND_SUICIDE, game.getGameKind());
+        assertEquals("e3 b5", game.getMoveListAlg());
+
+        // a PGN file scan gives the same games as a full load
+        PGNScanner scanner = new PGNScanner(new java.io.InputStreamReader(
+                new FileInputStream("test/pgn_files/fischerandom.pgn"), "UTF-8"));
+        int games = 0;
+        for (PGNHeader header = scanner.next(); header != null; header = scanner.next()) {
+            assertEquals(games, header.getIndex());
+            assertEquals(Common.GAME_KIND_FISCHER, header.getGameKind());
+            assertNotNull(header.getTag(PGN.STR_FEN));
+            if (games % 300 == 0) {
+                Game loaded = header.getGame();
+                assertNotNull(loaded);
+                assertEquals(Common.GAME_KIND_FISCHER, loaded.getGameKind());
+                assertEquals(header.getTag(PGN.STR_FEN), loaded.getAttribute(Game.INITIAL_POSITION_FEN));
+            }
+            games++;
+        }
+        scanner.close();
+        assertEquals(1066, games);
+    }
+
+    @Test
+    public void test_FastReplay()
+    {
+        Game game = Notation.playMoveList("Nf3 d5 d4 Nf6 Nbd2 Nbd7");
+        assertNotNull(game);
+        assertEquals("Nf3 d5 d4 Nf6 Nbd2 Nbd7", game.getMoveListAlg());
+
+        // valid moves are named on request
+        for (Move move : game.getValidNextMoves()) {
+            assertNotNull(move.getNameAlg());
+            assertNotNull(move.getNameNum());
+        }
+
+        game.takeback();
+        assertEquals("Nf3 d5 d4 Nf6 Nbd2", game.getMoveListAlg());
+        List<String> names = new ArrayList<String>();
+        for (Move move : game.getValidNextMoves()) {
+            names.add(move.getNameAlg());
+        }
+        assertTrue(names.contains("Nbd7"));
+        assertTrue(names.contains("Nfd7"));
+        assertTrue(game.playMove("Nfd7"));
+        assertEquals("Nf3 d5 d4 Nf6 Nbd2 Nfd7", game.getMoveListAlg());
+
+        Game pgnGame = PGN.loadGame("[Event \"replay\"]\n\n1. e4 e5 2. Nf3!? Nc6?! 3. Bb5 a6 4. Ba4 Nf6 5. O-O Be7 *\n");
+        assertNotNull(pgnGame);
+        assertEquals("e4 e5 Nf3 Nc6 Bb5 a6 Ba4 Nf6 O-O Be7", pgnGame.getMoveListAlg());
+    }
+
+    @Test
+    public void test_PGNWriter() throws Exception
+    {
+        Game first = Notation.playMoveList("e4 e5 Nf3 Nc6 Bb5");
+        first.setAttribute(PGN.STR_WHITE, "white {player}");
+        first.getMove(1).setComment("a {comment}");
+        Game second = new Game(Common.GAME_KIND_FISCHER);
+        second.playMove(second.getValidNextMoves().get(0));
+        List<Game> games = Arrays.asList(first, second);
+        String expected = PGN.getPGNString(first) + "\n" + PGN.getPGNString(second) + "\n";
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PGNWriter writer = new PGNWriter(out);
+        assertEquals(2, writer.writeAll(games));
+        writer.close();
+        assertEquals(2, writer.getGameCount());
+        assertEquals(expected.length(), writer.getLength());
+        assertEquals(expected, out.toString("UTF-8"));
+
+        // compressed to a channel, and read back
+        out = new ByteArrayOutputStream();
+        writer = new PGNWriter(Channels.newChannel(out), true);
+        assertEquals(2, writer.writeAll(games.iterator()));
+        writer.close();
+        Reader reader = new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())), "UTF-8");
+        StringBuilder text = new StringBuilder();
+        char[] chars = new char[256];
+        for (int length = reader.read(chars); length >= 0; length = reader.read(chars)) {
+            text.append(chars, 0, length);
+        }
+        reader.close();
+        assertEquals(expected, text.toString());
+
+        List<PGNHeader> headers = PGN.scanHeaders(text.toString());
+        assertEquals(2, headers.size());
+        assertEquals("e4 e5 Nf3 Nc6 Bb5", headers.get(0).getGame().getMoveListAlg());
+        assertEquals(second.getMoveListAlg(), headers.get(1).getGame().getMoveListAlg());
+        assertEquals(second.getAttribute(Game.INITIAL_POSITION_FEN), headers.get(1).getTag(PGN.STR_FEN));
+    }
+
+    @Test
+    public void test_GameJournal() throws Exception
+    {
+        File dir = File.createTempFile("journal", "");
+        assertTrue(dir.delete());
+        GameJournal journal = GameJournal.open(dir.getPath(), 4096, 5);
+        assertNotNull(journal);
+
+        Game timed = new Game("white", "black");
+        timed.setTimeLimitForGame(5);
+        timed.setTimeIncrementPerMove(2);
+        assertTrue(journal.attach(timed, 1));
+        assertFalse(journal.attach(timed, 1));
+        assertTrue(timed.playMoveList("e4 e5 Nf3 Nc6 Bb5 a6"));
+        timed.takeback();
+        timed.setTimeLeftMilliseconds(Common.COLOR_BLACK, 100000);
+        timed.offerDraw(Common.COLOR_BLACK);
+        timed.setReqPause(Common.COLOR_WHITE);
+
+        Game crazyhouse = new Game(Common.GAME_KIND_CRAZY_HOUSE);
+        assertTrue(journal.attach(crazyhouse, 2));
+        journal.setSyncCommit(true);
+        assertTrue(crazyhouse.playMoveList("e4 d5 exd5 Qxd5 Nc3 Qa5 P@e6"));
+        crazyhouse.resign(Common.COLOR_BLACK);
+        journal.setSyncCommit(false);
+
+        Game detached = new Game();
+        assertTrue(journal.attach(detached, 3));
+        assertTrue(detached.playMove("d4"));
+        assertTrue(journal.detach(3));
+        assertFalse(journal.detach(3));
+        assertTrue(detached.playMove("d5"));
+
+        // attached after its first moves, and filling a few segments
+        Game busy = Notation.playMoveList("d4 Nf6 c4");
+        assertTrue(journal.attach(busy, 4));
+        for (int i = 0; i < 200; i++) {
+            assertTrue(busy.playMove("e6"));
+            busy.takeback();
+        }
+        assertTrue(busy.playMove("g6"));
+        assertTrue(journal.commit());
+        journal.close();
+        assertTrue(dir.list().length > 1);
+
+        Map<Long, Game> recovered = GameJournal.recover(dir.getPath(), 3);
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 4L)), recovered.keySet());
+        Game game = recovered.get(1L);
+        assertEquals("e4 e5 Nf3 Nc6 Bb5", game.getMoveListAlg());
+        assertEquals("white", game.getWhiteName());
+        assertEquals(timed.getStoredTimeLeftMs(Common.COLOR_WHITE), game.getStoredTimeLeftMs(Common.COLOR_WHITE));
+        assertEquals(100000, game.getStoredTimeLeftMs(Common.COLOR_BLACK));
+        assertEquals(5, game.getTimeLimitForGame(Common.COLOR_WHITE));
+        assertEquals(2, game.getTimeIncrementForMove(Common.COLOR_BLACK));
+        assertTrue(game.drawOfferedBy(Common.COLOR_BLACK));
+        assertTrue(game.getReqPause(Common.COLOR_WHITE));
+        game = recovered.get(2L);
+        assertEquals(FEN.getFENString(crazyhouse), FEN.getFENString(game));
+        assertTrue(game.isEnded());
+        assertEquals(Common.COLOR_WHITE, game.getWinner());
+        assertEquals("d4 Nf6 c4 g6", recovered.get(4L).getMoveListAlg());
+
+        // recovered games are attached to a new journal, that replaces the old segments
+        journal = GameJournal.open(dir.getPath());
+        for (Map.Entry<Long, Game> entry : recovered.entrySet()) {
+            assertTrue(journal.attach(entry.getValue(), entry.getKey()));
+        }
+        assertTrue(recovered.get(4L).playMove("Nc3"));
+        assertTrue(journal.commit());
+        assertTrue(journal.removeOldSegments());
+        journal.close();
+        recovered = GameJournal.recover(dir.getPath(), 1);
+        assertEquals(3, recovered.size());
+        assertEquals(FEN.getFENString(crazyhouse), FEN.getFENString(recovered.get(2L)));
+        assertTrue(recovered.get(2L).isEnded());
+        assertEquals("d4 Nf6 c4 g6 Nc3", recovered.get(4L).getMoveListAlg());
+        for (File file : dir.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(dir.delete());
+    }
+
+    @Test
+    public void test_GameDeltaStream()
+    {
+        final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        GameObserver observer = new GameObserver() {
+            @Override
+            public void frameReceived(GameDeltaStream stream, ByteBuffer frame) {
+                frames.add(frame);
+            }
+        };
+        Game game = new Game(Common.GAME_KIND_CRAZY_HOUSE);
+        GameDeltaStream stream = new GameDeltaStream(game);
+        GameDelta snapshot = GameDelta.decode(stream.addObserver(observer));
+        assertEquals(GameDeltaStream.FRAME_SNAPSHOT, snapshot.getType());
+        assertEquals(FEN.getFENString(game), snapshot.getFEN());
+        assertEquals(32, snapshot.getChangedSquareCount());
+        byte[] board = new byte[64];
+        byte[][] pockets = new byte[Common.COLOR_NUM][Common.PIECE_TYPE_NUM];
+        snapshot.applyTo(board, pockets);
+
+        assertTrue(game.playMoveList("e4 d5 exd5 Qxd5 Nc3 Qa5 P@e6"));
+        game.takeback();
+        assertTrue(game.playMove("Bc4"));
+        game.offerDraw(Common.COLOR_WHITE);
+        game.resign(Common.COLOR_BLACK);
+        assertEquals(11, frames.size());
+        assertEquals(frames.size(), stream.getFrameCount());
+
+        int sequence = snapshot.getSequence();
+        for (ByteBuffer frame : frames) {
+            GameDelta delta = GameDelta.decode(frame);
+            assertEquals(++sequence, delta.getSequence());
+            delta.applyTo(board, pockets);
+        }
+        GameDelta capture = GameDelta.decode(frames.get(2));
+        assertEquals(GameListener.EVENT_MOVE, capture.getType());
+        assertEquals("exd5", capture.getMoveName());
+        assertEquals(2, capture.getChangedSquareCount());
+        assertEquals(1, capture.getChangedPocketCount());
+        assertTrue(frames.get(2).remaining() < 40);
+        GameDelta takeback = GameDelta.decode(frames.get(7));
+        assertEquals(GameListener.EVENT_TAKEBACK, takeback.getType());
+        assertEquals("P@e6", takeback.getMoveName());
+        assertEquals(Common.COLOR_WHITE, takeback.getColorToMove());
+        assertEquals(GameListener.EVENT_DRAW_OFFER, GameDelta.decode(frames.get(9)).getType());
+        GameDelta resign = GameDelta.decode(frames.get(10));
+        assertTrue(resign.isEnded());
+        assertEquals(Common.COLOR_WHITE, resign.getWinner());
+
+        // the spectator position matches a new snapshot
+        byte[] expectedBoard = new byte[64];
+        byte[][] expectedPockets = new byte[Common.COLOR_NUM][Common.PIECE_TYPE_NUM];
+        GameDelta.decode(stream.getSnapshotFrame()).applyTo(expectedBoard, expectedPockets);
+        assertArrayEquals(expectedBoard, board);
+        for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+            assertArrayEquals(expectedPockets[color], pockets[color]);
+        }
+
+        // castling changes the king and rook squares
+        Game regular = Notation.playMoveList("e4 e5 Nf3 Nc6 Bc4 Bc5");
+        stream = new GameDeltaStream(regular);
+        frames.clear();
+        stream.addObserver(observer);
+        assertTrue(regular.playMove("O-O"));
+        GameDelta castle = GameDelta.decode(frames.get(0));
+        assertEquals("O-O", castle.getMoveName());
+        assertEquals(4, castle.getChangedSquareCount());
+        assertEquals(0, castle.getChangedPocketCount());
+        stream.close();
+        assertTrue(regular.playMove("Nf6"));
+        assertEquals(1, frames.size());
+    }
+
+    @Test
+    public void test_CompactHistory()
+    {
+        String moveList = "e4 e5 Nf3 Nc6 Bb5 a6 Ba4 Nf6 O-O Be7 Re1 b5 Bb3 d6";
+        Game full = Notation.playMoveList(moveList);
+        Game compact = new Game();
+        assertTrue(compact.setCompactHistory(true));
+        for (String name : moveList.split(" ")) {
+            assertTrue(compact.playMove(name));
+        }
+        assertEquals(full.getMoveListAlg(), compact.getMoveListAlg());
+        assertEquals(full.getMoveListNum(), compact.getMoveListNum());
+        assertEquals(full.getPositionHash(), compact.getPositionHash());
+        assertNull(compact.getMoveInfo(3).getFenPosition());
+
+        // past valid moves are regenerated
+        for (int i = 0; i < full.getCurrentMove(); i++) {
+            List<String> expected = new ArrayList<String>();
+            for (Move move : full.getValidNextMovesFromMove(i)) {
+                expected.add(move.getNameAlg());
+            }
+            List<String> regenerated = new ArrayList<String>();
+            for (Move move : compact.getValidNextMovesFromMove(i)) {
+                regenerated.add(move.getNameAlg());
+            }
+            assertEquals(expected, regenerated);
+        }
+
+        // takeback restores a playable position
+        compact.takeback();
+        compact.takeback();
+        assertEquals(full.getValidNextMovesFromMove(12).size(), compact.getValidNextMoves().size());
+        assertTrue(compact.playMove("c3"));
+        assertTrue(compact.playMove("O-O"));
+
+        // repetitions are detected by hash
+        Game repeated = new Game();
+        repeated.setCompactHistory(true);
+        repeated.setAutoDrawOn3rdRepetition(true);
+        for (String name : "Nf3 Nf6 Ng1 Ng8 Nf3 Nf6 Ng1 Ng8".split(" ")) {
+            assertTrue(repeated.playMove(name));
+        }
+        assertTrue(repeated.isEnded());
+
+        // bug house games keep their full history
+        Game bughouse = new Game(Common.GAME_KIND_BUG_HOUSE);
+        assertFalse(bughouse.setCompactHistory(true));
+        assertFalse(bughouse.isCompactHistory());
+    }
+
+    @Test
+    public void test_AttacksAndStaticExchange()
+    {
+        Game game = FEN.loadGame("1k1r4/1pp4p/p7/4p3/8/P5P1/1PP4P/2K1R3 w - - 0 1", true, Common.GAME_KIND_REGULAR);
+        List<Piece> attackers = game.getAttackers(5, 5, Common.COLOR_WHITE);
+        assertEquals(1, attackers.size());
+        assertTrue(attackers.get(0).isRook());
+        assertFalse(game.isSquareAttacked(5, 5, Common.COLOR_BLACK));
+        assertTrue(game.isSquareAttacked(7, 3, Common.COLOR_BLACK));
+        // the undefended pawn is won
+        assertEquals(100, game.getStaticExchangeValue(new Move(game, 1, 5, 5, 5, Common.PIECE_TYPE_ILLEGAL)));
+        assertEquals(Arrays.asList(game.getPieceAt(5, 5)), game.getHangingPieces(Common.COLOR_BLACK));
+
+        // the knight takes a defended pawn and is lost
+        game = FEN.loadGame("1k1r3q/1ppn3p/p4b2/4p3/8/P2N2P1/1PP1R1BP/2K1Q3 w - - 0 1", true, Common.GAME_KIND_REGULAR);
+        assertEquals(2, game.getAttackers(5, 5, Common.COLOR_WHITE).size());
+        assertEquals(Arrays.asList(game.getPieceAt(1, 5)), game.getXRayAttackers(5, 5, Common.COLOR_WHITE));
+        assertEquals(100 - 320, game.getStaticExchangeValue(new Move(game, 3, 4, 5, 5, Common.PIECE_TYPE_ILLEGAL)));
+        assertTrue(game.getHangingPieces(Common.COLOR_BLACK).isEmpty());
+
+        // x-ray through a battery, and a king that can't recapture a defended piece
+        game = FEN.loadGame("3rk3/8/8/3q4/8/8/3R4/3RK3 w - - 0 1", true, Common.GAME_KIND_REGULAR);
+        assertEquals(Arrays.asList(game.getPieceAt(1, 4)), game.getXRayAttackers(5, 4, Common.COLOR_WHITE));
+        assertEquals(Arrays.asList(game.getPieceAt(8, 4)), game.getAttackers(5, 4, Common.COLOR_BLACK));
+        assertEquals(900, game.getStaticExchangeValue(new Move(game, 2, 4, 5, 4, Common.PIECE_TYPE_ILLEGAL)));
+        game = FEN.loadGame("3rk3/8/8/3q4/8/8/3R4/4K3 w - - 0 1", true, Common.GAME_KIND_REGULAR);
+        assertEquals(900 - 500, game.getStaticExchangeValue(new Move(game, 2, 4, 5, 4, Common.PIECE_TYPE_ILLEGAL)));
+        game = FEN.loadGame("8/8/8/8/8/2k5/3q4/3RK3 w - - 0 1", true, Common.GAME_KIND_REGULAR);
+        assertEquals(900, game.getStaticExchangeValue(new Move(game, 1, 4, 2, 4, Common.PIECE_TYPE_ILLEGAL)));
+        game = FEN.loadGame("8/8/8/8/8/2k5/3q4/3R3K w - - 0 1", true, Common.GAME_KIND_REGULAR);
+        assertEquals(900 - 500, game.getStaticExchangeValue(new Move(game, 1, 4, 2, 4, Common.PIECE_TYPE_ILLEGAL)));
+
+        // grasshoppers attack over a hurdle
+        game = FEN.loadGame("4k3/8/8/8/8/2p5/8/G3K3 w - - 0 1", true, Common.GAME_KIND_GRASSHOPER);
+        assertTrue(game.isSquareAttacked(4, 4, Common.COLOR_WHITE));
+        assertFalse(game.isSquareAttacked(5, 5, Common.COLOR_WHITE));
+
+        // the attackers of the enemy pieces match the reachability computed by the move generator
+        game = Notation.playMoveList("e4 e5 Nf3 Nc6 Bb5 a6 Ba4 Nf6 O-O Be7 Re1 b5 Bb3 d6 c3 O-O h3 Nb8 d4 Nbd7");
+        int color = game.getCurrentColor();
+        for (int x = 1; x <= 8; x++) {
+            for (int y = 1; y <= 8; y++) {
+                Piece target = game.getPieceAt(x, y);
+                if ((target == null) || target.isColor(color)) {
+                    continue;
+                }
+                Set<Piece> reaching = new HashSet<Piece>();
+                for (int a = 1; a <= 8; a++) {
+                    for (int b = 1; b <= 8; b++) {
+                        Piece piece = game.getPieceAt(a, b);
+                        if ((piece != null) && piece.isColor(color) && piece.isReachable(x, y)) {
+                            reaching.add(piece);
+                        }
+                    }
+                }
+                assertEquals(reaching.size(), game.getAttackers(x, y, color).size());
+            }
+        }
+    }
+
+    @Test
+    public void test_IncrementalReachability() throws Exception
+    {
+        // every analysed move cross checks the incremental reachability (an assertion error on a difference)
+        Game.setReachabilityCheck(true);
+        try {
+            int checked = 0;
+            for (String filename : new String[]{"test/pgn_files/fischerandom.pgn", "test/pgn_files/1001bwtc.pgn"}) {
+                PGNScanner scanner = new PGNScanner(new InputStreamReader(new FileInputStream(filename), "UTF-8"));
+                for (PGNHeader header = scanner.next(); header != null; header = scanner.next()) {
+                    if (header.getIndex() % 10 != 0) {
+                        continue;
+                    }
+                    Game game = header.getGame();
+                    if (game == null) {
+                        continue;
+                    }
+                    // take back and replay the last moves
+                    int moves = Math.min(game.getCurrentMove(), 6);
+                    int[] codes = new int[moves];
+                    for (int i = 0; i < moves; i++) {
+                        codes[i] = PackedMove.encode(game.getMove(game.getCurrentMove() - moves + i));
+                    }
+                    for (int i = 0; i < moves; i++) {
+                        game.takeback();
+                        game.getValidNextMoves();
+                    }
+                    for (int code : codes) {
+                        assertTrue(game.playMove(PackedMove.toMove(game, code)));
+                    }
+                    checked++;
+                }
+                scanner.close();
+            }
+            assertTrue(checked > 100);
+
+            // en passant, drops and grasshoppers
+            Game game = Notation.playMoveList("e4 Nf6 e5 d5 exd6 cxd6 d4 Qa5+ c3 Qxa2 Rxa2");
+            assertNotNull(game);
+            game = new Game(Common.GAME_KIND_CRAZY_HOUSE);
+            for (String move : "e4 d5 exd5 Qxd5 Nc3 Qe6+ Be2 Qxe2+ Qxe2 Nf6 Q@e5 P@e4".split(" ")) {
+                assertTrue(game.playMove(move));
+            }
+            game = new Game(Common.GAME_KIND_GRASSHOPER);
+            for (int i = 0; (i < 40) && !game.isEnded(); i++) {
+                List<Move> moves = game.getValidNextMoves();
+                assertTrue(game.playMove(moves.get((i * 7) % moves.size())));
+            }
+        } finally {
+            Game.setReachabilityCheck(false);
+        }
+    }
+
+    @Test
+    public void test_PackedMoveBuffer() throws Exception
+    {
+        Game game = Notation.playMoveList("e4 d5 Nf3 Nc6");
+        assertNotNull(game);
+        List<Move> moves = game.getValidNextMoves();
+        int[] buffer = new int[256];
+        int count = game.getValidNextMoves(buffer);
+        assertEquals(moves.size(), count);
+        assertEquals(count, game.getValidNextMoveCount());
+        int captures = 0;
+        for (int i = 0; i < count; i++) {
+            assertEquals(PackedMove.encode(moves.get(i)), buffer[i]);
+            assertSame(moves.get(i), game.getValidNextMove(buffer[i]));
+            if (PackedMove.isCapture(buffer[i])) {
+                captures++;
+                assertEquals("exd5", moves.get(i).getNameAlg());
+            }
+        }
+        assertEquals(1, captures);
+        // a short buffer is filled up to its length
+        assertEquals(4, game.getValidNextMoves(new int[4]));
+
+        // the identity of a packed move does not include the capture flag
+        int capture = PackedMove.encode(4, 5, 5, 4, Common.PIECE_TYPE_ILLEGAL, false) | PackedMove.CAPTURE_FLAG;
+        int illegal = PackedMove.encode(4, 5, 6, 5, Common.PIECE_TYPE_ILLEGAL, false);
+        assertNotNull(game.getValidNextMove(capture & PackedMove.MOVE_MASK));
+        assertNull(game.getValidNextMove(illegal));
+        assertFalse(game.playPackedMove(illegal));
+        assertTrue(game.playPackedMove(capture));
+        assertEquals("exd5", game.getMove(game.getCurrentMove() - 1).getNameAlg());
+        assertEquals("Qxd5", Notation.getMove(game, "Qxd5").getNameAlg());
+
+        // past positions
+        List<String> pastNames = new ArrayList<String>();
+        for (Move move : game.getValidNextMovesFromMove(1)) {
+            pastNames.add(move.getNameAlg());
+        }
+        assertEquals(20, pastNames.size());
+        assertTrue(pastNames.contains("d5"));
+        assertTrue(pastNames.contains("Nc6"));
+        assertFalse(pastNames.contains("exd5"));
+
+        // suicide : only captures are valid when a capture is possible
+        game = new Game(Common.GAME_KIND_SUICIDE);
+        assertTrue(game.playMove("e4"));
+        assertTrue(game.playMove("d5"));
+        count = game.getValidNextMoves(buffer);
+        assertEquals(1, count);
+        assertTrue(PackedMove.isCapture(buffer[0]));
+        assertEquals(1, game.getValidNextMoves().size());
+
+        // crazy house : a drop of any piece, and actual drops
+        game = new Game(Common.GAME_KIND_CRAZY_HOUSE);
+        for (String move : "e4 d5 exd5 Qxd5 Nc3".split(" ")) {
+            assertTrue(game.playMove(move));
+        }
+        count = game.getValidNextMoves(buffer);
+        int dropAny = 0;
+        for (int i = 0; i < count; i++) {
+            if (PackedMove.isDrop(buffer[i])) {
+                assertEquals(Common.PIECE_TYPE_DROP_ANY, PackedMove.additionalPieceType(buffer[i]));
+                dropAny++;
+            }
+        }
+        assertTrue(dropAny > 30);
+        int drop = PackedMove.encode(3, 5, 3, 5, Common.PIECE_TYPE_PAWN, true);
+        assertTrue(game.getValidNextMove(drop).isDropMove());
+        assertNull(game.getValidNextMove(PackedMove.encode(1, 5, 1, 5, Common.PIECE_TYPE_KNIGHT, true)));
+        assertTrue(game.playPackedMove(drop));
+        assertEquals("P@e3", game.getMove(game.getCurrentMove() - 1).getNameAlg());
+    }
+
+    @Test
+    public void test_LegalMoveShortCircuit() throws Exception
+    {
+        // a loaded position has a status, without its valid moves generated
+        Game game = FEN.loadGame("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", 0);
+        assertTrue(game.getCurrentMoveInfo().isMovesPending());
+        assertTrue(game.hasAnyLegalMove());
+        assertEquals(Game.STATUS_PLAYING, game.status());
+        assertTrue(game.getCurrentMoveInfo().isMovesPending());
+        assertEquals(20, game.getValidNextMoves().size());
+        assertFalse(game.getCurrentMoveInfo().isMovesPending());
+
+        // stalemate, checkmate and check
+        game = FEN.loadGame("7k/5Q2/6K1/8/8/8/8/8 b - - 0 1", 0);
+        assertFalse(game.hasAnyLegalMove());
+        assertEquals(Game.STATUS_STALEMATE, game.status());
+        game = FEN.loadGame("7k/6Q1/6K1/8/8/8/8/8 b - - 0 1", 0);
+        assertEquals(Game.STATUS_CHECKMATE, game.status());
+        game = FEN.loadGame("7k/8/6K1/8/8/8/8/7Q b - - 0 1", 0);
+        assertEquals(Game.STATUS_CHECK, game.status());
+        assertTrue(game.hasAnyLegalMove());
+        // pinned pieces, castling and pawns
+        for (String fen : new String[]{"k7/8/1K6/8/8/8/8/r1B4q w - - 0 1", "k6r/8/8/8/8/8/7R/K7 w - - 0 1",
+                "8/8/8/8/8/6k1/4p3/4K2R w K - 0 1", "k7/8/8/8/8/8/p7/K7 w - - 0 1"}) {
+            _assertLegalMoveStatus(FEN.loadGame(fen, 0));
+        }
+
+        // the quick check agrees with the full generation along played games, in all variants
+        int positions = 0;
+        for (String filename : new String[]{"test/pgn_files/fischerandom.pgn", "test/pgn_files/1001bwtc.pgn"}) {
+            PGNScanner scanner = new PGNScanner(new InputStreamReader(new FileInputStream(filename), "UTF-8"));
+            for (PGNHeader header = scanner.next(); header != null; header = scanner.next()) {
+                if (header.getIndex() % 10 != 0) {
+                    continue;
+                }
+                Game played = header.getGame();
+                if (played == null) {
+                    continue;
+                }
+                Game replay = new Game(played.getGameKind());
+                replay.reset(played.getGameKind(), (String) played.getAttribute(Game.INITIAL_POSITION_FEN));
+                for (int i = 0; i < played.getCurrentMove(); i++) {
+                    _assertLegalMoveStatus(replay);
+                    assertTrue(replay.playPackedMove(PackedMove.encode(played.getMove(i))));
+                    positions++;
+                }
+                _assertLegalMoveStatus(replay);
+            }
+            scanner.close();
+        }
+        assertTrue(positions > 500);
+        for (int gkind : new int[]{Common.GAME_KIND_SUICIDE, Common.GAME_KIND_GRASSHOPER, Common.GAME_KIND_CRAZY_HOUSE,
+                Common.GAME_KIND_MINICAPA}) {
+            for (int seed = 1; seed <= 3; seed++) {
+                game = new Game(gkind);
+                Random random = new Random(seed);
+                for (int i = 0; (i < 80) && !game.isEnded(); i++) {
+                    _assertLegalMoveStatus(game);
+                    List<Move> moves = new ArrayList<Move>();
+                    for (Move move : game.getValidNextMoves()) {
+                        if (!move.isDropMove()) {
+                            moves.add(move);
+                        }
+                    }
+                    if (moves.isEmpty()) {
+                        break;
+                    }
+                    assertTrue(game.playMove(moves.get(random.nextInt(moves.size()))));
+                }
+                _assertLegalMoveStatus(game);
+            }
+        }
+    }
+
+    private void _assertLegalMoveStatus(Game game)
+    {
+        // the status is decided before the valid moves are generated
+        boolean any = game.hasAnyLegalMove();
+        int status = game.status();
+        int count = game.getValidNextMoves().size();
+        if ((count > 0) != any) {
+            fail("legal move status differs from the valid moves in " + FEN.getFENString(game));
+        }
+        if (count == 0) {
+            assertTrue((status == Game.STATUS_CHECKMATE) || (status == Game.STATUS_STALEMATE));
+        }
+    }
+
+    @Test
+    public void test_PremoveQueue() throws Exception
+    {
+        final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        Game game = new Game();
+        game.setTimeLimitForGame(5);
+        assertTrue(game.setPremoveTimeMs(100));
+        GameDeltaStream stream = new GameDeltaStream(game);
+        stream.addObserver(new GameObserver() {
+            @Override
+            public void frameReceived(GameDeltaStream stream, ByteBuffer frame) {
+                frames.add(frame);
+            }
+        });
+        final List<String> queues = new ArrayList<String>();
+        game.addListener(new GameListener() {
+            @Override
+            public void gameChanged(Game game, int event, int color, long value, Move move) {
+                if (event == EVENT_PREMOVES_CHANGED) {
+                    queues.add(Common.getColor(color) + value);
+                }
+            }
+        });
+        long fullTime = 5 * TimeUtils.MS_IN_MINUTE;
+        int none = Common.PIECE_TYPE_ILLEGAL;
+
+        assertTrue(game.playMove("e4"));
+        // Nf3 after any move, then Bc4 only after Nc6
+        assertTrue(game.addPremove(Common.COLOR_WHITE, PackedMove.encode(1, 7, 3, 6, none, false)));
+        assertTrue(game.addPremove(Common.COLOR_WHITE, PackedMove.encode(1, 6, 4, 3, none, false),
+                PackedMove.encode(8, 2, 6, 3, none, false)));
+        assertEquals(2, game.getPremoveCount(Common.COLOR_WHITE));
+        fakeNowInMilliseconds.set(fakeNowInMilliseconds.get() + (10 * TimeUtils.MS_IN_SECOND));
+        assertTrue(game.playMove("e5"));
+        // the premove was played inside the black move, and charged the premove time
+        assertEquals(3, game.getCurrentMove());
+        assertEquals(Common.COLOR_BLACK, game.getCurrentColor());
+        Move premove = game.getLastMove();
+        assertEquals("Nf3", premove.getNameAlg());
+        assertTrue(premove.isPremove());
+        assertFalse(game.getMove(1).isPremove());
+        assertEquals(100, premove.getMoveTime());
+        assertEquals(fullTime - 100, game.getTimeLeftMs(Common.COLOR_WHITE));
+        assertEquals(fullTime - 10 * TimeUtils.MS_IN_SECOND, game.getTimeLeftMs(Common.COLOR_BLACK));
+        assertEquals(1, game.getPremoveCount(Common.COLOR_WHITE));
+
+        // black did not play Nc6 - the white queue is cleared
+        assertTrue(game.playMove("d6"));
+        assertEquals(0, game.getPremoveCount(Common.COLOR_WHITE));
+        assertEquals(Common.COLOR_WHITE, game.getCurrentColor());
+
+        // a premove of the color to move is played at once, charged its clock time
+        fakeNowInMilliseconds.set(fakeNowInMilliseconds.get() + (2 * TimeUtils.MS_IN_SECOND));
+        assertTrue(game.addPremove(Common.COLOR_WHITE, PackedMove.encode(1, 6, 4, 3, none, false),
+                PackedMove.encode(7, 4, 6, 4, none, false)));
+        assertEquals("Bc4", game.getLastMove().getNameAlg());
+        assertEquals(fullTime - 100 - 2 * TimeUtils.MS_IN_SECOND, game.getTimeLeftMs(Common.COLOR_WHITE));
+
+        // an invalid premove clears the queue
+        assertTrue(game.addPremove(Common.COLOR_BLACK, PackedMove.encode(8, 1, 5, 1, none, false)));
+        assertEquals(0, game.getPremoveCount(Common.COLOR_BLACK));
+        assertEquals(Common.COLOR_BLACK, game.getCurrentColor());
+        assertEquals(5, game.getCurrentMove());
+
+        // premoves of both colors follow one another
+        assertTrue(game.addPremove(Common.COLOR_WHITE, PackedMove.encode(2, 4, 3, 4, none, false)));
+        assertTrue(game.addPremove(Common.COLOR_BLACK, PackedMove.encode(8, 2, 6, 3, none, false)));
+        assertEquals(Common.COLOR_BLACK, game.getCurrentColor());
+        assertEquals(7, game.getCurrentMove());
+        assertEquals("Nc6", game.getMove(5).getNameAlg());
+        assertEquals("d3", game.getLastMove().getNameAlg());
+
+        // a takeback clears the queues
+        assertTrue(game.addPremove(Common.COLOR_WHITE, PackedMove.encode(2, 1, 3, 1, none, false)));
+        assertEquals(1, game.getPremoveCount(Common.COLOR_WHITE));
+        game.takeback();
+        assertEquals(0, game.getPremoveCount(Common.COLOR_WHITE));
+        assertFalse(game.addPremove(Common.COLOR_WHITE, PackedMove.NONE));
+        game.resign(Common.COLOR_BLACK);
+        assertFalse(game.addPremove(Common.COLOR_WHITE, PackedMove.encode(2, 1, 3, 1, none, false)));
+
+        // spectators see the premoves only once played
+        int premoves = 0;
+        for (ByteBuffer frame : frames) {
+            GameDelta delta = GameDelta.decode(frame);
+            assertTrue(delta.getType() != GameListener.EVENT_PREMOVES_CHANGED);
+            if (delta.isPremove()) {
+                assertEquals(GameListener.EVENT_MOVE, delta.getType());
+                premoves++;
+            }
+        }
+        assertEquals(4, premoves);
+        stream.close();
+
+        // the player sees the queue changes, including the played premoves
+        String white = Common.getColor(Common.COLOR_WHITE);
+        String black = Common.getColor(Common.COLOR_BLACK);
+        assertEquals(Arrays.asList(white + 1, white + 2, white + 1, white + 0, white + 1, white + 0, black + 1,
+                black + 0, white + 1, black + 1, black + 0, white + 0, white + 1, white + 0), queues);
+    }
+
+    @Test
+    public void test_MoveValidator() throws Exception
+    {
+        MoveValidator validator = new MoveValidator();
+        String start = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+        MoveValidator.Position position = validator.getPosition(start, 0);
+        assertNotNull(position);
+        assertEquals(20, position.getMoveCount());
+        assertEquals(Game.STATUS_PLAYING, position.getStatus());
+        assertEquals(0, validator.getHits());
+        assertEquals(1, validator.getMisses());
+        // the move counters are not part of the position
+        assertSame(position, validator.getPosition("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 7 12", 0));
+        assertEquals(1, validator.getHits());
+
+        // the validator follows the game, move by move
+        _assertValidatorLine(validator, Common.GAME_KIND_REGULAR, "e4 e5 Nf3 Nc6 Bb5 a6 Ba4 Nf6 O-O Be7 d4 exd4 e5");
+        _assertValidatorLine(validator, Common.GAME_KIND_REGULAR, "f3 e5 g4 Qh4");
+        _assertValidatorLine(validator, Common.GAME_KIND_CRAZY_HOUSE, "e4 d5 exd5 Qxd5 Nc3 Qa5 P@e6 Nf6");
+        long hits = validator.getHits();
+        _assertValidatorLine(validator, Common.GAME_KIND_REGULAR, "e4 e5 Nf3 Nc6 Bb5 a6 Ba4 Nf6 O-O Be7 d4 exd4 e5");
+        // a position request and a move request for each move, and the final position
+        assertEquals(hits + 27, validator.getHits());
+        assertTrue(validator.getHitRate() > 0.3);
+
+        // numeric names, other notations and illegal moves
+        String e4 = validator.playMove(start, 0, "e2e4");
+        assertEquals("rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq - 0 1", e4);
+        assertEquals(e4, validator.playMove(start, 0, "e4"));
+        assertEquals(validator.playMove(e4, 0, "Nf6"), validator.playMove(e4, 0, "Ng8-f6"));
+        assertNull(validator.playMove(start, 0, "e5"));
+        assertNull(validator.playMove("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBN w KQkq - 0 1", 0, "e4"));
+        assertNull(validator.getPosition("8/8/8/8/8/8/8/8 w - - 0 1", Common.GAME_KIND_REGULAR));
+
+        // successor keys
+        int index = position.indexOf("e4");
+        assertTrue(index >= 0);
+        assertEquals(position.getSuccessorKey(index), validator.getPosition(e4, 0).getKey());
+        assertSame(validator.getPosition(e4, 0), validator.getSuccessor(position, index));
+
+        // size based eviction
+        validator.clear();
+        assertEquals(0, validator.size());
+        validator = new MoveValidator(32);
+        for (int i = 0; i < position.getMoveCount(); i++) {
+            MoveValidator.Position successor = validator.getSuccessor(position, i);
+            for (int j = 0; j < successor.getMoveCount(); j += 4) {
+                assertNotNull(validator.getSuccessor(successor, j));
+            }
+        }
+        assertTrue(validator.size() <= 32);
+        assertEquals(validator.getMisses() - validator.size(), validator.getEvictions());
+    }
+
+    /*
+     * play a line with the validator and with a game, and compare the positions after each move
+     */
+    private void _assertValidatorLine(MoveValidator validator, int gkind, String line)
+    {
+        Game game = new Game(gkind);
+        String fen = FEN.getFENString(game);
+        for (String move : line.split(" ")) {
+            MoveValidator.Position position = validator.getPosition(fen, gkind);
+            assertNotNull(position);
+            if (gkind == Common.GAME_KIND_REGULAR) {
+                assertEquals(game.getValidNextMoves().size(), position.getMoveCount());
+            }
+            assertTrue(game.playMove(move));
+            fen = validator.playMove(fen, gkind, move);
+            assertEquals(FEN.getFENString(game), fen);
+        }
+        assertEquals(game.status(), validator.getPosition(fen, gkind).getStatus());
+    }
+
+    @Test
+    public void test_GameSnapshot() throws Exception
+    {
+        Game game = new Game();
+        game.setWhiteName("white player");
+        game.setBlackName("black player");
+        game.setRated(true);
+        game.setTimeLimitForGame(5);
+        game.setTimeIncrementPerMove(2);
+        game.setPremoveTimeMs(50);
+        game.setAttribute("string", "value");
+        game.setAttribute("integer", 7);
+        game.setAttribute("long", 1L << 40);
+        game.setAttribute("boolean", true);
+        for (String move : "e4 e5 Nf3 Nc6".split(" ")) {
+            fakeNowInMilliseconds.set(fakeNowInMilliseconds.get() + (3 * TimeUtils.MS_IN_SECOND));
+            assertTrue(game.playMove(move));
+        }
+        game.offerDraw(Common.COLOR_WHITE);
+        game.setReqTakeback(Common.COLOR_BLACK);
+        assertTrue(game.addPremove(Common.COLOR_BLACK, PackedMove.encode(8, 7, 6, 6, Common.PIECE_TYPE_ILLEGAL, false)));
+        // the white clock is running
+        fakeNowInMilliseconds.set(fakeNowInMilliseconds.get() + (4 * TimeUtils.MS_IN_SECOND));
+
+        ByteBuffer snapshot = GameSnapshot.write(game);
+        assertNotNull(snapshot);
+        Game restored = GameSnapshot.read(snapshot.duplicate());
+        assertNotNull(restored);
+        _assertSameGame(game, restored);
+        assertEquals(1, restored.getPremoveCount(Common.COLOR_BLACK));
+        assertEquals(game.getPremove(Common.COLOR_BLACK, 0), restored.getPremove(Common.COLOR_BLACK, 0));
+        assertEquals(50, restored.getPremoveTimeMs());
+        // the restored clock keeps running
+        fakeNowInMilliseconds.set(fakeNowInMilliseconds.get() + (5 * TimeUtils.MS_IN_SECOND));
+        assertEquals(game.getTimeLeftMs(Common.COLOR_WHITE), restored.getTimeLeftMs(Common.COLOR_WHITE));
+        // the first move is not charged
+        assertEquals(5 * TimeUtils.MS_IN_MINUTE + 2 * 2000 - 3000 - 9000, restored.getTimeLeftMs(Common.COLOR_WHITE));
+        // and the restored game plays on, with its premoves
+        assertTrue(restored.playMove("Bb5"));
+        assertEquals("Nf6", restored.getLastMove().getNameAlg());
+        assertTrue(restored.getLastMove().isPremove());
+        restored.takeback();
+        restored.takeback();
+        assertEquals(FEN.getFENString(game), FEN.getFENString(restored));
+
+        // paused and ended games
+        game.pauseGame();
+        _assertSameGame(game, GameSnapshot.read(GameSnapshot.write(game)));
+        game.resumeGame();
+        game.resign(Common.COLOR_BLACK);
+        restored = GameSnapshot.read(GameSnapshot.write(game));
+        _assertSameGame(game, restored);
+        assertEquals(Common.COLOR_WHITE, restored.getWinner());
+
+        // a bug house pair, with a drop of a piece captured in the other game
+        Game game1 = new Game(Common.GAME_KIND_BUG_HOUSE);
+        Game game2 = new Game(Common.GAME_KIND_BUG_HOUSE);
+        game1.setOtherGame(game2);
+        game2.setOtherGame(game1);
+        String[][] moves = {{"e4", "d5", "exd5"}, {"e4", "P@f3"}, {"Qxd5", "Nc3"}};
+        for (int i = 0; i < moves.length; i++) {
+            for (String move : moves[i]) {
+                fakeNowInMilliseconds.set(fakeNowInMilliseconds.get() + TimeUtils.MS_IN_SECOND);
+                assertTrue(((i == 1) ? game2 : game1).playMove(move));
+            }
+        }
+        restored = GameSnapshot.read(GameSnapshot.write(game2));
+        assertNotNull(restored);
+        assertNotNull(restored.getOtherGame());
+        assertSame(restored, restored.getOtherGame().getOtherGame());
+        _assertSameGame(game2, restored);
+        _assertSameGame(game1, restored.getOtherGame());
+
+        // invalid snapshots
+        ByteBuffer small = ByteBuffer.allocate(16);
+        assertEquals(0, GameSnapshot.write(game, small));
+        assertEquals(0, small.position());
+        ByteBuffer truncated = GameSnapshot.write(game);
+        truncated.limit(truncated.limit() - 3);
+        assertNull(GameSnapshot.read(truncated));
+        assertNull(GameSnapshot.read(ByteBuffer.wrap(new byte[64])));
+
+        // bad counts are rejected, instead of reading the rest of the snapshot from the wrong offset
+        Game empty = new Game();
+        int premovesOffset = 4 + 2 + 1 + 4 + 1 + _snapshotStringSize(empty.getWhiteName()) +
+                _snapshotStringSize(empty.getBlackName()) +
+                _snapshotStringSize((String) empty.getAttribute(Game.INITIAL_POSITION_FEN)) + 29;
+        int movesOffset = premovesOffset + 1 + 29 + 1 + 4;
+        int attributesOffset = movesOffset + 4 + 4 + _snapshotStringSize(empty.getEndString());
+        assertNotNull(GameSnapshot.read(GameSnapshot.write(empty)));
+        ByteBuffer bad = GameSnapshot.write(empty);
+        bad.put(premovesOffset, (byte) (Game.MAX_PREMOVES + 1));
+        assertNull(GameSnapshot.read(bad));
+        bad = GameSnapshot.write(empty);
+        bad.put(premovesOffset, (byte) -1);
+        assertNull(GameSnapshot.read(bad));
+        bad = GameSnapshot.write(empty);
+        bad.putInt(movesOffset, -1);
+        assertNull(GameSnapshot.read(bad));
+        bad = GameSnapshot.write(empty);
+        bad.putInt(movesOffset, 1000);
+        assertNull(GameSnapshot.read(bad));
+        bad = GameSnapshot.write(empty);
+        bad.putShort(attributesOffset, (short) -1);
+        assertNull(GameSnapshot.read(bad));
+        bad = GameSnapshot.write(empty);
+        bad.putInt(4 + 2 + 1, Common.GAME_KIND_NUM);
+        assertNull(GameSnapshot.read(bad));
+    }
+
+    /*
+     * the size of a string in a game snapshot
+     */
+    private int _snapshotStringSize(String str) throws Exception
+    {
+        return 2 + ((str == null) ? 0 : str.getBytes("UTF-8").length);
+    }
+
+    /*
+     * assert that a restored game is identical to the snapshot game
+     */
+    private void _assertSameGame(Game game, Game restored)
+    {
+        assertNotNull(restored);
+        assertEquals(game.getGameKind(), restored.getGameKind());
+        assertEquals(FEN.getFENString(game), FEN.getFENString(restored));
+        assertEquals(game.getMoveListAlg(), restored.getMoveListAlg());
+        assertEquals(game.getWhiteName(), restored.getWhiteName());
+        assertEquals(game.getBlackName(), restored.getBlackName());
+        assertEquals(game.isRated(), restored.isRated());
+        assertEquals(game.isPaused(), restored.isPaused());
+        assertEquals(game.isEnded(), restored.isEnded());
+        assertEquals(game.getWinner(), restored.getWinner());
+        assertEquals(game.getEndString(), restored.getEndString());
+        assertEquals(game.getAttributes(), restored.getAttributes());
+        for (String key : game.getAttributes()) {
+            assertEquals(key, game.getAttribute(key), restored.getAttribute(key));
+        }
+        for (int color = Common.COLOR_WHITE; color <= Common.COLOR_BLACK; color++) {
+            assertEquals(game.getTimeLeftMs(color), restored.getTimeLeftMs(color));
+            assertEquals(game.getClockStartedTime(color), restored.getClockStartedTime(color));
+            assertEquals(game.getClockDuration(color), restored.getClockDuration(color));
+            assertEquals(game.drawOfferedBy(color), restored.drawOfferedBy(color));
+            assertEquals(game.getReqPause(color), restored.getReqPause(color));
+            assertEquals(game.getReqTakeback(color), restored.getReqTakeback(color));
+            assertEquals(game.getPremoveCount(color), restored.getPremoveCount(color));
+            assertEquals(game.getDroppablePieces(color).size(), restored.getDroppablePieces(color).size());
+        }
+        for (int i = 0; i < game.getCurrentMove(); i++) {
+            assertEquals(game.getMove(i).getMoveTime(), restored.getMove(i).getMoveTime());
+            assertEquals(game.getMove(i).getTimePlayed(), restored.getMove(i).getTimePlayed());
+        }
+    }
+
+    @Test
+    public void test_PlayEveryValidMove()
+    {
+        // a fischer king step and castling to the same square, and a grasshopper capture, are generated twice
+        String[] fens = {
+                "1rnkrb1q/pp3p1b/1n4p1/2ppp2p/5PP1/PNP5/1P1PP2P/NR1KRBBQ w EBeb - 0 9",
+                "rnb2qnr/G2gbk1g/1pppp1pp/p2g1pG1/1PNP1G2/P1g1PNPP/RG1BQGGR/4KB2 w - - 0 18",
+        };
+        for (String fen : fens) {
+            Game game = FEN.loadGame(fen, 0);
+            assertNotNull(game);
+            List<Move> moves = new ArrayList<Move>(game.getValidNextMoves());
+            Set<String> names = new HashSet<String>();
+            for (Move move : moves) {
+                assertTrue(move.getNameAlg(), names.add(move.getNameAlg()));
+            }
+            for (int i = 0; i < moves.size(); i++) {
+                Move move = game.getValidNextMoves().get(i);
+                assertTrue(fen + " " + move.getNameAlg(), game.playMove(move));
+                game.takeback();
+                assertEquals(fen, FEN.getFENString(game));
+            }
+        }
+    }
+
+    @Test
+    public void test_TakebackFischerCastling()
+    {
+        // the castling moves (king step and KxR) are taken back, also after another move was played and taken
+        // back from the same position
+        String fen = "1rnkrb1q/pp3p1b/1n4p1/2ppp2p/5PP1/PNP5/1P1PP2P/NR1KRBBQ w EBeb - 0 9";
+        Game game = FEN.loadGame(fen, 0);
+        assertNotNull(game);
+        List<String> names = new ArrayList<String>();
+        for (Move move : game.getValidNextMoves()) {
+            names.add(move.getNameAlg());
+        }
+        assertTrue(names.contains("O-O-O"));
+        for (String name : names) {
+            for (int i = 0; i < 2; i++) {
+                assertTrue(name, game.playMove(name));
+                game.takeback();
+                assertEquals(name, fen, FEN.getFENString(game));
+            }
+        }
+        Game castled = FEN.loadGame(fen, 0);
+        assertTrue(castled.playMove("O-O-O"));
+        assertTrue(castled.playMove(castled.getValidNextMoves().get(0)));
+        castled.takeback();
+        castled.takeback();
+        assertEquals(fen, FEN.getFENString(castled));
+    }
+
+    @Test
+    public void test_PastValidMoves()
+    {
+        // random games, whose past valid moves are never requested while they are the current position
+        String[] fens = {
+                null,
+                "1rnkrb1q/pp3p1b/1n4p1/2ppp2p/5PP1/PNP5/1P1PP2P/NR1KRBBQ w EBeb - 0 9",
+                "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        };
+        int[] kinds = {Common.GAME_KIND_CRAZY_HOUSE, Common.GAME_KIND_FISCHER, Common.GAME_KIND_REGULAR};
+        Random random = new Random(17);
+        for (int g = 0; g < fens.length; g++) {
+            Game game = (fens[g] == null) ? new Game(kinds[g]) : FEN.loadGame(fens[g], 0);
+            assertNotNull(game);
+            int[] codes = new int[256];
+            for (int i = 0; (i < 60) && !game.isEnded(); i++) {
+                int count = game.getValidNextMoves(codes);
+                int code = codes[random.nextInt(count)];
+                if (PackedMove.isDrop(code)) {
+                    Piece piece = game.getDroppablePieces(game.getCurrentColor()).get(0);
+                    code = PackedMove.encode(PackedMove.toX(code), PackedMove.toY(code), PackedMove.toX(code),
+                            PackedMove.toY(code), piece.getTypeWhenDropping(), true);
+                    if (game.getValidNextMove(code) == null) {
+                        code = codes[0];
+                    }
+                }
+                assertTrue(game.playPackedMove(code));
+            }
+
+            Game replay = (fens[g] == null) ? new Game(kinds[g]) : FEN.loadGame(fens[g], 0);
+            for (int i = 0; i < game.getCurrentMove(); i++) {
+                // the past moves are kept (not regenerated), and named as when they were the current position
+                List<Move> past = game.getValidNextMovesFromMove(i);
+                assertSame(past, game.getValidNextMovesFromMove(i));
+                // named while current (the played move is given its check suffix when played)
+                List<Move> current = replay.getValidNextMovesFromMove(i);
+                assertTrue(replay.playPackedMove(PackedMove.encode(game.getMove(i))));
+                assertEquals(current.size(), past.size());
+                for (int j = 0; j < past.size(); j++) {
+                    assertEquals(current.get(j).getNameNum(), past.get(j).getNameNum());
+                    assertEquals(current.get(j).getNameAlg(), past.get(j).getNameAlg());
+                    assertEquals(current.get(j).getMovedPiece().getType(), past.get(j).getMovedPiece().getType());
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,61 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.logging.LogManager;
+
+/**
+ * PGN benchmark - games per second of a header-only scan of a PGN file, against a scan that also replays
+ * every game. <br>
+ * Usage : ant benchmark -Dbenchmark=PGNBenchmark -Dbenchmark.args="[pgn file] [rounds]"
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class PGNBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        LogManager.getLogManager().reset();
+        String filename = (args.length > 0) ? args[0] : "test/pgn_files/fischerandom.pgn";
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        // warm up
+        scan(filename, false);
+        scan(filename, true);
+        for (int round = 0; round < rounds; round++) {
+            measure("header scan", filename, false);
+            measure("header scan and replay", filename, true);
+        }
+    }
+
+    private static void measure(String name, String filename, boolean replay) throws Exception {
+        long start = System.nanoTime();
+        int games = scan(filename, replay);
+        long time = System.nanoTime() - start;
+        System.out.println(name + " : " + games + " games in " + (time / 1000000) + " ms, " +
+                String.format("%.0f", games * 1e9 / time) + " games per second");
+    }
+
+    private static int scan(String filename, boolean replay) throws Exception {
+        PGNScanner scanner = new PGNScanner(new InputStreamReader(new FileInputStream(filename), "UTF-8"));
+        Game game = new Game();
+        int games = 0;
+        for (PGNHeader header = scanner.next(); header != null; header = scanner.next()) {
+            if (replay) {
+                header.loadGame(game);
+            }
+            games++;
+        }
+        scanner.close();
+        return games;
+    }
+}
@@ -0,0 +1,111 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.LogManager;
+
+/**
+ * PGN export benchmark - games per second of writing the games of a PGN file, as a PGN string per game written
+ * to a stream, against the streaming PGN writer (plain and gzip compressed). <br>
+ * Usage : ant benchmark -Dbenchmark=PGNWriterBenchmark -Dbenchmark.args="[pgn file] [copies] [rounds]"
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class PGNWriterBenchmark {
+
+    /**
+     * an output stream that only counts the written bytes
+     */
+    private static class CountingStream extends OutputStream {
+        long _count = 0;
+
+        @Override
+        public void write(int b) {
+            _count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            _count += len;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LogManager.getLogManager().reset();
+        String filename = (args.length > 0) ? args[0] : "test/pgn_files/fischerandom.pgn";
+        int copies = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+        List<Game> games = new ArrayList<Game>();
+        PGNScanner scanner = new PGNScanner(new InputStreamReader(new FileInputStream(filename), "UTF-8"));
+        for (PGNHeader header = scanner.next(); header != null; header = scanner.next()) {
+            Game game = header.getGame();
+            if (game != null) {
+                games.add(game);
+            }
+        }
+        scanner.close();
+        List<Game> exported = new ArrayList<Game>();
+        for (int i = 0; i < copies; i++) {
+            exported.addAll(games);
+        }
+        System.out.println("exporting " + exported.size() + " games");
+
+        // warm up
+        for (int i = 0; i < 2; i++) {
+            writeStrings(exported);
+            writeStream(exported, false);
+            writeStream(exported, true);
+        }
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            long bytes = writeStrings(exported);
+            report("PGN strings", exported.size(), bytes, System.nanoTime() - start);
+            start = System.nanoTime();
+            bytes = writeStream(exported, false);
+            report("PGN writer", exported.size(), bytes, System.nanoTime() - start);
+            start = System.nanoTime();
+            bytes = writeStream(exported, true);
+            report("PGN writer gzip", exported.size(), bytes, System.nanoTime() - start);
+        }
+    }
+
+    private static long writeStrings(List<Game> games) throws Exception {
+        CountingStream out = new CountingStream();
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        for (Game game : games) {
+            writer.write(PGN.getPGNString(game));
+            writer.write("\n");
+        }
+        writer.close();
+        return out._count;
+    }
+
+    private static long writeStream(List<Game> games, boolean compress) throws Exception {
+        CountingStream out = new CountingStream();
+        PGNWriter writer = new PGNWriter(out, compress);
+        writer.writeAll(games);
+        writer.close();
+        return out._count;
+    }
+
+    private static void report(String name, int games, long bytes, long time) {
+        System.out.println(name + " : " + games + " games, " + (bytes / 1024) + " KB in " + (time / 1000000) + " ms, " +
+                String.format("%.0f", games * 1e9 / time) + " games per second");
+    }
+}
@@ -0,0 +1,79 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.LogManager;
+
+/**
+ * Move generation benchmark - counts the leaf nodes to a given depth (perft), once with the valid moves as a
+ * list of Move objects and once with the packed move buffers (see {@link Game#getValidNextMoves(int[])}). <br>
+ * Usage : ant benchmark -Dbenchmark=PerftBenchmark -Dbenchmark.args="[depth]"
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class PerftBenchmark {
+
+    private static final String[] POSITIONS = {
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+    };
+
+    public static void main(String[] args) {
+        LogManager.getLogManager().reset();
+        int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+
+        System.out.println("depth " + depth + ", " + POSITIONS.length + " positions");
+        System.out.println("moves\ttime (ms)\tleaves\tleaves/sec");
+        for (boolean packed : new boolean[]{false, true}) {
+            long leaves = 0;
+            long start = System.nanoTime();
+            for (String fen : POSITIONS) {
+                Game game = FEN.loadGame(fen, 0);
+                leaves += packed ? perftPacked(game, depth, new int[depth + 1][256]) : perft(game, depth);
+            }
+            long timeMs = Math.max(1, (System.nanoTime() - start) / 1000000);
+            System.out.println((packed ? "packed" : "list") + "\t" + timeMs + "\t" + leaves + "\t" +
+                    (leaves * 1000 / timeMs));
+        }
+    }
+
+    private static long perft(Game game, int depth) {
+        List<Move> moves = new ArrayList<Move>(game.getValidNextMoves());
+        if (depth == 1) {
+            return moves.size();
+        }
+        long leaves = 0;
+        for (Move move : moves) {
+            game.playMove(move);
+            leaves += perft(game, depth - 1);
+            game.takeback();
+        }
+        return leaves;
+    }
+
+    private static long perftPacked(Game game, int depth, int[][] buffers) {
+        int[] buffer = buffers[depth];
+        int count = game.getValidNextMoves(buffer);
+        if (depth == 1) {
+            return count;
+        }
+        long leaves = 0;
+        for (int i = 0; i < count; i++) {
+            game.playPackedMove(buffer[i]);
+            leaves += perftPacked(game, depth - 1, buffers);
+            game.takeback();
+        }
+        return leaves;
+    }
+}
@@ -0,0 +1,76 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.LogManager;
+
+/**
+ * Game snapshot benchmark - writes and restores the games of a PGN file as live timed games (see
+ * {@link GameSnapshot}), and measures the time and size per game. <br>
+ * Usage : ant benchmark -Dbenchmark=SnapshotBenchmark -Dbenchmark.args="[pgn file]"
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class SnapshotBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        LogManager.getLogManager().reset();
+        String filename = (args.length > 0) ? args[0] : "test/pgn_files/fischerandom.pgn";
+
+        List<Game> games = new ArrayList<Game>();
+        long plies = 0;
+        PGNScanner scanner = new PGNScanner(new InputStreamReader(new FileInputStream(filename), "UTF-8"));
+        for (PGNHeader header = scanner.next(); header != null; header = scanner.next()) {
+            Game loaded = header.getGame();
+            if ((loaded == null) || loaded.isBugHouse()) {
+                continue;
+            }
+            Game game = new Game(loaded.getGameKind());
+            game.reset(loaded.getGameKind(), (String) loaded.getAttribute(Game.INITIAL_POSITION_FEN));
+            game.setTimeLimitForGame(5);
+            for (int i = 0; i < loaded.getCurrentMove(); i++) {
+                game.playMove(PackedMove.toMove(game, PackedMove.encode(loaded.getMove(i))));
+            }
+            games.add(game);
+            plies += game.getCurrentMove();
+        }
+        scanner.close();
+        System.out.println(games.size() + " games, " + plies + " half moves");
+
+        ByteBuffer buffer = ByteBuffer.allocate(64 << 20);
+        for (int round = 0; round < 3; round++) {
+            buffer.clear();
+            long start = System.nanoTime();
+            for (Game game : games) {
+                GameSnapshot.write(game, buffer);
+            }
+            long writeTime = System.nanoTime() - start;
+            int bytes = buffer.position();
+            buffer.flip();
+            start = System.nanoTime();
+            int restored = 0;
+            while (buffer.hasRemaining()) {
+                if (GameSnapshot.read(buffer) != null) {
+                    restored++;
+                }
+            }
+            long readTime = System.nanoTime() - start;
+            System.out.println("write " + (writeTime / 1000 / games.size()) + " us/game, read " +
+                    (readTime / 1000 / games.size()) + " us/game (" + restored + " restored), " +
+                    (bytes / games.size()) + " bytes/game");
+        }
+    }
+}
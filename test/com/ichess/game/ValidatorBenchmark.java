@@ -0,0 +1,70 @@
+//==============================================================================
+//            Copyright (c) 2009-2014 ichess.co.il
+//
+//This document contains confidential information which is protected by
+//copyright and is proprietary to ichess.co.il. No part
+//of this document may be used, copied, disclosed, or conveyed to another
+//party without prior written consent of ichess.co.il.
+//==============================================================================
+
+package com.ichess.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.LogManager;
+
+/**
+ * Move validation benchmark - answers "FEN + move" requests of a few repeated opening lines, once by loading
+ * each FEN into a new game and once with a {@link MoveValidator}. <br>
+ * Usage : ant benchmark -Dbenchmark=ValidatorBenchmark -Dbenchmark.args="[requests]"
+ *
+ * @author Ran Berenfeld
+ * @version 1.0
+ */
+public class ValidatorBenchmark {
+
+    private static final String[] LINES = {
+            "e4 e5 Nf3 Nc6 Bb5 a6 Ba4 Nf6 O-O Be7 Re1 b5 Bb3 d6 c3 O-O",
+            "e4 c5 Nf3 d6 d4 cxd4 Nxd4 Nf6 Nc3 a6 Be3 e5 Nb3 Be6 f3 Be7",
+            "d4 Nf6 c4 e6 Nc3 Bb4 e3 O-O Bd3 d5 Nf3 c5 O-O Nc6 a3 Bxc3",
+            "d4 d5 c4 c6 Nf3 Nf6 Nc3 dxc4 a4 Bf5 e3 e6 Bxc4 Bb4 O-O O-O",
+    };
+
+    public static void main(String[] args) {
+        LogManager.getLogManager().reset();
+        int requests = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+
+        List<String> fens = new ArrayList<String>();
+        List<String> moves = new ArrayList<String>();
+        for (String line : LINES) {
+            Game game = new Game();
+            for (String move : line.split(" ")) {
+                fens.add(FEN.getFENString(game));
+                moves.add(move);
+                game.playMove(move);
+            }
+        }
+
+        System.out.println(requests + " requests of " + fens.size() + " positions");
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            int length = 0;
+            for (int i = 0; i < requests; i++) {
+                Game game = FEN.loadGame(fens.get(i % fens.size()));
+                game.playMove(moves.get(i % fens.size()));
+                length += FEN.getFENString(game).length();
+            }
+            long loadTime = System.nanoTime() - start;
+
+            MoveValidator validator = new MoveValidator();
+            start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                length += validator.playMove(fens.get(i % fens.size()), 0, moves.get(i % fens.size())).length();
+            }
+            long validatorTime = System.nanoTime() - start;
+            System.out.println("load game " + (loadTime / requests) + " ns/request, validator " +
+                    (validatorTime / requests) + " ns/request, hit rate " + validator.getHitRate() +
+                    " (" + length + ")");
+        }
+    }
+}